@@ -0,0 +1,74 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast StopWatches are added to GroupedTimingStatistics, with and without rollup statistics and
+ * histograms. The StopWatches have tags with three levels, such as "service3.method7.success", so with rollups each
+ * StopWatch updates three TimingStatistics. Run with
+ * "mvn -Pbenchmarks test-compile exec:exec -Djmh.args='GroupedTimingStatisticsBenchmark -prof gc'".
+ *
+ * @author Alex Devine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class GroupedTimingStatisticsBenchmark {
+    private static final int NUM_STOPWATCHES = 1024;
+
+    @Param({"false", "true"})
+    public boolean createRollupStatistics;
+
+    @Param({"0", "2"})
+    public int histogramPrecision;
+
+    private StopWatch[] stopWatches;
+    private GroupedTimingStatistics statistics;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        stopWatches = new StopWatch[NUM_STOPWATCHES];
+        for (int i = 0; i < stopWatches.length; i++) {
+            String tag = "service" + random.nextInt(10) + ".method" + random.nextInt(10)
+                         + (random.nextInt(10) == 0 ? ".failure" : ".success");
+            stopWatches[i] = new StopWatch(1231944130105L + i, random.nextInt(1000), tag, null);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createStatistics() {
+        statistics = new GroupedTimingStatistics();
+        statistics.setCreateRollupStatistics(createRollupStatistics);
+        statistics.setHistogramPrecision(histogramPrecision);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_STOPWATCHES)
+    public GroupedTimingStatistics addStopWatch() {
+        for (StopWatch stopWatch : stopWatches) {
+            statistics.addStopWatch(stopWatch);
+        }
+        return statistics;
+    }
+}
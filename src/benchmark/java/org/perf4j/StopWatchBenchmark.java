@@ -0,0 +1,75 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.perf4j.javalog.JavaLogStopWatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures the cost of timing a block of code with a StopWatch, and of stopping a LoggingStopWatch whose logger is
+ * disabled, which is the overhead instrumented code pays in production when timing logs are turned off. Run with
+ * "mvn -Pbenchmarks test-compile exec:exec -Djmh.args='StopWatchBenchmark -prof gc'" to also see the
+ * bytes allocated per operation.
+ *
+ * @author Alex Devine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class StopWatchBenchmark {
+    private StopWatch stopWatch;
+    /**
+     * JDK loggers are only weakly referenced by the LogManager, so the benchmark keeps a reference to its logger.
+     */
+    private Logger disabledLogger;
+
+    @Setup
+    public void setUp() {
+        stopWatch = new StopWatch("benchmark.reused");
+        disabledLogger = Logger.getLogger(StopWatchBenchmark.class.getName());
+        disabledLogger.setLevel(Level.OFF);
+        disabledLogger.setUseParentHandlers(false);
+    }
+
+    @Benchmark
+    public String newStopWatchStartStop() {
+        return new StopWatch("benchmark.new").stop();
+    }
+
+    @Benchmark
+    public String reusedStopWatchStartStop() {
+        stopWatch.start();
+        return stopWatch.stop();
+    }
+
+    @Benchmark
+    public String loggingStopWatchStopWithLoggingDisabled() {
+        return new JavaLogStopWatch("benchmark.logging", disabledLogger).stop();
+    }
+
+    @Benchmark
+    public LoggingStopWatch loggingStopWatchStopQuietlyWithLoggingDisabled() {
+        LoggingStopWatch retVal = new JavaLogStopWatch("benchmark.logging", disabledLogger);
+        retVal.stopQuietly();
+        return retVal;
+    }
+}
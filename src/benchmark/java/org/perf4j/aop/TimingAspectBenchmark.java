@@ -0,0 +1,220 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.apache.log4j.AppenderSkeleton;
+import org.openjdk.jmh.annotations.*;
+import org.perf4j.LoggingStopWatch;
+import org.perf4j.StopWatch;
+import org.perf4j.beans.StopWatchFactory;
+import org.perf4j.beans.TimingEventSink;
+import org.perf4j.beans.TimingEventSinkManager;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Measures the overhead the @Profiled timing aspects add to each call of a profiled method, for each logging framework
+ * and for the AgnosticTimingAspect with a StopWatch that doesn't log anywhere, with 1 and 4 calling threads. Each
+ * call does what the aspect advice does: it clones the StopWatch for the logger and level of the Profiled annotation
+ * if the logger is enabled, and runs the profiled method (which does nothing) through runProfiledMethod. Three cases are measured:
+ * <ul>
+ * <li>disabled - the logger of the Profiled annotation is disabled
+ * <li>enabled - the logger is enabled, and its only appender discards the StopWatches
+ * <li>jexl - as enabled, but the tag and message contain JEXL expressions
+ * </ul>
+ * The commons-logging aspect logs through log4j, which commons-logging uses when it is on the classpath. The
+ * unprofiledCall benchmark is the cost of the call without the aspect. Run with
+ * "mvn -Pbenchmarks test-compile exec:exec -Djmh.args='TimingAspectBenchmark -prof gc'"; the gc.alloc.rate.norm
+ * result is the number of bytes allocated per call. The {@link ProfilingOverheadCalibrator} measures the same overhead
+ * for the methods of an application, with its real logging configuration.
+ *
+ * @author Alex Devine
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class TimingAspectBenchmark {
+    static final String LOGGER_NAME = "org.perf4j.aop.TimingAspectBenchmark";
+
+    @Param({"log4j", "slf4j", "commonslog", "javalog", "beans", "agnostic"})
+    public String aspectType;
+
+    @Param({"disabled", "enabled", "jexl"})
+    public String profilingCase;
+
+    private AgnosticTimingAspect aspect;
+    private Profiled profiled;
+    private boolean loggingEnabled;
+    /**
+     * JDK loggers are only weakly referenced by the LogManager, so the benchmark keeps a reference to its logger.
+     */
+    private java.util.logging.Logger javaLogger;
+
+    @Setup
+    public void setUp() throws Exception {
+        loggingEnabled = !"disabled".equals(profilingCase);
+        profiled = TimingAspectBenchmark.class
+                .getMethod("jexl".equals(profilingCase) ? "jexlProfiledMethod" : "profiledMethod",
+                           String.class, List.class)
+                .getAnnotation(Profiled.class);
+
+        if ("log4j".equals(aspectType) || "commonslog".equals(aspectType)) {
+            org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(LOGGER_NAME);
+            logger.setLevel(loggingEnabled ? org.apache.log4j.Level.INFO : org.apache.log4j.Level.WARN);
+            logger.setAdditivity(false);
+            logger.removeAllAppenders();
+            logger.addAppender(new AppenderSkeleton() {
+                protected void append(org.apache.log4j.spi.LoggingEvent event) { }
+
+                public boolean requiresLayout() { return false; }
+
+                public void close() { }
+            });
+            aspect = "log4j".equals(aspectType) ?
+                     new org.perf4j.log4j.aop.TimingAspect() :
+                     new org.perf4j.commonslog.aop.TimingAspect();
+        } else if ("slf4j".equals(aspectType)) {
+            LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+            ch.qos.logback.classic.Logger logger = lc.getLogger(LOGGER_NAME);
+            AppenderBase<LoggingEvent> appender = new AppenderBase<LoggingEvent>() {
+                protected void append(LoggingEvent event) { }
+            };
+            appender.setContext(lc);
+            appender.start();
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(loggingEnabled ? ch.qos.logback.classic.Level.INFO : ch.qos.logback.classic.Level.WARN);
+            aspect = new org.perf4j.slf4j.aop.TimingAspect();
+        } else if ("javalog".equals(aspectType)) {
+            javaLogger = java.util.logging.Logger.getLogger(LOGGER_NAME);
+            javaLogger.setLevel(loggingEnabled ? java.util.logging.Level.INFO : java.util.logging.Level.WARNING);
+            javaLogger.setUseParentHandlers(false);
+            javaLogger.addHandler(new Handler() {
+                public void publish(LogRecord record) { }
+
+                public void flush() { }
+
+                public void close() { }
+            });
+            aspect = new org.perf4j.javalog.aop.TimingAspect();
+        } else if ("beans".equals(aspectType)) {
+            //the bean StopWatches always log to the root sink, which discards them if it has no sinks
+            TimingEventSinkManager rootSink = new TimingEventSinkManager();
+            if (loggingEnabled) {
+                rootSink.addSink(new TimingEventSink() {
+                    public void start() { }
+
+                    public void stop() { }
+
+                    public void onTimingEvent(StopWatch stopWatch, Throwable e) { }
+                });
+            }
+            StopWatchFactory.setRootSink(rootSink);
+            aspect = new org.perf4j.beans.aop.TimingAspect();
+        } else {
+            aspect = new AgnosticTimingAspect() {
+                protected LoggingStopWatch newStopWatchPrototype(Profiled profiled) {
+                    //creates the StopWatch String like the others, but doesn't log it
+                    return new LoggingStopWatch() {
+                        public boolean isLogging() {
+                            return loggingEnabled;
+                        }
+
+                        protected void log(String stopWatchAsString, Throwable exception) { }
+                    };
+                }
+            };
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if ("beans".equals(aspectType)) {
+            StopWatchFactory.setRootSink(new TimingEventSinkManager());
+        }
+    }
+
+    /**
+     * The join point of each calling thread.
+     */
+    @State(Scope.Thread)
+    public static class JoinPointState {
+        AbstractJoinPoint joinPoint;
+
+        @Setup
+        public void setUp() {
+            final Object[] args = {"customer", Arrays.asList("a", "b", "c")};
+            joinPoint = new AbstractJoinPoint() {
+                public Object proceed() { return args.length; }
+
+                public Object getExecutingObject() { return this; }
+
+                public Object[] getParameters() { return args; }
+
+                public String getMethodName() { return "profiledMethod"; }
+
+                public Class<?> getDeclaringClass() { return TimingAspectBenchmark.class; }
+            };
+        }
+    }
+
+    @Profiled(tag = "benchmark.plain", logger = LOGGER_NAME)
+    public int profiledMethod(String name, List<String> items) {
+        return 0;
+    }
+
+    @Profiled(tag = "benchmark.{$0}", message = "items: {$1.size()}", logger = LOGGER_NAME)
+    public int jexlProfiledMethod(String name, List<String> items) {
+        return 0;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object unprofiledCall(JoinPointState state) throws Throwable {
+        return state.joinPoint.proceed();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object profiledCall1Thread(JoinPointState state) throws Throwable {
+        return profiledCall(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object profiledCall4Threads(JoinPointState state) throws Throwable {
+        return profiledCall(state);
+    }
+
+    private Object profiledCall(JoinPointState state) throws Throwable {
+        //this is what the aspect advice does
+        LoggingStopWatch stopWatch = aspect.newProfiledStopWatch(profiled, state.joinPoint.getMethodName());
+        if (stopWatch == null) {
+            return state.joinPoint.proceed();
+        }
+        return aspect.runProfiledMethod(state.joinPoint, profiled, stopWatch, true);
+    }
+}
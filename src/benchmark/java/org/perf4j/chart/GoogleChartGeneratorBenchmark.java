@@ -0,0 +1,71 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.chart;
+
+import org.openjdk.jmh.annotations.*;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.helpers.StatsValueRetriever;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of building the chart URL of a GoogleChartGenerator, which the graphing appenders do each time a
+ * chart is written, for a chart with 5 tags and a varying number of data points. Run with
+ * "mvn -Pbenchmarks test-compile exec:exec -Djmh.args='GoogleChartGeneratorBenchmark -prof gc'".
+ *
+ * @author Alex Devine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class GoogleChartGeneratorBenchmark {
+    @Param({"10", "20"})
+    public int dataPoints;
+
+    @Param({"MEAN", "TPS"})
+    public String statistic;
+
+    private GoogleChartGenerator chartGenerator;
+
+    @Setup
+    public void setUp() {
+        chartGenerator = new GoogleChartGenerator("TPS".equals(statistic) ?
+                                                  StatsValueRetriever.TPS :
+                                                  StatsValueRetriever.MEAN);
+        chartGenerator.setMaxDataPoints(dataPoints);
+        Random random = new Random(0L);
+        long startTime = 1231944120000L;
+        for (int i = 0; i < dataPoints; i++, startTime += 30000L) {
+            GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+            statistics.setStartTime(startTime);
+            statistics.setStopTime(startTime + 30000L);
+            for (int j = 0; j < 1000; j++) {
+                statistics.addStopWatch(new StopWatch(startTime + j, random.nextInt(1000),
+                                                      "tag" + random.nextInt(5), null));
+            }
+            chartGenerator.appendData(statistics);
+        }
+    }
+
+    @Benchmark
+    public String getChartUrl() {
+        return chartGenerator.getChartUrl();
+    }
+}
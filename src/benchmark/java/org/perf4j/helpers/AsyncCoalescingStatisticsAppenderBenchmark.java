@@ -0,0 +1,121 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.openjdk.jmh.annotations.*;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost paid by logging threads to hand StopWatches to a GenericAsyncCoalescingStatisticsAppender, with 1
+ * to 8 threads logging concurrently to the same appender. Messages are appended either as StopWatch log Strings, as
+ * the logging framework appenders do, or as StopWatch objects. With the drop-newest overflow policy, StopWatches that
+ * don't fit in a full queue are discarded cheaply, so the inline policy shows the cost when no StopWatch may be lost.
+ * Run with
+ * "mvn -Pbenchmarks test-compile exec:exec -Djmh.args='AsyncCoalescingStatisticsAppenderBenchmark -prof gc'".
+ *
+ * @author Alex Devine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class AsyncCoalescingStatisticsAppenderBenchmark {
+    @Param({GenericAsyncCoalescingStatisticsAppender.ARRAY_BLOCKING_QUEUE_TYPE,
+            GenericAsyncCoalescingStatisticsAppender.RING_BUFFER_QUEUE_TYPE})
+    public String queueType;
+
+    @Param({"drop-newest", "inline"})
+    public String overflowPolicy;
+
+    @Param({"string", "stopWatch"})
+    public String messageType;
+
+    private GenericAsyncCoalescingStatisticsAppender appender;
+
+    @Setup
+    public void setUp() {
+        appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setName("benchmark");
+        appender.setQueueType(queueType);
+        appender.setOverflowPolicy(overflowPolicy);
+        appender.setCreateRollupStatistics(true);
+        appender.start(new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+            public void handle(GroupedTimingStatistics statistics) {
+            }
+
+            public void error(String errorMessage) {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop();
+    }
+
+    /**
+     * The StopWatch and its log String of each logging thread.
+     */
+    @State(Scope.Thread)
+    public static class LoggingThreadState {
+        StopWatch stopWatch;
+        String message;
+
+        @Setup
+        public void setUp() {
+            stopWatch = new StopWatch(System.currentTimeMillis(), 42L,
+                                      "service.method" + (Thread.currentThread().getId() % 10) + ".success", null);
+            message = stopWatch.toString();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void append1Thread(LoggingThreadState state) {
+        append(state);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void append2Threads(LoggingThreadState state) {
+        append(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void append4Threads(LoggingThreadState state) {
+        append(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void append8Threads(LoggingThreadState state) {
+        append(state);
+    }
+
+    private void append(LoggingThreadState state) {
+        if ("string".equals(messageType)) {
+            appender.append(state.message);
+        } else {
+            //the appender must get a StopWatch that isn't modified afterwards, as the real loggers do
+            appender.append(state.stopWatch.clone());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.openjdk.jmh.annotations.*;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the throughput of the GroupingStatisticsIterator scales with the number of aggregation threads. Only
+ * the aggregation is spread over the threads; the StopWatches are pulled from the underlying iterator by the calling
+ * thread. Rollup statistics and histograms are enabled, since those make aggregation the most expensive. Run with
+ * "mvn -Pbenchmarks test-compile exec:exec -Djmh.args='ShardedAggregationBenchmark'".
+ *
+ * @author Alex Devine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class ShardedAggregationBenchmark {
+    private static final int NUM_STOPWATCHES = 100000;
+
+    @Param({"1", "2", "4"})
+    public int aggregationThreads;
+
+    private List<StopWatch> stopWatches;
+
+    @Setup
+    public void setUp() {
+        //StopWatches spread over 200 tags with 3 levels each, logged over a few 30 second time slices
+        Random random = new Random(0L);
+        StopWatch[] stopWatchArray = new StopWatch[NUM_STOPWATCHES];
+        long startTime = 1231944130105L;
+        for (int i = 0; i < stopWatchArray.length; i++) {
+            if (i % 1000 == 0) {
+                startTime += 1000L;
+            }
+            String tag = "service" + random.nextInt(10) + ".method" + random.nextInt(10) + ".result" + random.nextInt(2);
+            stopWatchArray[i] = new StopWatch(startTime, random.nextInt(1000), tag, null);
+        }
+        stopWatches = Arrays.asList(stopWatchArray);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_STOPWATCHES)
+    public int groupStatistics() {
+        GroupingStatisticsIterator iterator = new GroupingStatisticsIterator(stopWatches.iterator(),
+                                                                             30000L,
+                                                                             true,
+                                                                             TimeUnit.MILLISECONDS,
+                                                                             2,
+                                                                             aggregationThreads);
+        int numTags = 0;
+        while (iterator.hasNext()) {
+            GroupedTimingStatistics statistics = iterator.next();
+            numTags += statistics.getStatisticsByTag().size();
+        }
+        return numTags;
+    }
+}
@@ -0,0 +1,73 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.openjdk.jmh.annotations.*;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of reading a statistics attribute from the StatisticsExposingMBean, as a JMX client polling the
+ * MBean does, for a plain statistic, the TPS (which depends on the time window) and a percentile. Run with
+ * "mvn -Pbenchmarks test-compile exec:exec -Djmh.args='StatisticsExposingMBeanBenchmark -prof gc'".
+ *
+ * @author Alex Devine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class StatisticsExposingMBeanBenchmark {
+    private static final int NUM_TAGS = 50;
+
+    @Param({"Mean", "TPS", "P99"})
+    public String statisticName;
+
+    private StatisticsExposingMBean mBean;
+    private String attributeName;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0L);
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.setHistogramPrecision(2);
+        statistics.setStartTime(1231944120000L);
+        statistics.setStopTime(1231944150000L);
+        List<String> tags = new ArrayList<String>();
+        for (int i = 0; i < NUM_TAGS; i++) {
+            tags.add("tag" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            statistics.addStopWatch(new StopWatch(1231944120000L + i, random.nextInt(1000),
+                                                  tags.get(random.nextInt(NUM_TAGS)), null));
+        }
+
+        mBean = new StatisticsExposingMBean(null, tags, null);
+        mBean.updateCurrentTimingStatistics(statistics);
+        attributeName = "tag" + (NUM_TAGS / 2) + statisticName;
+    }
+
+    @Benchmark
+    public Object getAttribute() throws Exception {
+        return mBean.getAttribute(attributeName);
+    }
+}
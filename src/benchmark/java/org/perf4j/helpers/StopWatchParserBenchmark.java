@@ -0,0 +1,74 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.perf4j.StopWatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the regex-based StopWatchParser against the ScanningStopWatchParser, both for log lines that contain a
+ * StopWatch and for lines that don't. Run with
+ * "mvn -Pbenchmarks test-compile exec:exec -Djmh.args='StopWatchParser -prof gc'" to also see the allocation rates.
+ *
+ * @author Alex Devine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class StopWatchParserBenchmark {
+    @Param({"regex", "scanning"})
+    public String parserType;
+
+    private StopWatchParser parser;
+    private String[] matchingLines;
+    private String[] nonMatchingLines;
+
+    @Setup
+    public void setUp() {
+        parser = "scanning".equals(parserType) ? new ScanningStopWatchParser() : new StopWatchParser();
+
+        matchingLines = new String[16];
+        nonMatchingLines = new String[16];
+        for (int i = 0; i < matchingLines.length; i++) {
+            String logPrefix = "2009-01-15 10:42:" + (10 + i) + ",105 INFO  [org.perf4j.TimingLogger] ";
+            StopWatch stopWatch = new StopWatch(1231944130105L + i * 1000L,
+                                                100L + i,
+                                                "service.call" + (i % 4),
+                                                (i % 2 == 0) ? null : "message " + i);
+            matchingLines[i] = logPrefix + stopWatch;
+            nonMatchingLines[i] = logPrefix + "Handled request " + i + " for user someone@example.com in the web tier";
+        }
+    }
+
+    @Benchmark
+    public void parseMatchingLines(Blackhole blackhole) {
+        for (String line : matchingLines) {
+            blackhole.consume(parser.parseStopWatch(line));
+        }
+    }
+
+    @Benchmark
+    public void parseNonMatchingLines(Blackhole blackhole) {
+        for (String line : nonMatchingLines) {
+            blackhole.consume(parser.parseStopWatch(line));
+        }
+    }
+}
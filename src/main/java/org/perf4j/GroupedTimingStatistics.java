@@ -15,13 +15,19 @@
  */
 package org.perf4j;
 
+import org.perf4j.helpers.LogLinearHistogram;
 import org.perf4j.helpers.MiscUtils;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Represents a set of TimingStatistics calculated for a specific time period for a set of tags.
+ * Represents a set of TimingStatistics calculated for a specific time period for a set of tags. All of the time values
+ * in the contained TimingStatistics are measured in the unit returned by {@link #getTimeUnit()}, which defaults to
+ * milliseconds; StopWatches logged with a different unit are converted when they are added. If a histogram precision
+ * is set, each TimingStatistics created by this class tracks a histogram of its sample times, so that percentiles
+ * are available.
  *
  * @author Alex Devine
  */
@@ -30,6 +36,14 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
     private long startTime;
     private long stopTime;
     private boolean createRollupStatistics;
+    /**
+     * The unit of the statistics values. May be null if deserialized from an older version, so use getTimeUnit().
+     */
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+    /**
+     * The number of significant digits of the histograms of the created TimingStatistics, or 0 for no histograms.
+     */
+    private int histogramPrecision;
 
     // --- Constructors ---
 
@@ -86,6 +100,20 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
         return this;
     }
 
+    /**
+     * Updates the statistics of the specified tag with a StopWatch, regardless of the tag of the StopWatch itself and
+     * of the CreateRollupStatistics setting. This allows the work of aggregating StopWatches to be split up by tag,
+     * for example by the {@link org.perf4j.helpers.ShardedStatisticsAggregator}.
+     *
+     * @param tag       The tag whose statistics should be updated.
+     * @param stopWatch The StopWatch being used to update the statistics.
+     * @return this GroupedTimingStatistics instance
+     */
+    public GroupedTimingStatistics addStopWatchForTag(String tag, StopWatch stopWatch) {
+        addStopWatchToStatsByTag(tag, stopWatch);
+        return this;
+    }
+
     /**
      * Updates these statistics with all of the StopWatches in the specified collection.
      *
@@ -100,6 +128,44 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
         return this;
     }
 
+    /**
+     * Merges the specified statistics into these statistics, as if all the StopWatches that were added to the other
+     * statistics had also been added to this instance. The statistics of tags that exist in both are combined using
+     * {@link TimingStatistics#merge(TimingStatistics)}, and the time window of these statistics is widened to include
+     * the time window of the other statistics. This allows statistics created by different threads, JVMs or log files
+     * to be combined without access to the original StopWatches.
+     *
+     * @param other The statistics to merge into these statistics, which are not modified. May not be null.
+     * @return this GroupedTimingStatistics instance
+     * @throws IllegalArgumentException Thrown if the statistics use different time units.
+     */
+    public GroupedTimingStatistics merge(GroupedTimingStatistics other) {
+        if (getTimeUnit() != other.getTimeUnit()) {
+            throw new IllegalArgumentException("Can't merge statistics in " + other.getTimeUnit()
+                                               + " into statistics in " + getTimeUnit());
+        }
+
+        for (Map.Entry<String, TimingStatistics> tagAndStats : other.statisticsByTag.entrySet()) {
+            TimingStatistics stats = statisticsByTag.get(tagAndStats.getKey());
+            if (stats == null) {
+                statisticsByTag.put(tagAndStats.getKey(), tagAndStats.getValue().clone());
+            } else {
+                stats.merge(tagAndStats.getValue());
+            }
+        }
+
+        //an unset time window (as with the default constructor) is simply replaced
+        if (startTime == 0L && stopTime == 0L) {
+            startTime = other.startTime;
+            stopTime = other.stopTime;
+        } else if (other.startTime != 0L || other.stopTime != 0L) {
+            startTime = Math.min(startTime, other.startTime);
+            stopTime = Math.max(stopTime, other.stopTime);
+        }
+
+        return this;
+    }
+
     /**
      * The TimeZone to use when displaying start/stop time information
      */
@@ -157,6 +223,51 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
         this.createRollupStatistics = createRollupStatistics;
     }
 
+    /**
+     * Gets the unit of the mean, min, max and standard deviation values of the contained TimingStatistics.
+     *
+     * @return The time unit, milliseconds by default.
+     */
+    public TimeUnit getTimeUnit() {
+        return (timeUnit == null) ? TimeUnit.MILLISECONDS : timeUnit;
+    }
+
+    /**
+     * Sets the unit in which the statistics are calculated. This should be set before any StopWatches are added, as
+     * existing statistics are not converted.
+     *
+     * @param timeUnit The time unit, should be one of NANOSECONDS, MICROSECONDS, MILLISECONDS or SECONDS.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        MiscUtils.getTimeUnitAbbreviation(timeUnit); //ensures the unit is supported
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Gets the precision of the histograms tracked by the TimingStatistics that are created when StopWatches are
+     * added.
+     *
+     * @return The number of significant digits of the histograms, or 0 if histograms are not tracked (the default).
+     */
+    public int getHistogramPrecision() {
+        return histogramPrecision;
+    }
+
+    /**
+     * Sets the precision of the histograms tracked by the TimingStatistics created when StopWatches are added. Like
+     * the time unit, this should be set before any StopWatches are added.
+     *
+     * @param histogramPrecision The number of significant digits of the histograms, from 1 to 3, or 0 to disable
+     *                           histograms. See {@link LogLinearHistogram}.
+     */
+    public void setHistogramPrecision(int histogramPrecision) {
+        if (histogramPrecision < 0 || histogramPrecision > LogLinearHistogram.MAX_SIGNIFICANT_DIGITS) {
+            throw new IllegalArgumentException("histogramPrecision must be between 0 and "
+                                               + LogLinearHistogram.MAX_SIGNIFICANT_DIGITS);
+        }
+        this.histogramPrecision = histogramPrecision;
+    }
+
     // --- Helper Methods ---
 
     public Set<String> getTags() {
@@ -167,8 +278,11 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
         TimingStatistics stats = statisticsByTag.get(tag);
         if (stats == null) {
             statisticsByTag.put(tag, stats = new TimingStatistics());
+            if (histogramPrecision > 0) {
+                stats.setHistogram(new LogLinearHistogram(histogramPrecision));
+            }
         }
-        stats.addSampleTime(stopWatch.getElapsedTime());
+        stats.addSampleTime(stopWatch.getElapsedTime(getTimeUnit()), stopWatch.getCallCount());
     }
 
     // --- Object Methods ---
@@ -181,20 +295,42 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
                 .append(" - ")
                 .append(MiscUtils.formatDateIso8601(stopTime))
                 .append(MiscUtils.NEWLINE);
+        //percentile columns are only output if the statistics track histograms
+        boolean hasHistograms = false;
+        for (TimingStatistics timingStatistics : statisticsByTag.values()) {
+            hasHistograms |= (timingStatistics.getHistogram() != null);
+        }
         //output the header
-        retVal.append(String.format("%-48s%12s%12s%12s%12s%12s%n",
-                                    "Tag", "Avg(ms)", "Min", "Max", "Std Dev", "Count"));
+        retVal.append(String.format("%-48s%12s%12s%12s%12s%12s",
+                                    "Tag",
+                                    "Avg(" + MiscUtils.getTimeUnitAbbreviation(getTimeUnit()) + ")",
+                                    "Min",
+                                    "Max",
+                                    "Std Dev",
+                                    "Count"));
+        if (hasHistograms) {
+            retVal.append(String.format("%12s%12s%12s%12s", "P50", "P90", "P99", "P999"));
+        }
+        retVal.append(MiscUtils.NEWLINE);
         //output each statistics
         for (Map.Entry<String, TimingStatistics> tagWithTimingStatistics : statisticsByTag.entrySet()) {
             String tag = tagWithTimingStatistics.getKey();
             TimingStatistics timingStatistics = tagWithTimingStatistics.getValue();
-            retVal.append(String.format("%-48s%12.1f%12d%12d%12.1f%12d%n",
+            retVal.append(String.format("%-48s%12.1f%12d%12d%12.1f%12d",
                                         tag,
                                         timingStatistics.getMean(),
                                         timingStatistics.getMin(),
                                         timingStatistics.getMax(),
                                         timingStatistics.getStandardDeviation(),
                                         timingStatistics.getCount()));
+            if (timingStatistics.getHistogram() != null) {
+                retVal.append(String.format("%12d%12d%12d%12d",
+                                            timingStatistics.getPercentile(50.0),
+                                            timingStatistics.getPercentile(90.0),
+                                            timingStatistics.getPercentile(99.0),
+                                            timingStatistics.getPercentile(99.9)));
+            }
+            retVal.append(MiscUtils.NEWLINE);
         }
 
         return retVal.toString();
@@ -225,6 +361,7 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
 
         return startTime == that.startTime &&
                stopTime == that.stopTime &&
+               getTimeUnit() == that.getTimeUnit() &&
                statisticsByTag.equals(that.statisticsByTag);
     }
 
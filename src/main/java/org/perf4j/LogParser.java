@@ -22,8 +22,12 @@ import org.perf4j.chart.GoogleChartGenerator;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 /**
  * LogParser provides the main method for reading a log of StopWatch output and generating statistics and graphs
@@ -36,6 +40,15 @@ public class LogParser {
      * The input log that is being parsed.
      */
     private Reader inputLog;
+    /**
+     * The input log file, if the log is read by memory mapping the file. If not null, inputLog is null.
+     */
+    private File inputFile;
+    /**
+     * The input log files, if several logs are read and merged, or the log is compressed. If not null, inputLog and
+     * inputFile are null.
+     */
+    private List<File> inputFiles;
     /**
      * The stream where the GroupedTimingStatistics data will be printed - if null, no statistics will be printed
      */
@@ -65,6 +78,50 @@ public class LogParser {
      * The formatter to use to print statistics.
      */
     private GroupedTimingStatisticsFormatter statisticsFormatter;
+    /**
+     * The parser used to parse StopWatches from the input log, may be null to use the default StopWatchParser.
+     */
+    private StopWatchParser stopWatchParser;
+    /**
+     * The unit in which statistics are calculated and printed.
+     */
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+    /**
+     * The number of significant digits of the histograms used to calculate percentiles, or 0 for no percentiles.
+     */
+    private int histogramPrecision = 0;
+    /**
+     * The number of threads used to parse the input file. Only used if the log is read from an input file.
+     */
+    private int threads = 1;
+    /**
+     * Whether the input file is followed as it grows, instead of being parsed once.
+     */
+    private boolean follow = false;
+    /**
+     * The file where the position of a followed input file is saved, may be null.
+     */
+    private File checkpointFile;
+    /**
+     * Only StopWatches that started at or after this time, in milliseconds since 1970, are parsed.
+     */
+    private long fromTime = Long.MIN_VALUE;
+    /**
+     * Only StopWatches that started before this time, in milliseconds since 1970, are parsed.
+     */
+    private long toTime = Long.MAX_VALUE;
+    /**
+     * Whether a {@link LogTimeIndex} of the input file is used to only read the region of the time range.
+     */
+    private boolean useTimeIndex = false;
+    /**
+     * If not null, only StopWatches whose tags are accepted by this filter are parsed.
+     */
+    private TagFilter tagFilter;
+    /**
+     * If not null, the statistics of each time slice are also added to this store.
+     */
+    private StatisticsStore statisticsStore;
 
     // --- Constructors ---
     /**
@@ -94,6 +151,27 @@ public class LogParser {
     public LogParser(Reader inputLog, PrintStream statisticsOutput, PrintStream graphingOutput,
                      long timeSlice, boolean createRollupStatistics,
                      GroupedTimingStatisticsFormatter statisticsFormatter) {
+        this(inputLog, statisticsOutput, graphingOutput, timeSlice, createRollupStatistics, statisticsFormatter,
+             null /* use the default parser */);
+    }
+
+    /**
+     * Creates a new LogParser to parse log data from the input using the specified StopWatchParser.
+     *
+     * @param inputLog               The log being parsed, which should contain {@link org.perf4j.StopWatch} log messages.
+     * @param statisticsOutput       The stream where calculated statistics information should be written - if null,
+     *                               statistics data is not written.
+     * @param graphingOutput         The stream where graphing data should be written - if null, graphs are not written.
+     * @param timeSlice              The length of time, in milliseconds, of the timeslice of each statistics data created.
+     * @param createRollupStatistics Whether or not "rollup statistics" should be created for each timeslice of data.
+     * @param statisticsFormatter    The formatter to use to print GroupedTimingStatistics
+     * @param stopWatchParser        The parser used to read StopWatches from the inputLog - if null, the default
+     *                               StopWatchParser is used.
+     */
+    public LogParser(Reader inputLog, PrintStream statisticsOutput, PrintStream graphingOutput,
+                     long timeSlice, boolean createRollupStatistics,
+                     GroupedTimingStatisticsFormatter statisticsFormatter,
+                     StopWatchParser stopWatchParser) {
         this.inputLog = inputLog;
         this.statisticsOutput = statisticsOutput;
         this.graphingOutput = graphingOutput;
@@ -104,6 +182,275 @@ public class LogParser {
             this.tpsChartGenerator = newTpsChartGenerator();
         }
         this.statisticsFormatter = statisticsFormatter;
+        this.stopWatchParser = stopWatchParser;
+    }
+
+    /**
+     * Creates a new LogParser to parse log data from the input file using the specified StopWatchParser. The file is
+     * memory mapped and scanned with a {@link MappedStopWatchLogIterator}, so only the lines that contain StopWatches
+     * are decoded. This is much faster than reading the file with a Reader when most of the lines of the log are not
+     * StopWatches.
+     *
+     * @param inputFile              The log file being parsed, which should contain {@link org.perf4j.StopWatch} log
+     *                               messages in the standard format.
+     * @param statisticsOutput       The stream where calculated statistics information should be written - if null,
+     *                               statistics data is not written.
+     * @param graphingOutput         The stream where graphing data should be written - if null, graphs are not written.
+     * @param timeSlice              The length of time, in milliseconds, of the timeslice of each statistics data created.
+     * @param createRollupStatistics Whether or not "rollup statistics" should be created for each timeslice of data.
+     * @param statisticsFormatter    The formatter to use to print GroupedTimingStatistics
+     * @param stopWatchParser        The parser used to read StopWatches from the inputFile - if null, the default
+     *                               StopWatchParser is used.
+     */
+    public LogParser(File inputFile, PrintStream statisticsOutput, PrintStream graphingOutput,
+                     long timeSlice, boolean createRollupStatistics,
+                     GroupedTimingStatisticsFormatter statisticsFormatter,
+                     StopWatchParser stopWatchParser) {
+        this((Reader) null, statisticsOutput, graphingOutput, timeSlice, createRollupStatistics, statisticsFormatter,
+             stopWatchParser);
+        this.inputFile = inputFile;
+    }
+
+    /**
+     * Creates a new LogParser to parse log data from the input files using the specified StopWatchParser. The
+     * StopWatches of the files are merged in start time order with a {@link MergingStopWatchIterator}, so the files
+     * can for example be the logs of different JVMs, or the rotated files of a single log. Files whose names end with
+     * <tt>.gz</tt> are decompressed, and files in the binary format of a {@link BinaryStopWatchLogWriter} are read
+     * with a {@link BinaryStopWatchLogIterator}.
+     *
+     * @param inputFiles             The log files being parsed, which should contain {@link org.perf4j.StopWatch} log
+     *                               messages.
+     * @param statisticsOutput       The stream where calculated statistics information should be written - if null,
+     *                               statistics data is not written.
+     * @param graphingOutput         The stream where graphing data should be written - if null, graphs are not written.
+     * @param timeSlice              The length of time, in milliseconds, of the timeslice of each statistics data created.
+     * @param createRollupStatistics Whether or not "rollup statistics" should be created for each timeslice of data.
+     * @param statisticsFormatter    The formatter to use to print GroupedTimingStatistics
+     * @param stopWatchParser        The parser used to read StopWatches from the inputFiles - if null, the default
+     *                               StopWatchParser is used.
+     */
+    public LogParser(List<File> inputFiles, PrintStream statisticsOutput, PrintStream graphingOutput,
+                     long timeSlice, boolean createRollupStatistics,
+                     GroupedTimingStatisticsFormatter statisticsFormatter,
+                     StopWatchParser stopWatchParser) {
+        this((Reader) null, statisticsOutput, graphingOutput, timeSlice, createRollupStatistics, statisticsFormatter,
+             stopWatchParser);
+        this.inputFiles = inputFiles;
+    }
+
+    // --- Bean Properties ---
+
+    /**
+     * Gets the unit in which the mean, min, max and standard deviation statistics are calculated.
+     *
+     * @return The time unit, milliseconds by default.
+     */
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Sets the unit in which the mean, min, max and standard deviation statistics are calculated. StopWatches logged
+     * in a different unit are converted to this unit.
+     *
+     * @param timeUnit The time unit, should be one of NANOSECONDS, MICROSECONDS, MILLISECONDS or SECONDS.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setTimeUnit(TimeUnit timeUnit) {
+        this.timeUnit = timeUnit;
+        return this;
+    }
+
+    /**
+     * Gets the precision of the histograms used to calculate percentiles.
+     *
+     * @return The number of significant digits of the histograms, or 0 if percentiles are not calculated.
+     */
+    public int getHistogramPrecision() {
+        return histogramPrecision;
+    }
+
+    /**
+     * Sets the precision of the histograms used to calculate percentiles. If greater than 0, the generated statistics
+     * include percentiles such as P99.
+     *
+     * @param histogramPrecision The number of significant digits of the histograms, from 1 to 3, or 0 for none.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setHistogramPrecision(int histogramPrecision) {
+        this.histogramPrecision = histogramPrecision;
+        return this;
+    }
+
+    /**
+     * Gets the number of threads used to parse the input log file.
+     *
+     * @return The number of threads, 1 by default.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads used to parse the input log file. If greater than 1, the file is split into chunks
+     * that are parsed in parallel by a {@link ParallelGroupingStatisticsIterator}. The generated output is identical
+     * to the output of a single thread. This setting is ignored if the log is read from a Reader.
+     *
+     * @param threads The number of threads, must be at least 1.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Gets whether the input log file is followed as it grows.
+     *
+     * @return true if the log is followed, false by default.
+     */
+    public boolean isFollow() {
+        return follow;
+    }
+
+    /**
+     * Sets whether the input log file is followed as it grows, like <tt>tail -f</tt>. If true, {@link #parseLog()}
+     * reads the file with a {@link FollowingStopWatchLogIterator} and writes the statistics of each time slice once it
+     * is over, until the thread is interrupted. Rotation of the log is detected. Graphs are not written in this mode.
+     *
+     * @param follow Whether the log is followed. Requires a single, uncompressed input file.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setFollow(boolean follow) {
+        this.follow = follow;
+        return this;
+    }
+
+    /**
+     * Gets the file where the position in a followed log is saved.
+     *
+     * @return The checkpoint file, may be null.
+     */
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Sets the file where the position in a followed log, and the statistics of the time slice that is not over yet,
+     * are saved whenever statistics are written. If the file exists when the log is followed, reading resumes at the
+     * saved position, so the log isn't read again after a restart.
+     *
+     * @param checkpointFile The checkpoint file, may be null in which case the position is not saved.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+        return this;
+    }
+
+    /**
+     * Gets the start of the time range of the StopWatches that are parsed.
+     *
+     * @return The start of the time range in milliseconds since 1970, Long.MIN_VALUE by default.
+     */
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    /**
+     * Gets the end of the time range of the StopWatches that are parsed.
+     *
+     * @return The end of the time range in milliseconds since 1970, Long.MAX_VALUE by default.
+     */
+    public long getToTime() {
+        return toTime;
+    }
+
+    /**
+     * Sets the time range of the StopWatches that are parsed. StopWatches that started outside of the range are
+     * ignored. If a time range is set, the input file is parsed with a single thread.
+     *
+     * @param fromTime The start of the time range in milliseconds since 1970, inclusive.
+     * @param toTime   The end of the time range in milliseconds since 1970, exclusive.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setTimeRange(long fromTime, long toTime) {
+        if (fromTime > toTime) {
+            throw new IllegalArgumentException("The start of the time range is after its end");
+        }
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        return this;
+    }
+
+    /**
+     * Gets whether a time index of the input file is used to find the StopWatches of the time range.
+     *
+     * @return true if the time index is used, false by default.
+     */
+    public boolean isUseTimeIndex() {
+        return useTimeIndex;
+    }
+
+    /**
+     * Sets whether a {@link LogTimeIndex} of the input file is used to find the StopWatches of the time range. The
+     * index is stored next to the input file, reused while it is valid and updated when the file has grown, and only
+     * the region of the file that contains the time range is read. This setting is only used if the log is read from
+     * a memory mapped input file.
+     *
+     * @param useTimeIndex Whether the time index is used.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setUseTimeIndex(boolean useTimeIndex) {
+        this.useTimeIndex = useTimeIndex;
+        return this;
+    }
+
+    /**
+     * Gets the filter of the tags of the StopWatches that are parsed.
+     *
+     * @return The tag filter, or null if all StopWatches are parsed.
+     */
+    public TagFilter getTagFilter() {
+        return tagFilter;
+    }
+
+    /**
+     * Sets the filter of the tags of the StopWatches that are parsed. The filter is set on the StopWatchParser when
+     * the log is parsed, so StopWatches with other tags are dropped before they are created, and don't contribute to
+     * the rollup statistics, the statistics output or the graphs.
+     *
+     * @param tagFilter The tag filter, may be null to parse all StopWatches.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setTagFilter(TagFilter tagFilter) {
+        this.tagFilter = tagFilter;
+        return this;
+    }
+
+    /**
+     * Gets the store to which the statistics of each time slice are added.
+     *
+     * @return The statistics store, or null if statistics are not stored.
+     */
+    public StatisticsStore getStatisticsStore() {
+        return statisticsStore;
+    }
+
+    /**
+     * Sets the store to which the statistics of each time slice are added, in addition to being written to the
+     * statistics output, so that they can be queried later at coarser resolutions. The store is not closed by this
+     * LogParser.
+     *
+     * @param statisticsStore The statistics store, may be null in which case statistics are not stored.
+     * @return this instance, for method chaining if desired
+     */
+    public LogParser setStatisticsStore(StatisticsStore statisticsStore) {
+        this.statisticsStore = statisticsStore;
+        return this;
     }
 
     // --- Instance Methods ---
@@ -113,15 +460,121 @@ public class LogParser {
      * to the output streams.
      */
     public void parseLog() {
+        StopWatchParser stopWatchParser = getFilteringStopWatchParser();
 
-        Iterator<StopWatch> stopWatchIter = new StopWatchLogIterator(inputLog);
+        if (follow) {
+            if (inputFile == null && (inputFiles == null || inputFiles.size() != 1)) {
+                throw new IllegalStateException("A single log input file is required to follow the log");
+            }
+            try {
+                followLog((inputFile != null) ? inputFile : inputFiles.get(0));
+            } catch (IOException ioe) {
+                throw new RuntimeException("Error reading StopWatch log: " + ioe.getMessage(), ioe);
+            }
+        } else if (inputFile != null && threads > 1 && !hasTimeRange()) {
+            try {
+                ParallelGroupingStatisticsIterator statsIter =
+                        new ParallelGroupingStatisticsIterator(inputFile, stopWatchParser, timeSlice,
+                                                               createRollupStatistics, timeUnit, histogramPrecision,
+                                                               threads);
+                try {
+                    writeStatistics(statsIter);
+                } finally {
+                    statsIter.close();
+                }
+            } catch (IOException ioe) {
+                throw new RuntimeException("Error reading StopWatch log: " + ioe.getMessage(), ioe);
+            }
+        } else if (inputFile != null) {
+            try {
+                MappedStopWatchLogIterator stopWatchIter;
+                if (useTimeIndex) {
+                    //the index is shared by all runs, so it must not be built with the tag filter of this one
+                    LogTimeIndex timeIndex = LogTimeIndex.open(inputFile, null);
+                    stopWatchIter = new MappedStopWatchLogIterator(inputFile,
+                                                                   timeIndex.getStartPosition(fromTime, toTime),
+                                                                   timeIndex.getEndPosition(fromTime, toTime),
+                                                                   stopWatchParser);
+                } else {
+                    stopWatchIter = new MappedStopWatchLogIterator(inputFile, stopWatchParser);
+                }
+                try {
+                    parseLog(stopWatchIter);
+                } finally {
+                    stopWatchIter.close();
+                }
+            } catch (IOException ioe) {
+                throw new RuntimeException("Error reading StopWatch log: " + ioe.getMessage(), ioe);
+            }
+        } else if (inputFiles != null) {
+            List<InputStream> streams = new ArrayList<InputStream>();
+            try {
+                try {
+                    List<Iterator<StopWatch>> stopWatchIters = new ArrayList<Iterator<StopWatch>>();
+                    for (File file : inputFiles) {
+                        InputStream stream = openLogStream(file);
+                        streams.add(stream);
+                        stopWatchIters.add(BinaryStopWatchLogIterator.isBinaryLog(stream) ?
+                                           new BinaryStopWatchLogIterator(stream, tagFilter) :
+                                           new StopWatchLogIterator(new InputStreamReader(stream), stopWatchParser));
+                    }
+                    parseLog((stopWatchIters.size() == 1) ?
+                             stopWatchIters.get(0) :
+                             new MergingStopWatchIterator(stopWatchIters));
+                } finally {
+                    for (InputStream stream : streams) {
+                        stream.close();
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new RuntimeException("Error reading StopWatch log: " + ioe.getMessage(), ioe);
+            }
+        } else {
+            parseLog(new StopWatchLogIterator(inputLog, stopWatchParser));
+        }
+    }
 
+    /**
+     * Helper method returns the parser that applies the tag filter. The tag filter is set on a copy of the parser
+     * passed to the constructor, so that parser is left as it was.
+     *
+     * @return The parser, or null to use the default parser if there is no tag filter.
+     */
+    protected StopWatchParser getFilteringStopWatchParser() {
+        if (tagFilter == null) {
+            return stopWatchParser;
+        }
+        StopWatchParser retVal = (stopWatchParser == null) ? new StopWatchParser() : stopWatchParser.clone();
+        retVal.setTagFilter(tagFilter);
+        return retVal;
+    }
+
+    /**
+     * Helper method groups the StopWatches into statistics and writes the statistics data and graphing data.
+     *
+     * @param stopWatchIter The StopWatches parsed from the input log.
+     */
+    protected void parseLog(Iterator<StopWatch> stopWatchIter) {
+        if (hasTimeRange()) {
+            stopWatchIter = new TimeRangeStopWatchIterator(stopWatchIter, fromTime, toTime);
+        }
+        writeStatistics(new GroupingStatisticsIterator(stopWatchIter,
+                                                       timeSlice,
+                                                       createRollupStatistics,
+                                                       timeUnit,
+                                                       histogramPrecision));
+    }
+
+    /**
+     * Helper method writes the statistics data and graphing data of each time slice.
+     *
+     * @param statsIter The statistics of each time slice, in time order.
+     */
+    protected void writeStatistics(Iterator<GroupedTimingStatistics> statsIter) {
         int i = 0;
-        for (GroupingStatisticsIterator statsIter = new GroupingStatisticsIterator(stopWatchIter,
-                                                                                   timeSlice,
-                                                                                   createRollupStatistics);
-             statsIter.hasNext();) {
+        while (statsIter.hasNext()) {
             GroupedTimingStatistics statistics = statsIter.next();
+            storeStatistics(statistics);
 
             if (statisticsOutput != null) {
                 statisticsOutput.print(statisticsFormatter.format(statistics));
@@ -138,6 +591,76 @@ public class LogParser {
         }
     }
 
+    /**
+     * Helper method follows the log file, writing the statistics of each time slice once it is over and saving a
+     * checkpoint after each time slice if a checkpoint file is set.
+     *
+     * @param logFile The log file to follow.
+     * @throws IOException Thrown if the log or the checkpoint could not be read or written.
+     */
+    protected void followLog(File logFile) throws IOException {
+        LogFollowCheckpoint checkpoint = (checkpointFile == null) ? null : LogFollowCheckpoint.load(checkpointFile);
+        FollowingStopWatchLogIterator stopWatchIter =
+                new FollowingStopWatchLogIterator(logFile, getFilteringStopWatchParser(),
+                                                  FollowingStopWatchLogIterator.DEFAULT_POLL_INTERVAL, checkpoint);
+        try {
+            Iterator<StopWatch> filteredIter = hasTimeRange() ?
+                                               new TimeRangeStopWatchIterator(stopWatchIter, fromTime, toTime) :
+                                               stopWatchIter;
+            GroupingStatisticsIterator statsIter = new GroupingStatisticsIterator(filteredIter,
+                                                                                  timeSlice,
+                                                                                  createRollupStatistics,
+                                                                                  timeUnit,
+                                                                                  histogramPrecision);
+            if (checkpoint != null && checkpoint.getOpenTimeSlice() != null) {
+                statsIter.resumeTimeSlice(checkpoint.getOpenTimeSlice());
+            }
+
+            while (statsIter.hasNext()) {
+                GroupedTimingStatistics statistics = statsIter.next();
+                //time slices that end while the log is idle are empty
+                if (!statistics.getStatisticsByTag().isEmpty()) {
+                    storeStatistics(statistics);
+                }
+                if (statisticsOutput != null && !statistics.getStatisticsByTag().isEmpty()) {
+                    statisticsOutput.print(statisticsFormatter.format(statistics));
+                    statisticsOutput.flush();
+                }
+                if (checkpointFile != null) {
+                    LogFollowCheckpoint newCheckpoint = stopWatchIter.getCheckpoint();
+                    newCheckpoint.setOpenTimeSlice(statsIter.getCurrentTimeSliceStatistics());
+                    newCheckpoint.save(checkpointFile);
+                }
+            }
+        } finally {
+            stopWatchIter.close();
+        }
+    }
+
+    /**
+     * Helper method adds the statistics of a time slice to the statistics store, if one is set.
+     *
+     * @param statistics The statistics of the time slice.
+     */
+    protected void storeStatistics(GroupedTimingStatistics statistics) {
+        if (statisticsStore != null) {
+            try {
+                statisticsStore.add(statistics);
+            } catch (IOException ioe) {
+                throw new RuntimeException("Error writing to the statistics store: " + ioe.getMessage(), ioe);
+            }
+        }
+    }
+
+    /**
+     * Helper method determines whether only the StopWatches of a time range are parsed.
+     *
+     * @return true if a time range was set.
+     */
+    protected boolean hasTimeRange() {
+        return fromTime != Long.MIN_VALUE || toTime != Long.MAX_VALUE;
+    }
+
     protected StatisticsChartGenerator newMeanTimeChartGenerator() {
         return new GoogleChartGenerator();
     }
@@ -169,15 +692,66 @@ public class LogParser {
             PrintStream graphingOutput = openGraphingOutput(argsList);
             long timeSlice = getTimeSlice(argsList);
             boolean rollupStatistics = getRollupStatistics(argsList);
-            GroupedTimingStatisticsFormatter formatter = getStatisticsFormatter(argsList);
-            Reader input = openInput(argsList);
+            int histogramPrecision = getHistogramPrecision(argsList);
+            GroupedTimingStatisticsFormatter formatter = getStatisticsFormatter(argsList, histogramPrecision);
+            StopWatchParser parser = getStopWatchParser(argsList);
+            TimeUnit timeUnit = getTimeUnit(argsList);
+            boolean memoryMapped = getMemoryMapped(argsList);
+            int threads = getThreads(argsList);
+            boolean follow = getFollow(argsList);
+            File checkpointFile = getCheckpointFile(argsList);
+            boolean useTimeIndex = getUseTimeIndex(argsList);
+            long fromTime = getFromTime(argsList);
+            long toTime = getToTime(argsList);
+            TagFilter tagFilter = getTagFilter(argsList);
+            File storeDirectory = getStoreDirectory(argsList);
+            List<File> inputFiles = getInputFiles(argsList);
 
             if (!argsList.isEmpty()) {
                 printUnknownArgs(argsList);
                 return 1;
             }
 
-            new LogParser(input, statisticsOutput, graphingOutput, timeSlice, rollupStatistics, formatter).parseLog();
+            LogParser logParser;
+            if (follow) {
+                if (inputFiles.size() != 1 || isCompressed(inputFiles.get(0)) || isBinaryLog(inputFiles.get(0))) {
+                    throw new IllegalArgumentException("A single uncompressed text log input file must be specified" +
+                                                       " to follow the log");
+                }
+                logParser = new LogParser(inputFiles, statisticsOutput, null /* no graphs */,
+                                          timeSlice, rollupStatistics, formatter, parser);
+            } else if (memoryMapped || threads > 1 || useTimeIndex) {
+                if (inputFiles.size() != 1 || isCompressed(inputFiles.get(0)) || isBinaryLog(inputFiles.get(0))) {
+                    throw new IllegalArgumentException("A single uncompressed text log input file must be specified" +
+                                                       " to memory map, index or parse the log in parallel");
+                }
+                logParser = new LogParser(inputFiles.get(0), statisticsOutput, graphingOutput,
+                                          timeSlice, rollupStatistics, formatter, parser);
+            } else if (inputFiles.isEmpty()) {
+                logParser = new LogParser(new InputStreamReader(System.in), statisticsOutput, graphingOutput,
+                                          timeSlice, rollupStatistics, formatter, parser);
+            } else {
+                logParser = new LogParser(inputFiles, statisticsOutput, graphingOutput,
+                                          timeSlice, rollupStatistics, formatter, parser);
+            }
+            StatisticsStore statisticsStore = (storeDirectory == null) ? null : new StatisticsStore(storeDirectory);
+            try {
+                logParser
+                        .setTimeUnit(timeUnit)
+                        .setHistogramPrecision(histogramPrecision)
+                        .setThreads(threads)
+                        .setFollow(follow)
+                        .setCheckpointFile(checkpointFile)
+                        .setTimeRange(fromTime, toTime)
+                        .setUseTimeIndex(useTimeIndex)
+                        .setTagFilter(tagFilter)
+                        .setStatisticsStore(statisticsStore)
+                        .parseLog();
+            } finally {
+                if (statisticsStore != null) {
+                    statisticsStore.close();
+                }
+            }
 
             closeGraphingOutput(graphingOutput);
         } catch ( Exception e ) {
@@ -194,9 +768,22 @@ public class LogParser {
                                "[-t|--timeslice timeslice] " +
                                "[-r] " +
                                "[-f|--format text|csv] " +
-                               "[logInputFile]");
+                               "[-p|--parser stopWatchParserClassName] " +
+                               "[-u|--unit ns|us|ms|s] " +
+                               "[--percentiles precision] " +
+                               "[-m|--mmap] " +
+                               "[--threads threads] " +
+                               "[--follow [--checkpoint checkpointFile]] " +
+                               "[--from time] [--to time] [--index] " +
+                               "[--tags patterns] [--exclude-tags patterns] " +
+                               "[--store storeDirectory] " +
+                               "[logInputFile ...]");
             System.out.println("Arguments:");
-            System.out.println("  logInputFile - The log file to be parsed. If not specified, log data is read from stdin.");
+            System.out.println("  logInputFile ... - The log files to be parsed. If not specified, log data is read" +
+                               " from stdin. The file names may contain the wildcards * and ?, and files ending" +
+                               " with .gz are decompressed. Files written in the binary format of the" +
+                               " BinaryTimingEventSink are recognized. The StopWatches of several files are merged" +
+                               " in start time order.");
             System.out.println("  -o|--out|--output outputFile - The file where generated statistics should be written." +
                                " If not specified, statistics are written to stdout.");
             System.out.println("  -g|--graph graphingOutputFile - The file where generated perf graphs should be written." +
@@ -208,6 +795,46 @@ public class LogParser {
             System.out.println("  -f|--format text|csv - The format for the statistics output, either plain text or CSV." +
                                " Defaults to text.");
             System.out.println("                         If format is csv, then the columns output are tag, start, stop, mean, min, max, stddev, and count.");
+            System.out.println("  -p|--parser stopWatchParserClassName - The class used to parse StopWatches from the log." +
+                               " Defaults to org.perf4j.helpers.StopWatchParser. Use" +
+                               " org.perf4j.helpers.ScanningStopWatchParser for faster parsing of standard logs.");
+            System.out.println("  -u|--unit ns|us|ms|s - The time unit of the generated statistics. Defaults to ms." +
+                               " Use us or ns when the log contains StopWatches timed with a finer precision.");
+            System.out.println("  --percentiles precision - Also generate the P50, P90, P95, P99 and P999 percentiles," +
+                               " tracked with the given number (1-3) of significant digits. 2 gives percentiles" +
+                               " within 1% of the actual times.");
+            System.out.println("  -m|--mmap - Memory map the log input file instead of reading it as text. Only lines" +
+                               " containing StopWatches are decoded, which makes parsing large logs much faster." +
+                               " Requires a single uncompressed logInputFile with StopWatches in the standard" +
+                               " format.");
+            System.out.println("  --threads threads - The number of threads used to parse the log input file." +
+                               " If more than 1, the file is split into chunks that are memory mapped and parsed in" +
+                               " parallel; the output is the same as with 1 thread. Defaults to 1. Requires a" +
+                               " single uncompressed logInputFile with StopWatches in the standard format.");
+            System.out.println("  --follow - Follow the log input file as it grows, like tail -f, and write the" +
+                               " statistics of each timeslice once it is over. Rotated logs are detected. Requires a" +
+                               " single uncompressed logInputFile; graphs are not written.");
+            System.out.println("  --checkpoint checkpointFile - When following the log, save the position in the log" +
+                               " and the statistics of the current timeslice to this file, and resume from it when" +
+                               " restarted.");
+            System.out.println("  --from time - Only parse StopWatches that started at or after this time, given as" +
+                               " yyyy-MM-dd HH:mm:ss or as milliseconds since 1970.");
+            System.out.println("  --to time - Only parse StopWatches that started before this time, given as" +
+                               " yyyy-MM-dd HH:mm:ss or as milliseconds since 1970.");
+            System.out.println("  --index - Use a time index, stored next to the log input file as" +
+                               " logInputFile" + LogTimeIndex.INDEX_FILE_SUFFIX + ", to only read the part of the" +
+                               " log that contains the --from/--to time range. The index is built on first use and" +
+                               " updated when the log has grown. Implies --mmap.");
+            System.out.println("  --tags patterns - Only parse StopWatches whose tags match one of these comma" +
+                               " separated patterns. A pattern is an exact tag, a prefix such as db.*, a glob with" +
+                               " * and ? wildcards, or regex: followed by a regular expression. StopWatches with" +
+                               " other tags are dropped before they are aggregated or rolled up.");
+            System.out.println("  --exclude-tags patterns - Don't parse StopWatches whose tags match one of these" +
+                               " comma separated patterns, which have the same format as for --tags.");
+            System.out.println("  --store storeDirectory - Also add the statistics of each timeslice to the statistics" +
+                               " store in this directory, which keeps them at 30 second, 5 minute and 1 hour" +
+                               " resolutions for later queries. Use the same unit and --percentiles precision for" +
+                               " all runs that write to a store.");
             System.out.println();
             System.out.println("Note that out, stdout, err and stderr can be used as aliases to the standard output" +
                                " streams when specifying output files.");
@@ -274,6 +901,11 @@ public class LogParser {
     }
 
     protected static GroupedTimingStatisticsFormatter getStatisticsFormatter(List<String> argsList) {
+        return getStatisticsFormatter(argsList, 0);
+    }
+
+    protected static GroupedTimingStatisticsFormatter getStatisticsFormatter(List<String> argsList,
+                                                                             int histogramPrecision) {
         int indexOfFormat = getIndexOfArg(argsList, true, "-f", "--format");
         if (indexOfFormat >= 0) {
             String formatString = argsList.remove(indexOfFormat + 1);
@@ -281,7 +913,10 @@ public class LogParser {
             if ("text".equalsIgnoreCase(formatString)) {
                 return new GroupedTimingStatisticsTextFormatter();
             } else if ("csv".equalsIgnoreCase(formatString)) {
-                return new GroupedTimingStatisticsCsvFormatter();
+                return (histogramPrecision > 0) ?
+                       new GroupedTimingStatisticsCsvFormatter(
+                               false, GroupedTimingStatisticsCsvFormatter.DEFAULT_PERCENTILES_FORMAT_STRING) :
+                       new GroupedTimingStatisticsCsvFormatter();
             } else {
                 throw new IllegalArgumentException("Unknown format type: " + formatString);
             }
@@ -290,12 +925,279 @@ public class LogParser {
         }
     }
 
+    protected static TimeUnit getTimeUnit(List<String> argsList) {
+        int indexOfUnit = getIndexOfArg(argsList, true, "-u", "--unit");
+        if (indexOfUnit >= 0) {
+            String timeUnit = argsList.remove(indexOfUnit + 1);
+            argsList.remove(indexOfUnit);
+            return MiscUtils.parseTimeUnit(timeUnit);
+        } else {
+            return TimeUnit.MILLISECONDS;
+        }
+    }
+
+    protected static int getHistogramPrecision(List<String> argsList) {
+        int indexOfPercentiles = getIndexOfArg(argsList, true, "--percentiles");
+        if (indexOfPercentiles >= 0) {
+            String precision = argsList.remove(indexOfPercentiles + 1);
+            argsList.remove(indexOfPercentiles);
+            return Integer.parseInt(precision);
+        } else {
+            return 0;
+        }
+    }
+
+    protected static StopWatchParser getStopWatchParser(List<String> argsList) {
+        int indexOfParser = getIndexOfArg(argsList, true, "-p", "--parser");
+        if (indexOfParser >= 0) {
+            String parserClassName = argsList.remove(indexOfParser + 1);
+            argsList.remove(indexOfParser);
+            try {
+                return (StopWatchParser) Class.forName(parserClassName).newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Could not create StopWatchParser: " + parserClassName, e);
+            }
+        } else {
+            return null;
+        }
+    }
+
+    protected static boolean getMemoryMapped(List<String> argsList) {
+        int indexOfMmap = getIndexOfArg(argsList, false, "-m", "--mmap");
+        if (indexOfMmap >= 0) {
+            argsList.remove(indexOfMmap);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    protected static int getThreads(List<String> argsList) {
+        int indexOfThreads = getIndexOfArg(argsList, true, "--threads");
+        if (indexOfThreads >= 0) {
+            String threads = argsList.remove(indexOfThreads + 1);
+            argsList.remove(indexOfThreads);
+            return Integer.parseInt(threads);
+        } else {
+            return 1;
+        }
+    }
+
+    protected static boolean getFollow(List<String> argsList) {
+        int indexOfFollow = getIndexOfArg(argsList, false, "--follow");
+        if (indexOfFollow >= 0) {
+            argsList.remove(indexOfFollow);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    protected static File getCheckpointFile(List<String> argsList) {
+        int indexOfCheckpoint = getIndexOfArg(argsList, true, "--checkpoint");
+        if (indexOfCheckpoint >= 0) {
+            String fileName = argsList.remove(indexOfCheckpoint + 1);
+            argsList.remove(indexOfCheckpoint);
+            return new File(fileName);
+        } else {
+            return null;
+        }
+    }
+
+    protected static File getStoreDirectory(List<String> argsList) {
+        int indexOfStore = getIndexOfArg(argsList, true, "--store");
+        if (indexOfStore >= 0) {
+            String directoryName = argsList.remove(indexOfStore + 1);
+            argsList.remove(indexOfStore);
+            return new File(directoryName);
+        } else {
+            return null;
+        }
+    }
+
+    protected static boolean getUseTimeIndex(List<String> argsList) {
+        int indexOfIndex = getIndexOfArg(argsList, false, "--index");
+        if (indexOfIndex >= 0) {
+            argsList.remove(indexOfIndex);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    protected static long getFromTime(List<String> argsList) {
+        int indexOfFrom = getIndexOfArg(argsList, true, "--from");
+        if (indexOfFrom >= 0) {
+            String time = argsList.remove(indexOfFrom + 1);
+            argsList.remove(indexOfFrom);
+            return MiscUtils.parseDateIso8601(time);
+        } else {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    protected static long getToTime(List<String> argsList) {
+        int indexOfTo = getIndexOfArg(argsList, true, "--to");
+        if (indexOfTo >= 0) {
+            String time = argsList.remove(indexOfTo + 1);
+            argsList.remove(indexOfTo);
+            return MiscUtils.parseDateIso8601(time);
+        } else {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    protected static TagFilter getTagFilter(List<String> argsList) {
+        String includePatterns = null;
+        int indexOfTags = getIndexOfArg(argsList, true, "--tags");
+        if (indexOfTags >= 0) {
+            includePatterns = argsList.remove(indexOfTags + 1);
+            argsList.remove(indexOfTags);
+        }
+        String excludePatterns = null;
+        int indexOfExcludeTags = getIndexOfArg(argsList, true, "--exclude-tags");
+        if (indexOfExcludeTags >= 0) {
+            excludePatterns = argsList.remove(indexOfExcludeTags + 1);
+            argsList.remove(indexOfExcludeTags);
+        }
+
+        if (includePatterns == null && excludePatterns == null) {
+            return null;
+        }
+        return new TagFilter(TagFilter.splitPatterns(includePatterns), TagFilter.splitPatterns(excludePatterns));
+    }
+
+    protected static List<File> getInputFiles(List<String> argsList) {
+        List<File> retVal = new ArrayList<File>();
+        for (Iterator<String> iter = argsList.iterator(); iter.hasNext();) {
+            String fileName = iter.next();
+            //anything that looks like an option is left for the unknown args check
+            if (!fileName.startsWith("-")) {
+                iter.remove();
+                retVal.addAll(expandFileName(fileName));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method finds the files matching a file name, whose last path element may contain the wildcards * and ?.
+     *
+     * @param fileName The file name.
+     * @return The matching files, sorted by name.
+     */
+    protected static List<File> expandFileName(String fileName) {
+        File file = new File(fileName);
+        String name = file.getName();
+        if (name.indexOf('*') < 0 && name.indexOf('?') < 0) {
+            if (!file.isFile()) {
+                throw new IllegalArgumentException("The log input file does not exist: " + fileName);
+            }
+            return Collections.singletonList(file);
+        }
+
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        Pattern pattern = Pattern.compile(regex.toString());
+
+        File parent = file.getParentFile();
+        String[] names = ((parent == null) ? new File(".") : parent).list();
+        List<File> retVal = new ArrayList<File>();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String candidate : names) {
+                File candidateFile = new File(parent, candidate);
+                if (pattern.matcher(candidate).matches() && candidateFile.isFile()) {
+                    retVal.add(candidateFile);
+                }
+            }
+        }
+        if (retVal.isEmpty()) {
+            throw new IllegalArgumentException("No log input files match " + fileName);
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method opens the log input named by the first argument, or standard input if there are no arguments.
+     *
+     * @param argsList The command line arguments, from which the input file name is removed.
+     * @return A reader of the log data.
+     * @throws IOException Thrown if the file could not be opened.
+     * @deprecated Use {@link #getInputFiles(List)} to get all of the log input files, and {@link #openLogReader(File)}
+     *             to open each of them.
+     */
+    @Deprecated
     protected static Reader openInput(List<String> argsList) throws IOException {
         if (argsList.isEmpty()) {
             return new InputStreamReader(System.in);
-        } else {
-            String fileName = argsList.remove(0);
-            return new BufferedReader(new FileReader(fileName));
+        }
+        String fileName = argsList.remove(0);
+        List<File> files = expandFileName(fileName);
+        if (files.size() != 1) {
+            throw new IllegalArgumentException("A single log input file must be specified, but " + fileName +
+                                               " matches " + files.size() + " files");
+        }
+        return openLogReader(files.get(0));
+    }
+
+    /**
+     * Helper method opens a log file, decompressing it if its name ends with .gz.
+     *
+     * @param file The log file.
+     * @return A reader of the log data.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    protected static Reader openLogReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(openLogStream(file)));
+    }
+
+    /**
+     * Helper method opens a log file, decompressing it if its name ends with .gz.
+     *
+     * @param file The log file.
+     * @return A buffered stream of the log data, which supports mark and reset.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    protected static InputStream openLogStream(File file) throws IOException {
+        InputStream retVal = new FileInputStream(file);
+        if (isCompressed(file)) {
+            try {
+                retVal = new GZIPInputStream(retVal);
+            } catch (IOException ioe) {
+                retVal.close();
+                throw ioe;
+            }
+        }
+        return new BufferedInputStream(retVal);
+    }
+
+    protected static boolean isCompressed(File file) {
+        return file.getName().endsWith(".gz");
+    }
+
+    /**
+     * Helper method determines whether a log file was written by a {@link BinaryStopWatchLogWriter}.
+     *
+     * @param file The log file.
+     * @return true if the file is in the binary format.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    protected static boolean isBinaryLog(File file) throws IOException {
+        InputStream stream = openLogStream(file);
+        try {
+            return BinaryStopWatchLogIterator.isBinaryLog(stream);
+        } finally {
+            stream.close();
         }
     }
 
@@ -15,6 +15,14 @@
  */
 package org.perf4j;
 
+import org.perf4j.helpers.ProfilingSwitches;
+import org.perf4j.helpers.StopWatchSampler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
 /**
  * A LoggingStopWatch prevents the need to explicitly send the StopWatch string to a Logger when stopping. Instead,
  * all of the stop() and lap() methods themselves are responsible for persisting the StopWatch:
@@ -25,11 +33,26 @@ package org.perf4j;
  * </pre>
  * This class just writes all StopWatch messages to the standard error stream, but subclasses will use Loggers from
  * various logging frameworks to persist the StopWatch.
+ * <p/>
+ * Since the return value of stop() is rarely used with a LoggingStopWatch, the {@link #stopQuietly()} and lapQuietly
+ * methods are also provided. They do the same logging but return nothing, so the StopWatch string is only created
+ * when it is actually logged.
+ * <p/>
+ * For code blocks that are called very frequently, sampling rules can be set on the
+ * {@link StopWatchSampler#getDefault default StopWatchSampler}, in which case only some of the StopWatches of a tag
+ * are logged, each with a call count that includes the calls that weren't logged. StopWatches that are over a
+ * non-zero time threshold are always logged.
  *
  * @author Alex Devine
  */
 @SuppressWarnings("serial")
 public class LoggingStopWatch extends StopWatch {
+    /**
+     * Caches, per StopWatch class, whether the quiet stop methods can be used in place of the stop methods.
+     */
+    private static final ConcurrentMap<Class<?>, Boolean> stopQuietlySupportedByClass =
+            new ConcurrentHashMap<Class<?>, Boolean>();
+
 	/**
      * This threshold determines if a log call will be made. Only elapsed times greater than this amount will be logged.
      */
@@ -194,7 +217,7 @@ public class LoggingStopWatch extends StopWatch {
     public String getTag() {
     	long timeThreshold = getTimeThreshold(); // so that child classes can override
     	return isNormalAndSlowSuffixesEnabled() ? 
-                super.getTag() + (getElapsedTime() >= timeThreshold ? getSlowSuffix() : getNormalSuffix()) : 
+                super.getTag() + (isSlow(timeThreshold) ? getSlowSuffix() : getNormalSuffix()) : 
                 super.getTag(); 
     }
 
@@ -210,6 +233,18 @@ public class LoggingStopWatch extends StopWatch {
         return this;
     }
 
+    // Just overridden to make use of covariant return types
+    public LoggingStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public LoggingStopWatch setCallCount(int callCount) {
+        super.setCallCount(callCount);
+        return this;
+    }
+
     // --- Stop/Lap/Helper Methods ---
     /**
      * This stop method is overridden to perform the logging itself instead of needing to make a separate call to
@@ -218,9 +253,7 @@ public class LoggingStopWatch extends StopWatch {
      * @return this.toString(), however, this should not be passed to a logger as it will have already been logged.
      */
     public String stop() {
-        String retVal = super.stop();
-        doLogInternal(retVal, null);
-        return retVal;
+        return stopAndLog(null);
     }
 
     /**
@@ -232,9 +265,7 @@ public class LoggingStopWatch extends StopWatch {
      * @return this.toString(), however, this should not be passed to a logger as it will have already been logged.
      */
     public String stop(Throwable exception) {
-        String retVal = super.stop();
-        doLogInternal(retVal, exception);
-        return retVal;
+        return stopAndLog(exception);
     }
 
     /**
@@ -290,6 +321,135 @@ public class LoggingStopWatch extends StopWatch {
         return retVal;
     }
 
+    /**
+     * Stops this StopWatch and logs it, but unlike {@link #stop()} does not return the StopWatch string. Thus the
+     * string is only created if it is actually written, i.e. if the time threshold is passed and the underlying logger
+     * is enabled. Callers that ignore the return value of stop() (the common case for LoggingStopWatches) should
+     * prefer the stopQuietly and lapQuietly methods.
+     * <p/>
+     * Note that the quiet methods don't call stop() or {@link #log(String, Throwable)}, but
+     * {@link #logQuietly(Throwable)}, so they bypass subclasses that only override stop or log. For this reason
+     * the timing aspects, TimedCallable and TimedRunnable, which may be handed such subclasses, only call the quiet
+     * methods if {@link #isStopQuietlySupported()} returns true.
+     */
+    public void stopQuietly() {
+        stopQuietly((Throwable) null);
+    }
+
+    /**
+     * Identical to {@link #stop(Throwable)}, but does not return the StopWatch string.
+     *
+     * @param exception The exception that was thrown by the timed code block
+     * @see #stopQuietly()
+     */
+    public void stopQuietly(Throwable exception) {
+        stopTiming();
+        if (isOverTimeThreshold() && isSwitchedOn() && isSampledIn()) {
+            logQuietly(exception);
+        } else {
+            //the call count of an earlier logged lap doesn't apply to a StopWatch that isn't logged
+            setCallCount(1);
+        }
+    }
+
+    /**
+     * Identical to {@link #stop(String)}, but does not return the StopWatch string.
+     *
+     * @param tag The grouping tag for this StopWatch
+     * @see #stopQuietly()
+     */
+    public void stopQuietly(String tag) {
+        setTag(tag);
+        stopQuietly((Throwable) null);
+    }
+
+    /**
+     * Identical to {@link #stop(String, String)}, but does not return the StopWatch string.
+     *
+     * @param tag     The grouping tag for this StopWatch
+     * @param message A descriptive message about the timed block
+     * @see #stopQuietly()
+     */
+    public void stopQuietly(String tag, String message) {
+        setTag(tag);
+        setMessage(message);
+        stopQuietly((Throwable) null);
+    }
+
+    /**
+     * Identical to {@link #stop(String, Throwable)}, but does not return the StopWatch string.
+     *
+     * @param tag       The grouping tag for this StopWatch
+     * @param exception The exception that was thrown by the timed code block
+     * @see #stopQuietly()
+     */
+    public void stopQuietly(String tag, Throwable exception) {
+        setTag(tag);
+        stopQuietly(exception);
+    }
+
+    /**
+     * Identical to {@link #stop(String, String, Throwable)}, but does not return the StopWatch string.
+     *
+     * @param tag       The grouping tag for this StopWatch
+     * @param message   A descriptive message about the timed block
+     * @param exception The exception that was thrown by the timed code block
+     * @see #stopQuietly()
+     */
+    public void stopQuietly(String tag, String message, Throwable exception) {
+        setTag(tag);
+        setMessage(message);
+        stopQuietly(exception);
+    }
+
+    /**
+     * Identical to {@link #lap(String)}, but does not return the StopWatch string.
+     *
+     * @param tag The grouping tag for the PREVIOUS code block that was timed.
+     * @see #stopQuietly()
+     */
+    public void lapQuietly(String tag) {
+        stopQuietly(tag);
+        start();
+    }
+
+    /**
+     * Identical to {@link #lap(String, String)}, but does not return the StopWatch string.
+     *
+     * @param tag     The grouping tag for the PREVIOUS code block that was timed.
+     * @param message A descriptive message about the timed block
+     * @see #stopQuietly()
+     */
+    public void lapQuietly(String tag, String message) {
+        stopQuietly(tag, message);
+        start();
+    }
+
+    /**
+     * Identical to {@link #lap(String, Throwable)}, but does not return the StopWatch string.
+     *
+     * @param tag       The grouping tag for the PREVIOUS code block that was timed.
+     * @param exception The exception that was thrown by the timed code block.
+     * @see #stopQuietly()
+     */
+    public void lapQuietly(String tag, Throwable exception) {
+        stopQuietly(tag, exception);
+        start();
+    }
+
+    /**
+     * Identical to {@link #lap(String, String, Throwable)}, but does not return the StopWatch string.
+     *
+     * @param tag       The grouping tag for the PREVIOUS code block that was timed.
+     * @param message   A descriptive message about the timed block
+     * @param exception The exception that was thrown by the timed code block.
+     * @see #stopQuietly()
+     */
+    public void lapQuietly(String tag, String message, Throwable exception) {
+        stopQuietly(tag, message, exception);
+        start();
+    }
+
     /**
      * Determines whether or not logging is currently enabled for normal log messages for this StopWatch. This
      * implementation always returns true, but subclasses should override this method if logging can be disabled. For
@@ -301,6 +461,33 @@ public class LoggingStopWatch extends StopWatch {
      */
     public boolean isLogging() { return true; }
 
+    /**
+     * Gets the name of the logger this StopWatch writes to, which is checked against the logger rules of the
+     * {@link ProfilingSwitches}. This implementation returns null, so only the tag rules apply; subclasses that write
+     * to a named logger should override this method.
+     *
+     * @return The logger name, or null if this StopWatch doesn't write to a named logger.
+     */
+    protected String getLoggerName() { return null; }
+
+    /**
+     * Determines whether the stopQuietly methods persist this StopWatch the same way as the stop methods. This is the
+     * case unless a subclass overrides one of the stop methods, or overrides {@link #log(String, Throwable)} without
+     * also overriding {@link #logQuietly(Throwable)}. Callers that ignore the return value of stop use this method to
+     * decide whether they can avoid creating the StopWatch string when it isn't logged.
+     *
+     * @return true if the stopQuietly methods can be called in place of the stop methods.
+     */
+    public boolean isStopQuietlySupported() {
+        Class<?> stopWatchClass = getClass();
+        Boolean retVal = stopQuietlySupportedByClass.get(stopWatchClass);
+        if (retVal == null) {
+            retVal = isStopQuietlySupported(stopWatchClass);
+            stopQuietlySupportedByClass.put(stopWatchClass, retVal);
+        }
+        return retVal;
+    }
+
     // --- Template Methods ---
     /**
      * This log method can be overridden by subclasses in order to persist the StopWatch, for example by using a
@@ -316,6 +503,22 @@ public class LoggingStopWatch extends StopWatch {
         }
     }
 
+    /**
+     * This method is called by the stopQuietly and lapQuietly methods, once the time threshold has been checked. The
+     * default implementation only creates the StopWatch string and passes it to {@link #log(String, Throwable)} if
+     * {@link #isLogging()} returns true (or an exception was passed). Subclasses should override this method if they
+     * can check whether the exception level is enabled, or if they can persist the StopWatch without creating the
+     * string at all.
+     *
+     * @param exception An exception, if any, that was also passed to the stopQuietly() or lapQuietly() methods - may
+     *                  be null.
+     */
+    protected void logQuietly(Throwable exception) {
+        if (exception != null || isLogging()) {
+            log(toString(), exception);
+        }
+    }
+
     // --- Object Methods ---
     
     public LoggingStopWatch clone() {
@@ -323,16 +526,82 @@ public class LoggingStopWatch extends StopWatch {
     }
 
     // --- Private Methods ---
-    // Helper method only calls log if elapsed time is greater than the time threshold
-    private void doLogInternal(String stopWatchAsString, Throwable exception) {
+    // Helper method only calls log if elapsed time is greater than the time threshold and the call is sampled in.
+    // The decision is made before the string is created, as sampling sets the call count that is part of the string.
+    private String stopAndLog(Throwable exception) {
+        stopTiming();
+        boolean logged = isOverTimeThreshold() && isSwitchedOn() && isSampledIn();
+        if (!logged) {
+            //the call count of an earlier logged lap doesn't apply to a StopWatch that isn't logged
+            setCallCount(1);
+        }
+        String retVal = toString();
+        if (logged) {
+            log(retVal, exception);
+        }
+        return retVal;
+    }
+
+    // Helper method walks up the subclasses of LoggingStopWatch looking for overrides that the quiet methods bypass
+    private static boolean isStopQuietlySupported(Class<?> stopWatchClass) {
+        boolean logQuietlyOverridden = false;
+        for (Class<?> clazz = stopWatchClass; clazz != LoggingStopWatch.class; clazz = clazz.getSuperclass()) {
+            for (Method method : clazz.getDeclaredMethods()) {
+                if ("stop".equals(method.getName())) {
+                    return false;
+                }
+            }
+            if (isDeclared(clazz, "logQuietly", Throwable.class)) {
+                logQuietlyOverridden = true;
+            } else if (!logQuietlyOverridden && isDeclared(clazz, "log", String.class, Throwable.class)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Helper method determines whether the class itself declares the specified method
+    private static boolean isDeclared(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
+        try {
+            clazz.getDeclaredMethod(methodName, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException nsme) {
+            return false;
+        }
+    }
+
+    // Helper method checks that neither the tag (without suffix) nor the logger has been switched off at runtime
+    private boolean isSwitchedOn() {
+        return ProfilingSwitches.getDefault().isEnabled(super.getTag(), getLoggerName());
+    }
+
+    // Helper method applies the sampling rules of the tag (without suffix), and sets the number of calls this
+    // StopWatch stands for if it is logged. Slow calls are always logged, and only stand for themselves.
+    private boolean isSampledIn() {
+        long timeThreshold = getTimeThreshold();
+        int callCount = (timeThreshold > 0 && isSlow(timeThreshold)) ?
+                        1 : StopWatchSampler.getDefault().sample(super.getTag());
+        if (callCount == 0) {
+            return false;
+        }
+        setCallCount(callCount);
+        return true;
+    }
+
+    // Helper method compares the elapsed time to the threshold, which is always specified in milliseconds
+    private boolean isSlow(long timeThreshold) {
+        return getElapsedTime(TimeUnit.MILLISECONDS) >= timeThreshold;
+    }
+
+    // Helper method determines whether the elapsed time is large enough for the StopWatch to be logged
+    private boolean isOverTimeThreshold() {
     	//if normalAndSlowSuffixesEnabled then always log with the suffixes added
     	//getTag() should take care of appending the correct tag, and should already be part of stopWatchAsString
         //Otherwise we default to the backward-compatible behavior: namely:
     	//in most cases timeThreshold will be 0, so just short circuit out as fast as possible
-    	long elapsedTime = getElapsedTime(); // to allow for subclasses to override this value
     	long timeThreshold = getTimeThreshold(); // to allow for subclasses to override this value
-    	if (timeThreshold == 0 || isNormalAndSlowSuffixesEnabled() || elapsedTime >= timeThreshold) {
-            log(stopWatchAsString, exception);
-        }
+    	return timeThreshold == 0
+               || isNormalAndSlowSuffixesEnabled()
+               || isSlow(timeThreshold);
     }
 }
@@ -15,7 +15,10 @@
  */
 package org.perf4j;
 
+import org.perf4j.helpers.MiscUtils;
+
 import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The StopWatch class is used to time code blocks in Perf4J. The general usage pattern is to create a StopWatch
@@ -34,6 +37,10 @@ import java.io.Serializable;
  * Note that a StopWatch is reusable. That is, you can call <tt>start()</tt> and <tt>stop()</tt> in succession
  * and the <tt>getElapsedTime()</tt> method will refer to the time since the most recent <tt>start()</tt> call.
  * <p/>
+ * By default elapsed times are measured in milliseconds. To time very short code blocks, use
+ * {@link #setTimeUnit(java.util.concurrent.TimeUnit)} to measure in microseconds or nanoseconds instead - the unit
+ * is then written as part of the time in the log message, e.g. <tt>time[1234us]</tt>.
+ * <p/>
  * In general, most clients will find it simpler and cleaner to use the {@link LoggingStopWatch} class or one of its
  * subclasses in preference to this class.
  *
@@ -44,13 +51,21 @@ public class StopWatch implements Serializable, Cloneable {
 
 	public static final String DEFAULT_LOGGER_NAME = "org.perf4j.TimingLogger";
 
-    private static final long NANOS_IN_A_MILLI = 1000000L;
-
     private long startTime;
     private long nanoStartTime;
     private long elapsedTime;
     private String tag;
     private String message;
+    /**
+     * The unit of elapsedTime. Note this may be null if this StopWatch was serialized by an older version of Perf4J,
+     * so it should always be read through getTimeUnit().
+     */
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+    /**
+     * The number of timed calls this StopWatch stands for. Note this is 0 if this StopWatch was serialized by an older
+     * version of Perf4J, so it should always be read through getCallCount().
+     */
+    private int callCount = 1;
 
     /**
      * Creates a StopWatch with a blank tag, no message and started at the instant of creation.
@@ -91,9 +106,25 @@ public class StopWatch implements Serializable, Cloneable {
      * @param message     Additional message text
      */
     public StopWatch(long startTime, long elapsedTime, String tag, String message) {
+        this(startTime, elapsedTime, TimeUnit.MILLISECONDS, tag, message);
+    }
+
+    /**
+     * Creates a StopWatch with a specified start time, elapsed time and time unit, tag, and message. This constructor
+     * should normally not be called by third party code; it is intended to allow for deserialization of StopWatch
+     * logs.
+     *
+     * @param startTime   The start time in milliseconds
+     * @param elapsedTime The elapsed time, measured in timeUnit
+     * @param timeUnit    The unit of the elapsed time, may not be null
+     * @param tag         The tag used to group timing logs of the same code block
+     * @param message     Additional message text
+     */
+    public StopWatch(long startTime, long elapsedTime, TimeUnit timeUnit, String tag, String message) {
         this.startTime = startTime;
         this.nanoStartTime = (elapsedTime == -1L) ? System.nanoTime() : -1L;
         this.elapsedTime = elapsedTime;
+        this.timeUnit = timeUnit;
         this.tag = tag;
         this.message = message;
     }
@@ -108,17 +139,55 @@ public class StopWatch implements Serializable, Cloneable {
     public long getStartTime() { return startTime; }
 
     /**
-     * Gets the time in milliseconds between when this StopWatch was last started and stopped. Is <tt>stop()</tt> was
-     * not called, then the time returned is the time since the StopWatch was started.
+     * Gets the time between when this StopWatch was last started and stopped, measured in the unit returned by
+     * {@link #getTimeUnit()} (milliseconds by default). Is <tt>stop()</tt> was not called, then the time returned is
+     * the time since the StopWatch was started.
      *
-     * @return The elapsed time in milliseconds.
+     * @return The elapsed time.
      */
     public long getElapsedTime() {
         return (elapsedTime == -1L) ?
-               (System.nanoTime() - nanoStartTime) / NANOS_IN_A_MILLI :
+               getTimeUnit().convert(System.nanoTime() - nanoStartTime, TimeUnit.NANOSECONDS) :
                elapsedTime;
     }
 
+    /**
+     * Gets the elapsed time converted to the specified unit. Note that converting to a coarser unit truncates the
+     * value, e.g. 1999 microseconds is returned as 1 millisecond.
+     *
+     * @param unit The desired unit of the returned value
+     * @return The elapsed time, measured in the specified unit.
+     */
+    public long getElapsedTime(TimeUnit unit) {
+        return unit.convert(getElapsedTime(), getTimeUnit());
+    }
+
+    /**
+     * Gets the unit in which this StopWatch measures and logs its elapsed time.
+     *
+     * @return The time unit, which defaults to milliseconds.
+     */
+    public TimeUnit getTimeUnit() {
+        return (timeUnit == null) ? TimeUnit.MILLISECONDS : timeUnit;
+    }
+
+    /**
+     * Sets the unit in which this StopWatch measures and logs its elapsed time. This should normally be called before
+     * the StopWatch is stopped; if it has already been stopped the elapsed time is converted to the new unit.
+     *
+     * @param timeUnit The time unit, should be one of NANOSECONDS, MICROSECONDS, MILLISECONDS or SECONDS.
+     * @return this instance, for method chaining if desired
+     * @throws IllegalArgumentException Thrown if timeUnit is not one of the supported units.
+     */
+    public StopWatch setTimeUnit(TimeUnit timeUnit) {
+        MiscUtils.getTimeUnitAbbreviation(timeUnit); //ensures the unit is supported
+        if (elapsedTime != -1L) {
+            elapsedTime = timeUnit.convert(elapsedTime, getTimeUnit());
+        }
+        this.timeUnit = timeUnit;
+        return this;
+    }
+
     /**
      * Gets the tag used to group this StopWatch instance with other instances used to time the same code block.
      *
@@ -155,6 +224,32 @@ public class StopWatch implements Serializable, Cloneable {
         return this;
     }
 
+    /**
+     * Gets the number of timed calls this StopWatch stands for in the statistics. This is normally 1, but when
+     * StopWatch logging is sampled (see {@link org.perf4j.helpers.StopWatchSampler}) a logged StopWatch also stands
+     * for the calls that were sampled out before it, and its elapsed time is counted once for each of them.
+     *
+     * @return The call count, at least 1.
+     */
+    public int getCallCount() {
+        return (callCount < 1) ? 1 : callCount;
+    }
+
+    /**
+     * Sets the number of timed calls this StopWatch stands for in the statistics.
+     *
+     * @param callCount The call count, must be at least 1.
+     * @return this instance, for method chaining if desired
+     * @throws IllegalArgumentException Thrown if callCount is less than 1.
+     */
+    public StopWatch setCallCount(int callCount) {
+        if (callCount < 1) {
+            throw new IllegalArgumentException("The call count must be at least 1: " + callCount);
+        }
+        this.callCount = callCount;
+        return this;
+    }
+
     // --- Start/Stop/Lap methods ---
 
     /**
@@ -200,7 +295,7 @@ public class StopWatch implements Serializable, Cloneable {
      * @return this.toString(), which is a message suitable for logging
      */
     public String stop() {
-        elapsedTime = (System.nanoTime() - nanoStartTime) / NANOS_IN_A_MILLI;
+        stopTiming();
         return this.toString();
     }
 
@@ -275,14 +370,30 @@ public class StopWatch implements Serializable, Cloneable {
         return retVal;
     }
 
+    // --- Helper Methods ---
+
+    /**
+     * Freezes the elapsed time of this StopWatch without creating the log message string. This is used by the
+     * stop methods, and by subclasses that only create the log string when it will actually be written.
+     */
+    protected void stopTiming() {
+        elapsedTime = getTimeUnit().convert(System.nanoTime() - nanoStartTime, TimeUnit.NANOSECONDS);
+    }
+
     // --- Object Methods ---
     
     public String toString() {
     	String message = getMessage();
+    	TimeUnit timeUnit = getTimeUnit();
+    	int callCount = getCallCount();
     	return "start[" + getStartTime() +
         "] time[" + getElapsedTime() +
+        //milliseconds are written without a unit marker, as they were before time units were supported
+        ((timeUnit == TimeUnit.MILLISECONDS) ? "" : MiscUtils.getTimeUnitAbbreviation(timeUnit)) +
         "] tag[" + getTag() +
-        ((message == null) ? "]" : "] message[" + message + "]");
+        ((message == null) ? "]" : "] message[" + message + "]") +
+        //the call count goes last, so parsers that don't know it still read the rest of the StopWatch
+        ((callCount == 1) ? "" : " calls[" + callCount + "]");
     }
 
     public StopWatch clone() {
@@ -312,6 +423,12 @@ public class StopWatch implements Serializable, Cloneable {
         if (nanoStartTime != stopWatch.nanoStartTime) {
             return false;
         }
+        if (getTimeUnit() != stopWatch.getTimeUnit()) {
+            return false;
+        }
+        if (getCallCount() != stopWatch.getCallCount()) {
+            return false;
+        }
         if (message != null ? !message.equals(stopWatch.message) : stopWatch.message != null) {
             return false;
         }
@@ -328,6 +445,7 @@ public class StopWatch implements Serializable, Cloneable {
         result = 31 * result + (int) (elapsedTime ^ (elapsedTime >>> 32));
         result = 31 * result + (tag != null ? tag.hashCode() : 0);
         result = 31 * result + (message != null ? message.hashCode() : 0);
+        result = 31 * result + getCallCount();
         return result;
     }
 }
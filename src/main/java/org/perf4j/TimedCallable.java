@@ -68,7 +68,11 @@ public class TimedCallable<V> implements Callable<V>, Serializable {
             stopWatch.start();
             return wrappedTask.call();
         } finally {
-            stopWatch.stop();
+            if (stopWatch.isStopQuietlySupported()) {
+                stopWatch.stopQuietly();
+            } else {
+                stopWatch.stop();
+            }
         }
     }
 }
@@ -67,7 +67,11 @@ public class TimedRunnable implements Runnable, Serializable {
             stopWatch.start();
             wrappedTask.run();
         } finally {
-            stopWatch.stop();
+            if (stopWatch.isStopQuietlySupported()) {
+                stopWatch.stopQuietly();
+            } else {
+                stopWatch.stop();
+            }
         }
     }
 }
@@ -15,11 +15,14 @@
  */
 package org.perf4j;
 
+import org.perf4j.helpers.LogLinearHistogram;
+
 import java.io.Serializable;
 
 /**
  * TimingStatistics represent a set of statistical measures over a set of timing data, such as a collection of
- * StopWatch instances.
+ * StopWatch instances. If a {@link LogLinearHistogram} is attached using {@link #setHistogram}, then all sample times
+ * are also recorded in the histogram, which allows percentiles to be retrieved with {@link #getPercentile(double)}.
  *
  * @author Alex Devine
  */
@@ -29,6 +32,7 @@ public class TimingStatistics implements Serializable, Cloneable {
     private long max;
     private long min;
     private int count;
+    private LogLinearHistogram histogram;
 
     // --- Constructors ---
     /**
@@ -61,15 +65,28 @@ public class TimingStatistics implements Serializable, Cloneable {
      * @return this TimingStatistics instance
      */
     public TimingStatistics addSampleTime(long elapsedTime) {
-        count++;
+        return addSampleTime(elapsedTime, 1);
+    }
+
+    /**
+     * This method updates the calculated statistics as if the same execution time had been logged the specified
+     * number of times. This is used for sampled StopWatches, which also stand for the calls that were not logged.
+     *
+     * @param elapsedTime The elapsed time being used to update the statistics.
+     * @param sampleCount The number of executions the elapsed time stands for, at least 1.
+     * @return this TimingStatistics instance
+     */
+    public TimingStatistics addSampleTime(long elapsedTime, int sampleCount) {
+        int previousCount = count;
+        count += sampleCount;
 
         double diffFromMean = elapsedTime - mean;
-        mean = mean + (diffFromMean / count);
+        mean = mean + (diffFromMean * sampleCount / count);
 
-        runningQ = runningQ + (((count - 1) * Math.pow(diffFromMean, 2.0)) / count);
+        runningQ = runningQ + (((double) previousCount * sampleCount * Math.pow(diffFromMean, 2.0)) / count);
 
         //special case initial stopWatch when finding max and min
-        if (count == 1) {
+        if (previousCount == 0) {
             min = elapsedTime;
             max = elapsedTime;
         } else {
@@ -81,9 +98,82 @@ public class TimingStatistics implements Serializable, Cloneable {
             }
         }
 
+        if (histogram != null) {
+            histogram.recordValue(elapsedTime, sampleCount);
+        }
+
+        return this;
+    }
+
+    /**
+     * This method updates these statistics as if all the sample times of the specified statistics had also been added
+     * to this instance, for example to combine statistics calculated by different threads or from different log
+     * files. The mean and standard deviation are combined using the parallel algorithm of Chan et al., so the result
+     * is equal to the statistics of all the samples up to floating point rounding.
+     * <p/>
+     * If both statistics have a histogram, the histograms are added, which requires them to have the same precision.
+     * If only one of them has samples, its histogram is kept. Otherwise the percentiles of the combined samples are
+     * not known, so the histogram of these statistics is removed.
+     *
+     * @param other The statistics to merge into these statistics, which are not modified. May not be null.
+     * @return this TimingStatistics instance
+     * @throws IllegalArgumentException Thrown if the histograms of the statistics have different precisions.
+     */
+    public TimingStatistics merge(TimingStatistics other) {
+        if (histogram != null && other.histogram != null
+            && histogram.getSignificantDigits() != other.histogram.getSignificantDigits()) {
+            throw new IllegalArgumentException("Can't merge statistics whose histograms have different precisions");
+        }
+        if (other.count == 0) {
+            return this;
+        }
+
+        if (count == 0) {
+            mean = other.mean;
+            runningQ = other.runningQ;
+            min = other.min;
+            max = other.max;
+            count = other.count;
+            histogram = (other.histogram == null) ? null : other.histogram.clone();
+            return this;
+        }
+
+        int combinedCount = count + other.count;
+        double delta = other.mean - mean;
+        mean = mean + (delta * other.count / combinedCount);
+        runningQ = runningQ + other.runningQ + (delta * delta * count * other.count / combinedCount);
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        count = combinedCount;
+
+        if (histogram != null && other.histogram != null) {
+            histogram.add(other.histogram);
+        } else {
+            histogram = null;
+        }
+
         return this;
     }
 
+    /**
+     * Gets the sample time at the specified percentile. This method may only be called if a histogram was attached
+     * to these statistics before any sample times were added. The returned value is accurate to the precision of the
+     * histogram, and is always between the min and max.
+     *
+     * @param percentile The percentile, from 0 to 100, e.g. 99 for the 99th percentile.
+     * @return The sample time at the percentile, or 0 if there are no samples.
+     * @throws IllegalStateException Thrown if these statistics don't have a histogram.
+     */
+    public long getPercentile(double percentile) {
+        if (histogram == null) {
+            throw new IllegalStateException("Percentiles are only available if a histogram is set");
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        return Math.min(Math.max(histogram.getValueAtPercentile(percentile), min), max);
+    }
+
     // --- Bean Properties ---
 
     public double getMean() {
@@ -106,6 +196,25 @@ public class TimingStatistics implements Serializable, Cloneable {
         return count;
     }
 
+    /**
+     * Gets the histogram of sample times.
+     *
+     * @return The histogram, or null if percentiles are not tracked for these statistics.
+     */
+    public LogLinearHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Sets the histogram used to track the distribution of the sample times. This should be set to an empty
+     * histogram before any sample times are added.
+     *
+     * @param histogram The histogram, may be null in which case percentiles are not tracked.
+     */
+    public void setHistogram(LogLinearHistogram histogram) {
+        this.histogram = histogram;
+    }
+
     // --- Object Methods ---
 
     public String toString() {
@@ -118,7 +227,11 @@ public class TimingStatistics implements Serializable, Cloneable {
 
     public TimingStatistics clone() {
         try {
-            return (TimingStatistics) super.clone();
+            TimingStatistics retVal = (TimingStatistics) super.clone();
+            if (histogram != null) {
+                retVal.histogram = histogram.clone();
+            }
+            return retVal;
         } catch (CloneNotSupportedException cnse) {
             throw new Error("Unexpected CloneNotSupportedException");
         }
@@ -149,6 +262,9 @@ public class TimingStatistics implements Serializable, Cloneable {
         if (Double.compare(that.runningQ, runningQ) != 0) {
             return false;
         }
+        if (histogram != null ? !histogram.equals(that.histogram) : that.histogram != null) {
+            return false;
+        }
 
         return true;
     }
@@ -5,6 +5,8 @@ import org.perf4j.LoggingStopWatch;
 import javax.interceptor.AroundInvoke;
 import javax.interceptor.InvocationContext;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is the base class for TimingAspects that use the EJB interceptor framework.
@@ -14,6 +16,12 @@ import java.lang.reflect.Method;
  * @author Alex Devine
  */
 public abstract class AbstractEjbTimingAspect extends AgnosticTimingAspect {
+    /**
+     * This Map caches the Profiled annotations of the intercepted methods, so they don't have to be found by
+     * reflection on every call.
+     */
+    private Map<Method, Profiled> profiledCache = new ConcurrentHashMap<Method, Profiled>(64, .75F, 16);
+
     /**
      * This is the interceptor that runs the target method, surrounding it with stop watch start and stop calls.
      *
@@ -26,11 +34,13 @@ public abstract class AbstractEjbTimingAspect extends AgnosticTimingAspect {
         final Method executingMethod = ctx.getMethod();
 
         //need to get the Profiled annotation off the method, otherwise use a default
-        Profiled profiled = (executingMethod == null) ?
-                            DefaultProfiled.INSTANCE :
-                            ctx.getMethod().getAnnotation(Profiled.class);
-        if (profiled == null) {
-            profiled = DefaultProfiled.INSTANCE;
+        Profiled profiled = getProfiled(executingMethod);
+
+        //if we're not going to end up logging the stopwatch, just run the wrapped method
+        LoggingStopWatch stopWatch = newProfiledStopWatch(profiled,
+                                                         (executingMethod == null) ? "null" : executingMethod.getName());
+        if (stopWatch == null) {
+            return ctx.proceed();
         }
 
         //note - the EJB 3.0 Interceptor spec requires that we only throw Exception, NOT throwable, but
@@ -51,7 +61,8 @@ public abstract class AbstractEjbTimingAspect extends AgnosticTimingAspect {
                         public Class<?> getDeclaringClass() { return (executingMethod == null) ? null : executingMethod.getDeclaringClass() ; }
                     },
                     profiled,
-                    newStopWatch(profiled.logger(), profiled.level())
+                    stopWatch,
+                    true /* newProfiledStopWatch checked the ProfilingSwitches */
             );
         } catch (Exception e) {
             throw e;
@@ -68,9 +79,43 @@ public abstract class AbstractEjbTimingAspect extends AgnosticTimingAspect {
         }
     }
 
+    /**
+     * Creates the StopWatch prototype for a profiled method by calling {@link #newStopWatch} with the logger and level
+     * of its Profiled annotation. This is only done the first time the method is profiled, so the logger and level
+     * are resolved once per method.
+     *
+     * @param profiled The profiled annotation that was attached to the method.
+     * @return The StopWatch prototype.
+     */
+    protected LoggingStopWatch newStopWatchPrototype(Profiled profiled) {
+        return newStopWatch(profiled.logger(), profiled.level());
+    }
+
+    /**
+     * Helper method gets the Profiled annotation of an intercepted method, either from the cache or by reflection.
+     *
+     * @param method The intercepted method, may be null.
+     * @return The Profiled annotation of the method, or the default Profiled values if it isn't annotated.
+     */
+    private Profiled getProfiled(Method method) {
+        if (method == null) {
+            return DefaultProfiled.INSTANCE;
+        }
+        Profiled retVal = profiledCache.get(method);
+        if (retVal == null) {
+            retVal = method.getAnnotation(Profiled.class);
+            if (retVal == null) {
+                retVal = DefaultProfiled.INSTANCE;
+            }
+            profiledCache.put(method, retVal);
+        }
+        return retVal;
+    }
+
     /**
      * Subclasses should implement this method to return a LoggingStopWatch that should be used to time the wrapped
-     * code block.
+     * code block. The returned StopWatch is used as the prototype that the StopWatches for each execution of the
+     * method are cloned from, so it must support {@link LoggingStopWatch#clone}.
      *
      * @param loggerName The name of the logger to use for persisting StopWatch messages.
      * @param levelName  The level at which the message should be logged.
@@ -41,6 +41,12 @@ public abstract class AbstractTimingAspect extends AgnosticTimingAspect {
      */
     @Around(value = "execution(* *(..)) && @annotation(profiled)", argNames = "pjp,profiled")
     public Object doPerfLogging(final ProceedingJoinPoint pjp, Profiled profiled) throws Throwable {
+        //if we're not going to end up logging the stopwatch, just run the wrapped method
+        LoggingStopWatch stopWatch = newProfiledStopWatch(profiled, pjp.getSignature().getName());
+        if (stopWatch == null) {
+            return pjp.proceed();
+        }
+
         //We just delegate to the super class, wrapping the AspectJ-specific ProceedingJoinPoint as an AbstractJoinPoint
         return runProfiledMethod(
                 new AbstractJoinPoint() {
@@ -55,13 +61,27 @@ public abstract class AbstractTimingAspect extends AgnosticTimingAspect {
                     public Class<?> getDeclaringClass() { return pjp.getSignature().getDeclaringType(); }
                 },
                 profiled,
-                newStopWatch(profiled.logger() + "", profiled.level())
+                stopWatch,
+                true /* newProfiledStopWatch checked the ProfilingSwitches */
         );
     }
 
+    /**
+     * Creates the StopWatch prototype for a profiled method by calling {@link #newStopWatch} with the logger and level
+     * of its Profiled annotation. This is only done the first time the method is profiled, so the logger and level
+     * are resolved once per method.
+     *
+     * @param profiled The profiled annotation that was attached to the method.
+     * @return The StopWatch prototype.
+     */
+    protected LoggingStopWatch newStopWatchPrototype(Profiled profiled) {
+        return newStopWatch(profiled.logger() + "", profiled.level());
+    }
+
     /**
      * Subclasses should implement this method to return a LoggingStopWatch that should be used to time the wrapped
-     * code block.
+     * code block. The returned StopWatch is used as the prototype that the StopWatches for each execution of the
+     * method are cloned from, so it must support {@link LoggingStopWatch#clone}.
      *
      * @param loggerName The name of the logger to use for persisting StopWatch messages.
      * @param levelName  The level at which the message should be logged.
@@ -2,10 +2,11 @@ package org.perf4j.aop;
 
 import org.apache.commons.jexl.Expression;
 import org.apache.commons.jexl.ExpressionFactory;
-import org.apache.commons.jexl.JexlContext;
-import org.apache.commons.jexl.context.HashMapContext;
 import org.perf4j.LoggingStopWatch;
+import org.perf4j.helpers.ProfilingSwitches;
+import org.perf4j.helpers.StopWatchSampler;
 
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -19,6 +20,13 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author Marcin Zajączkowski, Alex Devine 
  */
 public class AgnosticTimingAspect {
+    /**
+     * The maximum number of Profiled annotations whose templates are cached. Annotations are normally cached by the
+     * JVM, but should a framework create a new annotation instance on every call the cache is cleared when it fills
+     * up, instead of growing without bound.
+     */
+    private static final int MAX_CACHED_PROFILED = 4096;
+
     /**
      * This Map is used to cache compiled JEXL expressions. While theoretically unbounded, in reality the number of
      * possible keys is equivalent to the number of unique JEXL expressions created in @Profiled annotations, which
@@ -26,6 +34,64 @@ public class AgnosticTimingAspect {
      */
     private Map<String, Expression> jexlExpressionCache = new ConcurrentHashMap<String, Expression>(64, .75F, 16);
 
+    /**
+     * This Map caches the compiled tag and message templates of each Profiled annotation. It is keyed by the identity
+     * of the annotation, as each annotated method has its own annotation instance, and the equals and hashCode
+     * methods of annotations are much too slow to call on every profiled method execution. The map is copied on
+     * write, which is cheap because it only changes when a method is profiled for the first time.
+     */
+    private volatile Map<Profiled, ProfiledTemplates> profiledTemplatesCache =
+            new IdentityHashMap<Profiled, ProfiledTemplates>();
+
+    /**
+     * This Map caches the templates used by {@link #evaluateJexl}, keyed by the template text.
+     */
+    private Map<String, ProfiledTemplate> textTemplateCache =
+            new ConcurrentHashMap<String, ProfiledTemplate>(64, .75F, 16);
+
+    /**
+     * This Map caches the StopWatch prototype of each Profiled annotation, which holds the resolved logger and levels
+     * of the annotation. Like the templates it is keyed by the identity of the annotation and copied on write.
+     */
+    private volatile Map<Profiled, LoggingStopWatch> stopWatchPrototypeCache =
+            new IdentityHashMap<Profiled, LoggingStopWatch>();
+
+    /**
+     * The value of {@link #loggerCacheGeneration} when the stopWatchPrototypeCache was last cleared.
+     */
+    private volatile int stopWatchPrototypeCacheGeneration = loggerCacheGeneration;
+
+    /**
+     * Incremented by {@link #invalidateLoggerCaches} to make all aspects discard their StopWatch prototypes.
+     */
+    private static volatile int loggerCacheGeneration = 0;
+
+    /**
+     * Whether a subclass overrides {@link #evaluateJexl}, in which case tags and messages are evaluated by calling it
+     * instead of evaluating the compiled templates directly.
+     */
+    private final boolean evaluateJexlOverridden = isEvaluateJexlOverridden(getClass());
+
+    /**
+     * Creates a new timing aspect, and makes sure the {@link ProfilingSwitches} and the {@link StopWatchSampler} can be
+     * changed through JMX.
+     */
+    public AgnosticTimingAspect() {
+        ProfilingSwitches.registerDefaultMBean();
+        StopWatchSampler.registerDefaultMBean();
+    }
+
+    /**
+     * Makes all timing aspects discard the loggers and levels they have resolved for Profiled methods, so that they
+     * are resolved again on the next call of each method. The loggers of log4j, SLF4J/logback, commons-logging and
+     * java.util.logging survive a reload of the logging configuration, so this method only needs to be called when
+     * the loggers themselves are replaced, for example when a different log4j LoggerRepository is installed.
+     * {@link org.perf4j.beans.StopWatchFactory#setRootSink} calls it automatically.
+     */
+    public static void invalidateLoggerCaches() {
+        loggerCacheGeneration++;
+    }
+
     /**
      * This method actually executes the profiled method. Your AOP-framework-specific class should delegate to this
      * method to proceed with execution.
@@ -39,8 +105,25 @@ public class AgnosticTimingAspect {
      */
     public Object runProfiledMethod(AbstractJoinPoint joinPoint, Profiled profiled, LoggingStopWatch stopWatch)
             throws Throwable {
+        return runProfiledMethod(joinPoint, profiled, stopWatch, isSwitchedOn(profiled, joinPoint.getMethodName()));
+    }
+
+    /**
+     * Identical to {@link #runProfiledMethod(AbstractJoinPoint, Profiled, LoggingStopWatch)}, but takes the result of
+     * the {@link ProfilingSwitches} check that the caller has already made, so the switches aren't checked again.
+     * The advice of the timing aspects passes true for StopWatches returned by {@link #newProfiledStopWatch}.
+     *
+     * @param joinPoint  The AOP join point.
+     * @param profiled   The Profiled annotation that was set on the method being profiled.
+     * @param stopWatch  This LogginStopWatch should be started JUST before this method is called.
+     * @param switchedOn Whether the StopWatch of the profiled method is switched on in the ProfilingSwitches.
+     * @return The return value from the profiled method.
+     * @throws Throwable Exception thrown by the profiled method will bubble up.
+     */
+    protected Object runProfiledMethod(AbstractJoinPoint joinPoint, Profiled profiled, LoggingStopWatch stopWatch,
+                                       boolean switchedOn) throws Throwable {
         //if we're not going to end up logging the stopwatch, just run the wrapped method
-        if (!stopWatch.isLogging()) {
+        if (!switchedOn || !stopWatch.isLogging()) {
             return joinPoint.proceed();
         }
 
@@ -61,7 +144,11 @@ public class AgnosticTimingAspect {
                 tag = (exceptionThrown == null) ? tag + ".success" : tag + ".failure";
             }
 
-            stopWatch.stop(tag, message);
+            if (stopWatch.isStopQuietlySupported()) {
+                stopWatch.stopQuietly(tag, message);
+            } else {
+                stopWatch.stop(tag, message);
+            }
         }
     }
 
@@ -80,23 +167,15 @@ public class AgnosticTimingAspect {
                                      AbstractJoinPoint joinPoint,
                                      Object returnValue,
                                      Throwable exceptionThrown) {
-        String tag;
-        if (Profiled.DEFAULT_TAG_NAME.equals(profiled.tag())) {
-            // if the tag name is not explicitly set on the Profiled annotation,
-            // use the name of the method being annotated.
-            tag = joinPoint.getMethodName();
-        } else if (profiled.el() && profiled.tag().indexOf("{") >= 0) {
-            tag = evaluateJexl(profiled.tag(),
-                               joinPoint.getMethodName(),
-                               joinPoint.getParameters(),
-                               joinPoint.getExecutingObject(),
-                               joinPoint.getDeclaringClass(),
-                               returnValue,
-                               exceptionThrown);
-        } else {
-            tag = profiled.tag();
+        ProfiledTemplates templates = getProfiledTemplates(profiled);
+        if (templates.tagTemplate != null) {
+            return evaluateJexlOverridden ?
+                   evaluateJexl(profiled.tag(), joinPoint, returnValue, exceptionThrown) :
+                   templates.tagTemplate.evaluate(joinPoint, returnValue, exceptionThrown);
         }
-        return tag;
+        // if the tag name is not explicitly set on the Profiled annotation,
+        // use the name of the method being annotated.
+        return (templates.tag == null) ? joinPoint.getMethodName() : templates.tag;
     }
 
 
@@ -115,27 +194,24 @@ public class AgnosticTimingAspect {
                                          AbstractJoinPoint joinPoint,
                                          Object returnValue,
                                          Throwable exceptionThrown) {
-        String message;
-        if (profiled.el() && profiled.message().indexOf("{") >= 0) {
-            message = evaluateJexl(profiled.message(),
-                                   joinPoint.getMethodName(),
-                                   joinPoint.getParameters(),
-                                   joinPoint.getExecutingObject(),
-                                   joinPoint.getDeclaringClass(),
-                                   returnValue,
-                                   exceptionThrown);
-            if ("".equals(message)) {
-                message = null;
-            }
-        } else {
-            message = "".equals(profiled.message()) ? null : profiled.message();
+        ProfiledTemplates templates = getProfiledTemplates(profiled);
+        if (templates.messageTemplate != null) {
+            String message = evaluateJexlOverridden ?
+                             evaluateJexl(profiled.message(), joinPoint, returnValue, exceptionThrown) :
+                             templates.messageTemplate.evaluate(joinPoint, returnValue, exceptionThrown);
+            return "".equals(message) ? null : message;
         }
-        return message;
+        return templates.message;
     }
 
     /**
      * Helper method is used to parse out {expressionLanguage} elements from the text and evaluate the strings using
-     * JEXL.
+     * JEXL. The text is compiled into a template the first time it is seen, so later calls don't need to parse it
+     * again.
+     * <p/>
+     * The tags and messages of Profiled annotations are evaluated from templates compiled once per annotation, which
+     * only fetch the variables they reference from the join point. If a subclass overrides this method, though, it is
+     * called for every tag and message that contains {expressionLanguage} elements instead.
      *
      * @param text            The text to be parsed.
      * @param methodName      The name of the method that was annotated.
@@ -150,57 +226,60 @@ public class AgnosticTimingAspect {
      * @return The evaluated string.
      * @see Profiled#el()
      */
-    @SuppressWarnings("unchecked")
-	protected String evaluateJexl(String text,
-	                              String methodName,
+    protected String evaluateJexl(String text,
+                                  String methodName,
                                   Object[] args,
                                   Object annotatedObject,
                                   Class<?> annotatedClass,
                                   Object returnValue,
                                   Throwable exceptionThrown) {
-        StringBuilder retVal = new StringBuilder(text.length());
-
-        //create a JexlContext to be used in all evaluations
-        JexlContext jexlContext = new HashMapContext();
-        for (int i = 0; i < args.length; i++) {
-            jexlContext.getVars().put("$" + i, args[i]);
-        }
-        jexlContext.getVars().put("$methodName", methodName);
-        jexlContext.getVars().put("$this", annotatedObject);
-        jexlContext.getVars().put("$class", annotatedClass);
-        jexlContext.getVars().put("$return", returnValue);
-        jexlContext.getVars().put("$exception", exceptionThrown);
-
-        // look for {expression} in the passed in text
-        int bracketIndex;
-        int lastCloseBracketIndex = -1;
-        while ((bracketIndex = text.indexOf('{', lastCloseBracketIndex + 1)) >= 0) {
-            retVal.append(text.substring(lastCloseBracketIndex + 1, bracketIndex));
-
-            lastCloseBracketIndex = text.indexOf('}', bracketIndex + 1);
-            if (lastCloseBracketIndex == -1) {
-                //if there wasn't a closing bracket index just go to the end of the string
-                lastCloseBracketIndex = text.length();
-            }
-
-            String expressionText = text.substring(bracketIndex + 1, lastCloseBracketIndex);
-            if (expressionText.length() > 0) {
-                try {
-                    Object result = getJexlExpression(expressionText).evaluate(jexlContext);
-                    retVal.append(result);
-                } catch (Exception e) {
-                    //we don't want to propagate exceptions up
-                    retVal.append("_EL_ERROR_");
-                }
-            }
+        ProfiledTemplate template = textTemplateCache.get(text);
+        if (template == null) {
+            //as with getJexlExpression, compiling the same template in 2 separate threads is fine
+            textTemplateCache.put(text, template = new ProfiledTemplate(text, this));
         }
+        return template.evaluate(methodName, args, annotatedObject, annotatedClass, returnValue, exceptionThrown);
+    }
 
-        //append the final part
-        if (lastCloseBracketIndex < text.length()) {
-            retVal.append(text.substring(lastCloseBracketIndex + 1, text.length()));
-        }
+    /**
+     * Helper method calls the overridden {@link #evaluateJexl} with the variables of a join point.
+     *
+     * @param text            The tag or message text to be parsed.
+     * @param joinPoint       The join point of the profiled method.
+     * @param returnValue     The value returned from the execution of the profiled method.
+     * @param exceptionThrown The exception thrown, if any, by the profiled method.
+     * @return The evaluated string.
+     */
+    private String evaluateJexl(String text,
+                                AbstractJoinPoint joinPoint,
+                                Object returnValue,
+                                Throwable exceptionThrown) {
+        return evaluateJexl(text,
+                            joinPoint.getMethodName(),
+                            joinPoint.getParameters(),
+                            joinPoint.getExecutingObject(),
+                            joinPoint.getDeclaringClass(),
+                            returnValue,
+                            exceptionThrown);
+    }
 
-        return retVal.toString();
+    /**
+     * Helper method checks whether a subclass of AgnosticTimingAspect overrides {@link #evaluateJexl}.
+     *
+     * @param aspectClass The class of the aspect.
+     * @return true if evaluateJexl is declared by a class below AgnosticTimingAspect.
+     */
+    private static boolean isEvaluateJexlOverridden(Class<?> aspectClass) {
+        for (Class<?> clazz = aspectClass; clazz != AgnosticTimingAspect.class; clazz = clazz.getSuperclass()) {
+            try {
+                clazz.getDeclaredMethod("evaluateJexl", String.class, String.class, Object[].class, Object.class,
+                                        Class.class, Object.class, Throwable.class);
+                return true;
+            } catch (NoSuchMethodException nsme) {
+                //not declared by this class, check its superclass
+            }
+        }
+        return false;
     }
 
     /**
@@ -219,4 +298,209 @@ public class AgnosticTimingAspect {
         }
         return retVal;
     }
+
+    /**
+     * Gets a new, started StopWatch to time a call of a profiled method, or null if the StopWatch would not log
+     * anything, in which case the method should just be run. The StopWatch is cloned from a prototype created by
+     * {@link #newStopWatchPrototype} the first time the method was profiled, so the logger and level of the
+     * Profiled annotation are only resolved once, and nothing is allocated when the logger is disabled or the method
+     * has been switched off in the {@link ProfilingSwitches}.
+     *
+     * @param profiled   The Profiled annotation that was set on the method being profiled.
+     * @param methodName The name of the method being profiled, which is the tag if the annotation doesn't set one.
+     * @return The started StopWatch, or null if its isLogging method returns false or it is switched off.
+     */
+    protected LoggingStopWatch newProfiledStopWatch(Profiled profiled, String methodName) {
+        if (!isSwitchedOn(profiled, methodName)) {
+            return null;
+        }
+        LoggingStopWatch prototype = getStopWatchPrototype(profiled);
+        if (!prototype.isLogging()) {
+            return null;
+        }
+        LoggingStopWatch retVal = prototype.clone();
+        retVal.start();
+        return retVal;
+    }
+
+    /**
+     * Helper method checks whether the StopWatch of a profiled method has been switched off in the default
+     * ProfilingSwitches. The decision is cached with the templates of the annotation until the switches change.
+     *
+     * @param profiled   The Profiled annotation that was set on the method being profiled.
+     * @param methodName The name of the method being profiled.
+     * @return false if the StopWatch is switched off; true if it is switched on, or if that depends on parts of the
+     *         tag that are only known once the method has run, in which case the StopWatch checks it when it stops.
+     */
+    private boolean isSwitchedOn(Profiled profiled, String methodName) {
+        ProfilingSwitches switches = ProfilingSwitches.getDefault();
+        ProfiledTemplates templates = getProfiledTemplates(profiled);
+        SwitchState switchState = templates.switchState;
+        long version = switches.getVersion();
+        if (switchState == null || switchState.version != version) {
+            templates.switchState = switchState = new SwitchState(version, templates.getSwitchDecision(profiled));
+        }
+
+        switch (switchState.decision) {
+            case SwitchState.OFF:
+                return false;
+            case SwitchState.DEPENDS_ON_METHOD_NAME:
+                return switches.isEnabled(methodName, null);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Creates the StopWatch from which the StopWatches for the calls of a profiled method are cloned. Subclasses that
+     * use {@link #newProfiledStopWatch} should override this method to return a LoggingStopWatch for the logger and
+     * level of the Profiled annotation. This implementation returns a plain LoggingStopWatch.
+     *
+     * @param profiled The Profiled annotation that was set on the method being profiled.
+     * @return The prototype StopWatch. It is shared by all threads, and its isLogging method is called on each
+     *         call of the profiled method.
+     */
+    protected LoggingStopWatch newStopWatchPrototype(Profiled profiled) {
+        return new LoggingStopWatch();
+    }
+
+    /**
+     * Helper method gets the StopWatch prototype of a Profiled annotation, either from the cache or by creating it.
+     *
+     * @param profiled The Profiled annotation
+     * @return The StopWatch prototype for the annotation
+     */
+    private LoggingStopWatch getStopWatchPrototype(Profiled profiled) {
+        int generation = loggerCacheGeneration;
+        if (stopWatchPrototypeCacheGeneration != generation) {
+            synchronized (this) {
+                stopWatchPrototypeCache = new IdentityHashMap<Profiled, LoggingStopWatch>();
+                stopWatchPrototypeCacheGeneration = generation;
+            }
+        }
+
+        LoggingStopWatch retVal = stopWatchPrototypeCache.get(profiled);
+        if (retVal == null) {
+            retVal = newStopWatchPrototype(profiled);
+            synchronized (this) {
+                stopWatchPrototypeCache = copyWith(stopWatchPrototypeCache, profiled, retVal);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method gets the compiled tag and message of a Profiled annotation, either from the cache or by compiling
+     * them.
+     *
+     * @param profiled The Profiled annotation
+     * @return The compiled templates of the annotation
+     */
+    private ProfiledTemplates getProfiledTemplates(Profiled profiled) {
+        ProfiledTemplates retVal = profiledTemplatesCache.get(profiled);
+        if (retVal == null) {
+            retVal = new ProfiledTemplates(profiled, this);
+            synchronized (this) {
+                profiledTemplatesCache = copyWith(profiledTemplatesCache, profiled, retVal);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method copies one of the copy-on-write caches that are keyed by Profiled annotation, and adds a value.
+     *
+     * @param cache    The cache to copy
+     * @param profiled The Profiled annotation to add
+     * @param value    The value for the annotation
+     * @return The new cache
+     */
+    private static <V> Map<Profiled, V> copyWith(Map<Profiled, V> cache, Profiled profiled, V value) {
+        Map<Profiled, V> retVal = (cache.size() < MAX_CACHED_PROFILED)
+                ? new IdentityHashMap<Profiled, V>(cache)
+                : new IdentityHashMap<Profiled, V>();
+        retVal.put(profiled, value);
+        return retVal;
+    }
+
+    /**
+     * The compiled tag and message of a Profiled annotation.
+     */
+    private static class ProfiledTemplates {
+        /**
+         * The constant tag, or null if the method name is used as the tag or the tag is a template.
+         */
+        final String tag;
+        final ProfiledTemplate tagTemplate;
+        /**
+         * The constant message, or null if there is no message or the message is a template.
+         */
+        final String message;
+        final ProfiledTemplate messageTemplate;
+        /**
+         * The ProfilingSwitches decision for the annotation, or null if it hasn't been made yet.
+         */
+        volatile SwitchState switchState;
+
+        ProfiledTemplates(Profiled profiled, AgnosticTimingAspect aspect) {
+            String tag = profiled.tag();
+            if (Profiled.DEFAULT_TAG_NAME.equals(tag)) {
+                this.tag = null;
+                this.tagTemplate = null;
+            } else if (profiled.el() && tag.indexOf('{') >= 0) {
+                this.tag = null;
+                this.tagTemplate = new ProfiledTemplate(tag, aspect);
+            } else {
+                this.tag = tag;
+                this.tagTemplate = null;
+            }
+
+            String message = profiled.message();
+            if (profiled.el() && message.indexOf('{') >= 0) {
+                this.message = null;
+                this.messageTemplate = new ProfiledTemplate(message, aspect);
+            } else {
+                this.message = "".equals(message) ? null : message;
+                this.messageTemplate = null;
+            }
+        }
+
+        /**
+         * Checks the current default ProfilingSwitches for the logger and tag of the annotation.
+         *
+         * @param profiled The annotation these templates were compiled from.
+         * @return One of the SwitchState decisions.
+         */
+        int getSwitchDecision(Profiled profiled) {
+            ProfilingSwitches switches = ProfilingSwitches.getDefault();
+            if (!switches.isEnabled(null, profiled.logger())) {
+                return SwitchState.OFF;
+            }
+            if (tagTemplate != null) {
+                Boolean tagPrefixState = switches.getTagPrefixState(tagTemplate.getLiteralPrefix());
+                return (tagPrefixState == null || tagPrefixState) ? SwitchState.ON : SwitchState.OFF;
+            }
+            if (tag == null) {
+                return SwitchState.DEPENDS_ON_METHOD_NAME;
+            }
+            return switches.isEnabled(tag, null) ? SwitchState.ON : SwitchState.OFF;
+        }
+    }
+
+    /**
+     * A ProfilingSwitches decision for a Profiled annotation, and the version of the switches it was made for.
+     */
+    private static class SwitchState {
+        static final int ON = 0;
+        static final int OFF = 1;
+        static final int DEPENDS_ON_METHOD_NAME = 2;
+
+        final long version;
+        final int decision;
+
+        SwitchState(long version, int decision) {
+            this.version = version;
+            this.decision = decision;
+        }
+    }
 }
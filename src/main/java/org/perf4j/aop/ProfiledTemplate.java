@@ -0,0 +1,350 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import org.apache.commons.jexl.Expression;
+import org.apache.commons.jexl.JexlContext;
+import org.apache.commons.jexl.context.HashMapContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A ProfiledTemplate is the compiled form of a {@link Profiled} tag or message that contains {expressionLanguage}
+ * elements. The text is split once into its literal segments and its compiled JEXL expressions, and the variables
+ * referenced by the expressions are recorded, so that evaluating the template only has to fetch and set those
+ * variables instead of rescanning the text and building a context with all of them.
+ * <p/>
+ * Expressions that are simple property paths, like <tt>$0.name</tt>, are evaluated by a
+ * {@link PropertyPathExpression} with cached reflective accessors. JEXL is only used for the other expressions, and for
+ * paths that can't be resolved without it, in which case the JEXL context is created for the first such expression.
+ *
+ * @author Alex Devine
+ * @see Profiled#el()
+ */
+class ProfiledTemplate {
+    /**
+     * The text appended in place of an expression that could not be compiled or evaluated.
+     */
+    static final String EL_ERROR = "_EL_ERROR_";
+
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$(\\w+)");
+
+    private static final int METHOD_NAME = 1;
+    private static final int THIS = 2;
+    private static final int CLASS = 4;
+    private static final int RETURN = 8;
+    private static final int EXCEPTION = 16;
+
+    /**
+     * The variables property paths can start with; parameters are identified by their index.
+     */
+    private static final int METHOD_NAME_VARIABLE = -1;
+    private static final int THIS_VARIABLE = -2;
+    private static final int CLASS_VARIABLE = -3;
+    private static final int RETURN_VARIABLE = -4;
+    private static final int EXCEPTION_VARIABLE = -5;
+
+    /**
+     * The literal text before, between and after the expressions; there is always one more literal than expressions.
+     */
+    private final String[] literals;
+    /**
+     * The compiled expressions. An element is null if its expression text could not be compiled.
+     */
+    private final Expression[] expressions;
+    /**
+     * The expressions that are simple property paths, and the variables they start with. An element is null if its
+     * expression is not a property path.
+     */
+    private final PropertyPathExpression[] paths;
+    private final int[] pathVariables;
+    /**
+     * The indexes of the referenced method parameters, and the names of their variables.
+     */
+    private final int[] parameterIndexes;
+    private final String[] parameterNames;
+    /**
+     * Bit set of the other variables referenced by the expressions.
+     */
+    private final int variables;
+    private final int literalLength;
+
+    /**
+     * Compiles a template.
+     *
+     * @param text   The tag or message text, with {expressionLanguage} elements.
+     * @param aspect The aspect whose {@link AgnosticTimingAspect#getJexlExpression} method is used to compile the
+     *               expressions.
+     */
+    ProfiledTemplate(String text, AgnosticTimingAspect aspect) {
+        List<String> literalList = new ArrayList<String>();
+        List<Expression> expressionList = new ArrayList<Expression>();
+        List<PropertyPathExpression> pathList = new ArrayList<PropertyPathExpression>();
+        TreeSet<Integer> parameterIndexSet = new TreeSet<Integer>();
+        int variables = 0;
+
+        //the text is split the same way as AgnosticTimingAspect.evaluateJexl has always done it
+        StringBuilder literal = new StringBuilder();
+        int bracketIndex;
+        int lastCloseBracketIndex = -1;
+        while ((bracketIndex = text.indexOf('{', lastCloseBracketIndex + 1)) >= 0) {
+            literal.append(text.substring(lastCloseBracketIndex + 1, bracketIndex));
+
+            lastCloseBracketIndex = text.indexOf('}', bracketIndex + 1);
+            if (lastCloseBracketIndex == -1) {
+                //if there wasn't a closing bracket index just go to the end of the string
+                lastCloseBracketIndex = text.length();
+            }
+
+            String expressionText = text.substring(bracketIndex + 1, lastCloseBracketIndex);
+            if (expressionText.length() > 0) {
+                literalList.add(literal.toString());
+                literal.setLength(0);
+
+                Expression expression;
+                try {
+                    expression = aspect.getJexlExpression(expressionText);
+                } catch (Exception e) {
+                    expression = null;
+                }
+                expressionList.add(expression);
+                pathList.add(PropertyPathExpression.compile(expressionText));
+
+                Matcher matcher = VARIABLE_PATTERN.matcher(expressionText);
+                while (matcher.find()) {
+                    String name = matcher.group(1);
+                    if ("methodName".equals(name)) {
+                        variables |= METHOD_NAME;
+                    } else if ("this".equals(name)) {
+                        variables |= THIS;
+                    } else if ("class".equals(name)) {
+                        variables |= CLASS;
+                    } else if ("return".equals(name)) {
+                        variables |= RETURN;
+                    } else if ("exception".equals(name)) {
+                        variables |= EXCEPTION;
+                    } else {
+                        try {
+                            parameterIndexSet.add(Integer.valueOf(name));
+                        } catch (NumberFormatException nfe) {
+                            //not one of our variables, JEXL will resolve it to null
+                        }
+                    }
+                }
+            }
+        }
+
+        //append the final part
+        if (lastCloseBracketIndex < text.length()) {
+            literal.append(text.substring(lastCloseBracketIndex + 1, text.length()));
+        }
+        literalList.add(literal.toString());
+
+        this.literals = literalList.toArray(new String[literalList.size()]);
+        this.expressions = expressionList.toArray(new Expression[expressionList.size()]);
+        this.paths = pathList.toArray(new PropertyPathExpression[pathList.size()]);
+        this.pathVariables = new int[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] != null) {
+                pathVariables[i] = getPathVariable(paths[i].getVariableName());
+                if (pathVariables[i] == Integer.MIN_VALUE) {
+                    //not one of our variables, leave it to JEXL
+                    paths[i] = null;
+                }
+            }
+        }
+        this.parameterIndexes = new int[parameterIndexSet.size()];
+        this.parameterNames = new String[parameterIndexSet.size()];
+        int i = 0;
+        for (Integer parameterIndex : parameterIndexSet) {
+            parameterIndexes[i] = parameterIndex;
+            parameterNames[i++] = "$" + parameterIndex;
+        }
+        this.variables = variables;
+
+        int literalLength = 0;
+        for (String literalSegment : literals) {
+            literalLength += literalSegment.length();
+        }
+        this.literalLength = literalLength;
+    }
+
+    /**
+     * Gets the literal text before the first expression, which every evaluated string starts with.
+     *
+     * @return The literal prefix of the template.
+     */
+    String getLiteralPrefix() {
+        return literals[0];
+    }
+
+    /**
+     * Evaluates this template for a call of a profiled method. Only the variables referenced by the template are
+     * fetched from the join point.
+     *
+     * @param joinPoint       The join point of the profiled method.
+     * @param returnValue     The value returned from the execution of the profiled method, or null if the method
+     *                        returned void or an exception was thrown.
+     * @param exceptionThrown The exception thrown, if any, by the profiled method. Will be null if the method
+     *                        completed normally.
+     * @return The evaluated string.
+     */
+    String evaluate(AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
+        if (expressions.length == 0) {
+            return literals[0];
+        }
+        return evaluate(((variables & METHOD_NAME) != 0) ? joinPoint.getMethodName() : null,
+                        (parameterIndexes.length > 0) ? joinPoint.getParameters() : null,
+                        ((variables & THIS) != 0) ? joinPoint.getExecutingObject() : null,
+                        ((variables & CLASS) != 0) ? joinPoint.getDeclaringClass() : null,
+                        returnValue,
+                        exceptionThrown);
+    }
+
+    /**
+     * Evaluates this template with the specified variable values. Values of variables that the template doesn't
+     * reference may be null.
+     *
+     * @param methodName      The name of the method that was annotated.
+     * @param args            The args that were passed to the method to be profiled.
+     * @param annotatedObject The value of the object whose method was profiled. Will be null if a class method was
+     *                        profiled.
+     * @param annotatedClass  The declaring class of the method that was annotated.
+     * @param returnValue     The value returned from the execution of the profiled method, or null if the method
+     *                        returned void or an exception was thrown.
+     * @param exceptionThrown The exception thrown, if any, by the profiled method. Will be null if the method
+     *                        completed normally.
+     * @return The evaluated string.
+     */
+    String evaluate(String methodName,
+                    Object[] args,
+                    Object annotatedObject,
+                    Class<?> annotatedClass,
+                    Object returnValue,
+                    Throwable exceptionThrown) {
+        if (expressions.length == 0) {
+            return literals[0];
+        }
+
+        JexlContext jexlContext = null;
+        StringBuilder retVal = new StringBuilder(literalLength + 16 * expressions.length);
+        retVal.append(literals[0]);
+        for (int i = 0; i < expressions.length; i++) {
+            try {
+                Object value = PropertyPathExpression.UNRESOLVED;
+                if (paths[i] != null) {
+                    value = paths[i].evaluate(getVariable(pathVariables[i], methodName, args, annotatedObject,
+                                                          annotatedClass, returnValue, exceptionThrown));
+                }
+                if (value == PropertyPathExpression.UNRESOLVED) {
+                    if (expressions[i] == null) {
+                        throw new IllegalStateException("The expression could not be compiled");
+                    }
+                    if (jexlContext == null) {
+                        jexlContext = createJexlContext(methodName, args, annotatedObject, annotatedClass,
+                                                        returnValue, exceptionThrown);
+                    }
+                    value = expressions[i].evaluate(jexlContext);
+                }
+                retVal.append(value);
+            } catch (Exception e) {
+                //we don't want to propagate exceptions up
+                retVal.append(EL_ERROR);
+            }
+            retVal.append(literals[i + 1]);
+        }
+        return retVal.toString();
+    }
+
+    // --- Helper Methods ---
+
+    private static int getPathVariable(String variableName) {
+        if ("methodName".equals(variableName)) {
+            return METHOD_NAME_VARIABLE;
+        } else if ("this".equals(variableName)) {
+            return THIS_VARIABLE;
+        } else if ("class".equals(variableName)) {
+            return CLASS_VARIABLE;
+        } else if ("return".equals(variableName)) {
+            return RETURN_VARIABLE;
+        } else if ("exception".equals(variableName)) {
+            return EXCEPTION_VARIABLE;
+        }
+        try {
+            return Integer.parseInt(variableName);
+        } catch (NumberFormatException nfe) {
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    private static Object getVariable(int variable,
+                                      String methodName,
+                                      Object[] args,
+                                      Object annotatedObject,
+                                      Class<?> annotatedClass,
+                                      Object returnValue,
+                                      Throwable exceptionThrown) {
+        switch (variable) {
+            case METHOD_NAME_VARIABLE:
+                return methodName;
+            case THIS_VARIABLE:
+                return annotatedObject;
+            case CLASS_VARIABLE:
+                return annotatedClass;
+            case RETURN_VARIABLE:
+                return returnValue;
+            case EXCEPTION_VARIABLE:
+                return exceptionThrown;
+            default:
+                return (args != null && variable < args.length) ? args[variable] : null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JexlContext createJexlContext(String methodName,
+                                          Object[] args,
+                                          Object annotatedObject,
+                                          Class<?> annotatedClass,
+                                          Object returnValue,
+                                          Throwable exceptionThrown) {
+        JexlContext retVal = new HashMapContext();
+        Map<String, Object> vars = retVal.getVars();
+        for (int i = 0; args != null && i < parameterIndexes.length && parameterIndexes[i] < args.length; i++) {
+            vars.put(parameterNames[i], args[parameterIndexes[i]]);
+        }
+        if ((variables & METHOD_NAME) != 0) {
+            vars.put("$methodName", methodName);
+        }
+        if ((variables & THIS) != 0) {
+            vars.put("$this", annotatedObject);
+        }
+        if ((variables & CLASS) != 0) {
+            vars.put("$class", annotatedClass);
+        }
+        if ((variables & RETURN) != 0) {
+            vars.put("$return", returnValue);
+        }
+        if ((variables & EXCEPTION) != 0) {
+            vars.put("$exception", exceptionThrown);
+        }
+        return retVal;
+    }
+}
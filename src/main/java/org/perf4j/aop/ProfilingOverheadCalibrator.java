@@ -0,0 +1,378 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import org.perf4j.LoggingStopWatch;
+
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ProfilingOverheadCalibrator measures how much time and memory the timing aspect adds to each call of a
+ * {@link Profiled} method, so that it can be judged whether a method that is called very often should be profiled.
+ * The calibrator runs the aspect's advice around a join point that does nothing, with the aspect's real StopWatches,
+ * loggers and tag expressions, and subtracts the cost of calling the join point without the advice.
+ * <p/>
+ * Note that if the logger of a profiled method is enabled, calibration logs a StopWatch for every measured call. To
+ * avoid this, set the {@link #setLoggerName logger name} to a logger that is enabled, like the real logger, but
+ * whose appenders discard the StopWatches. The calibrator can also be run from the command line:
+ * <pre>
+ * java -cp ... org.perf4j.aop.ProfilingOverheadCalibrator [--calls callsPerSecond] aspectClassName profiledClassName...
+ * </pre>
+ * which prints the overhead of each @Profiled method of the profiled classes, along with the fraction of a CPU it
+ * would take at the specified number of calls per second.
+ *
+ * @author Alex Devine
+ */
+public class ProfilingOverheadCalibrator {
+    /**
+     * The default number of calls that are timed in each measurement round.
+     */
+    public static final int DEFAULT_ITERATIONS = 100000;
+    /**
+     * The number of measurement rounds; the fastest round is used, as the others were slowed down by compilation,
+     * garbage collection or other threads.
+     */
+    private static final int ROUNDS = 5;
+    /**
+     * The getThreadAllocatedBytes(long) method of the com.sun.management.ThreadMXBean, which is not available on all
+     * JVMs. Null if allocations can't be measured.
+     */
+    private static final Method GET_THREAD_ALLOCATED_BYTES = findGetThreadAllocatedBytes();
+
+    private final AgnosticTimingAspect aspect;
+    private int iterations = DEFAULT_ITERATIONS;
+    private String loggerName;
+
+    /**
+     * Creates a calibrator for an AspectJ timing aspect.
+     *
+     * @param aspect The aspect whose overhead is measured.
+     */
+    public ProfilingOverheadCalibrator(AbstractTimingAspect aspect) {
+        this.aspect = aspect;
+    }
+
+    /**
+     * Creates a calibrator for an EJB interceptor timing aspect.
+     *
+     * @param aspect The aspect whose overhead is measured.
+     */
+    public ProfilingOverheadCalibrator(AbstractEjbTimingAspect aspect) {
+        this.aspect = aspect;
+    }
+
+    // --- Bean Properties ---
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Sets the number of calls that are timed in each measurement round. More iterations give more stable results.
+     *
+     * @param iterations The number of calls, defaults to 100000.
+     */
+    public void setIterations(int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+        this.iterations = iterations;
+    }
+
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    /**
+     * Sets the logger used for calibration instead of the logger of the Profiled annotation.
+     *
+     * @param loggerName The logger name, or null to use the logger of each Profiled annotation.
+     */
+    public void setLoggerName(String loggerName) {
+        this.loggerName = loggerName;
+    }
+
+    // --- Calibration Methods ---
+
+    /**
+     * Measures the overhead of each method of a class that is annotated with Profiled. The methods are called with
+     * null arguments and a null executing object, so tag expressions that use them may evaluate differently than in
+     * real calls.
+     *
+     * @param profiledClass The class whose declared methods are calibrated.
+     * @return The calibration of each Profiled method.
+     */
+    public List<Calibration> calibrate(Class<?> profiledClass) {
+        List<Calibration> retVal = new ArrayList<Calibration>();
+        for (Method method : profiledClass.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(Profiled.class)) {
+                retVal.add(calibrate(method, null, new Object[method.getParameterTypes().length]));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Measures the overhead of the timing aspect for calls to a Profiled method. The method itself is not called.
+     *
+     * @param method          The method, whose Profiled annotation is used. If the method isn't annotated, the
+     *                        default Profiled settings are used.
+     * @param executingObject The object whose method is called, as seen by tag expressions. May be null.
+     * @param args            The method arguments, as seen by tag expressions.
+     * @return The calibration of the method.
+     */
+    public Calibration calibrate(Method method, Object executingObject, Object[] args) {
+        Profiled profiled = method.getAnnotation(Profiled.class);
+        if (profiled == null) {
+            profiled = DefaultProfiled.INSTANCE;
+        }
+        if (loggerName != null) {
+            profiled = new CalibrationProfiled(profiled, loggerName);
+        }
+        CalibrationJoinPoint joinPoint = new CalibrationJoinPoint(method, executingObject, args);
+
+        //the first round only warms up the code
+        long minBaselineNanos = Long.MAX_VALUE;
+        long minProfiledNanos = Long.MAX_VALUE;
+        long minAllocatedBytes = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long baselineNanos = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                joinPoint.proceed();
+            }
+            baselineNanos = System.nanoTime() - baselineNanos;
+
+            long allocatedBytes = getAllocatedBytes();
+            long profiledNanos = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                runProfiledMethod(joinPoint, profiled);
+            }
+            profiledNanos = System.nanoTime() - profiledNanos;
+            allocatedBytes = getAllocatedBytes() - allocatedBytes;
+
+            if (round > 0) {
+                minBaselineNanos = Math.min(minBaselineNanos, baselineNanos);
+                minProfiledNanos = Math.min(minProfiledNanos, profiledNanos);
+                minAllocatedBytes = Math.min(minAllocatedBytes, allocatedBytes);
+            }
+        }
+
+        return new Calibration(aspect.getStopWatchTag(profiled, joinPoint, null, null),
+                               Math.max(0.0, (minProfiledNanos - minBaselineNanos) / (double) iterations),
+                               (GET_THREAD_ALLOCATED_BYTES == null) ? -1L : minAllocatedBytes / iterations);
+    }
+
+    // --- Helper Methods ---
+
+    private void runProfiledMethod(AbstractJoinPoint joinPoint, Profiled profiled) {
+        try {
+            //this is what the aspect advice does
+            LoggingStopWatch stopWatch = aspect.newProfiledStopWatch(profiled, joinPoint.getMethodName());
+            if (stopWatch == null) {
+                joinPoint.proceed();
+            } else {
+                aspect.runProfiledMethod(joinPoint, profiled, stopWatch, true);
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("The calibration join point threw an exception", t);
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        if (GET_THREAD_ALLOCATED_BYTES == null) {
+            return 0L;
+        }
+        try {
+            return (Long) GET_THREAD_ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(),
+                                                            Thread.currentThread().getId());
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    private static Method findGetThreadAllocatedBytes() {
+        try {
+            Class<?> threadMXBeanClass = Class.forName("com.sun.management.ThreadMXBean");
+            Object threadMXBean = ManagementFactory.getThreadMXBean();
+            if (!threadMXBeanClass.isInstance(threadMXBean)
+                || !(Boolean) threadMXBeanClass.getMethod("isThreadAllocatedMemorySupported").invoke(threadMXBean)) {
+                return null;
+            }
+            threadMXBeanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threadMXBean, true);
+            return threadMXBeanClass.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            //not a HotSpot based JVM
+            return null;
+        }
+    }
+
+    // --- Main Method ---
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: ProfilingOverheadCalibrator [--calls callsPerSecond] aspectClassName" +
+                               " profiledClassName...");
+            System.out.println("Prints the overhead the timing aspect adds to each @Profiled method of the profiled" +
+                               " classes, and the fraction of a CPU this takes at callsPerSecond calls per second" +
+                               " (1000000 by default).");
+            return;
+        }
+
+        int argIndex = 0;
+        double callsPerSecond = 1000000.0;
+        if ("--calls".equals(args[argIndex])) {
+            callsPerSecond = Double.parseDouble(args[argIndex + 1]);
+            argIndex += 2;
+        }
+        Object aspect = Class.forName(args[argIndex++]).newInstance();
+        ProfilingOverheadCalibrator calibrator = (aspect instanceof AbstractTimingAspect) ?
+                                                 new ProfilingOverheadCalibrator((AbstractTimingAspect) aspect) :
+                                                 new ProfilingOverheadCalibrator((AbstractEjbTimingAspect) aspect);
+        for (; argIndex < args.length; argIndex++) {
+            for (Calibration calibration : calibrator.calibrate(Class.forName(args[argIndex]))) {
+                System.out.println(calibration.toString(callsPerSecond));
+            }
+        }
+    }
+
+    // --- Support Classes ---
+
+    /**
+     * The measured overhead of profiling a method.
+     */
+    public static class Calibration {
+        private final String tag;
+        private final double nanosPerCall;
+        private final long bytesPerCall;
+
+        public Calibration(String tag, double nanosPerCall, long bytesPerCall) {
+            this.tag = tag;
+            this.nanosPerCall = nanosPerCall;
+            this.bytesPerCall = bytesPerCall;
+        }
+
+        /**
+         * Gets the StopWatch tag of the calibrated method.
+         *
+         * @return The tag, as evaluated for the calibration calls.
+         */
+        public String getTag() {
+            return tag;
+        }
+
+        /**
+         * Gets the time the timing aspect adds to each call.
+         *
+         * @return The overhead in nanoseconds.
+         */
+        public double getNanosPerCall() {
+            return nanosPerCall;
+        }
+
+        /**
+         * Gets the memory the timing aspect allocates for each call.
+         *
+         * @return The allocated bytes, or -1 if the JVM can't measure allocations.
+         */
+        public long getBytesPerCall() {
+            return bytesPerCall;
+        }
+
+        /**
+         * Gets the fraction of a CPU the timing aspect takes if the method is called at the specified rate.
+         *
+         * @param callsPerSecond The number of calls per second.
+         * @return The fraction of a CPU, where 1.0 is a whole CPU.
+         */
+        public double getCpuFraction(double callsPerSecond) {
+            return nanosPerCall * callsPerSecond / 1000000000.0;
+        }
+
+        public String toString(double callsPerSecond) {
+            return String.format("%s: %.0f ns/call, %s bytes/call, %.1f%% of a CPU at %.0f calls/s",
+                                 tag,
+                                 nanosPerCall,
+                                 (bytesPerCall < 0L) ? "?" : String.valueOf(bytesPerCall),
+                                 getCpuFraction(callsPerSecond) * 100.0,
+                                 callsPerSecond);
+        }
+
+        public String toString() {
+            return String.format("%s: %.0f ns/call, %s bytes/call",
+                                 tag, nanosPerCall, (bytesPerCall < 0L) ? "?" : String.valueOf(bytesPerCall));
+        }
+    }
+
+    /**
+     * The join point used for calibration, which doesn't call the method.
+     */
+    private static class CalibrationJoinPoint implements AbstractJoinPoint {
+        private final Method method;
+        private final Object executingObject;
+        private final Object[] args;
+
+        CalibrationJoinPoint(Method method, Object executingObject, Object[] args) {
+            this.method = method;
+            this.executingObject = executingObject;
+            this.args = args;
+        }
+
+        public Object proceed() { return null; }
+
+        public Object getExecutingObject() { return executingObject; }
+
+        public Object[] getParameters() { return args; }
+
+        public String getMethodName() { return method.getName(); }
+
+        public Class<?> getDeclaringClass() { return method.getDeclaringClass(); }
+    }
+
+    /**
+     * Profiled settings that only override the logger name.
+     */
+    private static class CalibrationProfiled implements Profiled {
+        private final Profiled profiled;
+        private final String loggerName;
+
+        CalibrationProfiled(Profiled profiled, String loggerName) {
+            this.profiled = profiled;
+            this.loggerName = loggerName;
+        }
+
+        public String tag() { return profiled.tag(); }
+
+        public String message() { return profiled.message(); }
+
+        public String logger() { return loggerName; }
+
+        public String level() { return profiled.level(); }
+
+        public boolean el() { return profiled.el(); }
+
+        public boolean logFailuresSeparately() { return profiled.logFailuresSeparately(); }
+
+        public long timeThreshold() { return profiled.timeThreshold(); }
+
+        public boolean normalAndSlowSuffixesEnabled() { return profiled.normalAndSlowSuffixesEnabled(); }
+
+        public Class<? extends Annotation> annotationType() { return Profiled.class; }
+    }
+}
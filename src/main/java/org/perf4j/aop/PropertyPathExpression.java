@@ -0,0 +1,188 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A PropertyPathExpression evaluates the simple expressions that most {@link Profiled} tags and messages use, such as
+ * <tt>$0</tt>, <tt>$0.name</tt>, <tt>$return.size()</tt> or <tt>$exception.class.simpleName</tt>, without JEXL. Each
+ * step of the path is a JavaBean property, read with its getFoo or isFoo method, or a call of a method without
+ * arguments. The method of each step is looked up the first time the step is evaluated and cached together with the
+ * class it was found for, so later evaluations just check that the class is the same and invoke the method.
+ * <p/>
+ * If a step can't be resolved to a public method, for example because the value is a Map, {@link #evaluate} returns
+ * {@link #UNRESOLVED}, and the expression should be evaluated with JEXL instead.
+ *
+ * @author Alex Devine
+ */
+class PropertyPathExpression {
+    /**
+     * Returned by {@link #evaluate} if the path can't be evaluated without JEXL.
+     */
+    static final Object UNRESOLVED = new Object();
+
+    private static final Pattern PATH_PATTERN = Pattern.compile("\\s*\\$(\\w+)((?:\\.\\w+(?:\\(\\))?)*)\\s*");
+    private static final Pattern STEP_PATTERN = Pattern.compile("\\.(\\w+)(\\(\\))?");
+
+    private final String variableName;
+    private final Step[] steps;
+
+    private PropertyPathExpression(String variableName, Step[] steps) {
+        this.variableName = variableName;
+        this.steps = steps;
+    }
+
+    /**
+     * Compiles an expression if it is a simple property path.
+     *
+     * @param expressionText The text of the expression, without the curly brackets.
+     * @return The compiled expression, or null if the expression is not a property path and must be evaluated by
+     *         JEXL.
+     */
+    static PropertyPathExpression compile(String expressionText) {
+        Matcher matcher = PATH_PATTERN.matcher(expressionText);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        List<Step> steps = new ArrayList<Step>();
+        Matcher stepMatcher = STEP_PATTERN.matcher(matcher.group(2));
+        while (stepMatcher.find()) {
+            steps.add(new Step(stepMatcher.group(1), stepMatcher.group(2) != null));
+        }
+        return new PropertyPathExpression(matcher.group(1), steps.toArray(new Step[steps.size()]));
+    }
+
+    /**
+     * Gets the name of the variable the path starts with, without the leading $.
+     *
+     * @return The variable name, e.g. "0" or "return".
+     */
+    String getVariableName() {
+        return variableName;
+    }
+
+    /**
+     * Evaluates the path.
+     *
+     * @param variableValue The value of the variable the path starts with.
+     * @return The value at the end of the path, null if a value on the path is null, or {@link #UNRESOLVED} if a step
+     *         couldn't be resolved.
+     * @throws Exception Thrown if a getter or method throws an exception.
+     */
+    Object evaluate(Object variableValue) throws Exception {
+        Object retVal = variableValue;
+        for (int i = 0; i < steps.length && retVal != null; i++) {
+            retVal = steps[i].evaluate(retVal);
+            if (retVal == UNRESOLVED) {
+                return UNRESOLVED;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * One property or method call of a path.
+     */
+    private static class Step {
+        private final String name;
+        private final boolean methodCall;
+        /**
+         * The method found for the class of the last value, replaced when a value of a different class comes along.
+         */
+        private volatile Accessor accessor;
+
+        Step(String name, boolean methodCall) {
+            this.name = name;
+            this.methodCall = methodCall;
+        }
+
+        Object evaluate(Object value) throws Exception {
+            Accessor accessor = this.accessor;
+            if (accessor == null || accessor.type != value.getClass()) {
+                this.accessor = accessor = new Accessor(value.getClass(), findMethod(value.getClass()));
+            }
+            return (accessor.method == null) ? UNRESOLVED : accessor.method.invoke(value, (Object[]) null);
+        }
+
+        private Method findMethod(Class<?> type) {
+            if (methodCall) {
+                return findPublicMethod(type, name);
+            }
+
+            String capitalizedName = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            Method retVal = findPublicMethod(type, "get" + capitalizedName);
+            if (retVal == null) {
+                retVal = findPublicMethod(type, "is" + capitalizedName);
+                if (retVal != null && retVal.getReturnType() != Boolean.TYPE) {
+                    retVal = null;
+                }
+            }
+            return (retVal == null || retVal.getReturnType() == Void.TYPE) ? null : retVal;
+        }
+
+        /**
+         * Finds a public method without parameters that is declared by a public class or interface, so it can be
+         * invoked even if the value is an instance of a private class, like the collections returned by
+         * java.util.Collections, or the method is inherited from a class that isn't public.
+         *
+         * @param type       The class of the value.
+         * @param methodName The name of the method.
+         * @return The method, or null if there is no such method.
+         */
+        private static Method findPublicMethod(Class<?> type, String methodName) {
+            if (type == null) {
+                return null;
+            }
+            if (Modifier.isPublic(type.getModifiers())) {
+                try {
+                    Method retVal = type.getMethod(methodName);
+                    if (Modifier.isPublic(retVal.getDeclaringClass().getModifiers())) {
+                        return retVal;
+                    }
+                } catch (NoSuchMethodException nsme) {
+                    return null;
+                }
+            }
+            for (Class<?> interfaceType : type.getInterfaces()) {
+                Method retVal = findPublicMethod(interfaceType, methodName);
+                if (retVal != null) {
+                    return retVal;
+                }
+            }
+            return findPublicMethod(type.getSuperclass(), methodName);
+        }
+    }
+
+    /**
+     * The method to invoke on values of a class; the method is null if the step can't be resolved for the class.
+     */
+    private static class Accessor {
+        final Class<?> type;
+        final Method method;
+
+        Accessor(Class<?> type, Method method) {
+            this.type = type;
+            this.method = method;
+        }
+    }
+}
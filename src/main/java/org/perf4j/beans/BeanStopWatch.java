@@ -20,7 +20,8 @@ import org.perf4j.LoggingStopWatch;
 /**
  * A LoggingStopWatch publishing its log calls to a {@link TimingEventSink}.
  *
- * Usually this type of StopWatch not instantiated directly, but created by a {@link StopWatchFactory}.
+ * Usually this type of StopWatch not instantiated directly, but created by a {@link StopWatchFactory}. Prefer the
+ * stopQuietly and lapQuietly methods, as they never create the StopWatch String.
  *
  * @author Thomas Buckel
  */
@@ -55,4 +56,10 @@ public class BeanStopWatch extends LoggingStopWatch {
         sink.onTimingEvent(this, exception);
     }
 
+    @Override
+    protected final void logQuietly(Throwable exception) {
+        // The sink doesn't need the String representation, so stopQuietly never creates it.
+        sink.onTimingEvent(this, exception);
+    }
+
 }
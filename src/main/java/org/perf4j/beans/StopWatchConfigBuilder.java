@@ -16,7 +16,11 @@
 package org.perf4j.beans;
 
 import org.perf4j.beans.sinks.AsyncCoalescingStatisticsSink;
+import org.perf4j.beans.sinks.StripedAggregatingStatisticsSink;
 import org.perf4j.beans.sinks.TimingStatisticsSink;
+import org.perf4j.helpers.OverflowPolicy;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides a fluent interface to configure and start the {@link StopWatchFactory}, usually used if no
@@ -80,6 +84,31 @@ public class StopWatchConfigBuilder {
                 return this;
             }
 
+            public AsyncStatisticsSinkBuilder timeUnit(TimeUnit timeUnit) {
+                asyncCoalescingStatisticsSink.setTimeUnit(timeUnit);
+                return this;
+            }
+
+            public AsyncStatisticsSinkBuilder aggregationThreads(int aggregationThreads) {
+                asyncCoalescingStatisticsSink.setAggregationThreads(aggregationThreads);
+                return this;
+            }
+
+            public AsyncStatisticsSinkBuilder overflowPolicy(OverflowPolicy overflowPolicy) {
+                asyncCoalescingStatisticsSink.setOverflowPolicy(overflowPolicy);
+                return this;
+            }
+
+            public AsyncStatisticsSinkBuilder overflowTimeout(long overflowTimeout) {
+                asyncCoalescingStatisticsSink.setOverflowTimeout(overflowTimeout);
+                return this;
+            }
+
+            public AsyncStatisticsSinkBuilder histogramPrecision(int histogramPrecision) {
+                asyncCoalescingStatisticsSink.setHistogramPrecision(histogramPrecision);
+                return this;
+            }
+
             public AsyncStatisticsSinkBuilder addStasticsSink(TimingStatisticsSink statisticsSink) {
                 asyncCoalescingStatisticsSink.addStatisticsSink(statisticsSink);
                 return this;
@@ -91,6 +120,57 @@ public class StopWatchConfigBuilder {
         };
     }
 
+    /**
+     * Adds a {@link StripedAggregatingStatisticsSink}, which aggregates timing events on the calling threads instead
+     * of queueing them. Either this method or {@link #addStatisticsSink()} may be invoked, but only once.
+     *
+     * @return The builder for the statistics sink.
+     */
+    public StripedStatisticsSinkBuilder addStripedStatisticsSink() {
+        if (hasAsyncStatisticsSink) {
+            throw new IllegalStateException("addStatisticsSink() has already been invoked. It can only be invoked once for the builder.");
+        }
+        hasAsyncStatisticsSink = true;
+        final StripedAggregatingStatisticsSink stripedStatisticsSink = new StripedAggregatingStatisticsSink();
+        this.rootSinkManager.addSink(stripedStatisticsSink);
+
+        return new StripedStatisticsSinkBuilder() {
+            public StripedStatisticsSinkBuilder timeSlice(long timeSlice) {
+                stripedStatisticsSink.setTimeSlice(timeSlice);
+                return this;
+            }
+
+            public StripedStatisticsSinkBuilder createRollupStatistics(boolean createRollupStatistics) {
+                stripedStatisticsSink.setCreateRollupStatistics(createRollupStatistics);
+                return this;
+            }
+
+            public StripedStatisticsSinkBuilder stripes(int stripes) {
+                stripedStatisticsSink.setStripes(stripes);
+                return this;
+            }
+
+            public StripedStatisticsSinkBuilder timeUnit(TimeUnit timeUnit) {
+                stripedStatisticsSink.setTimeUnit(timeUnit);
+                return this;
+            }
+
+            public StripedStatisticsSinkBuilder histogramPrecision(int histogramPrecision) {
+                stripedStatisticsSink.setHistogramPrecision(histogramPrecision);
+                return this;
+            }
+
+            public StripedStatisticsSinkBuilder addStasticsSink(TimingStatisticsSink statisticsSink) {
+                stripedStatisticsSink.addStatisticsSink(statisticsSink);
+                return this;
+            }
+
+            public StopWatchConfigBuilder endStatisticsSink() {
+                return StopWatchConfigBuilder.this;
+            }
+        };
+    }
+
     public interface AsyncStatisticsSinkBuilder {
 
         AsyncStatisticsSinkBuilder timeSlice(long timeSlice);
@@ -99,10 +179,38 @@ public class StopWatchConfigBuilder {
 
         AsyncStatisticsSinkBuilder queueSize(int queueSize);
 
+        AsyncStatisticsSinkBuilder timeUnit(TimeUnit timeUnit);
+
+        AsyncStatisticsSinkBuilder histogramPrecision(int histogramPrecision);
+
+        AsyncStatisticsSinkBuilder aggregationThreads(int aggregationThreads);
+
+        AsyncStatisticsSinkBuilder overflowPolicy(OverflowPolicy overflowPolicy);
+
+        AsyncStatisticsSinkBuilder overflowTimeout(long overflowTimeout);
+
         AsyncStatisticsSinkBuilder addStasticsSink(TimingStatisticsSink statisticsSink);
 
         StopWatchConfigBuilder endStatisticsSink();
 
     }
 
+    public interface StripedStatisticsSinkBuilder {
+
+        StripedStatisticsSinkBuilder timeSlice(long timeSlice);
+
+        StripedStatisticsSinkBuilder createRollupStatistics(boolean createRollupStatistics);
+
+        StripedStatisticsSinkBuilder stripes(int stripes);
+
+        StripedStatisticsSinkBuilder timeUnit(TimeUnit timeUnit);
+
+        StripedStatisticsSinkBuilder histogramPrecision(int histogramPrecision);
+
+        StripedStatisticsSinkBuilder addStasticsSink(TimingStatisticsSink statisticsSink);
+
+        StopWatchConfigBuilder endStatisticsSink();
+
+    }
+
 }
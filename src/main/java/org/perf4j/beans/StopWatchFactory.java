@@ -16,6 +16,7 @@
 package org.perf4j.beans;
 
 import org.perf4j.LoggingStopWatch;
+import org.perf4j.aop.AgnosticTimingAspect;
 
 /**
  * Like a LogFactory of the various logging frameworks, the {@code StopWatchFactory} is the key
@@ -52,6 +53,8 @@ public final class StopWatchFactory {
             throw new IllegalArgumentException("rootSink must not be null");
         }
         StopWatchFactory.rootSink = rootSink;
+        //the timing aspects cache StopWatches that refer to the old root sink
+        AgnosticTimingAspect.invalidateLoggerCaches();
     }
 
     public static TimingEventSink getRootSink() {
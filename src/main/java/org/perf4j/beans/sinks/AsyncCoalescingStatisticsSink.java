@@ -21,6 +21,9 @@ import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
 import org.perf4j.beans.TimingEventSink;
 import org.perf4j.helpers.GroupingStatisticsIterator;
+import org.perf4j.helpers.InlineStatisticsAggregator;
+import org.perf4j.helpers.OverflowPolicy;
+import org.perf4j.helpers.QueueOverflowHandler;
 
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -60,18 +63,41 @@ public class AsyncCoalescingStatisticsSink implements TimingEventSink {
     /** The QueueSize option, used to set the capacity of the loggedStopWatches queue */
     private int queueSize = 1024;
 
+    /** TimeUnit option, the unit in which the statistics are calculated */
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+
+    /** HistogramPrecision option, the number of significant digits of the percentile histograms, 0 for none */
+    private int histogramPrecision = 0;
+
+    /** AggregationThreads option, the number of threads that aggregate StopWatches into statistics */
+    private int aggregationThreads = 1;
+
+    /** OverflowPolicy option, determines what happens to StopWatches when the queue is full */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+    /** OverflowTimeout option, the maximum time in ms to wait for room in the queue with the BLOCK policy */
+    private long overflowTimeout = 100L;
+
+    /** OverflowWarningInterval option, the minimum time in ms between two warnings reporting a full queue */
+    private long overflowWarningInterval = 10000L;
+
     /**
      * StopWatch log messages are pushed onto this queue, which is initialized in start().
      */
     private BlockingQueue<StopWatch> loggedStopWatches = null;
+    /**
+     * StopWatches are aggregated by this object on the timed threads when the INLINE overflow policy is used and the
+     * queue is full. It is created in start().
+     */
+    private InlineStatisticsAggregator inlineAggregator = null;
     /**
      * This thread pumps logs from the loggedStopWatches queue. It is created in start().
      */
     private Thread drainingThread = null;
     /**
-     * This int keeps track of the total number of messages that had to be discarded due to the queue being full.
+     * Handles the StopWatches that don't fit in the loggedStopWatches queue and counts them. It is created in start().
      */
-    private volatile int numDiscardedMessages = 0;
+    private QueueOverflowHandler<StopWatch> overflowHandler = null;
 
     public AsyncCoalescingStatisticsSink() {
         this(30000L);
@@ -173,6 +199,45 @@ public class AsyncCoalescingStatisticsSink implements TimingEventSink {
         this.createRollupStatistics = createRollupStatistics;
     }
 
+    /**
+     * The <b>TimeUnit</b> option determines the unit of the mean, min, max and standard deviation values of the
+     * GroupedTimingStatistics passed to the statistics sinks. Defaults to milliseconds.
+     *
+     * @return The TimeUnit option.
+     */
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Sets the value of the <b>TimeUnit</b> option.
+     *
+     * @param timeUnit The new TimeUnit option.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * The <b>HistogramPrecision</b> option, if greater than 0, causes the TimingStatistics passed to the statistics
+     * sinks to track histograms with the specified number of significant digits (from 1 to 3), so that percentiles
+     * are available. Defaults to 0, i.e. no histograms.
+     *
+     * @return The HistogramPrecision option.
+     */
+    public int getHistogramPrecision() {
+        return histogramPrecision;
+    }
+
+    /**
+     * Sets the value of the <b>HistogramPrecision</b> option.
+     *
+     * @param histogramPrecision The new HistogramPrecision option.
+     */
+    public void setHistogramPrecision(int histogramPrecision) {
+        this.histogramPrecision = histogramPrecision;
+    }
+
     /**
      * The <b>QueueSize</b> option is used to control the size of the internal queue used by this appender to store
      * logged messages before they are sent to downstream appenders. Defaults to 1024. If set too small and the queue
@@ -194,14 +259,125 @@ public class AsyncCoalescingStatisticsSink implements TimingEventSink {
         this.queueSize = queueSize;
     }
 
+    /**
+     * The <b>AggregationThreads</b> option determines how many threads aggregate the StopWatches into statistics.
+     * Defaults to 1, in which case the draining thread aggregates all StopWatches itself. If greater than 1, the
+     * StopWatches are sharded by tag over the specified number of threads, whose results are combined at the end of
+     * each time slice. The statistics passed to the statistics sinks are identical in both cases.
+     *
+     * @return The AggregationThreads option.
+     */
+    public int getAggregationThreads() {
+        return aggregationThreads;
+    }
+
+    /**
+     * Sets the value of the <b>AggregationThreads</b> option.
+     *
+     * @param aggregationThreads The new AggregationThreads option.
+     */
+    public void setAggregationThreads(int aggregationThreads) {
+        this.aggregationThreads = aggregationThreads;
+    }
+
+    /**
+     * The <b>OverflowPolicy</b> option determines what happens to a StopWatch that doesn't fit in the queue because
+     * the queue is full. Defaults to {@link OverflowPolicy#DROP_NEWEST}, which discards the StopWatch. With
+     * {@link OverflowPolicy#INLINE} the StopWatch is aggregated on the timed thread, so no StopWatches are lost.
+     * Overflows are counted, and a warning is logged at most once every OverflowWarningInterval.
+     *
+     * @return The OverflowPolicy option.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets the value of the <b>OverflowPolicy</b> option.
+     *
+     * @param overflowPolicy The new OverflowPolicy option.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * The <b>OverflowTimeout</b> option is the maximum time, in milliseconds, that a timed thread waits for room in
+     * the queue when the OverflowPolicy is {@link OverflowPolicy#BLOCK}. Defaults to 100 milliseconds.
+     *
+     * @return The OverflowTimeout option.
+     */
+    public long getOverflowTimeout() {
+        return overflowTimeout;
+    }
+
+    /**
+     * Sets the value of the <b>OverflowTimeout</b> option.
+     *
+     * @param overflowTimeout The new OverflowTimeout option, in milliseconds.
+     */
+    public void setOverflowTimeout(long overflowTimeout) {
+        this.overflowTimeout = overflowTimeout;
+    }
+
+    /**
+     * The <b>OverflowWarningInterval</b> option is the minimum time, in milliseconds, between two warnings logged
+     * because the queue was full. Defaults to 10,000 milliseconds. If set to 0, every overflow is logged.
+     *
+     * @return The OverflowWarningInterval option.
+     */
+    public long getOverflowWarningInterval() {
+        return overflowWarningInterval;
+    }
+
+    /**
+     * Sets the value of the <b>OverflowWarningInterval</b> option.
+     *
+     * @param overflowWarningInterval The new OverflowWarningInterval option, in milliseconds.
+     */
+    public void setOverflowWarningInterval(long overflowWarningInterval) {
+        this.overflowWarningInterval = overflowWarningInterval;
+    }
+
     // --- attributes ---
     /**
-     * Returns the number of StopWatch messages that have been discarded due to the queue being full.
+     * Returns the number of StopWatch messages that have been discarded due to the queue being full, regardless of
+     * the overflow policy.
      *
      * @return The number of discarded messages.
      */
     public int getNumDiscardedMessages() {
-        return numDiscardedMessages;
+        return (overflowHandler == null) ? 0 : overflowHandler.getNumDiscardedMessages();
+    }
+
+    /**
+     * Returns the number of queued StopWatches that were discarded to make room for newer ones because the
+     * OverflowPolicy is DROP_OLDEST. These are included in the number of discarded messages.
+     *
+     * @return The number of evicted messages.
+     */
+    public int getNumEvictedMessages() {
+        return (overflowHandler == null) ? 0 : overflowHandler.getNumEvictedMessages();
+    }
+
+    /**
+     * Returns the number of StopWatches that were discarded because the OverflowPolicy is BLOCK and no room became
+     * available in the queue within the OverflowTimeout. These are included in the number of discarded messages.
+     *
+     * @return The number of timed out messages.
+     */
+    public int getNumTimedOutMessages() {
+        return (overflowHandler == null) ? 0 : overflowHandler.getNumTimedOutMessages();
+    }
+
+    /**
+     * Returns the number of StopWatches that were aggregated on the timed thread because the OverflowPolicy is INLINE
+     * and the queue was full.
+     *
+     * @return The number of messages aggregated inline.
+     */
+    public int getNumInlineMessages() {
+        return (overflowHandler == null) ? 0 : overflowHandler.getNumInlineMessages();
     }
 
     // --- main lifecycle methods ---
@@ -212,8 +388,27 @@ public class AsyncCoalescingStatisticsSink implements TimingEventSink {
             stopDrainingThread();
         }
 
-        numDiscardedMessages = 0;
+        inlineAggregator = (overflowPolicy == OverflowPolicy.INLINE) ?
+                           new InlineStatisticsAggregator(timeSlice, createRollupStatistics, timeUnit,
+                                                          histogramPrecision) :
+                           null;
         loggedStopWatches = new ArrayBlockingQueue<StopWatch>(getQueueSize());
+        overflowHandler = new QueueOverflowHandler<StopWatch>(overflowPolicy,
+                                                              overflowTimeout,
+                                                              overflowWarningInterval,
+                                                              loggedStopWatches,
+                                                              FINAL_MESSAGE,
+                                                              inlineAggregator) {
+            protected StopWatch toStopWatch(StopWatch message) {
+                return message;
+            }
+
+            protected void reportOverflows(int numOverflows) {
+                log.warn("The queue of AsyncCoalescingStatisticsSink was full " + numOverflows
+                         + " time(s) since the last warning, overflow policy is " + overflowPolicy
+                         + ", total discarded messages: " + getNumDiscardedMessages());
+            }
+        };
 
         drainingThread = new Thread(new Dispatcher(), "perf4j-async-stats-sink");
         drainingThread.setDaemon(true);
@@ -227,7 +422,7 @@ public class AsyncCoalescingStatisticsSink implements TimingEventSink {
     public void onTimingEvent(StopWatch stopWatch, Throwable e) {
         StopWatch clone = stopWatch.clone(); // clone as we're processing async and the stopwatch might be restarted
         if (!loggedStopWatches.offer(clone)) {
-            ++numDiscardedMessages;
+            overflowHandler.handleOverflow(clone);
         }
     }
 
@@ -269,16 +464,36 @@ public class AsyncCoalescingStatisticsSink implements TimingEventSink {
             GroupingStatisticsIterator statsIterator =
                     new GroupingStatisticsIterator(new StopWatchesFromQueueIterator(),
                                                    timeSlice,
-                                                   createRollupStatistics);
+                                                   createRollupStatistics,
+                                                   timeUnit,
+                                                   histogramPrecision,
+                                                   aggregationThreads);
 
             while (statsIterator.hasNext()) {
                 GroupedTimingStatistics statistics = statsIterator.next();
-                for (TimingStatisticsSink statisticsSink : statisticsSinks) {
-                    try {
-                        statisticsSink.handle(statistics);
-                    } catch (Exception e) {
-                        log.error("Error calling the TimingStatisticsSink: " + statisticsSink.toString(), e);
+                if (inlineAggregator != null) {
+                    //statistics aggregated on the timed threads for earlier time slices are passed on first
+                    for (GroupedTimingStatistics rolledOverStatistics : inlineAggregator.rollOver(statistics)) {
+                        handle(rolledOverStatistics);
                     }
+                } else {
+                    handle(statistics);
+                }
+            }
+
+            if (inlineAggregator != null) {
+                for (GroupedTimingStatistics inlineStatistics : inlineAggregator.removeSlicesBefore(Long.MAX_VALUE)) {
+                    handle(inlineStatistics);
+                }
+            }
+        }
+
+        private void handle(GroupedTimingStatistics statistics) {
+            for (TimingStatisticsSink statisticsSink : statisticsSinks) {
+                try {
+                    statisticsSink.handle(statistics);
+                } catch (Exception e) {
+                    log.error("Error calling the TimingStatisticsSink: " + statisticsSink.toString(), e);
                 }
             }
         }
@@ -0,0 +1,191 @@
+/* Copyright (c) 2011 Thomas Buckel
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.beans.sinks;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.perf4j.StopWatch;
+import org.perf4j.beans.TimingEventSink;
+import org.perf4j.helpers.BinaryStopWatchLogWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes TimingEvents (individual StopWatches) to a file in the compact binary format of the
+ * {@link BinaryStopWatchLogWriter}, so that raw timing events can be kept for much longer than text logs allow. The
+ * file is opened for appending, and can be parsed with the LogParser like a text log. A block that was only partially
+ * written when a previous process died is truncated before the file is reopened.
+ * <p/>
+ * Events are buffered in blocks; a block is written when it is full, every <b>FlushInterval</b> by a background
+ * flusher thread (so events are written even if no more events arrive), and when the sink is stopped.
+ *
+ * @author Thomas Buckel
+ */
+public class BinaryTimingEventSink implements TimingEventSink {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** FileName option, the file the events are written to */
+    private String fileName;
+
+    /** Compress option, whether blocks are compressed */
+    private boolean compress = true;
+
+    /** BlockSize option, the maximum uncompressed size of a block in bytes */
+    private int blockSize = BinaryStopWatchLogWriter.DEFAULT_BLOCK_SIZE;
+
+    /**
+     * FlushInterval option, the maximum time in ms events are buffered before they are written, or 0 to only write
+     * full blocks
+     */
+    private long flushInterval = 10000L;
+
+    private volatile BinaryStopWatchLogWriter writer;
+
+    private Thread flusherThread;
+
+    public BinaryTimingEventSink() {
+    }
+
+    public BinaryTimingEventSink(String fileName) {
+        this.fileName = fileName;
+    }
+
+    // --- options ---
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    // --- TimingEventSink ---
+
+    public synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+        if (fileName == null) {
+            throw new IllegalStateException("The FileName option of the BinaryTimingEventSink must be set");
+        }
+        try {
+            long truncatedBytes = BinaryStopWatchLogWriter.truncateIncompleteBlock(new File(fileName));
+            if (truncatedBytes > 0L) {
+                log.warn("Truncated " + truncatedBytes + " bytes of an incomplete block from the BinaryTimingEventSink"
+                         + " file " + fileName);
+            }
+            writer = new BinaryStopWatchLogWriter(new BufferedOutputStream(new FileOutputStream(fileName, true)),
+                                                  compress, blockSize);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not open the BinaryTimingEventSink file " + fileName, ioe);
+        }
+
+        if (flushInterval > 0L) {
+            flusherThread = new Thread(new Flusher(writer), "perf4j-binary-sink-flusher");
+            flusherThread.setDaemon(true);
+            flusherThread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        if (flusherThread != null) {
+            flusherThread.interrupt();
+            try {
+                flusherThread.join(10000L);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            flusherThread = null;
+        }
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ioe) {
+                log.error("Error closing the BinaryTimingEventSink file " + fileName, ioe);
+            }
+            writer = null;
+        }
+    }
+
+    public void onTimingEvent(StopWatch stopWatch, Throwable e) {
+        BinaryStopWatchLogWriter writer = this.writer;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(stopWatch);
+        } catch (IOException ioe) {
+            log.error("Error writing to the BinaryTimingEventSink file " + fileName, ioe);
+        }
+    }
+
+    /**
+     * The Flusher Runnable writes the buffered events every FlushInterval until it is interrupted.
+     */
+    private class Flusher implements Runnable {
+        private final BinaryStopWatchLogWriter writer;
+
+        public Flusher(BinaryStopWatchLogWriter writer) {
+            this.writer = writer;
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(flushInterval);
+                } catch (InterruptedException ie) {
+                    //we're being stopped, and stop() writes the last block
+                    return;
+                }
+
+                try {
+                    writer.flush();
+                } catch (IOException ioe) {
+                    log.error("Error writing to the BinaryTimingEventSink file " + fileName, ioe);
+                }
+            }
+        }
+    }
+}
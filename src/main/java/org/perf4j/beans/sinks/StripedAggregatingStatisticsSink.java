@@ -0,0 +1,550 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.beans.sinks;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+import org.perf4j.beans.TimingEventSink;
+import org.perf4j.helpers.LogLinearHistogram;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This {@link TimingEventSink} is an alternative to the {@link AsyncCoalescingStatisticsSink} that aggregates timing
+ * events directly on the calling thread, without a queue. Each event is added to one of a number of "stripes",
+ * selected by the calling thread, that hold per-tag accumulators of the count, sum, sum of squares, min, max and
+ * (optionally) histogram of the elapsed times. Because different threads normally use different stripes, calling
+ * threads rarely contend with each other, StopWatches don't need to be cloned, and no events are ever discarded.
+ * <p/>
+ * A background ticker thread swaps out the accumulators of all stripes at each time slice boundary, merges them into
+ * a single {@link GroupedTimingStatistics} and passes it to the configured {@link TimingStatisticsSink}s. Rollup
+ * statistics are also calculated by the ticker thread, when the accumulators are merged.
+ * <p/>
+ * Note that unlike the AsyncCoalescingStatisticsSink, which assigns StopWatches to time slices according to their
+ * start time, this sink assigns each event to the time slice in which it was received, i.e. in which the StopWatch
+ * was stopped. Time slices in which no events were received are not passed to the statistics sinks.
+ *
+ * @author Thomas Buckel
+ */
+public class StripedAggregatingStatisticsSink implements TimingEventSink {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private Collection<TimingStatisticsSink> statisticsSinks = new ArrayList<TimingStatisticsSink>();
+
+    /** TimeSlice option */
+    private long timeSlice = 30000L;
+
+    /** CreateRollupStatistics option */
+    private boolean createRollupStatistics = false;
+
+    /** TimeUnit option, the unit in which the statistics are calculated */
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+
+    /** HistogramPrecision option, the number of significant digits of the percentile histograms, 0 for none */
+    private int histogramPrecision = 0;
+
+    /** Stripes option, the number of stripes, 0 to size the stripes according to the number of processors */
+    private int stripes = 0;
+
+    /**
+     * The stripes that events are aggregated into. The length is always a power of 2. This is null until start() is
+     * called.
+     */
+    private volatile Stripe[] stripeArray = null;
+    /**
+     * This thread publishes the statistics at the end of each time slice. It is created in start().
+     */
+    private Thread tickerThread = null;
+
+    public StripedAggregatingStatisticsSink() {
+        this(30000L);
+    }
+
+    public StripedAggregatingStatisticsSink(long timeSlice) {
+        this(timeSlice, false);
+    }
+
+    public StripedAggregatingStatisticsSink(long timeSlice, boolean createRollupStatistics) {
+        this(timeSlice, createRollupStatistics, Collections.<TimingStatisticsSink>emptyList());
+    }
+
+    public StripedAggregatingStatisticsSink(long timeSlice, boolean createRollupStatistics,
+                                            TimingStatisticsSink... statisticsSinks) {
+        this(timeSlice, createRollupStatistics, Arrays.asList(statisticsSinks));
+    }
+
+    public StripedAggregatingStatisticsSink(long timeSlice, boolean createRollupStatistics,
+                                            Collection<TimingStatisticsSink> statisticsSinks) {
+        this.statisticsSinks = new ArrayList<TimingStatisticsSink>(statisticsSinks);
+        this.timeSlice = timeSlice;
+        this.createRollupStatistics = createRollupStatistics;
+    }
+
+    public void setStatisticsSinks(List<TimingStatisticsSink> statisticsSinks) {
+        if (isStarted()) {
+            throw new IllegalArgumentException("Only allowed if not started.");
+        }
+        this.statisticsSinks = statisticsSinks;
+    }
+
+    public void addStatisticsSink(TimingStatisticsSink statisticsSink) {
+        this.statisticsSinks.add(statisticsSink);
+        if (isStarted()) {
+            statisticsSink.start();
+        }
+    }
+
+    public void removeStatisticsSink(TimingStatisticsSink statisticsSink) {
+        if (this.statisticsSinks.remove(statisticsSink)) {
+            if (isStarted()) {
+                statisticsSink.stop();
+            }
+        }
+    }
+
+    private boolean isStarted() {
+        return tickerThread != null;
+    }
+
+    // --- options ---
+
+    /**
+     * The <b>TimeSlice</b> option represents the length of time, in milliseconds, of the window in which timing
+     * events are coalesced to a single GroupedTimingStatistics and sent to the statistics sinks. Defaults to 30,000
+     * milliseconds.
+     *
+     * @return the TimeSlice option.
+     */
+    public long getTimeSlice() {
+        return timeSlice;
+    }
+
+    /**
+     * Sets the value of the <b>TimeSlice</b> option.
+     *
+     * @param timeSlice The new TimeSlice option, in milliseconds.
+     */
+    public void setTimeSlice(long timeSlice) {
+        this.timeSlice = timeSlice;
+    }
+
+    /**
+     * The <b>CreateRollupStatistics</b> option is used to determine whether "rollup" statistics should be created.
+     * See {@link AsyncCoalescingStatisticsSink#isCreateRollupStatistics()} for details.
+     *
+     * @return The CreateRollupStatistics option.
+     */
+    public boolean isCreateRollupStatistics() {
+        return createRollupStatistics;
+    }
+
+    /**
+     * Sets the value of the <b>CreateRollupStatistics</b> option.
+     *
+     * @param createRollupStatistics The new CreateRollupStatistics option.
+     */
+    public void setCreateRollupStatistics(boolean createRollupStatistics) {
+        this.createRollupStatistics = createRollupStatistics;
+    }
+
+    /**
+     * The <b>TimeUnit</b> option determines the unit of the mean, min, max and standard deviation values of the
+     * GroupedTimingStatistics passed to the statistics sinks. Defaults to milliseconds.
+     *
+     * @return The TimeUnit option.
+     */
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Sets the value of the <b>TimeUnit</b> option.
+     *
+     * @param timeUnit The new TimeUnit option.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * The <b>HistogramPrecision</b> option, if greater than 0, causes the TimingStatistics passed to the statistics
+     * sinks to track histograms with the specified number of significant digits (from 1 to 3), so that percentiles
+     * are available. Defaults to 0, i.e. no histograms.
+     *
+     * @return The HistogramPrecision option.
+     */
+    public int getHistogramPrecision() {
+        return histogramPrecision;
+    }
+
+    /**
+     * Sets the value of the <b>HistogramPrecision</b> option.
+     *
+     * @param histogramPrecision The new HistogramPrecision option.
+     */
+    public void setHistogramPrecision(int histogramPrecision) {
+        this.histogramPrecision = histogramPrecision;
+    }
+
+    /**
+     * The <b>Stripes</b> option determines the number of stripes that timing events are aggregated into, which is
+     * rounded up to a power of 2. More stripes reduce contention between calling threads, at the cost of more memory
+     * and more work at the end of each time slice. Defaults to 0, which means twice the number of available
+     * processors.
+     *
+     * @return The Stripes option.
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Sets the value of the <b>Stripes</b> option. This only takes effect when the sink is started.
+     *
+     * @param stripes The new Stripes option.
+     */
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    // --- main lifecycle methods ---
+
+    public void start() {
+        //start should only be called once, but just in case:
+        if (tickerThread != null) {
+            stopTickerThread();
+        }
+
+        int numStripes = (stripes > 0) ? stripes : 2 * Runtime.getRuntime().availableProcessors();
+        Stripe[] newStripes = new Stripe[Integer.highestOneBit(Math.max(numStripes - 1, 1)) << 1];
+        for (int i = 0; i < newStripes.length; i++) {
+            newStripes[i] = new Stripe();
+        }
+        stripeArray = newStripes;
+
+        tickerThread = new Thread(new Ticker(newStripes), "perf4j-striped-stats-sink");
+        tickerThread.setDaemon(true);
+        tickerThread.start();
+
+        for (TimingStatisticsSink statisticsSink : statisticsSinks) {
+            statisticsSink.start();
+        }
+    }
+
+    public void onTimingEvent(StopWatch stopWatch, Throwable e) {
+        Stripe[] stripes = stripeArray;
+        if (stripes == null) {
+            //not started
+            return;
+        }
+        long threadId = Thread.currentThread().getId();
+        Stripe stripe = stripes[(int) (threadId ^ (threadId >>> 32)) & (stripes.length - 1)];
+        stripe.add(stopWatch.getTag(), stopWatch.getElapsedTime(timeUnit), stopWatch.getCallCount());
+    }
+
+    /**
+     * This method should be called on shutdown to publish the statistics of the final, partial time slice. Events
+     * received while the sink is stopping are included in the final time slice if they reach their stripe before the
+     * ticker thread collects it; later events are ignored, as are events received before the sink is started.
+     */
+    public void stop() {
+        if (tickerThread == null) {
+            //not started
+            return;
+        }
+        //first stop new events from being added, then let the ticker thread close the stripes and publish them
+        stripeArray = null;
+        stopTickerThread();
+        for (TimingStatisticsSink statisticsSink : statisticsSinks) {
+            statisticsSink.stop();
+        }
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method stops the ticker thread, which publishes the current statistics, and waits for it to finish.
+     */
+    private void stopTickerThread() {
+        try {
+            tickerThread.interrupt();
+            tickerThread.join(10000L);
+            if (tickerThread.isAlive()) {
+                log.warn("StripedAggregatingStatisticsSink ticker thread did not publish the final statistics within"
+                         + " 10 seconds, the statistics sinks are stopped before it finishes");
+            }
+        } catch (Exception e) {
+            log.error("Unexpected error stopping StripedAggregatingStatisticsSink ticker thread", e);
+        }
+        tickerThread = null;
+    }
+
+    /**
+     * Helper method swaps out the accumulators of all stripes and merges them into a GroupedTimingStatistics.
+     *
+     * @param stripes   The stripes to collect, which are owned by the ticker thread.
+     * @param startTime The start time of the time slice
+     * @param stopTime  The end time of the time slice
+     * @param close     Whether the stripes should be closed, so that they don't accept any further events
+     * @return The statistics of the time slice, or null if no events were received.
+     */
+    private GroupedTimingStatistics collectStatistics(Stripe[] stripes, long startTime, long stopTime, boolean close) {
+        Map<String, Accumulator> accumulatorsByTag = new HashMap<String, Accumulator>();
+        for (Stripe stripe : stripes) {
+            for (Map.Entry<String, Accumulator> tagAndAccumulator : stripe.swap(close).entrySet()) {
+                Accumulator existing = accumulatorsByTag.get(tagAndAccumulator.getKey());
+                if (existing == null) {
+                    //the swapped out accumulators are no longer used by the calling threads, so we can reuse them
+                    accumulatorsByTag.put(tagAndAccumulator.getKey(), tagAndAccumulator.getValue());
+                } else {
+                    existing.merge(tagAndAccumulator.getValue());
+                }
+            }
+        }
+
+        if (accumulatorsByTag.isEmpty()) {
+            return null;
+        }
+
+        if (createRollupStatistics) {
+            addRollupStatistics(accumulatorsByTag);
+        }
+
+        SortedMap<String, TimingStatistics> statisticsByTag = new TreeMap<String, TimingStatistics>();
+        for (Map.Entry<String, Accumulator> tagAndAccumulator : accumulatorsByTag.entrySet()) {
+            statisticsByTag.put(tagAndAccumulator.getKey(), tagAndAccumulator.getValue().toTimingStatistics());
+        }
+
+        GroupedTimingStatistics retVal =
+                new GroupedTimingStatistics(statisticsByTag, startTime, stopTime, createRollupStatistics);
+        retVal.setTimeUnit(timeUnit);
+        retVal.setHistogramPrecision(histogramPrecision);
+        return retVal;
+    }
+
+    /**
+     * Helper method adds the rollup tags for each tag to the accumulators. Rollups are calculated by merging the
+     * accumulators of the tags, which gives the same results as adding each event to every rollup tag.
+     *
+     * @param accumulatorsByTag The accumulators of the logged tags, which are updated with the rollup tags.
+     */
+    private void addRollupStatistics(Map<String, Accumulator> accumulatorsByTag) {
+        //calculate the rollups separately so the accumulators of the logged tags aren't changed while merging
+        Map<String, Accumulator> rollups = new HashMap<String, Accumulator>();
+        for (Map.Entry<String, Accumulator> tagAndAccumulator : accumulatorsByTag.entrySet()) {
+            String tag = tagAndAccumulator.getKey();
+            int indexOfDot = -1;
+            while ((indexOfDot = tag.indexOf('.', indexOfDot + 1)) >= 0) {
+                String rollupTag = tag.substring(0, indexOfDot);
+                Accumulator rollup = rollups.get(rollupTag);
+                if (rollup == null) {
+                    rollups.put(rollupTag, rollup = new Accumulator(histogramPrecision));
+                }
+                rollup.merge(tagAndAccumulator.getValue());
+            }
+        }
+
+        for (Map.Entry<String, Accumulator> tagAndRollup : rollups.entrySet()) {
+            Accumulator existing = accumulatorsByTag.get(tagAndRollup.getKey());
+            if (existing == null) {
+                accumulatorsByTag.put(tagAndRollup.getKey(), tagAndRollup.getValue());
+            } else {
+                existing.merge(tagAndRollup.getValue());
+            }
+        }
+    }
+
+    /**
+     * Helper method passes the statistics of a time slice to the statistics sinks.
+     *
+     * @param statistics The statistics to publish
+     */
+    private void publishStatistics(GroupedTimingStatistics statistics) {
+        for (TimingStatisticsSink statisticsSink : statisticsSinks) {
+            try {
+                statisticsSink.handle(statistics);
+            } catch (Exception e) {
+                log.error("Error calling the TimingStatisticsSink: " + statisticsSink.toString(), e);
+            }
+        }
+    }
+
+    // --- Support Classes ---
+
+    /**
+     * The Ticker Runnable waits for the end of each time slice, then collects and publishes the statistics. When
+     * interrupted it closes the stripes, publishes the statistics of the current, partial time slice and exits.
+     */
+    private class Ticker implements Runnable {
+        /**
+         * The stripes of this ticker. They are kept here because stop() clears the stripeArray before the final
+         * statistics are collected.
+         */
+        private final Stripe[] stripes;
+
+        public Ticker(Stripe[] stripes) {
+            this.stripes = stripes;
+        }
+
+        public void run() {
+            long now = System.currentTimeMillis();
+            long nextTimeSliceEndTime = ((now / timeSlice) * timeSlice) + timeSlice;
+
+            while (true) {
+                try {
+                    long sleepTime = nextTimeSliceEndTime - System.currentTimeMillis();
+                    if (sleepTime > 0L) {
+                        Thread.sleep(sleepTime);
+                    }
+                } catch (InterruptedException ie) {
+                    //we're being stopped
+                    break;
+                }
+
+                GroupedTimingStatistics statistics =
+                        collectStatistics(stripes, nextTimeSliceEndTime - timeSlice, nextTimeSliceEndTime, false);
+                if (statistics != null) {
+                    publishStatistics(statistics);
+                }
+
+                //if we fell behind (e.g. the system was suspended) skip to the current time slice
+                now = System.currentTimeMillis();
+                nextTimeSliceEndTime = Math.max(nextTimeSliceEndTime + timeSlice,
+                                                ((now / timeSlice) * timeSlice) + timeSlice);
+            }
+
+            GroupedTimingStatistics statistics =
+                    collectStatistics(stripes, nextTimeSliceEndTime - timeSlice, nextTimeSliceEndTime, true);
+            if (statistics != null) {
+                publishStatistics(statistics);
+            }
+        }
+    }
+
+    /**
+     * A Stripe holds the accumulators for the events received on the threads that map to it. All access is
+     * synchronized on the Stripe, but as threads are spread over the stripes the locks are rarely contended.
+     */
+    private class Stripe {
+        /**
+         * The accumulators of the events received since the last swap, or null once the stripe is closed.
+         */
+        private Map<String, Accumulator> accumulatorsByTag = new HashMap<String, Accumulator>();
+
+        public synchronized void add(String tag, long elapsedTime, int callCount) {
+            if (accumulatorsByTag == null) {
+                //the final statistics have already been collected
+                return;
+            }
+            Accumulator accumulator = accumulatorsByTag.get(tag);
+            if (accumulator == null) {
+                accumulatorsByTag.put(tag, accumulator = new Accumulator(histogramPrecision));
+            }
+            accumulator.add(elapsedTime, callCount);
+        }
+
+        /**
+         * Replaces the accumulators with an empty Map, or closes the stripe.
+         *
+         * @param close Whether the stripe should be closed instead of accepting further events.
+         * @return The accumulators of the events received since the previous swap.
+         */
+        public synchronized Map<String, Accumulator> swap(boolean close) {
+            Map<String, Accumulator> retVal = accumulatorsByTag;
+            accumulatorsByTag = close ? null : new HashMap<String, Accumulator>();
+            return (retVal == null) ? Collections.<String, Accumulator>emptyMap() : retVal;
+        }
+    }
+
+    /**
+     * An Accumulator keeps the running count, sum, sum of squares, min and max of the elapsed times of a single tag.
+     * The sums are kept relative to the first elapsed time added (the shift) so that the variance can be computed
+     * accurately even when the times are large compared to their standard deviation.
+     */
+    private static class Accumulator {
+        private int count;
+        private long shift;
+        private double sum;
+        private double sumOfSquares;
+        private long min;
+        private long max;
+        private LogLinearHistogram histogram;
+
+        public Accumulator(int histogramPrecision) {
+            if (histogramPrecision > 0) {
+                histogram = new LogLinearHistogram(histogramPrecision);
+            }
+        }
+
+        public void add(long elapsedTime, int callCount) {
+            if (count == 0) {
+                shift = elapsedTime;
+                min = elapsedTime;
+                max = elapsedTime;
+            } else {
+                if (elapsedTime < min) {
+                    min = elapsedTime;
+                }
+                if (elapsedTime > max) {
+                    max = elapsedTime;
+                }
+            }
+            double diff = elapsedTime - shift;
+            sum += diff * callCount;
+            sumOfSquares += diff * diff * callCount;
+            count += callCount;
+            if (histogram != null) {
+                histogram.recordValue(elapsedTime, callCount);
+            }
+        }
+
+        public void merge(Accumulator other) {
+            if (other.count == 0) {
+                return;
+            }
+            if (count == 0) {
+                shift = other.shift;
+                min = other.min;
+                max = other.max;
+            } else {
+                min = Math.min(min, other.min);
+                max = Math.max(max, other.max);
+            }
+            //re-base the other sums on this accumulator's shift
+            double shiftDiff = other.shift - shift;
+            sum += other.sum + other.count * shiftDiff;
+            sumOfSquares += other.sumOfSquares + 2.0 * shiftDiff * other.sum + other.count * shiftDiff * shiftDiff;
+            count += other.count;
+            if (histogram != null && other.histogram != null) {
+                histogram.add(other.histogram);
+            }
+        }
+
+        public TimingStatistics toTimingStatistics() {
+            double meanDiff = sum / count;
+            double variance = Math.max((sumOfSquares / count) - (meanDiff * meanDiff), 0.0);
+            TimingStatistics retVal =
+                    new TimingStatistics(shift + meanDiff, Math.sqrt(variance), max, min, count);
+            retVal.setHistogram(histogram);
+            return retVal;
+        }
+    }
+}
@@ -134,8 +134,8 @@ public class GraphingStatisticsSink implements TimingStatisticsSink {
 
     /**
      * The <b>GraphType</b> option is used to specify the data that should be displayed on the graph. Acceptable
-     * values are Mean, Min, Max, Count, StdDev and TPS (for transactions per second). Defaults to Mean if not
-     * explicitly set.
+     * values are Mean, Min, Max, Count, StdDev, TPS (for transactions per second) and the percentiles P50, P90, P95,
+     * P99 and P999 (which require the statistics to track histograms). Defaults to Mean if not explicitly set.
      *
      * @return The value of the GraphType option
      */
@@ -145,7 +145,7 @@ public class GraphingStatisticsSink implements TimingStatisticsSink {
 
     /**
      * Sets the value of the <b>GraphType</b> option. This must be a valid type, one of
-     * Mean, Min, Max, Count, StdDev or TPS (for transactions per second).
+     * Mean, Min, Max, Count, StdDev, TPS (for transactions per second), P50, P90, P95, P99 or P999.
      *
      * @param graphType The new value for the GraphType option.
      */
@@ -0,0 +1,107 @@
+/* Copyright (c) 2011 Thomas Buckel
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.beans.sinks.statistics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.beans.sinks.TimingStatisticsSink;
+import org.perf4j.helpers.StatisticsStore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Adds timing statistics to a {@link StatisticsStore}, which keeps them at increasingly coarser resolutions so that
+ * they can be queried long after the logs are gone. The store is opened when the sink is started and closed when it is
+ * stopped; use {@link #getStatisticsStore} to query it while the sink is running.
+ *
+ * @author Thomas Buckel
+ */
+public class StoringTimingStatisticsSink implements TimingStatisticsSink {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** Directory option, the directory of the statistics store */
+    private String directory;
+
+    private volatile StatisticsStore statisticsStore;
+
+    public StoringTimingStatisticsSink() {
+    }
+
+    public StoringTimingStatisticsSink(String directory) {
+        this.directory = directory;
+    }
+
+    // --- options ---
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the statistics store, which can be queried while the sink is started.
+     *
+     * @return The statistics store, or null if the sink is not started.
+     */
+    public StatisticsStore getStatisticsStore() {
+        return statisticsStore;
+    }
+
+    // --- TimingStatisticsSink ---
+
+    public synchronized void start() {
+        if (statisticsStore != null) {
+            return;
+        }
+        if (directory == null) {
+            throw new IllegalStateException("The Directory option of the StoringTimingStatisticsSink must be set");
+        }
+        try {
+            statisticsStore = new StatisticsStore(new File(directory));
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not open the statistics store in " + directory, ioe);
+        }
+    }
+
+    public synchronized void stop() {
+        if (statisticsStore != null) {
+            try {
+                statisticsStore.close();
+            } catch (IOException ioe) {
+                log.error("Error closing the statistics store in " + directory, ioe);
+            }
+            statisticsStore = null;
+        }
+    }
+
+    public void handle(GroupedTimingStatistics statistics) {
+        StatisticsStore statisticsStore = this.statisticsStore;
+        if (statisticsStore == null) {
+            return;
+        }
+        try {
+            statisticsStore.add(statistics);
+        } catch (IOException ioe) {
+            log.error("Error writing to the statistics store in " + directory, ioe);
+        }
+    }
+}
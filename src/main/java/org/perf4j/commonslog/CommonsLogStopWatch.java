@@ -19,6 +19,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.perf4j.LoggingStopWatch;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * This LoggingStopWatch uses an Apache Commons Logging Log instance to persist the StopWatch messages.
  *
@@ -52,6 +54,11 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
     public static final int FATAL_LEVEL = 50000;
 
     private Log logger;
+    /**
+     * A commons-logging Log doesn't expose its name, so the name is only known if the Log was looked up by this
+     * StopWatch, and is null otherwise.
+     */
+    private String loggerName;
     private int normalPriority;
     private int exceptionPriority;
 
@@ -64,6 +71,7 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
      */
     public CommonsLogStopWatch() {
         this("", null, LogFactory.getLog(DEFAULT_LOGGER_NAME), INFO_LEVEL, WARN_LEVEL);
+        this.loggerName = DEFAULT_LOGGER_NAME;
     }
 
     /**
@@ -117,6 +125,7 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
      */
     public CommonsLogStopWatch(String tag) {
         this(tag, null, LogFactory.getLog(DEFAULT_LOGGER_NAME), INFO_LEVEL, WARN_LEVEL);
+        this.loggerName = DEFAULT_LOGGER_NAME;
     }
 
     /**
@@ -180,6 +189,7 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
      */
     public CommonsLogStopWatch(String tag, String message) {
         this(tag, message, LogFactory.getLog(DEFAULT_LOGGER_NAME), INFO_LEVEL, WARN_LEVEL);
+        this.loggerName = DEFAULT_LOGGER_NAME;
     }
 
     /**
@@ -267,13 +277,30 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
     public Log getLogger() { return logger; }
 
     /**
-     * Sets the Apache Commons Logging Logused to persist StopWatch instances.
+     * Sets the Apache Commons Logging Logused to persist StopWatch instances. Since the name of the Log is not known,
+     * only the tag rules of the {@link org.perf4j.helpers.ProfilingSwitches} apply to this StopWatch afterwards; use
+     * {@link #setLoggerName} if the logger rules should apply as well.
      *
      * @param logger The Log this instance should use for persistence. May not be null.
      * @return this instance, for use with method chaining if desired
      */
     public CommonsLogStopWatch setLogger(Log logger) {
         this.logger = logger;
+        this.loggerName = null;
+        return this;
+    }
+
+    /**
+     * Sets the Log used to persist StopWatch instances to the Log with the specified name. Unlike
+     * {@link #setLogger}, this keeps the name, so that the logger rules of the
+     * {@link org.perf4j.helpers.ProfilingSwitches} apply to this StopWatch.
+     *
+     * @param loggerName The name of the Log this instance should use for persistence. May not be null.
+     * @return this instance, for use with method chaining if desired
+     */
+    public CommonsLogStopWatch setLoggerName(String loggerName) {
+        this.logger = LogFactory.getLog(loggerName);
+        this.loggerName = loggerName;
         return this;
     }
 
@@ -354,8 +381,24 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
     	super.setSlowSuffix(slowSuffix);
     	return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public CommonsLogStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
     
     // --- Helper Methods ---
+    /**
+     * Returns the name of the Log this StopWatch uses, so that the logger rules of the
+     * {@link org.perf4j.helpers.ProfilingSwitches} apply to it. The name is only known if the Log was looked up by
+     * name, i.e. by the constructors that don't take a Log or by {@link #setLoggerName}.
+     *
+     * @return The logger name, or null if this StopWatch was given a Log whose name is unknown.
+     */
+    protected String getLoggerName() {
+        return loggerName;
+    }
 
     /**
      * This method returns true if the Log it uses is enabled at the normalPriority level of this StopWatch.
@@ -378,6 +421,19 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
         log(stopWatchAsString, exception, (exception == null) ? normalPriority : exceptionPriority);
     }
 
+    /**
+     * Overridden so that the stopQuietly and lapQuietly methods only create the stop watch string if the Log is
+     * enabled at the relevant level.
+     *
+     * @param exception An exception, if any, that was passed to the stopQuietly or lapQuietly method.
+     */
+    protected void logQuietly(Throwable exception) {
+        int level = (exception == null) ? normalPriority : exceptionPriority;
+        if (isLogging(level)) {
+            log(toString(), exception, level);
+        }
+    }
+
     /**
      * Since Commons Logging doesn't have a first class notion of Level objects or integer values, this method
      * converts the level value to one of the <tt>isXYZEnabled()</tt> methods on the Log.
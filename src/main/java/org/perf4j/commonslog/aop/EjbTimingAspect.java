@@ -1,6 +1,5 @@
 package org.perf4j.commonslog.aop;
 
-import org.apache.commons.logging.LogFactory;
 import org.perf4j.aop.AbstractEjbTimingAspect;
 import org.perf4j.commonslog.CommonsLogStopWatch;
 
@@ -14,6 +13,7 @@ import org.perf4j.commonslog.CommonsLogStopWatch;
 public class EjbTimingAspect extends AbstractEjbTimingAspect {
     protected CommonsLogStopWatch newStopWatch(String loggerName, String levelName) {
         int levelInt = CommonsLogStopWatch.mapLevelName(levelName);
-        return new CommonsLogStopWatch(LogFactory.getLog(loggerName), levelInt, levelInt);
+        return new CommonsLogStopWatch().setLoggerName(loggerName).setNormalPriority(levelInt)
+                .setExceptionPriority(levelInt);
     }
 }
@@ -15,7 +15,6 @@
  */
 package org.perf4j.commonslog.aop;
 
-import org.apache.commons.logging.LogFactory;
 import org.aspectj.lang.annotation.Aspect;
 import org.perf4j.aop.AbstractTimingAspect;
 import org.perf4j.commonslog.CommonsLogStopWatch;
@@ -29,6 +28,7 @@ import org.perf4j.commonslog.CommonsLogStopWatch;
 public class TimingAspect extends AbstractTimingAspect {
     protected CommonsLogStopWatch newStopWatch(String loggerName, String levelName) {
         int levelInt = CommonsLogStopWatch.mapLevelName(levelName);
-        return new CommonsLogStopWatch(LogFactory.getLog(loggerName), levelInt, levelInt);
+        return new CommonsLogStopWatch().setLoggerName(loggerName).setNormalPriority(levelInt)
+                .setExceptionPriority(levelInt);
     }
 }
@@ -0,0 +1,324 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The BinaryStopWatchLogIterator reads the StopWatches written by a {@link BinaryStopWatchLogWriter}. Like the
+ * {@link StopWatchLogIterator} for text logs, its output can be passed directly to a
+ * {@link GroupingStatisticsIterator}. A block that was only partially written, for example because the writing process
+ * died, ends the iteration.
+ * <p/>
+ * If a {@link TagFilter} is given, it is evaluated once for each tag of the segment's tag dictionary, and records with
+ * rejected tags are skipped without creating a StopWatch.
+ *
+ * @author Alex Devine
+ */
+public class BinaryStopWatchLogIterator implements Iterator<StopWatch>, Closeable {
+    private final DataInputStream in;
+    private final TagFilter tagFilter;
+    private final Inflater inflater = new Inflater();
+
+    // --- segment state ---
+    private boolean compressed;
+    private int version;
+    private final List<String> tags = new ArrayList<String>();
+    private final List<Boolean> tagsAccepted = new ArrayList<Boolean>();
+    private long lastStartTime;
+
+    // --- block state ---
+    private byte[] block = new byte[0];
+    private byte[] compressedBlock = new byte[0];
+    private int blockLength = 0;
+    private int blockIndex = 0;
+
+    /**
+     * State variable points to the next StopWatch to be returned, or null if it hasn't been determined yet.
+     */
+    private StopWatch nextStopWatch;
+    private boolean done = false;
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator that reads all StopWatches.
+     *
+     * @param in The stream of binary StopWatch data.
+     * @throws IOException Thrown if the stream doesn't start with a segment header.
+     */
+    public BinaryStopWatchLogIterator(InputStream in) throws IOException {
+        this(in, null);
+    }
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator.
+     *
+     * @param in        The stream of binary StopWatch data.
+     * @param tagFilter If not null, only StopWatches whose tags are accepted by this filter are returned.
+     * @throws IOException Thrown if the stream doesn't start with a segment header.
+     */
+    public BinaryStopWatchLogIterator(InputStream in, TagFilter tagFilter) throws IOException {
+        this.in = new DataInputStream((in instanceof BufferedInputStream) ? in : new BufferedInputStream(in));
+        this.tagFilter = tagFilter;
+        try {
+            if (this.in.readInt() != BinaryStopWatchLogWriter.MAGIC) {
+                throw new IOException("Not a binary StopWatch log");
+            }
+        } catch (EOFException eofe) {
+            throw new IOException("Not a binary StopWatch log");
+        }
+        readSegmentHeader();
+    }
+
+    /**
+     * Determines whether a stream contains binary StopWatch data, by checking the magic number at its start. The
+     * stream must support mark and reset.
+     *
+     * @param in The stream to check. Its position is not changed.
+     * @return true if the stream starts with a segment header.
+     * @throws IOException Thrown if the stream could not be read.
+     */
+    public static boolean isBinaryLog(InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = in.read();
+                if (b < 0) {
+                    return false;
+                }
+                magic = (magic << 8) | b;
+            }
+            return magic == BinaryStopWatchLogWriter.MAGIC;
+        } finally {
+            in.reset();
+        }
+    }
+
+    public boolean hasNext() {
+        if (nextStopWatch == null && !done) {
+            try {
+                nextStopWatch = getNext();
+            } catch (IOException ioe) {
+                throw new RuntimeException("Error reading binary StopWatch log: " + ioe.getMessage(), ioe);
+            }
+            done = (nextStopWatch == null);
+        }
+        return nextStopWatch != null;
+    }
+
+    public StopWatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        StopWatch retVal = nextStopWatch;
+        nextStopWatch = null;
+        return retVal;
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException Thrown if the stream could not be closed.
+     */
+    public void close() throws IOException {
+        done = true;
+        nextStopWatch = null;
+        inflater.end();
+        in.close();
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method decodes the next accepted StopWatch, reading new blocks as needed.
+     *
+     * @return The next StopWatch, or null if there are no more StopWatches.
+     * @throws IOException Thrown if the stream could not be read or is corrupt.
+     */
+    private StopWatch getNext() throws IOException {
+        while (true) {
+            if (blockIndex >= blockLength && !readBlock()) {
+                return null;
+            }
+
+            //tag
+            int tagRef = (int) readVarint();
+            int tagId;
+            if (tagRef == 0) {
+                String tag = readString();
+                tags.add(tag);
+                tagsAccepted.add(tagFilter == null || (tag != null && tagFilter.accept(tag)));
+                tagId = tags.size() - 1;
+            } else {
+                tagId = tagRef - 1;
+                if (tagId >= tags.size()) {
+                    throw new IOException("Corrupt binary StopWatch log: unknown tag " + tagId);
+                }
+            }
+
+            //start time
+            long zigzagDelta = readVarint();
+            long startTime = lastStartTime + ((zigzagDelta >>> 1) ^ -(zigzagDelta & 1L));
+            lastStartTime = startTime;
+
+            //elapsed time and time unit
+            long elapsedTimeAndUnit = readVarint();
+            long callCount = (version >= 2) ? readVarint() + 1L : 1L;
+
+            if (!tagsAccepted.get(tagId)) {
+                skipString();
+                continue;
+            }
+            String message = readString();
+
+            if (callCount > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt binary StopWatch log: invalid call count " + callCount);
+            }
+            StopWatch retVal = new StopWatch(startTime,
+                                             elapsedTimeAndUnit >>> 2,
+                                             BinaryStopWatchLogWriter.TIME_UNITS[(int) (elapsedTimeAndUnit & 3L)],
+                                             tags.get(tagId),
+                                             message);
+            if (callCount > 1L) {
+                retVal.setCallCount((int) callCount);
+            }
+            return retVal;
+        }
+    }
+
+    /**
+     * Helper method reads the next block, and any segment headers before it.
+     *
+     * @return false if there are no more complete blocks.
+     * @throws IOException Thrown if the stream could not be read or is corrupt.
+     */
+    private boolean readBlock() throws IOException {
+        try {
+            int length = in.readInt();
+            while (length == BinaryStopWatchLogWriter.MAGIC) {
+                //a new segment was appended
+                readSegmentHeader();
+                length = in.readInt();
+            }
+            int storedLength = in.readInt();
+            if (length <= 0 || length > BinaryStopWatchLogWriter.MAX_BLOCK_SIZE
+                || storedLength <= 0 || storedLength > BinaryStopWatchLogWriter.MAX_BLOCK_SIZE) {
+                throw new IOException("Corrupt binary StopWatch log: invalid block length");
+            }
+            if (block.length < length) {
+                block = new byte[length];
+            }
+
+            if (compressed) {
+                if (compressedBlock.length < storedLength) {
+                    compressedBlock = new byte[storedLength];
+                }
+                in.readFully(compressedBlock, 0, storedLength);
+                inflater.reset();
+                inflater.setInput(compressedBlock, 0, storedLength);
+                try {
+                    if (inflater.inflate(block, 0, length) != length || !inflater.finished()) {
+                        throw new IOException("Corrupt binary StopWatch log: invalid compressed block");
+                    }
+                } catch (DataFormatException dfe) {
+                    throw new IOException("Corrupt binary StopWatch log: " + dfe.getMessage());
+                }
+            } else {
+                in.readFully(block, 0, length);
+            }
+
+            blockLength = length;
+            blockIndex = 0;
+            return true;
+        } catch (EOFException eofe) {
+            //the end of the stream, or a block that was only partially written
+            return false;
+        }
+    }
+
+    private void readSegmentHeader() throws IOException {
+        version = in.readUnsignedByte();
+        if (version < 1 || version > BinaryStopWatchLogWriter.VERSION) {
+            throw new IOException("Unsupported binary StopWatch log version: " + version);
+        }
+        compressed = (in.readUnsignedByte() & BinaryStopWatchLogWriter.FLAG_DEFLATE) != 0;
+        tags.clear();
+        tagsAccepted.clear();
+        lastStartTime = 0L;
+    }
+
+    private long readVarint() throws IOException {
+        long retVal = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (blockIndex >= blockLength) {
+                throw new IOException("Corrupt binary StopWatch log: truncated record");
+            }
+            byte b = block[blockIndex++];
+            retVal |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return retVal;
+            }
+        }
+        throw new IOException("Corrupt binary StopWatch log: invalid varint");
+    }
+
+    private String readString() throws IOException {
+        int length = readStringLength();
+        if (length < 0) {
+            return null;
+        }
+        String retVal = new String(block, blockIndex, length, "UTF-8");
+        blockIndex += length;
+        return retVal;
+    }
+
+    private void skipString() throws IOException {
+        int length = readStringLength();
+        if (length > 0) {
+            blockIndex += length;
+        }
+    }
+
+    private int readStringLength() throws IOException {
+        long length = readVarint() - 1L;
+        if (length > blockLength - blockIndex) {
+            throw new IOException("Corrupt binary StopWatch log: truncated string");
+        }
+        return (int) length;
+    }
+}
@@ -0,0 +1,325 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * The BinaryStopWatchLogWriter writes StopWatches in a compact binary format, which takes a fraction of the space of
+ * the text format and is much faster to read with a {@link BinaryStopWatchLogIterator}. It can be used directly, or
+ * through the {@link org.perf4j.beans.sinks.BinaryTimingEventSink}.
+ * <p/>
+ * The format consists of segments, each starting with a header of the magic number "P4JB", a version byte and a flags
+ * byte. The header is followed by blocks, each framed by its uncompressed length and its stored length, and optionally
+ * compressed with deflate. Appending a new segment to an existing file is allowed, so a file can be reopened for
+ * appending; call {@link #truncateIncompleteBlock(File)} first, so a block that was only partially written when the
+ * previous writer died doesn't hide the new segment from the reader. Each block contains StopWatch records with these
+ * fields:
+ * <ol>
+ * <li>The tag, as a varint reference to the segment's tag dictionary. 0 means the tag is new and follows as a
+ *     string, after which it is added to the dictionary; otherwise the value is the index of the tag plus 1.
+ * <li>The start time, as a zigzag varint delta from the start time of the previous record of the segment. The
+ *     delta can be negative, since StopWatches are written when they stop.
+ * <li>The elapsed time shifted left by 2 bits, with the time unit in the low 2 bits, as a varint.
+ * <li>The call count minus 1, as a varint. This field was added in version 2 of the format; in version 1 segments
+ *     every StopWatch stands for a single call.
+ * <li>The message, as a string.
+ * </ol>
+ * Strings are written as a varint of their UTF-8 length plus 1, followed by the UTF-8 bytes; a length of 0 means null.
+ * <p/>
+ * Records are buffered until a block is full, so call {@link #flush()} to make sure the StopWatches written so far
+ * can be read. Instances of this class are thread safe.
+ *
+ * @author Alex Devine
+ */
+public class BinaryStopWatchLogWriter implements Closeable, Flushable {
+    /**
+     * The default maximum uncompressed size of a block, in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    static final int MAGIC = 0x50344A42; //"P4JB"
+    static final int VERSION = 2;
+    static final int FLAG_DEFLATE = 1;
+    /**
+     * Blocks larger than this are rejected by the reader, which also ensures a block length can't equal MAGIC.
+     */
+    static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+    static final TimeUnit[] TIME_UNITS = {
+            TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS, TimeUnit.MILLISECONDS, TimeUnit.SECONDS
+    };
+
+    private final DataOutputStream out;
+    private final int blockSize;
+    /**
+     * Compresses the blocks, null if blocks are not compressed.
+     */
+    private final Deflater deflater;
+    /**
+     * Maps each tag written to the segment to its index in the tag dictionary.
+     */
+    private final Map<String, Integer> tagIds = new HashMap<String, Integer>();
+    /**
+     * The dictionary index of a null tag, or null if no null tag was written.
+     */
+    private Integer nullTagId = null;
+    private int nextTagId = 0;
+    private long lastStartTime = 0L;
+    /**
+     * The records of the current block.
+     */
+    private byte[] block;
+    private int blockLength = 0;
+    private byte[] compressedBlock;
+    private boolean closed = false;
+
+    /**
+     * Creates a new BinaryStopWatchLogWriter that writes compressed blocks of the default size.
+     *
+     * @param out The stream to write to.
+     * @throws IOException Thrown if the segment header could not be written.
+     */
+    public BinaryStopWatchLogWriter(OutputStream out) throws IOException {
+        this(out, true, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new BinaryStopWatchLogWriter.
+     *
+     * @param out       The stream to write to. If it already contains StopWatches in the binary format, for example
+     *                  because a file is opened for appending, a new segment is started.
+     * @param compress  Whether blocks are compressed with deflate.
+     * @param blockSize The maximum uncompressed size of a block, in bytes. Larger blocks compress better, but more
+     *                  StopWatches are lost if the process dies before they are flushed.
+     * @throws IOException Thrown if the segment header could not be written.
+     */
+    public BinaryStopWatchLogWriter(OutputStream out, boolean compress, int blockSize) throws IOException {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE / 2) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        this.out = new DataOutputStream(out);
+        this.blockSize = blockSize;
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        this.block = new byte[Math.min(blockSize, 1024) + 64];
+
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeByte(compress ? FLAG_DEFLATE : 0);
+    }
+
+    /**
+     * Writes a StopWatch. The StopWatch is buffered until the current block is full or {@link #flush()} is called.
+     *
+     * @param stopWatch The StopWatch to write.
+     * @throws IOException Thrown if a full block could not be written.
+     */
+    public synchronized void write(StopWatch stopWatch) throws IOException {
+        if (closed) {
+            throw new IOException("The writer is closed");
+        }
+
+        String tag = stopWatch.getTag();
+        Integer tagId = (tag == null) ? nullTagId : tagIds.get(tag);
+        if (tagId == null) {
+            writeVarint(0L);
+            writeString(tag);
+            if (tag == null) {
+                nullTagId = nextTagId++;
+            } else {
+                tagIds.put(tag, nextTagId++);
+            }
+        } else {
+            writeVarint(tagId + 1L);
+        }
+
+        long startTime = stopWatch.getStartTime();
+        long startTimeDelta = startTime - lastStartTime;
+        writeVarint((startTimeDelta << 1) ^ (startTimeDelta >> 63));
+        lastStartTime = startTime;
+
+        writeVarint((stopWatch.getElapsedTime() << 2) | getTimeUnitIndex(stopWatch.getTimeUnit()));
+        writeVarint(stopWatch.getCallCount() - 1L);
+        writeString(stopWatch.getMessage());
+
+        if (blockLength >= blockSize) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the StopWatches buffered in the current block, and flushes the underlying stream.
+     *
+     * @throws IOException Thrown if the block could not be written.
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            writeBlock();
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes the StopWatches buffered in the current block and closes the underlying stream.
+     *
+     * @throws IOException Thrown if the block could not be written.
+     */
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            try {
+                writeBlock();
+            } finally {
+                closed = true;
+                if (deflater != null) {
+                    deflater.end();
+                }
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Truncates a binary StopWatch log file after its last complete block or segment header, discarding a block that
+     * was only partially written, for example because the writing process died. This must be called before the file
+     * is reopened for appending, because the reader stops at the first incomplete block. Only the framing of the
+     * blocks is checked; their content is not decoded.
+     *
+     * @param file The file to check. Nothing is done if it doesn't exist or is empty.
+     * @return The number of bytes that were truncated.
+     * @throws IOException Thrown if the file could not be read or truncated, or if it is not a binary StopWatch log.
+     */
+    public static long truncateIncompleteBlock(File file) throws IOException {
+        if (!file.exists() || file.length() == 0L) {
+            return 0L;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long fileLength = raf.length();
+            long validLength = 0L;
+            while (validLength + 4L <= fileLength) {
+                raf.seek(validLength);
+                int length = raf.readInt();
+                if (length == MAGIC) {
+                    if (validLength + 6L > fileLength) {
+                        break;
+                    }
+                    validLength += 6L;
+                    continue;
+                }
+                if (validLength == 0L) {
+                    throw new IOException("Not a binary StopWatch log: " + file);
+                }
+                if (validLength + 8L > fileLength) {
+                    break;
+                }
+                int storedLength = raf.readInt();
+                if (length <= 0 || length > MAX_BLOCK_SIZE || storedLength <= 0 || storedLength > MAX_BLOCK_SIZE
+                    || validLength + 8L + storedLength > fileLength) {
+                    break;
+                }
+                validLength += 8L + storedLength;
+            }
+
+            if (validLength < fileLength) {
+                raf.setLength(validLength);
+            }
+            return fileLength - validLength;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private void writeBlock() throws IOException {
+        if (blockLength == 0) {
+            return;
+        }
+
+        out.writeInt(blockLength);
+        if (deflater == null) {
+            out.writeInt(blockLength);
+            out.write(block, 0, blockLength);
+        } else {
+            deflater.reset();
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            //deflate never expands its input by more than a few bytes per 16KB
+            int maxCompressedLength = blockLength + (blockLength >> 12) + 64;
+            if (compressedBlock == null || compressedBlock.length < maxCompressedLength) {
+                compressedBlock = new byte[maxCompressedLength];
+            }
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                compressedLength += deflater.deflate(compressedBlock, compressedLength,
+                                                     compressedBlock.length - compressedLength);
+            }
+            out.writeInt(compressedLength);
+            out.write(compressedBlock, 0, compressedLength);
+        }
+        blockLength = 0;
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0L) {
+            block[blockLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        block[blockLength++] = (byte) value;
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarint(0L);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            writeVarint(bytes.length + 1L);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, block, blockLength, bytes.length);
+            blockLength += bytes.length;
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (blockLength + length > block.length) {
+            byte[] newBlock = new byte[Math.max(block.length * 2, blockLength + length)];
+            System.arraycopy(block, 0, newBlock, 0, blockLength);
+            block = newBlock;
+        }
+    }
+
+    private static int getTimeUnitIndex(TimeUnit timeUnit) {
+        for (int i = 0; i < TIME_UNITS.length; i++) {
+            if (TIME_UNITS[i] == timeUnit) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported time unit: " + timeUnit);
+    }
+}
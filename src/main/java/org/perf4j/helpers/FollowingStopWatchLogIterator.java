@@ -0,0 +1,395 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.zip.CRC32;
+
+/**
+ * The FollowingStopWatchLogIterator parses StopWatches from a log file that is still being written, like
+ * <tt>tail -f</tt>. When the end of the file is reached it waits for more data, and then returns null so that a
+ * {@link GroupingStatisticsIterator} can complete a time slice once it is over. The iterator never ends, unless it is
+ * closed or the waiting thread is interrupted.
+ * <p/>
+ * Only complete lines are parsed. If the log is rotated, i.e. renamed and replaced by a new file with the same name,
+ * the rest of the old file is read before the iterator continues with the new file. A file is identified by a
+ * checksum of its first bytes, so rotation is also detected when the log is truncated and rewritten.
+ * <p/>
+ * {@link #getCheckpoint()} returns the position of the iterator, which can be passed to the constructor of a new
+ * iterator to resume reading the same file after a restart. If the log was rotated in the meantime, the new file is
+ * read from its start.
+ *
+ * @author Alex Devine
+ */
+public class FollowingStopWatchLogIterator implements Iterator<StopWatch>, Closeable {
+    /**
+     * The default time, in milliseconds, to wait for more data once the end of the file is reached.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 1000L;
+    /**
+     * The maximum number of bytes at the start of a file used to identify it.
+     */
+    private static final int MAX_FINGERPRINT_LENGTH = 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final File logFile;
+    private final StopWatchParser stopWatchParser;
+    private final long pollInterval;
+    private final CharsetDecoder decoder;
+    /**
+     * The currently open file, which may have been renamed since it was opened.
+     */
+    private RandomAccessFile openFile;
+    private int fingerprintLength;
+    private long fingerprint;
+    /**
+     * Bytes read from the open file that don't form a complete line yet are kept in this buffer.
+     */
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int bufferStart;
+    private int bufferEnd;
+    /**
+     * The offset in the open file of the byte at bufferStart, which is the start of the next line to be read.
+     */
+    private long position;
+    /**
+     * The offset of the line whose StopWatches are in pendingStopWatches.
+     */
+    private long pendingLineOffset;
+    /**
+     * The number of StopWatches of the line at pendingLineOffset that have already been returned.
+     */
+    private int pendingLineStopWatchesRead;
+    /**
+     * The number of StopWatches of the first line to skip, because they were read before a restart.
+     */
+    private int stopWatchesToSkip;
+    private final LinkedList<StopWatch> pendingStopWatches = new LinkedList<StopWatch>();
+    /**
+     * Set when the log file was rotated, so the rest of the open file is read before switching to the new file.
+     */
+    private boolean rotated;
+    private boolean closed;
+
+    /**
+     * Creates a new FollowingStopWatchLogIterator that starts reading at the beginning of the specified file.
+     *
+     * @param logFile         The log file to follow.
+     * @param stopWatchParser The parser used to parse StopWatches from the log. If null, a new StopWatchParser is
+     *                        used.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public FollowingStopWatchLogIterator(File logFile, StopWatchParser stopWatchParser) throws IOException {
+        this(logFile, stopWatchParser, DEFAULT_POLL_INTERVAL, null);
+    }
+
+    /**
+     * Creates a new FollowingStopWatchLogIterator that resumes reading the specified file at a checkpoint.
+     *
+     * @param logFile         The log file to follow.
+     * @param stopWatchParser The parser used to parse StopWatches from the log. If null, a new StopWatchParser is
+     *                        used.
+     * @param pollInterval    The time, in milliseconds, to wait for more data once the end of the file is reached.
+     * @param checkpoint      The position where reading resumes. If null, or if the file at the checkpoint is no
+     *                        longer the log file, the file is read from its start.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public FollowingStopWatchLogIterator(File logFile,
+                                         StopWatchParser stopWatchParser,
+                                         long pollInterval,
+                                         LogFollowCheckpoint checkpoint) throws IOException {
+        this.logFile = logFile;
+        this.stopWatchParser = (stopWatchParser == null) ? new StopWatchParser() : stopWatchParser;
+        this.pollInterval = pollInterval;
+        this.decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        openLogFile();
+        if (checkpoint != null
+            && checkpoint.getFingerprintLength() <= openFile.length()
+            && checkpoint.getOffset() <= openFile.length()
+            && computeFingerprint(openFile, checkpoint.getFingerprintLength()) == checkpoint.getFingerprint()) {
+            position = checkpoint.getOffset();
+            stopWatchesToSkip = checkpoint.getStopWatchesToSkip();
+        }
+        openFile.seek(position);
+    }
+
+    /**
+     * Always returns true unless this iterator was closed, since more StopWatches may be written to the log.
+     *
+     * @return true if the log is still being followed.
+     */
+    public boolean hasNext() {
+        return !closed;
+    }
+
+    /**
+     * Returns the next StopWatch from the log. If there is none, this method waits for the poll interval and returns
+     * null if there is still no new StopWatch.
+     *
+     * @return The next StopWatch, or null if no StopWatch was written to the log.
+     */
+    public StopWatch next() {
+        if (closed) {
+            throw new NoSuchElementException();
+        }
+        try {
+            StopWatch retVal = getNext();
+            if (retVal == null) {
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException ie) {
+                    //stop following the log, but let the caller see the interrupt
+                    Thread.currentThread().interrupt();
+                    close();
+                    return null;
+                }
+                retVal = getNext();
+            }
+            return retVal;
+        } catch (IOException ioe) {
+            throw new RuntimeException("Error reading StopWatch log: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Gets the current position of this iterator. A new iterator created with this checkpoint returns the StopWatches
+     * that this iterator has not returned yet.
+     *
+     * @return The checkpoint.
+     */
+    public LogFollowCheckpoint getCheckpoint() {
+        return pendingStopWatches.isEmpty() ?
+               new LogFollowCheckpoint(fingerprintLength, fingerprint, position, 0) :
+               new LogFollowCheckpoint(fingerprintLength, fingerprint, pendingLineOffset, pendingLineStopWatchesRead);
+    }
+
+    /**
+     * Stops following the log and closes the open file.
+     *
+     * @throws IOException Thrown if the file could not be closed.
+     */
+    public void close() throws IOException {
+        closed = true;
+        pendingStopWatches.clear();
+        if (openFile != null) {
+            openFile.close();
+            openFile = null;
+        }
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method reads lines until one with a StopWatch is found.
+     *
+     * @return The next StopWatch, or null if the end of the log has been reached.
+     * @throws IOException Thrown if the log could not be read.
+     */
+    private StopWatch getNext() throws IOException {
+        while (pendingStopWatches.isEmpty() && !closed) {
+            long lineOffset = position;
+            CharBuffer line = readLine();
+            if (line == null) {
+                if (rotated) {
+                    //the old file has been read to the end, so switch to the new one
+                    if (bufferEnd > bufferStart) {
+                        //the last line of the old file will never be completed
+                        parseLine(lineOffset, decodeBufferedBytes(bufferEnd, bufferEnd));
+                    }
+                    openLogFile();
+                    rotated = false;
+                } else if (isRotated()) {
+                    //read the old file once more, it may have been written to before it was renamed
+                    rotated = true;
+                } else {
+                    return null;
+                }
+            } else {
+                parseLine(lineOffset, line);
+            }
+        }
+        if (pendingStopWatches.isEmpty()) {
+            return null;
+        }
+        pendingLineStopWatchesRead++;
+        return pendingStopWatches.removeFirst();
+    }
+
+    /**
+     * Parses the StopWatches of a line into the pendingStopWatches.
+     *
+     * @param lineOffset The offset of the line in the file.
+     * @param line       The line.
+     */
+    private void parseLine(long lineOffset, CharBuffer line) {
+        if (stopWatchParser.isSingleMatchPerLine()) {
+            StopWatch stopWatch = stopWatchParser.parseStopWatch(line.toString());
+            if (stopWatch != null) {
+                pendingStopWatches.add(stopWatch);
+            }
+        } else {
+            Matcher matcher = stopWatchParser.getPattern().matcher(line);
+            while (matcher.find()) {
+                StopWatch stopWatch = stopWatchParser.parseStopWatchFromLogMatch(matcher);
+                if (stopWatch != null) {
+                    pendingStopWatches.add(stopWatch);
+                }
+            }
+        }
+
+        pendingLineOffset = lineOffset;
+        pendingLineStopWatchesRead = 0;
+        //the StopWatches of the first line after a restart may have been read already
+        for (; stopWatchesToSkip > 0 && !pendingStopWatches.isEmpty(); stopWatchesToSkip--) {
+            pendingStopWatches.removeFirst();
+            pendingLineStopWatchesRead++;
+        }
+        stopWatchesToSkip = 0;
+    }
+
+    /**
+     * Reads the next complete line from the open file.
+     *
+     * @return The decoded line, without its line terminator, or null if there is no complete line.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    private CharBuffer readLine() throws IOException {
+        int searchIndex = bufferStart;
+        while (true) {
+            for (int i = searchIndex; i < bufferEnd; i++) {
+                if (buffer[i] == '\n') {
+                    int lineEnd = (i > bufferStart && buffer[i - 1] == '\r') ? i - 1 : i;
+                    return decodeBufferedBytes(lineEnd, i + 1);
+                }
+            }
+            searchIndex = bufferEnd;
+
+            //no complete line in the buffer, so read more data
+            if (bufferStart > 0) {
+                System.arraycopy(buffer, bufferStart, buffer, 0, bufferEnd - bufferStart);
+                searchIndex -= bufferStart;
+                bufferEnd -= bufferStart;
+                bufferStart = 0;
+            }
+            if (bufferEnd == buffer.length) {
+                byte[] newBuffer = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, newBuffer, 0, bufferEnd);
+                buffer = newBuffer;
+            }
+            int bytesRead = openFile.read(buffer, bufferEnd, buffer.length - bufferEnd);
+            if (bytesRead <= 0) {
+                return null;
+            }
+            bufferEnd += bytesRead;
+        }
+    }
+
+    /**
+     * Decodes the bytes of the buffer from bufferStart, and consumes them.
+     *
+     * @param end         The index after the last byte to decode.
+     * @param consumedEnd The index after the last byte to consume.
+     * @return The decoded characters.
+     * @throws IOException Not expected, since malformed input is replaced.
+     */
+    private CharBuffer decodeBufferedBytes(int end, int consumedEnd) throws IOException {
+        CharBuffer retVal = decoder.decode(ByteBuffer.wrap(buffer, bufferStart, end - bufferStart));
+        position += consumedEnd - bufferStart;
+        bufferStart = consumedEnd;
+        return retVal;
+    }
+
+    /**
+     * Checks whether the file with the name of the log is no longer the open file, or was truncated.
+     *
+     * @return true if the log was rotated.
+     * @throws IOException Thrown if the files could not be read.
+     */
+    private boolean isRotated() throws IOException {
+        //the fingerprint of a new file covers more bytes as the file grows
+        if (fingerprintLength < MAX_FINGERPRINT_LENGTH && openFile.length() > fingerprintLength) {
+            updateFingerprint();
+        }
+
+        if (!logFile.exists()) {
+            //renamed, but the new file hasn't been created yet
+            return false;
+        }
+        if (logFile.length() < position) {
+            return true;
+        }
+        RandomAccessFile currentFile = new RandomAccessFile(logFile, "r");
+        try {
+            return currentFile.length() < fingerprintLength
+                   || computeFingerprint(currentFile, fingerprintLength) != fingerprint;
+        } finally {
+            currentFile.close();
+        }
+    }
+
+    private void openLogFile() throws IOException {
+        if (openFile != null) {
+            openFile.close();
+        }
+        openFile = new RandomAccessFile(logFile, "r");
+        bufferStart = 0;
+        bufferEnd = 0;
+        position = 0L;
+        updateFingerprint();
+    }
+
+    private void updateFingerprint() throws IOException {
+        fingerprintLength = (int) Math.min(openFile.length(), MAX_FINGERPRINT_LENGTH);
+        long filePointer = openFile.getFilePointer();
+        fingerprint = computeFingerprint(openFile, fingerprintLength);
+        openFile.seek(filePointer);
+    }
+
+    private static long computeFingerprint(RandomAccessFile file, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        file.seek(0L);
+        file.readFully(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+}
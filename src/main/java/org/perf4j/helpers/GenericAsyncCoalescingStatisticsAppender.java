@@ -18,8 +18,8 @@ package org.perf4j.helpers;
 import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -34,6 +34,15 @@ import java.util.concurrent.TimeUnit;
  */
 public class GenericAsyncCoalescingStatisticsAppender {
 
+    /**
+     * The value of the QueueType option that selects a java.util.concurrent.ArrayBlockingQueue, the default.
+     */
+    public static final String ARRAY_BLOCKING_QUEUE_TYPE = "ArrayBlockingQueue";
+    /**
+     * The value of the QueueType option that selects a lock-free {@link RingBufferBlockingQueue}.
+     */
+    public static final String RING_BUFFER_QUEUE_TYPE = "RingBuffer";
+
     /**
      * The GroupedTimingStatisticsHandler defines a callback interface so that logging-framework-specific
      * implementations can decide what to do with the coalesced GroupedTimingStatistics.
@@ -74,11 +83,43 @@ public class GenericAsyncCoalescingStatisticsAppender {
      * The QueueSize option, used to set the capacity of the loggedMessages queue
      */
     private int queueSize = 1024;
+    /**
+     * The QueueType option, either ArrayBlockingQueue or RingBuffer
+     */
+    private String queueType = ARRAY_BLOCKING_QUEUE_TYPE;
+    /**
+     * The WaitStrategy option, used by the draining thread when the RingBuffer queue type is used
+     */
+    private String waitStrategy = RingBufferBlockingQueue.WaitStrategy.PARK.name();
+    /**
+     * The OverflowPolicy option, determines what happens to messages when the queue is full
+     */
+    private String overflowPolicy = OverflowPolicy.DROP_NEWEST.name();
+    /**
+     * The OverflowTimeout option, the maximum time in ms to wait for room in the queue with the BLOCK overflow policy
+     */
+    private long overflowTimeout = 100L;
+    /**
+     * The OverflowErrorInterval option, the minimum time in ms between two errors reporting a full queue
+     */
+    private long overflowErrorInterval = 10000L;
     /**
      * The fully qualified class name of the class to use for StopWatch parsing, defaults to the standard
      * org.perf4j.helpers.StopWatchParser
      */
     private String stopWatchParserClassName = StopWatchParser.class.getName();
+    /**
+     * The TimeUnit option, the unit in which the statistics are calculated.
+     */
+    private String timeUnit = "ms";
+    /**
+     * The HistogramPrecision option, the number of significant digits of the percentile histograms, or 0 for none.
+     */
+    private int histogramPrecision = 0;
+    /**
+     * The AggregationThreads option, the number of threads that aggregate StopWatches into statistics.
+     */
+    private int aggregationThreads = 1;
 
     // --- contained objects ---
     /**
@@ -87,21 +128,39 @@ public class GenericAsyncCoalescingStatisticsAppender {
      */
     private GroupedTimingStatisticsHandler handler = null;
     /**
-     * StopWatch log messages are pushed onto this queue, which is initialized in start().
+     * StopWatch log messages are pushed onto this queue, which is initialized in start(). Elements are either
+     * Strings, which need to be parsed, or StopWatch instances that were passed directly to append.
      */
-    private BlockingQueue<String> loggedMessages = null;
+    private BlockingQueue<Object> loggedMessages = null;
     /**
      * This parser is used to convert String log messages to StopWatches
      */
     private StopWatchParser stopWatchParser;
+    /**
+     * The parsed value of the TimeUnit option, set in start().
+     */
+    private TimeUnit statisticsTimeUnit;
+    /**
+     * The parsed value of the OverflowPolicy option, set in start().
+     */
+    private OverflowPolicy parsedOverflowPolicy;
+    /**
+     * StopWatches are aggregated by this object on the logging threads when the INLINE overflow policy is used and the
+     * queue is full. Only created in start() if the INLINE overflow policy is used.
+     */
+    private InlineStatisticsAggregator inlineAggregator = null;
     /**
      * This thread pumps logs from the loggedMessages queue. It is created in start().
      */
     private Thread drainingThread = null;
     /**
-     * This int keeps track of the total number of messages that had to be discarded due to the queue being full.
+     * Whether this appender is registered as a consumer of {@link StopWatchLogMessage}s.
+     */
+    private boolean registeredConsumer = false;
+    /**
+     * Handles the messages that don't fit in the loggedMessages queue and counts them. It is created in start().
      */
-    private volatile int numDiscardedMessages = 0;
+    private QueueOverflowHandler<Object> overflowHandler = null;
 
     // --- options ---
     /**
@@ -193,6 +252,117 @@ public class GenericAsyncCoalescingStatisticsAppender {
         this.queueSize = queueSize;
     }
 
+    /**
+     * The <b>QueueType</b> option determines the type of the internal queue used by this appender. The default value,
+     * "ArrayBlockingQueue", uses a standard ArrayBlockingQueue, which is guarded by a single lock that all logging
+     * threads contend on. The value "RingBuffer" uses a lock-free, preallocated {@link RingBufferBlockingQueue}, which
+     * scales better when many threads log StopWatches concurrently. Note the capacity of a RingBuffer is the QueueSize
+     * rounded up to a power of two.
+     *
+     * @return The QueueType option.
+     */
+    public String getQueueType() {
+        return queueType;
+    }
+
+    /**
+     * Sets the value of the <b>QueueType</b> option.
+     *
+     * @param queueType The new QueueType option.
+     */
+    public void setQueueType(String queueType) {
+        this.queueType = queueType;
+    }
+
+    /**
+     * The <b>WaitStrategy</b> option is only used when the QueueType is "RingBuffer", and determines how the draining
+     * thread waits for new messages. Valid values are "BusySpin", which gives the lowest latency but keeps a core
+     * busy, "Yield" and "Park", the default, which uses the least CPU.
+     *
+     * @return The WaitStrategy option.
+     */
+    public String getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Sets the value of the <b>WaitStrategy</b> option.
+     *
+     * @param waitStrategy The new WaitStrategy option.
+     */
+    public void setWaitStrategy(String waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * The <b>OverflowPolicy</b> option determines what happens to a StopWatch message that doesn't fit in the queue
+     * because the queue is full. Valid values are:
+     * <ul>
+     * <li>"DropNewest", the default, which discards the message.
+     * <li>"DropOldest", which discards the oldest message in the queue to make room for the new message.
+     * <li>"Block", which makes the logging thread wait for room in the queue for up to the OverflowTimeout, after
+     *     which the message is discarded.
+     * <li>"Inline", which aggregates the StopWatch on the logging thread, so no StopWatches are lost. The inline
+     *     statistics are merged with the statistics of the draining thread for the same time slice.
+     * </ul>
+     * Discarded messages are counted (see {@link #getNumDiscardedMessages()}), and at most one error is reported to
+     * the handler every OverflowErrorInterval.
+     *
+     * @return The OverflowPolicy option.
+     */
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets the value of the <b>OverflowPolicy</b> option.
+     *
+     * @param overflowPolicy The new OverflowPolicy option.
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * The <b>OverflowTimeout</b> option is the maximum time, in milliseconds, that a logging thread waits for room in
+     * the queue when the OverflowPolicy is "Block". Defaults to 100 milliseconds.
+     *
+     * @return The OverflowTimeout option.
+     */
+    public long getOverflowTimeout() {
+        return overflowTimeout;
+    }
+
+    /**
+     * Sets the value of the <b>OverflowTimeout</b> option.
+     *
+     * @param overflowTimeout The new OverflowTimeout option, in milliseconds.
+     */
+    public void setOverflowTimeout(long overflowTimeout) {
+        this.overflowTimeout = overflowTimeout;
+    }
+
+    /**
+     * The <b>OverflowErrorInterval</b> option is the minimum time, in milliseconds, between two errors reported to
+     * the handler because the queue was full. Each error states how many messages overflowed since the previous
+     * error, so an overloaded system doesn't also have to handle an error for every message. Defaults to 10,000
+     * milliseconds. If set to 0, an error is reported for every overflow.
+     *
+     * @return The OverflowErrorInterval option.
+     */
+    public long getOverflowErrorInterval() {
+        return overflowErrorInterval;
+    }
+
+    /**
+     * Sets the value of the <b>OverflowErrorInterval</b> option.
+     *
+     * @param overflowErrorInterval The new OverflowErrorInterval option, in milliseconds.
+     */
+    public void setOverflowErrorInterval(long overflowErrorInterval) {
+        this.overflowErrorInterval = overflowErrorInterval;
+    }
+
     /**
      * The <b>StopWatchParserClassName</b> option is used to determine the class used to parse stop watch messages
      * into StopWatch instances. This defaults to the standard "org.perf4j.helpers.StopWatchParser" class.
@@ -212,14 +382,111 @@ public class GenericAsyncCoalescingStatisticsAppender {
         this.stopWatchParserClassName = stopWatchParserClassName;
     }
 
+    /**
+     * The <b>TimeUnit</b> option determines the unit of the mean, min, max and standard deviation values of the
+     * GroupedTimingStatistics created by this appender. It may be one of ns, us, ms or s (or the full TimeUnit name,
+     * e.g. MICROSECONDS), and defaults to ms. StopWatches logged in a different unit are converted, so set this to
+     * us or ns if you log StopWatches with a finer precision than milliseconds.
+     *
+     * @return The TimeUnit option.
+     */
+    public String getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Sets the value of the <b>TimeUnit</b> option.
+     *
+     * @param timeUnit The new TimeUnit option.
+     */
+    public void setTimeUnit(String timeUnit) {
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * The <b>HistogramPrecision</b> option, if greater than 0, causes each TimingStatistics created by this appender to
+     * track a histogram of the StopWatch times with the specified number of significant digits (from 1 to 3), which
+     * makes percentiles such as P99 available to downstream appenders. Defaults to 0, i.e. no histograms. A value of
+     * 2 gives percentiles within 1% of the actual times.
+     *
+     * @return The HistogramPrecision option.
+     */
+    public int getHistogramPrecision() {
+        return histogramPrecision;
+    }
+
+    /**
+     * Sets the value of the <b>HistogramPrecision</b> option.
+     *
+     * @param histogramPrecision The new HistogramPrecision option.
+     */
+    public void setHistogramPrecision(int histogramPrecision) {
+        this.histogramPrecision = histogramPrecision;
+    }
+
+    /**
+     * The <b>AggregationThreads</b> option determines how many threads aggregate the logged StopWatches into
+     * statistics. Defaults to 1, in which case the draining thread parses and aggregates all StopWatches itself. If
+     * greater than 1, the draining thread only parses the messages, and the StopWatches are sharded by tag over the
+     * specified number of aggregation threads, whose results are combined at the end of each time slice. The created
+     * statistics are identical in both cases. Only set this option if the draining thread can't keep up with a very
+     * high rate of StopWatches.
+     *
+     * @return The AggregationThreads option.
+     */
+    public int getAggregationThreads() {
+        return aggregationThreads;
+    }
+
+    /**
+     * Sets the value of the <b>AggregationThreads</b> option.
+     *
+     * @param aggregationThreads The new AggregationThreads option.
+     */
+    public void setAggregationThreads(int aggregationThreads) {
+        this.aggregationThreads = aggregationThreads;
+    }
+
     // --- attributes ---
     /**
-     * Returns the number of StopWatch messages that have been discarded due to the queue being full.
+     * Returns the number of StopWatch messages that have been discarded due to the queue being full, regardless of
+     * the overflow policy.
      *
      * @return The number of discarded messages.
      */
     public int getNumDiscardedMessages() {
-        return numDiscardedMessages;
+        return (overflowHandler == null) ? 0 : overflowHandler.getNumDiscardedMessages();
+    }
+
+    /**
+     * Returns the number of queued StopWatch messages that were discarded to make room for newer messages because the
+     * OverflowPolicy is "DropOldest". These are included in the number of discarded messages.
+     *
+     * @return The number of evicted messages.
+     */
+    public int getNumEvictedMessages() {
+        return (overflowHandler == null) ? 0 : overflowHandler.getNumEvictedMessages();
+    }
+
+    /**
+     * Returns the number of StopWatch messages that were discarded because the OverflowPolicy is "Block" and no room
+     * became available in the queue within the OverflowTimeout. These are included in the number of discarded
+     * messages.
+     *
+     * @return The number of timed out messages.
+     */
+    public int getNumTimedOutMessages() {
+        return (overflowHandler == null) ? 0 : overflowHandler.getNumTimedOutMessages();
+    }
+
+    /**
+     * Returns the number of StopWatch messages that were aggregated on the logging thread because the OverflowPolicy
+     * is "Inline" and the queue was full.
+     *
+     * @return The number of messages aggregated inline.
+     */
+    public int getNumInlineMessages() {
+        return (overflowHandler == null) ? 0 : overflowHandler.getNumInlineMessages();
     }
 
     // --- main lifecycle methods ---
@@ -237,12 +504,25 @@ public class GenericAsyncCoalescingStatisticsAppender {
 
         this.handler = handler;
         stopWatchParser = newStopWatchParser();
-        numDiscardedMessages = 0;
-        loggedMessages = new ArrayBlockingQueue<String>(getQueueSize());
+        statisticsTimeUnit = MiscUtils.parseTimeUnit(timeUnit);
+        parsedOverflowPolicy = OverflowPolicy.forName(overflowPolicy);
+        inlineAggregator = (parsedOverflowPolicy == OverflowPolicy.INLINE) ?
+                           new InlineStatisticsAggregator(timeSlice,
+                                                          createRollupStatistics,
+                                                          statisticsTimeUnit,
+                                                          histogramPrecision) :
+                           null;
+        loggedMessages = newLoggedMessagesQueue();
+        overflowHandler = newOverflowHandler();
 
         drainingThread = new Thread(new Dispatcher(), "perf4j-async-stats-appender-sink-" + getName());
         drainingThread.setDaemon(true);
         drainingThread.start();
+
+        if (!registeredConsumer) {
+            StopWatchLogMessage.registerConsumer();
+            registeredConsumer = true;
+        }
     }
 
     /**
@@ -255,17 +535,34 @@ public class GenericAsyncCoalescingStatisticsAppender {
         //Do a quick check to cull out any messages not meant for us
         if (stopWatchParser.isPotentiallyValid(message)) {
             if (!loggedMessages.offer(message)) {
-                ++numDiscardedMessages;
-                handler.error(message);
+                overflowHandler.handleOverflow(message);
             }
         }
     }
 
+    /**
+     * This append method should be called when the logging framework hands over a StopWatch object directly (for
+     * example as the message of a {@link StopWatchLogMessage}), in which case the StopWatch is queued as-is and no
+     * String formatting or parsing takes place. Note the StopWatch is processed asynchronously, so the caller must
+     * not modify it after it has been appended.
+     *
+     * @param stopWatch The StopWatch to add to the current time slice, may not be null.
+     */
+    public void append(StopWatch stopWatch) {
+        if (!loggedMessages.offer(stopWatch)) {
+            overflowHandler.handleOverflow(stopWatch);
+        }
+    }
+
     /**
      * This method should be called on shutdown to flush any pending messages in the queue and create a final
      * GroupedTimingStatistics instance if necessary.
      */
     public void stop() {
+        if (registeredConsumer) {
+            StopWatchLogMessage.unregisterConsumer();
+            registeredConsumer = false;
+        }
         stopDrainingThread();
     }
 
@@ -285,6 +582,49 @@ public class GenericAsyncCoalescingStatisticsAppender {
         }
     }
 
+    /**
+     * Helper method creates the handler for messages that don't fit in the loggedMessages queue. The INLINE overflow
+     * policy parses String messages on the logging thread, and overflows are reported to the handler.
+     *
+     * @return The newly created QueueOverflowHandler
+     */
+    private QueueOverflowHandler<Object> newOverflowHandler() {
+        return new QueueOverflowHandler<Object>(parsedOverflowPolicy,
+                                                overflowTimeout,
+                                                overflowErrorInterval,
+                                                loggedMessages,
+                                                "" /* the message that closes the queue */,
+                                                inlineAggregator) {
+            protected StopWatch toStopWatch(Object message) {
+                return (message instanceof StopWatch) ?
+                       (StopWatch) message :
+                       stopWatchParser.parseStopWatch((String) message);
+            }
+
+            protected void reportOverflows(int numOverflows) {
+                handler.error("The queue of AsyncCoalescingStatisticsAppender " + getName() + " was full "
+                              + numOverflows + " time(s) since the last report, overflow policy is " + overflowPolicy
+                              + ", total discarded messages: " + getNumDiscardedMessages());
+            }
+        };
+    }
+
+    /**
+     * Helper method creates the loggedMessages queue based on the QueueType, QueueSize and WaitStrategy options.
+     *
+     * @return The newly created queue
+     */
+    private BlockingQueue<Object> newLoggedMessagesQueue() {
+        if (RING_BUFFER_QUEUE_TYPE.equalsIgnoreCase(queueType)) {
+            return new RingBufferBlockingQueue<Object>(getQueueSize(),
+                                                       RingBufferBlockingQueue.WaitStrategy.forName(waitStrategy));
+        } else if (ARRAY_BLOCKING_QUEUE_TYPE.equalsIgnoreCase(queueType)) {
+            return new ArrayBlockingQueue<Object>(getQueueSize());
+        } else {
+            throw new IllegalArgumentException("Unknown QueueType: " + queueType);
+        }
+    }
+
     /**
      * Helper method instantiates a new StopWatchParser based on the StopWatchParserClassName option.
      *
@@ -309,16 +649,37 @@ public class GenericAsyncCoalescingStatisticsAppender {
             GroupingStatisticsIterator statsIterator =
                     new GroupingStatisticsIterator(new StopWatchesFromQueueIterator(),
                                                    timeSlice,
-                                                   createRollupStatistics);
+                                                   createRollupStatistics,
+                                                   statisticsTimeUnit,
+                                                   histogramPrecision,
+                                                   aggregationThreads);
 
             while (statsIterator.hasNext()) {
-                try {
-                    handler.handle(statsIterator.next());
-                } catch (Exception e) {
-                    handler.error("Error calling the GroupedTimingStatisticsHandler: " + e.getMessage());
+                GroupedTimingStatistics statistics = statsIterator.next();
+                if (inlineAggregator != null) {
+                    //statistics aggregated on the logging threads for earlier time slices are passed on first
+                    for (GroupedTimingStatistics rolledOverStatistics : inlineAggregator.rollOver(statistics)) {
+                        handle(rolledOverStatistics);
+                    }
+                } else {
+                    handle(statistics);
+                }
+            }
+
+            if (inlineAggregator != null) {
+                for (GroupedTimingStatistics inlineStatistics : inlineAggregator.removeSlicesBefore(Long.MAX_VALUE)) {
+                    handle(inlineStatistics);
                 }
             }
         }
+
+        private void handle(GroupedTimingStatistics statistics) {
+            try {
+                handler.handle(statistics);
+            } catch (Exception e) {
+                handler.error("Error calling the GroupedTimingStatisticsHandler: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -327,9 +688,18 @@ public class GenericAsyncCoalescingStatisticsAppender {
      */
     private class StopWatchesFromQueueIterator implements Iterator<StopWatch> {
         /**
-         * Messages are drained to this list in blocks.
+         * The maximum number of messages drained from the queue at once.
+         */
+        private static final int DRAIN_BATCH_SIZE = 64;
+        /**
+         * Messages are drained to this list in blocks. The list is reused for each block so that draining doesn't
+         * allocate any objects.
+         */
+        private ArrayList<Object> drainedMessages = new ArrayList<Object>(DRAIN_BATCH_SIZE);
+        /**
+         * The index of the next message in drainedMessages to be processed.
          */
-        private LinkedList<String> drainedMessages = new LinkedList<String>();
+        private int drainedMessagesIndex;
         /**
          * Keeps track of the NEXT stop watch we will return.
          */
@@ -378,14 +748,16 @@ public class GenericAsyncCoalescingStatisticsAppender {
             }
 
             while (true) {
-                if (drainedMessages.isEmpty()) {
-                    loggedMessages.drainTo(drainedMessages, 64);
+                if (drainedMessagesIndex == drainedMessages.size()) {
+                    drainedMessages.clear();
+                    drainedMessagesIndex = 0;
+                    loggedMessages.drainTo(drainedMessages, DRAIN_BATCH_SIZE);
 
                     //drainTo is more efficient but it doesn't block, so if we're still empty call take() to block
                     if (drainedMessages.isEmpty()) {
                         //then wait for a message to show up
                         try {
-                            String message = loggedMessages.poll(timeSlice, TimeUnit.MILLISECONDS);
+                            Object message = loggedMessages.poll(timeSlice, TimeUnit.MILLISECONDS);
                             if (message == null) {
                                 // no new messages, but want to indicate to check the timeslice
                                 timeSliceOver = true;
@@ -401,8 +773,14 @@ public class GenericAsyncCoalescingStatisticsAppender {
                     }
                 }
 
-                while (!drainedMessages.isEmpty()) {
-                    String message = drainedMessages.removeFirst();
+                while (drainedMessagesIndex < drainedMessages.size()) {
+                    Object drainedMessage = drainedMessages.set(drainedMessagesIndex++, null);
+                    if (drainedMessage instanceof StopWatch) {
+                        //StopWatches appended directly don't need any parsing
+                        return (StopWatch) drainedMessage;
+                    }
+
+                    String message = (String) drainedMessage;
                     if (message.length() == 0) {
                         //the empty message is pushed onto the queue by the enclosing class' close() method
                         //to indicate that we're done
@@ -18,6 +18,7 @@ package org.perf4j.helpers;
 import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.TimingStatistics;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -37,6 +38,23 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
      * The default format string for a non-pivoted formatter.
      */
     public static final String DEFAULT_FORMAT_STRING = "tag,start,stop,mean,min,max,stddev,count";
+    /**
+     * The default format string for a non-pivoted formatter of statistics that track histograms, which adds the
+     * percentile columns to the default format.
+     */
+    public static final String DEFAULT_PERCENTILES_FORMAT_STRING = DEFAULT_FORMAT_STRING + ",p50,p90,p95,p99,p999";
+
+    /**
+     * Maps the names of the supported percentile values to the percentile.
+     */
+    private static final Map<String, Double> PERCENTILES = new LinkedHashMap<String, Double>();
+    static {
+        PERCENTILES.put("p50", 50.0);
+        PERCENTILES.put("p90", 90.0);
+        PERCENTILES.put("p95", 95.0);
+        PERCENTILES.put("p99", 99.0);
+        PERCENTILES.put("p999", 99.9);
+    }
 
     //whether or not the output is pivoted
     private boolean pivot;
@@ -63,9 +81,11 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
      *                     for each tagged TimingStatistics item contained in the GroupedTimingStatisitcs).
      * @param configString The config string defines which values will be output, and should be a comma-separated list
      *                     of the values. Possible values if pivot is false are
-     *                     tag, start, stop, mean, min, max, stddev, count and tps. If pivot is true the possible
-     *                     values are start, stop, and then one of the statistics prefixed with the tag name. For
-     *                     example, a possible configString could be "start,stop,codeBlock1Mean,codeBlock2Max".
+     *                     tag, start, stop, mean, min, max, stddev, count, tps and the percentiles p50, p90, p95,
+     *                     p99 and p999 (which are empty unless the statistics track histograms). If pivot is true
+     *                     the possible values are start, stop, and then one of the statistics prefixed with the tag
+     *                     name. For example, a possible configString could be
+     *                     "start,stop,codeBlock1Mean,codeBlock2Max,codeBlock2P99".
      */
     public GroupedTimingStatisticsCsvFormatter(boolean pivot, String configString) {
         this.pivot = pivot;
@@ -220,6 +240,19 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     }
                 }
             };
+        } else if (getPercentileSuffix(configName) != null) {
+            String percentileName = getPercentileSuffix(configName);
+            final String tag = configName.substring(0, configName.length() - percentileName.length());
+            final double percentile = PERCENTILES.get(percentileName);
+            return new GroupedTimingStatisticsValueRetriever() {
+                public void appendValue(String start, String stop, long windowLength,
+                                        GroupedTimingStatistics stats, StringBuilder toAppend) {
+                    TimingStatistics timingStats = stats.getStatisticsByTag().get(tag);
+                    if (timingStats != null && timingStats.getHistogram() != null) {
+                        toAppend.append(timingStats.getPercentile(percentile));
+                    }
+                }
+            };
         } else {
             throw new IllegalArgumentException("Unknown CSV format config string: " + configName);
         }
@@ -306,11 +339,38 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     toAppend.append((timingStats.getCount() * 1000.0) / windowLength);
                 }
             };
+        } else if (PERCENTILES.containsKey(configName)) {
+            final double percentile = PERCENTILES.get(configName);
+            return new TimingStatsValueRetriever() {
+                public void appendValue(String tag, String start, String stop, long windowLength,
+                                        TimingStatistics timingStats,
+                                        StringBuilder toAppend) {
+                    if (timingStats.getHistogram() != null) {
+                        toAppend.append(timingStats.getPercentile(percentile));
+                    }
+                }
+            };
         } else {
             throw new IllegalArgumentException("Unknown CSV format config string: " + configName);
         }
     }
 
+    /**
+     * Helper method determines whether a pivoted config string element ends with a percentile name.
+     *
+     * @param configName The element from the config string
+     * @return The percentile name that the configName ends with, e.g. "p99", or null if it doesn't end with one.
+     */
+    private static String getPercentileSuffix(String configName) {
+        String lowerCaseConfigName = configName.toLowerCase();
+        for (String percentileName : PERCENTILES.keySet()) {
+            if (lowerCaseConfigName.endsWith(percentileName)) {
+                return percentileName;
+            }
+        }
+        return null;
+    }
+
     // --- Helper interfaces ---
 
     protected static interface TimingStatsValueRetriever {
@@ -20,6 +20,7 @@ import org.perf4j.StopWatch;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This Iterator wraps a {@link StopWatchLogIterator} to return a single {@link GroupedTimingStatistics} object for
@@ -46,6 +47,18 @@ public class
      * Whether or not entries for "rollup" tags should be created in each GroupedTimingStatistics returned.
      */
     private boolean createRollupStatistics;
+    /**
+     * The unit in which the statistics are calculated.
+     */
+    private TimeUnit timeUnit;
+    /**
+     * The number of significant digits of the histograms tracked by the statistics, or 0 for no histograms.
+     */
+    private int histogramPrecision;
+    /**
+     * If statistics are aggregated by several threads, this aggregator adds the StopWatches of the current time slice.
+     */
+    private ShardedStatisticsAggregator shardedAggregator;
 
     /**
      * This hasNext is really a tri-state var - null indicates I don't know if there's a next one or not.
@@ -58,7 +71,7 @@ public class
     /**
      * Keeps track of the CURRENT GroupedTimingStatistics while we iterate over the underlying StopWatches
      */
-    private GroupedTimingStatistics currentGroupedTimingStatistics = new GroupedTimingStatistics();
+    private GroupedTimingStatistics currentGroupedTimingStatistics;
     /**
      * The end time, in milliseconds since the epoch, of the next time slice.
      */
@@ -90,10 +103,87 @@ public class
     public GroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator,
                                       long timeSlice,
                                       boolean createRollupStatistics) {
+        this(stopWatchIterator, timeSlice, createRollupStatistics, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a GroupingStatisticsIterator that groups StopWatch instances pulled from the specified
+     * stopWatchIterator into GroupedTimingStatistics, calculating the statistics in the specified time unit.
+     *
+     * @param stopWatchIterator      The StopWatch Iterator that provides the StopWatch instances. If stopWatchIterator
+     * 								 returns a null value, will check to see if a timeslice is over and return
+     * 								 GroupedTimingStatistics if necessary.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param timeUnit               The unit of the time values in the created statistics.
+     */
+    public GroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator,
+                                      long timeSlice,
+                                      boolean createRollupStatistics,
+                                      TimeUnit timeUnit) {
+        this(stopWatchIterator, timeSlice, createRollupStatistics, timeUnit, 0);
+    }
+
+    /**
+     * Creates a GroupingStatisticsIterator that groups StopWatch instances pulled from the specified
+     * stopWatchIterator into GroupedTimingStatistics whose TimingStatistics track histograms, so that percentiles
+     * are available.
+     *
+     * @param stopWatchIterator      The StopWatch Iterator that provides the StopWatch instances. If stopWatchIterator
+     * 								 returns a null value, will check to see if a timeslice is over and return
+     * 								 GroupedTimingStatistics if necessary.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param timeUnit               The unit of the time values in the created statistics.
+     * @param histogramPrecision     The number of significant digits of the histograms, from 1 to 3, or 0 for no
+     *                               histograms.
+     */
+    public GroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator,
+                                      long timeSlice,
+                                      boolean createRollupStatistics,
+                                      TimeUnit timeUnit,
+                                      int histogramPrecision) {
+        this(stopWatchIterator, timeSlice, createRollupStatistics, timeUnit, histogramPrecision, 1);
+    }
+
+    /**
+     * Creates a GroupingStatisticsIterator that groups StopWatch instances pulled from the specified
+     * stopWatchIterator into GroupedTimingStatistics, using the specified number of threads to aggregate the
+     * StopWatches. If more than one aggregation thread is used, StopWatches are sharded over the threads by tag and the
+     * threads' results are combined at the end of each time slice; the returned statistics are identical to those
+     * created by a single thread. The aggregation threads are only started when the first StopWatches are handed to
+     * them, and are stopped when the stopWatchIterator is exhausted or throws an exception.
+     *
+     * @param stopWatchIterator      The StopWatch Iterator that provides the StopWatch instances. If stopWatchIterator
+     * 								 returns a null value, will check to see if a timeslice is over and return
+     * 								 GroupedTimingStatistics if necessary.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param timeUnit               The unit of the time values in the created statistics.
+     * @param histogramPrecision     The number of significant digits of the histograms, from 1 to 3, or 0 for no
+     *                               histograms.
+     * @param aggregationThreads     The number of threads used to aggregate the StopWatches. If 1, StopWatches are
+     *                               aggregated by the thread calling this iterator.
+     */
+    public GroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator,
+                                      long timeSlice,
+                                      boolean createRollupStatistics,
+                                      TimeUnit timeUnit,
+                                      int histogramPrecision,
+                                      int aggregationThreads) {
         this.stopWatchIterator = stopWatchIterator;
         this.timeSlice = timeSlice;
         this.createRollupStatistics = createRollupStatistics;
-        this.currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+        this.timeUnit = timeUnit;
+        this.histogramPrecision = histogramPrecision;
+        this.currentGroupedTimingStatistics = newGroupedTimingStatistics();
+        if (aggregationThreads > 1) {
+            this.shardedAggregator = new ShardedStatisticsAggregator(aggregationThreads,
+                                                                     createRollupStatistics,
+                                                                     timeUnit,
+                                                                     histogramPrecision,
+                                                                     "perf4j-stats-aggregator-");
+        }
     }
 
     public boolean hasNext() {
@@ -139,6 +229,63 @@ public class
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Gets a copy of the statistics of the StopWatches that were read from the underlying iterator but have not been
+     * returned yet, because their time slice is not over. Together with the position of the underlying iterator,
+     * this allows grouping to be resumed later with {@link #resumeTimeSlice}.
+     *
+     * @return The statistics of the current time slice, or null if no StopWatch has been read yet.
+     * @throws IllegalStateException Thrown if more than one aggregation thread is used, or if the next statistics
+     *                               have already been determined by a call to hasNext().
+     */
+    public GroupedTimingStatistics getCurrentTimeSliceStatistics() {
+        if (shardedAggregator != null) {
+            throw new IllegalStateException("The current time slice is not available with several aggregation threads");
+        }
+        if (hasNext != null) {
+            throw new IllegalStateException("The current time slice is not available after a call to hasNext()");
+        }
+        if (nextTimeSliceEndTime == 0L) {
+            return null;
+        }
+        GroupedTimingStatistics retVal = currentGroupedTimingStatistics.clone();
+        retVal.setStartTime(nextTimeSliceEndTime - timeSlice);
+        retVal.setStopTime(nextTimeSliceEndTime);
+        return retVal;
+    }
+
+    /**
+     * Resumes grouping with the statistics of a time slice that was not complete, as returned by
+     * {@link #getCurrentTimeSliceStatistics()}. This method must be called before any StopWatches are read.
+     *
+     * @param statistics The statistics of the incomplete time slice. StopWatches from the underlying iterator that
+     *                   fall in this time slice are added to a copy of these statistics.
+     * @throws IllegalArgumentException Thrown if the statistics are for a time slice of a different length, or in a
+     *                                  different time unit.
+     * @throws IllegalStateException    Thrown if more than one aggregation thread is used, or if StopWatches have
+     *                                  already been read.
+     */
+    public void resumeTimeSlice(GroupedTimingStatistics statistics) {
+        if (shardedAggregator != null) {
+            throw new IllegalStateException("A time slice can't be resumed with several aggregation threads");
+        }
+        if (nextTimeSliceEndTime != 0L || hasNext != null) {
+            throw new IllegalStateException("A time slice can only be resumed before any StopWatches are read");
+        }
+        if (statistics.getStopTime() - statistics.getStartTime() != timeSlice) {
+            throw new IllegalArgumentException("The statistics are for a time slice of "
+                                               + (statistics.getStopTime() - statistics.getStartTime())
+                                               + " ms, expected " + timeSlice + " ms");
+        }
+        if (statistics.getTimeUnit() != timeUnit) {
+            throw new IllegalArgumentException("The statistics are in " + statistics.getTimeUnit()
+                                               + ", expected " + timeUnit);
+        }
+        currentGroupedTimingStatistics = statistics.clone();
+        currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+        nextTimeSliceEndTime = statistics.getStopTime();
+    }
+
     /**
      * Helper method runs over the StopWatch Iterator to group the StopWatches into GroupedTimingStatistics.
      *
@@ -146,6 +293,20 @@ public class
      *         StopWatch instances left.
      */
     private GroupedTimingStatistics getNext() {
+        //the aggregation threads are stopped as soon as the iteration ends, whether normally or with an exception
+        boolean iterationEnded = true;
+        try {
+            GroupedTimingStatistics retVal = getNextSlice();
+            iterationEnded = (retVal == null);
+            return retVal;
+        } finally {
+            if (iterationEnded) {
+                shutdownShardedAggregator();
+            }
+        }
+    }
+
+    private GroupedTimingStatistics getNextSlice() {
         while (stopWatchIterator.hasNext()) {
             StopWatch stopWatch = stopWatchIterator.next();
             
@@ -159,33 +320,31 @@ public class
 
             if (startTime >= nextTimeSliceEndTime) {
                 //then we're over a new time boundary, so update the current timing statistics and return it.
-                currentGroupedTimingStatistics.setStartTime(nextTimeSliceEndTime - timeSlice);
-                currentGroupedTimingStatistics.setStopTime(nextTimeSliceEndTime);
-                GroupedTimingStatistics retVal = currentGroupedTimingStatistics;
+                GroupedTimingStatistics retVal = completeCurrentSlice();
 
                 //set the state for the next slice
-                currentGroupedTimingStatistics = new GroupedTimingStatistics();
-                currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+                currentGroupedTimingStatistics = newGroupedTimingStatistics();
                 if (stopWatch != null) {
                 	// only add if we got a new stopwatch, not if timeslice just expired
-                	currentGroupedTimingStatistics.addStopWatch(stopWatch);
+                	addToCurrentSlice(stopWatch);
                 }                
                 nextTimeSliceEndTime = ((startTime / timeSlice) * timeSlice) + timeSlice;
                 return retVal;
             } else if (stopWatch != null) {
-                currentGroupedTimingStatistics.addStopWatch(stopWatch);
+                addToCurrentSlice(stopWatch);
             }
         }
 
         //if here then there are no more stopwatches left, so clean up the last batch
-        if (!currentGroupedTimingStatistics.getStatisticsByTag().isEmpty()) {
-            currentGroupedTimingStatistics.setStartTime(nextTimeSliceEndTime - timeSlice);
-            currentGroupedTimingStatistics.setStopTime(nextTimeSliceEndTime);
-            GroupedTimingStatistics retVal = currentGroupedTimingStatistics;
+        boolean currentSliceIsEmpty = (shardedAggregator == null) ?
+                                      currentGroupedTimingStatistics.getStatisticsByTag().isEmpty() :
+                                      !shardedAggregator.hasPendingStopWatches();
+        if (!currentSliceIsEmpty) {
+            GroupedTimingStatistics retVal = completeCurrentSlice();
+            shutdownShardedAggregator();
 
             //create an empty GroupedTimingStatistics so we know to return null in the next call to this method.
-            currentGroupedTimingStatistics = new GroupedTimingStatistics();
-            currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+            currentGroupedTimingStatistics = newGroupedTimingStatistics();
 
             return retVal;
         } else {
@@ -193,4 +352,42 @@ public class
             return null;
         }
     }
+
+    private void shutdownShardedAggregator() {
+        if (shardedAggregator != null) {
+            shardedAggregator.shutdown();
+            shardedAggregator = null;
+        }
+    }
+
+    private void addToCurrentSlice(StopWatch stopWatch) {
+        if (shardedAggregator == null) {
+            currentGroupedTimingStatistics.addStopWatch(stopWatch);
+        } else {
+            shardedAggregator.addStopWatch(stopWatch);
+        }
+    }
+
+    private GroupedTimingStatistics completeCurrentSlice() {
+        if (shardedAggregator != null) {
+            shardedAggregator.completeSlice(currentGroupedTimingStatistics);
+        }
+        currentGroupedTimingStatistics.setStartTime(nextTimeSliceEndTime - timeSlice);
+        currentGroupedTimingStatistics.setStopTime(nextTimeSliceEndTime);
+        return currentGroupedTimingStatistics;
+    }
+
+    /**
+     * Helper method creates an empty GroupedTimingStatistics for the next time slice.
+     *
+     * @return The new GroupedTimingStatistics, configured with the rollup, time unit and histogram settings of this
+     *         iterator.
+     */
+    private GroupedTimingStatistics newGroupedTimingStatistics() {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setCreateRollupStatistics(createRollupStatistics);
+        retVal.setTimeUnit(timeUnit);
+        retVal.setHistogramPrecision(histogramPrecision);
+        return retVal;
+    }
 }
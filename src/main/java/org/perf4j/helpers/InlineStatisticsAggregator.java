@@ -0,0 +1,147 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The InlineStatisticsAggregator is used by the {@link OverflowPolicy#INLINE} overflow policy to aggregate StopWatches
+ * on the logging threads when the queue of an asynchronous appender or sink is full. StopWatches are grouped into
+ * GroupedTimingStatistics by time slice in the same way as the {@link GroupingStatisticsIterator} does it, and the
+ * draining thread merges these statistics into the statistics of the matching time slice before passing them on.
+ * <p>
+ * The draining thread {@link #rollOver rolls over} each time slice under the same lock that the logging threads
+ * hold while adding StopWatches, so every time slice is passed on exactly once: StopWatches of a time slice that has
+ * already been rolled over are added to the first time slice that hasn't, just like the GroupingStatisticsIterator
+ * adds late StopWatches to its current time slice.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Alex Devine
+ */
+public class InlineStatisticsAggregator {
+    private final long timeSlice;
+    private final boolean createRollupStatistics;
+    private final TimeUnit timeUnit;
+    private final int histogramPrecision;
+    /**
+     * The pending statistics keyed by the start time of their time slice.
+     */
+    private final SortedMap<Long, GroupedTimingStatistics> statisticsBySliceStart =
+            new TreeMap<Long, GroupedTimingStatistics>();
+    /**
+     * The time slices that start before this time have already been passed on.
+     */
+    private long closedBefore = Long.MIN_VALUE;
+    /**
+     * Set once all time slices have been removed, after which no more StopWatches are added.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new InlineStatisticsAggregator. The parameters should match those of the GroupingStatisticsIterator
+     * used by the draining thread.
+     *
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether rollup statistics should be created.
+     * @param timeUnit               The time unit of the statistics.
+     * @param histogramPrecision     The precision of the percentile histograms, or 0 for none.
+     */
+    public InlineStatisticsAggregator(long timeSlice,
+                                      boolean createRollupStatistics,
+                                      TimeUnit timeUnit,
+                                      int histogramPrecision) {
+        this.timeSlice = timeSlice;
+        this.createRollupStatistics = createRollupStatistics;
+        this.timeUnit = timeUnit;
+        this.histogramPrecision = histogramPrecision;
+    }
+
+    /**
+     * Adds a StopWatch to the statistics of its time slice, or of the first time slice that hasn't been passed on yet
+     * if its own time slice has. This method is called by the logging threads.
+     *
+     * @param stopWatch The StopWatch to add, may not be null.
+     * @return false if the StopWatch was not added because all time slices have been removed.
+     */
+    public synchronized boolean addStopWatch(StopWatch stopWatch) {
+        if (closed) {
+            return false;
+        }
+        long sliceStart = (stopWatch.getStartTime() / timeSlice) * timeSlice;
+        if (sliceStart < closedBefore) {
+            //move the StopWatch to the first time slice that hasn't been passed on
+            sliceStart = closedBefore + (timeSlice - closedBefore % timeSlice) % timeSlice;
+        }
+        GroupedTimingStatistics statistics = statisticsBySliceStart.get(sliceStart);
+        if (statistics == null) {
+            statistics = new GroupedTimingStatistics();
+            statistics.setCreateRollupStatistics(createRollupStatistics);
+            statistics.setTimeUnit(timeUnit);
+            statistics.setHistogramPrecision(histogramPrecision);
+            statistics.setStartTime(sliceStart);
+            statistics.setStopTime(sliceStart + timeSlice);
+            statisticsBySliceStart.put(sliceStart, statistics);
+        }
+        statistics.addStopWatch(stopWatch);
+        return true;
+    }
+
+    /**
+     * Rolls over the time slice of statistics created by the draining thread: the pending statistics of earlier time
+     * slices are removed, the pending statistics of the same time slice are merged into the specified statistics, and
+     * StopWatches of these time slices that are added later go to the next time slice.
+     *
+     * @param statistics The statistics created by the draining thread for a time slice.
+     * @return The statistics to pass on, in time slice order, ending with the statistics passed in. Never null.
+     */
+    public synchronized List<GroupedTimingStatistics> rollOver(GroupedTimingStatistics statistics) {
+        List<GroupedTimingStatistics> retVal = removeSlicesBefore(statistics.getStartTime());
+        GroupedTimingStatistics pending = statisticsBySliceStart.remove(statistics.getStartTime());
+        retVal.add((pending == null) ? statistics : statistics.merge(pending));
+        closedBefore = Math.max(closedBefore, statistics.getStartTime() + timeSlice);
+        return retVal;
+    }
+
+    /**
+     * Removes the pending statistics of the time slices that started before the specified time. These are slices
+     * for which the draining thread did not produce any statistics itself, so they should be passed on separately.
+     * StopWatches of these time slices that are added later go to the first time slice after them, and once
+     * Long.MAX_VALUE is passed no more StopWatches are added.
+     *
+     * @param time The time, in milliseconds since the epoch.
+     * @return The removed statistics, in time slice order. Never null.
+     */
+    public synchronized List<GroupedTimingStatistics> removeSlicesBefore(long time) {
+        closedBefore = Math.max(closedBefore, time);
+        closed |= (time == Long.MAX_VALUE);
+        List<GroupedTimingStatistics> retVal = new ArrayList<GroupedTimingStatistics>();
+        for (Iterator<GroupedTimingStatistics> iter = statisticsBySliceStart.headMap(time).values().iterator();
+             iter.hasNext();) {
+            retVal.add(iter.next());
+            iter.remove();
+        }
+        return retVal;
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * A LogFollowCheckpoint records how far a {@link FollowingStopWatchLogIterator} has read a log file, and optionally
+ * the statistics of the time slice that was still open at that point, so that following the log can be resumed after
+ * a restart without reading the file again. The file is identified by a checksum of its first bytes, because the same
+ * name is reused when the log is rotated.
+ *
+ * @author Alex Devine
+ */
+public class LogFollowCheckpoint implements Serializable {
+    private static final long serialVersionUID = -2263391447071251962L;
+
+    private final int fingerprintLength;
+    private final long fingerprint;
+    private final long offset;
+    private final int stopWatchesToSkip;
+    private GroupedTimingStatistics openTimeSlice;
+
+    /**
+     * Creates a new LogFollowCheckpoint.
+     *
+     * @param fingerprintLength The number of bytes at the start of the file covered by the fingerprint.
+     * @param fingerprint       The checksum of the first fingerprintLength bytes of the file.
+     * @param offset            The offset in the file of the first line that has not been completely read.
+     * @param stopWatchesToSkip The number of StopWatches of the line at the offset that were already read.
+     */
+    public LogFollowCheckpoint(int fingerprintLength, long fingerprint, long offset, int stopWatchesToSkip) {
+        this.fingerprintLength = fingerprintLength;
+        this.fingerprint = fingerprint;
+        this.offset = offset;
+        this.stopWatchesToSkip = stopWatchesToSkip;
+    }
+
+    // --- Bean Properties ---
+
+    public int getFingerprintLength() {
+        return fingerprintLength;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getStopWatchesToSkip() {
+        return stopWatchesToSkip;
+    }
+
+    /**
+     * Gets the statistics of the StopWatches read before this checkpoint whose time slice was not complete yet.
+     *
+     * @return The statistics of the open time slice, or null if there are none.
+     */
+    public GroupedTimingStatistics getOpenTimeSlice() {
+        return openTimeSlice;
+    }
+
+    /**
+     * Sets the statistics of the StopWatches read before this checkpoint whose time slice was not complete yet, as
+     * returned by {@link GroupingStatisticsIterator#getCurrentTimeSliceStatistics()}.
+     *
+     * @param openTimeSlice The statistics of the open time slice, may be null.
+     */
+    public void setOpenTimeSlice(GroupedTimingStatistics openTimeSlice) {
+        this.openTimeSlice = openTimeSlice;
+    }
+
+    // --- Utility Methods ---
+
+    /**
+     * Writes this checkpoint to a file. The checkpoint is first written to a temporary file that then replaces the
+     * checkpoint file, so an earlier checkpoint is not lost if the process dies while writing.
+     *
+     * @param checkpointFile The file to write.
+     * @throws IOException Thrown if the checkpoint could not be written.
+     */
+    public void save(File checkpointFile) throws IOException {
+        File tempFile = new File(checkpointFile.getPath() + ".tmp");
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tempFile));
+        try {
+            out.writeObject(this);
+        } finally {
+            out.close();
+        }
+        //renaming over an existing file fails on some platforms
+        if (!tempFile.renameTo(checkpointFile)) {
+            checkpointFile.delete();
+            if (!tempFile.renameTo(checkpointFile)) {
+                throw new IOException("Could not rename " + tempFile + " to " + checkpointFile);
+            }
+        }
+    }
+
+    /**
+     * Reads a checkpoint that was written with {@link #save}.
+     *
+     * @param checkpointFile The file to read.
+     * @return The checkpoint, or null if the checkpoint file doesn't exist.
+     * @throws IOException Thrown if the checkpoint could not be read.
+     */
+    public static LogFollowCheckpoint load(File checkpointFile) throws IOException {
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+        ObjectInputStream in = new ObjectInputStream(new FileInputStream(checkpointFile));
+        try {
+            return (LogFollowCheckpoint) in.readObject();
+        } catch (ClassNotFoundException cnfe) {
+            throw new IOException("Invalid checkpoint file " + checkpointFile + ": " + cnfe.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.io.Serializable;
+
+/**
+ * A LogLinearHistogram counts non-negative long values in buckets whose width grows with the magnitude of the
+ * values, so that any value can be recorded with a bounded relative error. Values smaller than the sub-bucket count
+ * are counted exactly; above that, each power-of-two range is split into equally sized linear sub-buckets. This is
+ * the same layout used by HdrHistogram, and it allows percentiles such as the 99th percentile of a set of timings to
+ * be calculated in fixed memory.
+ * <p/>
+ * The precision is specified as a number of significant decimal digits: a histogram with 2 significant digits
+ * reports values that are within 1% of the recorded values. The bucket array is only grown to the highest bucket
+ * actually used, up to a maximum that depends on the precision (about 7,400 buckets for 2 significant digits).
+ * <p/>
+ * Histograms with the same precision can be merged using {@link #add(LogLinearHistogram)}. This class is not thread
+ * safe.
+ *
+ * @author Alex Devine
+ */
+public class LogLinearHistogram implements Serializable, Cloneable {
+    private static final long serialVersionUID = 4385302412733014687L;
+
+    /**
+     * The default number of significant digits, which gives a relative error of at most 1%.
+     */
+    public static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+    /**
+     * The maximum supported number of significant digits.
+     */
+    public static final int MAX_SIGNIFICANT_DIGITS = 3;
+
+    private final int significantDigits;
+    /**
+     * The number of linear sub-buckets in each power-of-two range is 2 ^ subBucketBits.
+     */
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    /**
+     * The bucket counts. This array is grown as higher values are recorded.
+     */
+    private int[] counts = new int[0];
+    private int totalCount;
+
+    // --- Constructors ---
+
+    /**
+     * Creates a histogram with the default precision of 2 significant digits.
+     */
+    public LogLinearHistogram() {
+        this(DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Creates a histogram with the specified precision.
+     *
+     * @param significantDigits The number of significant decimal digits to which values are tracked, from 1 to 3.
+     *                          Values reported by this histogram are within 10^-significantDigits of the recorded
+     *                          values, relatively.
+     */
+    public LogLinearHistogram(int significantDigits) {
+        if (significantDigits < 1 || significantDigits > MAX_SIGNIFICANT_DIGITS) {
+            throw new IllegalArgumentException("significantDigits must be between 1 and " + MAX_SIGNIFICANT_DIGITS
+                                               + ", not " + significantDigits);
+        }
+        this.significantDigits = significantDigits;
+
+        //the sub-bucket width must be at most 10^-significantDigits of the bucket's lowest value, which is half of
+        //the sub-bucket count, so we need at least 2 * 10^significantDigits sub-buckets.
+        long minSubBucketCount = 2L * (long) Math.pow(10.0, significantDigits);
+        int bits = 1;
+        while ((1L << bits) < minSubBucketCount) {
+            bits++;
+        }
+        this.subBucketBits = bits;
+        this.subBucketCount = 1 << bits;
+        this.subBucketHalfCount = subBucketCount / 2;
+    }
+
+    // --- Utility Methods ---
+
+    /**
+     * Records a single value in this histogram.
+     *
+     * @param value The value to record. Negative values are recorded as 0.
+     * @return this LogLinearHistogram instance
+     */
+    public LogLinearHistogram recordValue(long value) {
+        return recordValue(value, 1);
+    }
+
+    /**
+     * Records a value the specified number of times in this histogram.
+     *
+     * @param value The value to record. Negative values are recorded as 0.
+     * @param count The number of times the value is recorded.
+     * @return this LogLinearHistogram instance
+     */
+    public LogLinearHistogram recordValue(long value, int count) {
+        int index = getBucketIndex(Math.max(value, 0L));
+        if (index >= counts.length) {
+            growCounts(index + 1);
+        }
+        counts[index] += count;
+        totalCount += count;
+        return this;
+    }
+
+    /**
+     * Adds all of the counts in the specified histogram to this histogram.
+     *
+     * @param other The histogram to add, which must have the same precision as this histogram.
+     * @return this LogLinearHistogram instance
+     * @throws IllegalArgumentException Thrown if the other histogram's precision differs from this histogram's.
+     */
+    public LogLinearHistogram add(LogLinearHistogram other) {
+        if (other.significantDigits != significantDigits) {
+            throw new IllegalArgumentException("Can't add a histogram with " + other.significantDigits
+                                               + " significant digits to one with " + significantDigits);
+        }
+        if (other.counts.length > counts.length) {
+            growCounts(other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        return this;
+    }
+
+    /**
+     * Gets the value at the specified percentile, i.e. the smallest recorded value such that the given percentage
+     * of all recorded values are less than or equal to it. The returned value is the highest value that is equivalent
+     * to the recorded value at the precision of this histogram.
+     *
+     * @param percentile The percentile, from 0 to 100, e.g. 99.9.
+     * @return The value at the percentile, or 0 if no values have been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0L;
+        }
+        percentile = Math.min(Math.max(percentile, 0.0), 100.0);
+        long rank = Math.max((long) Math.ceil((percentile * totalCount) / 100.0), 1L);
+
+        long cumulativeCount = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= rank) {
+                return getHighestEquivalentValue(i);
+            }
+        }
+        //can't happen as the sum of the counts is the total count
+        return getHighestEquivalentValue(counts.length - 1);
+    }
+
+    // --- Bean Properties ---
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Gets the index of the bucket that counts the specified value.
+     *
+     * @param value The non-negative value
+     * @return The bucket index
+     */
+    private int getBucketIndex(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        //shift the value so that its highest bit falls in the upper half of the sub-buckets
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - subBucketBits + 1;
+        return subBucketCount + (shift - 1) * subBucketHalfCount + (int) (value >>> shift) - subBucketHalfCount;
+    }
+
+    /**
+     * Gets the highest value that is counted in the specified bucket.
+     *
+     * @param index The bucket index
+     * @return The highest value that maps to the bucket
+     */
+    private long getHighestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index - subBucketCount) / subBucketHalfCount + 1;
+        long subBucket = subBucketHalfCount + (index - subBucketCount) % subBucketHalfCount;
+        long retVal = ((subBucket + 1) << shift) - 1;
+        //the top bucket overflows
+        return (retVal < 0L) ? Long.MAX_VALUE : retVal;
+    }
+
+    /**
+     * Grows the counts array so that it has at least the specified length.
+     *
+     * @param minLength The required length
+     */
+    private void growCounts(int minLength) {
+        int maxLength = getBucketIndex(Long.MAX_VALUE) + 1;
+        int newLength = Math.min(Math.max(minLength, counts.length * 2), maxLength);
+        int[] newCounts = new int[newLength];
+        System.arraycopy(counts, 0, newCounts, 0, counts.length);
+        counts = newCounts;
+    }
+
+    // --- Object Methods ---
+
+    public LogLinearHistogram clone() {
+        try {
+            LogLinearHistogram retVal = (LogLinearHistogram) super.clone();
+            retVal.counts = counts.clone();
+            return retVal;
+        } catch (CloneNotSupportedException cnse) {
+            throw new Error("Unexpected CloneNotSupportedException");
+        }
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LogLinearHistogram)) {
+            return false;
+        }
+
+        LogLinearHistogram that = (LogLinearHistogram) o;
+
+        if (significantDigits != that.significantDigits || totalCount != that.totalCount) {
+            return false;
+        }
+
+        //the counts arrays may have different lengths if one has grown further than the other
+        int length = Math.max(counts.length, that.counts.length);
+        for (int i = 0; i < length; i++) {
+            int count = (i < counts.length) ? counts[i] : 0;
+            int thatCount = (i < that.counts.length) ? that.counts[i] : 0;
+            if (count != thatCount) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public int hashCode() {
+        int result = significantDigits;
+        result = 31 * result + totalCount;
+        //trailing empty buckets must not affect the hash code, as they don't affect equality
+        int length = counts.length;
+        while (length > 0 && counts[length - 1] == 0) {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            result = 31 * result + counts[i];
+        }
+        return result;
+    }
+
+    public String toString() {
+        return "count[" + totalCount +
+               "] p50[" + getValueAtPercentile(50.0) +
+               "] p99[" + getValueAtPercentile(99.0) +
+               "] p999[" + getValueAtPercentile(99.9) + "]";
+    }
+}
@@ -0,0 +1,337 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A LogTimeIndex maps the start times of the StopWatches in a log file to the positions of their lines in the file, so
+ * that the StopWatches that started in a time range can be read without parsing the whole file. The index divides
+ * time into buckets, and records for each bucket the position of the first line and the end of the last line with a
+ * StopWatch that started in the bucket. Because StopWatches are logged when they stop, the lines of a bucket can
+ * overlap the lines of the following buckets; the index handles this, so a region found with the index contains all
+ * StopWatches of the time range, but it may also contain StopWatches outside of the range.
+ * <p/>
+ * The index is stored in a small binary sidecar file next to the log (see {@link #getIndexFile}). {@link #open}
+ * reuses the sidecar file if it belongs to the log, and only indexes the lines added to the log since the index was
+ * last updated. The log must be in the standard StopWatch format, as it is read with a
+ * {@link MappedStopWatchLogIterator}.
+ *
+ * @author Alex Devine
+ */
+public class LogTimeIndex {
+    /**
+     * The default length of the time buckets of the index, one minute.
+     */
+    public static final long DEFAULT_BUCKET_SIZE = 60000L;
+    /**
+     * The suffix appended to the name of a log file to get the name of its index file.
+     */
+    public static final String INDEX_FILE_SUFFIX = ".p4jidx";
+
+    private static final int MAGIC = 0x50344958; //"P4IX"
+    private static final int VERSION = 1;
+    private static final int MAX_FINGERPRINT_LENGTH = 1024;
+
+    private final File logFile;
+    private final long bucketSize;
+    /**
+     * The position in the log file up to which lines have been indexed.
+     */
+    private long indexedLength;
+    private int fingerprintLength;
+    private long fingerprint;
+    /**
+     * Maps the start time of each bucket to the start of its first line and the end of its last line.
+     */
+    private final TreeMap<Long, long[]> buckets = new TreeMap<Long, long[]>();
+
+    /**
+     * Creates a new, empty index of the specified log file. Call {@link #update} to index the file.
+     *
+     * @param logFile    The log file.
+     * @param bucketSize The length, in milliseconds, of the time buckets of the index.
+     */
+    public LogTimeIndex(File logFile, long bucketSize) {
+        if (bucketSize <= 0L) {
+            throw new IllegalArgumentException("The bucket size must be positive");
+        }
+        this.logFile = logFile;
+        this.bucketSize = bucketSize;
+    }
+
+    /**
+     * Gets the index of a log file, reading it from the sidecar index file if that is still valid for the log, and
+     * updating it with any lines added to the log. If the index was created or updated, it is written to the sidecar
+     * index file.
+     *
+     * @param logFile         The log file.
+     * @param stopWatchParser The parser used to parse StopWatches from the log. If null, a new StopWatchParser is
+     *                        used.
+     * @return The up to date index of the log.
+     * @throws IOException Thrown if the log could not be read, or the index file could not be written.
+     */
+    public static LogTimeIndex open(File logFile, StopWatchParser stopWatchParser) throws IOException {
+        File indexFile = getIndexFile(logFile);
+        LogTimeIndex retVal = indexFile.exists() ? read(logFile, indexFile) : null;
+        if (retVal == null) {
+            retVal = new LogTimeIndex(logFile, DEFAULT_BUCKET_SIZE);
+        }
+        if (retVal.update(stopWatchParser)) {
+            retVal.write(indexFile);
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the name of the sidecar index file of a log file.
+     *
+     * @param logFile The log file.
+     * @return The index file.
+     */
+    public static File getIndexFile(File logFile) {
+        return new File(logFile.getPath() + INDEX_FILE_SUFFIX);
+    }
+
+    // --- Bean Properties ---
+
+    public long getBucketSize() {
+        return bucketSize;
+    }
+
+    /**
+     * Gets the position in the log file up to which lines have been indexed.
+     *
+     * @return The indexed length of the log.
+     */
+    public long getIndexedLength() {
+        return indexedLength;
+    }
+
+    // --- Utility Methods ---
+
+    /**
+     * Gets the position in the log file where reading should start to find all StopWatches that started in the
+     * specified time range.
+     *
+     * @param fromTime The start of the time range, in milliseconds since 1970, inclusive.
+     * @param toTime   The end of the time range, in milliseconds since 1970, exclusive.
+     * @return The start of the region of the log containing the time range.
+     */
+    public long getStartPosition(long fromTime, long toTime) {
+        long retVal = indexedLength;
+        for (Map.Entry<Long, long[]> bucket : buckets.entrySet()) {
+            if (isInRange(bucket.getKey(), fromTime, toTime)) {
+                retVal = Math.min(retVal, bucket.getValue()[0]);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the position in the log file where reading can stop, because all StopWatches that started in the specified
+     * time range have been read.
+     *
+     * @param fromTime The start of the time range, in milliseconds since 1970, inclusive.
+     * @param toTime   The end of the time range, in milliseconds since 1970, exclusive.
+     * @return The end of the region of the log containing the time range.
+     */
+    public long getEndPosition(long fromTime, long toTime) {
+        long retVal = getStartPosition(fromTime, toTime);
+        for (Map.Entry<Long, long[]> bucket : buckets.entrySet()) {
+            if (isInRange(bucket.getKey(), fromTime, toTime)) {
+                retVal = Math.max(retVal, bucket.getValue()[1]);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Indexes the lines added to the log since the last update. A partial line at the end of the log is not indexed
+     * until it is complete.
+     *
+     * @param stopWatchParser The parser used to parse StopWatches from the log. If null, a new StopWatchParser is
+     *                        used. The parser should not have a tag filter, as the index would then be incomplete.
+     * @return true if lines were indexed, false if the index was already up to date.
+     * @throws IOException Thrown if the log could not be read.
+     */
+    public boolean update(StopWatchParser stopWatchParser) throws IOException {
+        FileChannel channel = new FileInputStream(logFile).getChannel();
+        try {
+            long endPosition = findEndOfLastLine(channel);
+            if (endPosition <= indexedLength) {
+                return false;
+            }
+
+            MappedStopWatchLogIterator stopWatchIter =
+                    new MappedStopWatchLogIterator(channel, indexedLength, endPosition, stopWatchParser,
+                                                   Charset.defaultCharset(),
+                                                   MappedStopWatchLogIterator.DEFAULT_CHUNK_SIZE);
+            while (stopWatchIter.hasNext()) {
+                StopWatch stopWatch = stopWatchIter.next();
+                Long bucketStart = getBucketStart(stopWatch.getStartTime());
+                long[] lines = buckets.get(bucketStart);
+                if (lines == null) {
+                    buckets.put(bucketStart, new long[] {stopWatchIter.getLineStartPosition(),
+                                                         stopWatchIter.getLineEndPosition()});
+                } else {
+                    //lines are read in order, so only the end of the last line can change
+                    lines[1] = Math.max(lines[1], stopWatchIter.getLineEndPosition());
+                }
+            }
+
+            indexedLength = endPosition;
+            if (fingerprintLength < MAX_FINGERPRINT_LENGTH) {
+                fingerprintLength = (int) Math.min(indexedLength, MAX_FINGERPRINT_LENGTH);
+                fingerprint = computeFingerprint(channel, fingerprintLength);
+            }
+            return true;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes this index to a file.
+     *
+     * @param indexFile The index file to write.
+     * @throws IOException Thrown if the file could not be written.
+     */
+    public void write(File indexFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(bucketSize);
+            out.writeLong(indexedLength);
+            out.writeInt(fingerprintLength);
+            out.writeLong(fingerprint);
+            out.writeInt(buckets.size());
+            for (Map.Entry<Long, long[]> bucket : buckets.entrySet()) {
+                out.writeLong(bucket.getKey());
+                out.writeLong(bucket.getValue()[0]);
+                out.writeLong(bucket.getValue()[1]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the index of a log file.
+     *
+     * @param logFile   The log file.
+     * @param indexFile The index file.
+     * @return The index, or null if the index file is invalid or belongs to a different file, for example because
+     *         the log was rotated.
+     * @throws IOException Thrown if the log could not be read.
+     */
+    public static LogTimeIndex read(File logFile, File indexFile) throws IOException {
+        LogTimeIndex retVal;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            retVal = new LogTimeIndex(logFile, in.readLong());
+            retVal.indexedLength = in.readLong();
+            retVal.fingerprintLength = in.readInt();
+            retVal.fingerprint = in.readLong();
+            for (int i = in.readInt(); i > 0; i--) {
+                retVal.buckets.put(in.readLong(), new long[] {in.readLong(), in.readLong()});
+            }
+        } catch (IOException ioe) {
+            //a truncated or corrupt index is simply rebuilt
+            return null;
+        } finally {
+            in.close();
+        }
+
+        FileChannel channel = new FileInputStream(logFile).getChannel();
+        try {
+            if (channel.size() < retVal.indexedLength
+                || computeFingerprint(channel, retVal.fingerprintLength) != retVal.fingerprint) {
+                return null;
+            }
+        } finally {
+            channel.close();
+        }
+        return retVal;
+    }
+
+    // --- Helper Methods ---
+
+    private boolean isInRange(long bucketStart, long fromTime, long toTime) {
+        return bucketStart < toTime && bucketStart + bucketSize > fromTime;
+    }
+
+    private long getBucketStart(long time) {
+        long retVal = (time / bucketSize) * bucketSize;
+        return (retVal > time) ? retVal - bucketSize : retVal;
+    }
+
+    /**
+     * Finds the position after the last line terminator of the file.
+     *
+     * @param channel The channel of the file.
+     * @return The end of the last complete line, or 0 if the file doesn't contain a complete line.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    private static long findEndOfLastLine(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        for (long blockEnd = channel.size(); blockEnd > 0L;) {
+            long blockStart = Math.max(0L, blockEnd - buffer.capacity());
+            buffer.clear();
+            buffer.limit((int) (blockEnd - blockStart));
+            while (buffer.hasRemaining() && channel.read(buffer, blockStart + buffer.position()) > 0) {
+                //keep reading until the block is full
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    return blockStart + i + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return 0L;
+    }
+
+    private static long computeFingerprint(FileChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            //keep reading until the buffer is full
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,477 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+
+/**
+ * The MappedStopWatchLogIterator class parses StopWatches from a log file like the {@link StopWatchLogIterator}, but
+ * instead of decoding the entire file to characters it memory maps the file in chunks and scans the raw bytes for the
+ * <tt>start[</tt> marker that begins every StopWatch in the standard format. Only the lines that contain the marker
+ * are decoded and passed to the StopWatchParser, so lines without StopWatches, which make up most of a typical
+ * application log, are skipped without creating any objects.
+ * <p/>
+ * Each chunk is mapped so that it ends at a line boundary. As with the StopWatchLogIterator, if the parser
+ * {@link StopWatchParser#isSingleMatchPerLine parses a single match per line} at most one StopWatch is parsed from
+ * each line, otherwise every match of the parser's pattern in the line is returned. Because only lines containing the <tt>start[</tt> marker are parsed, this class
+ * should not be used with a StopWatchParser whose pattern matches StopWatches in another format. The charset of the
+ * file must encode ASCII characters as single bytes, which is true of UTF-8 and the ISO-8859 charsets.
+ * <p/>
+ * The file is closed once all StopWatches have been read, or when {@link #close()} is called.
+ *
+ * @author Alex Devine
+ */
+public class MappedStopWatchLogIterator implements Iterator<StopWatch>, Closeable {
+    /**
+     * The default maximum number of bytes mapped at one time, 64 MB.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final byte[] MARKER = {'s', 't', 'a', 'r', 't', '['};
+
+    /**
+     * The Horspool shift table for the marker: the number of bytes the search can skip ahead when the byte at the end
+     * of the current search window has the index value.
+     */
+    private static final int[] MARKER_SHIFTS = new int[256];
+    static {
+        Arrays.fill(MARKER_SHIFTS, MARKER.length);
+        for (int i = 0; i < MARKER.length - 1; i++) {
+            MARKER_SHIFTS[MARKER[i] & 0xFF] = MARKER.length - 1 - i;
+        }
+    }
+
+    /**
+     * The channel of the mapped file.
+     */
+    private final FileChannel channel;
+    /**
+     * Whether the channel was opened by this class, and so should be closed by it.
+     */
+    private final boolean ownsChannel;
+    /**
+     * The position in the file of the first byte that has not been mapped yet.
+     */
+    private long position;
+    /**
+     * The position in the file after the last byte to be read.
+     */
+    private final long endPosition;
+    /**
+     * The maximum number of bytes to map at one time, unless a single line is longer.
+     */
+    private final int chunkSize;
+    /**
+     * This StopWatchParser is used to parse StopWatches from the lines that contain the marker.
+     */
+    private final StopWatchParser stopWatchParser;
+    /**
+     * The decoder used to decode the lines that contain the marker.
+     */
+    private final CharsetDecoder decoder;
+    /**
+     * The currently mapped chunk, or null if no chunk is mapped.
+     */
+    private MappedByteBuffer chunk;
+    /**
+     * The position in the file of the start of the current chunk.
+     */
+    private long chunkPosition;
+    /**
+     * The index in the chunk after the last complete line.
+     */
+    private int chunkLimit;
+    /**
+     * The index in the chunk where the search for the next marker begins. This is always the start of a line.
+     */
+    private int scanIndex;
+    /**
+     * StopWatches parsed from the last decoded line that have not been returned yet.
+     */
+    private final LinkedList<StopWatch> pendingStopWatches = new LinkedList<StopWatch>();
+    /**
+     * The positions in the file of the start and end of the line of the pendingStopWatches.
+     */
+    private long pendingLineStart, pendingLineEnd;
+    /**
+     * The positions in the file of the start and end of the line of nextStopWatch.
+     */
+    private long nextLineStart, nextLineEnd;
+    /**
+     * The positions in the file of the start and end of the line of the StopWatch last returned by next().
+     */
+    private long lastLineStart = -1L, lastLineEnd = -1L;
+    /**
+     * State variable points to the next StopWatch to be returned, or null if it hasn't been determined yet.
+     */
+    private StopWatch nextStopWatch;
+    /**
+     * Set once the end of the input has been reached.
+     */
+    private boolean done;
+
+    /**
+     * Creates a new MappedStopWatchLogIterator that parses the specified file with the default StopWatchParser, using
+     * the platform's default charset.
+     *
+     * @param logFile The log file containing the data to be parsed.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public MappedStopWatchLogIterator(File logFile) throws IOException {
+        this(logFile, null);
+    }
+
+    /**
+     * Creates a new MappedStopWatchLogIterator that parses the specified file with the specified StopWatchParser,
+     * using the platform's default charset.
+     *
+     * @param logFile         The log file containing the data to be parsed.
+     * @param stopWatchParser The parser used to parse StopWatches from the log. If null, a new StopWatchParser is
+     *                        used.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public MappedStopWatchLogIterator(File logFile, StopWatchParser stopWatchParser) throws IOException {
+        this(new FileInputStream(logFile).getChannel(), true, 0L, -1L,
+             stopWatchParser, Charset.defaultCharset(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new MappedStopWatchLogIterator that parses a region of the specified file with the specified
+     * StopWatchParser, using the platform's default charset.
+     *
+     * @param logFile         The log file containing the data to be parsed.
+     * @param startPosition   The position in the file where parsing begins, which should be the start of a line.
+     * @param endPosition     The position in the file where parsing ends, which should be the end of a line, or -1
+     *                        to parse until the end of the file.
+     * @param stopWatchParser The parser used to parse StopWatches from the log. If null, a new StopWatchParser is
+     *                        used.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public MappedStopWatchLogIterator(File logFile,
+                                      long startPosition,
+                                      long endPosition,
+                                      StopWatchParser stopWatchParser) throws IOException {
+        this(new FileInputStream(logFile).getChannel(), true, startPosition, endPosition,
+             stopWatchParser, Charset.defaultCharset(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new MappedStopWatchLogIterator that parses a region of the file of an open channel. This can be used to
+     * parse different regions of the same file in parallel. The channel is not closed by this iterator.
+     *
+     * @param channel         The channel of the log file.
+     * @param startPosition   The position in the file where parsing begins, which should be the start of a line.
+     * @param endPosition     The position in the file where parsing ends, which should be the end of a line, or -1
+     *                        to parse until the end of the file.
+     * @param stopWatchParser The parser used to parse StopWatches from the log. If null, a new StopWatchParser is
+     *                        used.
+     * @param charset         The charset of the log file, which must encode ASCII characters as single bytes.
+     * @param chunkSize       The maximum number of bytes to map at one time.
+     * @throws IOException Thrown if the size of the file could not be determined.
+     */
+    public MappedStopWatchLogIterator(FileChannel channel,
+                                      long startPosition,
+                                      long endPosition,
+                                      StopWatchParser stopWatchParser,
+                                      Charset charset,
+                                      int chunkSize) throws IOException {
+        this(channel, false, startPosition, endPosition, stopWatchParser, charset, chunkSize);
+    }
+
+    private MappedStopWatchLogIterator(FileChannel channel,
+                                       boolean ownsChannel,
+                                       long startPosition,
+                                       long endPosition,
+                                       StopWatchParser stopWatchParser,
+                                       Charset charset,
+                                       int chunkSize) throws IOException {
+        try {
+            if (!isAsciiCompatible(charset)) {
+                throw new IllegalArgumentException("The charset " + charset + " does not encode ASCII as single bytes");
+            }
+            if (chunkSize <= MARKER.length) {
+                throw new IllegalArgumentException("The chunk size is too small: " + chunkSize);
+            }
+            this.channel = channel;
+            this.ownsChannel = ownsChannel;
+            this.position = startPosition;
+            this.endPosition = (endPosition < 0L) ? channel.size() : Math.min(endPosition, channel.size());
+            this.chunkSize = chunkSize;
+            this.stopWatchParser = (stopWatchParser == null) ? new StopWatchParser() : stopWatchParser;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        } catch (IOException ioe) {
+            if (ownsChannel) {
+                channel.close();
+            }
+            throw ioe;
+        } catch (RuntimeException re) {
+            if (ownsChannel) {
+                channel.close();
+            }
+            throw re;
+        }
+    }
+
+    public boolean hasNext() {
+        if (nextStopWatch == null && !done) {
+            nextStopWatch = getNext();
+            done = (nextStopWatch == null);
+        }
+        return nextStopWatch != null;
+    }
+
+    public StopWatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        StopWatch retVal = nextStopWatch;
+        nextStopWatch = null;
+        lastLineStart = nextLineStart;
+        lastLineEnd = nextLineEnd;
+        return retVal;
+    }
+
+    /**
+     * Gets the position in the file of the start of the line containing the StopWatch last returned by
+     * {@link #next()}.
+     *
+     * @return The position of the start of the line, or -1 if next() hasn't been called.
+     */
+    public long getLineStartPosition() {
+        return lastLineStart;
+    }
+
+    /**
+     * Gets the position in the file of the end of the line, excluding the line terminator, containing the StopWatch
+     * last returned by {@link #next()}.
+     *
+     * @return The position of the end of the line, or -1 if next() hasn't been called.
+     */
+    public long getLineEndPosition() {
+        return lastLineEnd;
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops reading the log. If the file was opened by this iterator it is closed; note however that the operating
+     * system may only release the mapped memory once the mapped chunk has been garbage collected.
+     *
+     * @throws IOException Thrown if the file could not be closed.
+     */
+    public void close() throws IOException {
+        done = true;
+        nextStopWatch = null;
+        pendingStopWatches.clear();
+        chunk = null;
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method scans the mapped chunks for the next line with a StopWatch.
+     *
+     * @return The next parsed StopWatch, or null if there are no more StopWatches.
+     */
+    private StopWatch getNext() {
+        try {
+            while (pendingStopWatches.isEmpty()) {
+                int markerIndex;
+                while ((markerIndex = findMarker()) < 0) {
+                    if (!mapNextChunk()) {
+                        close();
+                        return null;
+                    }
+                }
+                parseLine(markerIndex);
+            }
+            nextLineStart = pendingLineStart;
+            nextLineEnd = pendingLineEnd;
+            return pendingStopWatches.removeFirst();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Error reading StopWatch log: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Finds the next occurrence of the marker in the current chunk, starting at the scanIndex. The Horspool algorithm
+     * is used, so most bytes of lines without StopWatches are never read.
+     *
+     * @return The index of the marker in the chunk, or -1 if the rest of the chunk doesn't contain the marker.
+     */
+    private int findMarker() {
+        if (chunk == null) {
+            return -1;
+        }
+        int lastMarkerIndex = MARKER.length - 1;
+        byte lastMarkerByte = MARKER[lastMarkerIndex];
+        for (int i = scanIndex, last = chunkLimit - MARKER.length; i <= last;) {
+            byte b = chunk.get(i + lastMarkerIndex);
+            if (b == lastMarkerByte && isMarkerAt(i)) {
+                return i;
+            }
+            i += MARKER_SHIFTS[b & 0xFF];
+        }
+        scanIndex = chunkLimit;
+        return -1;
+    }
+
+    private boolean isMarkerAt(int index) {
+        for (int i = 0; i < MARKER.length - 1; i++) {
+            if (chunk.get(index + i) != MARKER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the line containing the marker at the specified index, and adds the StopWatches parsed from it to the
+     * pendingStopWatches. The scanIndex is moved to the start of the following line.
+     *
+     * @param markerIndex The index of the marker in the current chunk.
+     * @throws CharacterCodingException Not expected, since malformed input is replaced.
+     */
+    private void parseLine(int markerIndex) throws CharacterCodingException {
+        int lineStart = markerIndex;
+        while (lineStart > scanIndex && !isLineTerminator(chunk.get(lineStart - 1))) {
+            lineStart--;
+        }
+        int lineEnd = markerIndex + MARKER.length;
+        while (lineEnd < chunkLimit && !isLineTerminator(chunk.get(lineEnd))) {
+            lineEnd++;
+        }
+        scanIndex = lineEnd;
+        pendingLineStart = chunkPosition + lineStart;
+        pendingLineEnd = chunkPosition + lineEnd;
+
+        ByteBuffer lineBytes = chunk.duplicate();
+        lineBytes.limit(lineEnd).position(lineStart);
+        CharBuffer line = decoder.decode(lineBytes);
+
+        if (stopWatchParser.isSingleMatchPerLine()) {
+            StopWatch stopWatch = stopWatchParser.parseStopWatch(line.toString());
+            if (stopWatch != null) {
+                pendingStopWatches.add(stopWatch);
+            }
+        } else {
+            Matcher matcher = stopWatchParser.getPattern().matcher(line);
+            while (matcher.find()) {
+                StopWatch stopWatch = stopWatchParser.parseStopWatchFromLogMatch(matcher);
+                if (stopWatch != null) {
+                    pendingStopWatches.add(stopWatch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the next chunk of the file. Unless the end of the input is reached, the chunk is cut off after its last
+     * line terminator; if a single line is longer than the chunk size the mapped region is enlarged.
+     *
+     * @return false if there is no more input to map.
+     * @throws IOException Thrown if the file could not be mapped.
+     */
+    private boolean mapNextChunk() throws IOException {
+        chunk = null;
+        long remaining = endPosition - position;
+        if (remaining <= 0L) {
+            return false;
+        }
+
+        int mapLength = (int) Math.min(chunkSize, remaining);
+        while (true) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, mapLength);
+            int limit = mapLength;
+            if (mapLength < remaining) {
+                while (limit > 0 && !isLineTerminator(buffer.get(limit - 1))) {
+                    limit--;
+                }
+                if (limit == 0) {
+                    if (mapLength < Integer.MAX_VALUE) {
+                        //no line ends in this chunk, so map a bigger one
+                        mapLength = (int) Math.min(Math.min(2L * mapLength, Integer.MAX_VALUE), remaining);
+                        continue;
+                    }
+                    limit = mapLength;
+                }
+            }
+
+            chunk = buffer;
+            chunkPosition = position;
+            chunkLimit = limit;
+            scanIndex = 0;
+            position += limit;
+            return true;
+        }
+    }
+
+    private static boolean isLineTerminator(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Checks that the specified charset encodes the marker and line terminators as the corresponding ASCII bytes.
+     *
+     * @param charset The charset to check
+     * @return true if the raw bytes of files in this charset can be scanned for the marker.
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        ByteBuffer encoded = charset.encode("start[\r\n");
+        if (encoded.remaining() != MARKER.length + 2) {
+            return false;
+        }
+        for (byte b : MARKER) {
+            if (encoded.get() != b) {
+                return false;
+            }
+        }
+        return encoded.get() == '\r' && encoded.get() == '\n';
+    }
+}
@@ -0,0 +1,123 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * The MergingStopWatchIterator merges the StopWatches of several iterators, for example the
+ * {@link StopWatchLogIterator}s of the log files written by different JVMs or of rotated log files, into a single
+ * stream ordered by start time, so that it can be passed to a {@link GroupingStatisticsIterator}. Only the next
+ * StopWatch of each underlying iterator is held in memory, and StopWatches with the same start time are returned in
+ * the order of the iterators.
+ * <p/>
+ * Note that the merged stream is only as well ordered as the underlying iterators. StopWatches are normally logged
+ * when they are stopped, so a log contains StopWatches that are slightly out of start time order; the
+ * GroupingStatisticsIterator tolerates this in the same way as for a single log.
+ *
+ * @author Alex Devine
+ */
+public class MergingStopWatchIterator implements Iterator<StopWatch> {
+    /**
+     * The underlying iterators that have not been exhausted yet, ordered by the start time of their next StopWatch.
+     */
+    private final PriorityQueue<Source> sources = new PriorityQueue<Source>();
+
+    /**
+     * Creates a new MergingStopWatchIterator.
+     *
+     * @param stopWatchIterators The iterators to merge. Each iterator should return StopWatches ordered by start time.
+     */
+    public MergingStopWatchIterator(List<? extends Iterator<StopWatch>> stopWatchIterators) {
+        int index = 0;
+        for (Iterator<StopWatch> stopWatchIterator : stopWatchIterators) {
+            Source source = new Source(stopWatchIterator, index++);
+            if (source.advance()) {
+                sources.add(source);
+            }
+        }
+    }
+
+    public boolean hasNext() {
+        return !sources.isEmpty();
+    }
+
+    public StopWatch next() {
+        Source source = sources.poll();
+        if (source == null) {
+            throw new NoSuchElementException();
+        }
+        StopWatch retVal = source.nextStopWatch;
+        if (source.advance()) {
+            sources.add(source);
+        }
+        return retVal;
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    // --- Support Classes ---
+    /**
+     * One of the merged iterators, together with its next StopWatch.
+     */
+    private static class Source implements Comparable<Source> {
+        final Iterator<StopWatch> stopWatchIterator;
+        final int index;
+        StopWatch nextStopWatch;
+
+        Source(Iterator<StopWatch> stopWatchIterator, int index) {
+            this.stopWatchIterator = stopWatchIterator;
+            this.index = index;
+        }
+
+        /**
+         * Reads the next non-null StopWatch of the iterator.
+         *
+         * @return false if the iterator is exhausted.
+         */
+        boolean advance() {
+            while (stopWatchIterator.hasNext()) {
+                nextStopWatch = stopWatchIterator.next();
+                if (nextStopWatch != null) {
+                    return true;
+                }
+            }
+            nextStopWatch = null;
+            return false;
+        }
+
+        public int compareTo(Source other) {
+            long startTime = nextStopWatch.getStartTime();
+            long otherStartTime = other.nextStopWatch.getStartTime();
+            if (startTime != otherStartTime) {
+                return (startTime < otherStartTime) ? -1 : 1;
+            }
+            return (index < other.index) ? -1 : ((index == other.index) ? 0 : 1);
+        }
+    }
+}
@@ -17,7 +17,10 @@ package org.perf4j.helpers;
 
 import org.perf4j.GroupedTimingStatistics;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Miscellaneous static utility functions, mainly having to do with String parsing/formatting.
@@ -95,6 +98,95 @@ public class MiscUtils {
         return MiscUtils.padIntToTwoDigits(second, retVal).toString();
     }
 
+    /**
+     * Parses a time in the yyyy-MM-dd HH:mm:ss format used by {@link #formatDateIso8601}, in the time zone of
+     * {@link GroupedTimingStatistics#getTimeZone()}. A number of milliseconds since 1970 is also accepted.
+     *
+     * @param time The time to parse.
+     * @return The time in milliseconds since 1970.
+     * @throws IllegalArgumentException Thrown if the time is not in a supported format.
+     */
+    public static long parseDateIso8601(String time) {
+        String trimmedTime = time.trim();
+        try {
+            return Long.parseLong(trimmedTime);
+        } catch (NumberFormatException nfe) {
+            //not a number of milliseconds, so it should be a date
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        dateFormat.setTimeZone(GroupedTimingStatistics.getTimeZone());
+        dateFormat.setLenient(false);
+        try {
+            return dateFormat.parse(trimmedTime).getTime();
+        } catch (ParseException pe) {
+            throw new IllegalArgumentException("Invalid time, expected yyyy-MM-dd HH:mm:ss: " + time);
+        }
+    }
+
+    /**
+     * Gets the short name of the specified time unit, which is used both in StopWatch log messages and in the headers
+     * of formatted statistics.
+     *
+     * @param timeUnit The time unit, should be one of NANOSECONDS, MICROSECONDS, MILLISECONDS or SECONDS.
+     * @return The abbreviation of the time unit, one of ns, us, ms or s.
+     * @throws IllegalArgumentException Thrown if timeUnit is not one of the supported units.
+     */
+    public static String getTimeUnitAbbreviation(TimeUnit timeUnit) {
+        switch (timeUnit) {
+        case NANOSECONDS:
+            return "ns";
+        case MICROSECONDS:
+            return "us";
+        case MILLISECONDS:
+            return "ms";
+        case SECONDS:
+            return "s";
+        default:
+            throw new IllegalArgumentException("Unsupported time unit: " + timeUnit);
+        }
+    }
+
+    /**
+     * Parses a time unit from either its abbreviation (ns, us, ms or s) or its full name (e.g. MICROSECONDS). This is
+     * useful for setting the TimeUnit option on appenders.
+     *
+     * @param timeUnitName The abbreviation or name of the time unit, case insensitive.
+     * @return The parsed TimeUnit
+     * @throws IllegalArgumentException Thrown if timeUnitName is not a supported time unit.
+     */
+    public static TimeUnit parseTimeUnit(String timeUnitName) {
+        String name = timeUnitName.trim().toUpperCase();
+        if ("NS".equals(name)) { return TimeUnit.NANOSECONDS; }
+        if ("US".equals(name)) { return TimeUnit.MICROSECONDS; }
+        if ("MS".equals(name)) { return TimeUnit.MILLISECONDS; }
+        if ("S".equals(name)) { return TimeUnit.SECONDS; }
+        TimeUnit retVal = TimeUnit.valueOf(name);
+        getTimeUnitAbbreviation(retVal); //ensures the unit is supported
+        return retVal;
+    }
+
+    /**
+     * Parses the name of an enum constant leniently: the name is case insensitive, and dashes and underscores are
+     * ignored, so "drop-oldest", "DropOldest" and "DROP_OLDEST" all denote a DROP_OLDEST constant. This is useful for
+     * setting enum-valued options on appenders.
+     *
+     * @param enumClass   The class of the enum, may not be null.
+     * @param name        The name to parse, may not be null.
+     * @param description A description of the option used in the exception message, e.g. "overflow policy".
+     * @return The enum constant denoted by the name
+     * @throws IllegalArgumentException Thrown if the name does not denote a constant of the enum.
+     */
+    public static <E extends Enum<E>> E parseEnumName(Class<E> enumClass, String name, String description) {
+        String normalizedName = name.trim().replace("-", "").replace("_", "");
+        for (E constant : enumClass.getEnumConstants()) {
+            if (constant.name().replace("_", "").equalsIgnoreCase(normalizedName)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("Unknown " + description + ": " + name);
+    }
+
     /**
      * Splits a string using the specified delimiter, and also trims all the resultant strings in the returned array.
      * This is useful for setting multi-valued options on appenders.
@@ -0,0 +1,57 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+/**
+ * The OverflowPolicy determines what the asynchronous statistics appenders and sinks do with a StopWatch when their
+ * internal queue is full.
+ *
+ * @see GenericAsyncCoalescingStatisticsAppender#getOverflowPolicy()
+ * @see org.perf4j.beans.sinks.AsyncCoalescingStatisticsSink#getOverflowPolicy()
+ * @author Alex Devine
+ */
+public enum OverflowPolicy {
+    /**
+     * The StopWatch that doesn't fit in the queue is discarded. This is the default.
+     */
+    DROP_NEWEST,
+    /**
+     * The oldest StopWatch in the queue is discarded to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * The logging thread waits for room in the queue for up to the overflow timeout, after which the StopWatch is
+     * discarded.
+     */
+    BLOCK,
+    /**
+     * The StopWatch is added to the statistics directly on the logging thread, so no StopWatches are lost. The
+     * inline statistics are merged with the statistics of the draining thread when the time slice is complete.
+     */
+    INLINE;
+
+    /**
+     * Parses an OverflowPolicy name. The name is case insensitive, and dashes are treated as underscores, so
+     * "drop-oldest", "DropOldest" and "DROP_OLDEST" all denote DROP_OLDEST.
+     *
+     * @param name The name of the overflow policy, may not be null.
+     * @return The OverflowPolicy
+     * @throws IllegalArgumentException if the name does not denote an OverflowPolicy
+     */
+    public static OverflowPolicy forName(String name) {
+        return MiscUtils.parseEnumName(OverflowPolicy.class, name, "overflow policy");
+    }
+}
@@ -0,0 +1,403 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ParallelGroupingStatisticsIterator returns the same GroupedTimingStatistics as a
+ * {@link GroupingStatisticsIterator} reading the StopWatches of a log file, but splits the file at line boundaries
+ * into chunks that are parsed and aggregated by a pool of threads. Each chunk is read with a
+ * {@link MappedStopWatchLogIterator}, so the same restrictions on the log format apply.
+ * <p/>
+ * Statistics that are calculated separately and then merged can differ from sequentially calculated statistics in
+ * the last bits of the mean and standard deviation. To return statistics that are identical to the sequential ones,
+ * the threads only aggregate the time slices that lie entirely inside their chunk; the StopWatches of the first and
+ * last time slice of each chunk are kept and added in log order by the thread calling this iterator, when the chunks
+ * are stitched back together. In the rare case that the StopWatches at the start of a chunk fall in a time slice that
+ * was already aggregated by the thread (which can happen when StopWatches are logged far out of start time order), the
+ * chunk is parsed again by the calling thread.
+ * <p/>
+ * The parsing threads are stopped when all statistics have been returned, or when {@link #close()} is called.
+ *
+ * @author Alex Devine
+ */
+public class ParallelGroupingStatisticsIterator implements Iterator<GroupedTimingStatistics>, Closeable {
+    /**
+     * The number of chunks created for each thread, so that the work is spread evenly over the threads.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /**
+     * The minimum size of a chunk, in bytes, so that small files are not split into very small chunks.
+     */
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final StopWatchParser stopWatchParser;
+    private final Charset charset;
+    private final long timeSlice;
+    private final boolean createRollupStatistics;
+    private final TimeUnit timeUnit;
+    private final int histogramPrecision;
+    private final ExecutorService executor;
+    /**
+     * The results of the chunks that have not been stitched yet, in file order.
+     */
+    private final LinkedList<Future<ChunkResult>> pendingChunks = new LinkedList<Future<ChunkResult>>();
+    /**
+     * Completed statistics that have not been returned yet.
+     */
+    private final LinkedList<GroupedTimingStatistics> completedStatistics = new LinkedList<GroupedTimingStatistics>();
+    /**
+     * The statistics of the time slice to which StopWatches are currently being added by the stitching thread.
+     */
+    private GroupedTimingStatistics currentGroupedTimingStatistics;
+    /**
+     * The end time, in milliseconds since the epoch, of the current time slice, or 0 before the first StopWatch.
+     */
+    private long nextTimeSliceEndTime = 0L;
+    /**
+     * Set once the last time slice has been completed.
+     */
+    private boolean done;
+
+    /**
+     * Creates a new ParallelGroupingStatisticsIterator that parses the specified log file, using the platform's
+     * default charset.
+     *
+     * @param logFile                The log file containing the StopWatches.
+     * @param stopWatchParser        The parser used to parse StopWatches from the log. If null, a new StopWatchParser
+     *                               is used.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param timeUnit               The unit of the time values in the created statistics.
+     * @param histogramPrecision     The number of significant digits of the histograms, from 1 to 3, or 0 for no
+     *                               histograms.
+     * @param threads                The number of threads used to parse the log, must be at least 1.
+     * @throws IOException Thrown if the file could not be opened or split into chunks.
+     */
+    public ParallelGroupingStatisticsIterator(File logFile,
+                                              StopWatchParser stopWatchParser,
+                                              long timeSlice,
+                                              boolean createRollupStatistics,
+                                              TimeUnit timeUnit,
+                                              int histogramPrecision,
+                                              int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        this.channel = new FileInputStream(logFile).getChannel();
+        this.stopWatchParser = (stopWatchParser == null) ? new StopWatchParser() : stopWatchParser;
+        this.charset = Charset.defaultCharset();
+        this.timeSlice = timeSlice;
+        this.createRollupStatistics = createRollupStatistics;
+        this.timeUnit = timeUnit;
+        this.histogramPrecision = histogramPrecision;
+        this.currentGroupedTimingStatistics = newGroupedTimingStatistics();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int threadNumber = 0;
+
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread retVal = new Thread(runnable, "perf4j-log-parser-" + threadNumber++);
+                retVal.setDaemon(true);
+                return retVal;
+            }
+        });
+
+        try {
+            long fileSize = channel.size();
+            long chunkSize = Math.max(fileSize / (threads * CHUNKS_PER_THREAD), MIN_CHUNK_SIZE);
+            long chunkStart = 0L;
+            while (chunkStart < fileSize) {
+                long chunkEnd = findLineStart(chunkStart + chunkSize, fileSize);
+                pendingChunks.add(executor.submit(new ChunkParser(chunkStart, chunkEnd)));
+                chunkStart = chunkEnd;
+            }
+        } catch (IOException ioe) {
+            close();
+            throw ioe;
+        }
+    }
+
+    public boolean hasNext() {
+        while (completedStatistics.isEmpty() && !done) {
+            if (pendingChunks.isEmpty()) {
+                completeCurrentSlice();
+                done = true;
+                shutdown();
+            } else {
+                stitchChunk(pendingChunks.removeFirst());
+            }
+        }
+        return !completedStatistics.isEmpty();
+    }
+
+    public GroupedTimingStatistics next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return completedStatistics.removeFirst();
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops parsing the log and closes the log file.
+     *
+     * @throws IOException Thrown if the file could not be closed.
+     */
+    public void close() throws IOException {
+        done = true;
+        completedStatistics.clear();
+        for (Future<ChunkResult> pendingChunk : pendingChunks) {
+            pendingChunk.cancel(true);
+        }
+        pendingChunks.clear();
+        executor.shutdownNow();
+        channel.close();
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Waits for a chunk to be parsed and adds its statistics, in log order, to the statistics of the time slices
+     * already stitched.
+     *
+     * @param pendingChunk The result of the chunk.
+     */
+    private void stitchChunk(Future<ChunkResult> pendingChunk) {
+        ChunkResult chunk;
+        try {
+            chunk = pendingChunk.get();
+        } catch (InterruptedException ie) {
+            closeQuietly();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing StopWatch log", ie);
+        } catch (ExecutionException ee) {
+            closeQuietly();
+            throw new RuntimeException("Error parsing StopWatch log: " + ee.getCause().getMessage(), ee.getCause());
+        }
+
+        if (!chunk.aggregatedSlices.isEmpty()
+            && chunk.aggregatedSlices.get(0).getStopTime() <= nextTimeSliceEndTime) {
+            //the first aggregated slice should be part of the current slice, so the aggregation can't be used
+            try {
+                for (Iterator<StopWatch> iter = chunk.newStopWatchIterator(); iter.hasNext();) {
+                    addStopWatch(iter.next());
+                }
+            } catch (IOException ioe) {
+                closeQuietly();
+                throw new RuntimeException("Error reading StopWatch log: " + ioe.getMessage(), ioe);
+            }
+            return;
+        }
+
+        for (StopWatch stopWatch : chunk.firstSliceStopWatches) {
+            addStopWatch(stopWatch);
+        }
+        for (GroupedTimingStatistics aggregatedSlice : chunk.aggregatedSlices) {
+            completeCurrentSlice();
+            completedStatistics.add(aggregatedSlice);
+            nextTimeSliceEndTime = aggregatedSlice.getStopTime();
+        }
+        for (StopWatch stopWatch : chunk.lastSliceStopWatches) {
+            addStopWatch(stopWatch);
+        }
+    }
+
+    /**
+     * Adds a StopWatch to the current time slice, completing the slice first if the StopWatch starts after it, in the
+     * same way as the {@link GroupingStatisticsIterator}.
+     *
+     * @param stopWatch The StopWatch to add.
+     */
+    private void addStopWatch(StopWatch stopWatch) {
+        long startTime = stopWatch.getStartTime();
+        if (nextTimeSliceEndTime == 0L) {
+            nextTimeSliceEndTime = getTimeSliceEndTime(startTime);
+        }
+        if (startTime >= nextTimeSliceEndTime) {
+            completeCurrentSlice();
+            nextTimeSliceEndTime = getTimeSliceEndTime(startTime);
+        }
+        currentGroupedTimingStatistics.addStopWatch(stopWatch);
+    }
+
+    /**
+     * Adds the current time slice to the completed statistics, unless it is empty, and starts a new slice.
+     */
+    private void completeCurrentSlice() {
+        if (!currentGroupedTimingStatistics.getStatisticsByTag().isEmpty()) {
+            currentGroupedTimingStatistics.setStartTime(nextTimeSliceEndTime - timeSlice);
+            currentGroupedTimingStatistics.setStopTime(nextTimeSliceEndTime);
+            completedStatistics.add(currentGroupedTimingStatistics);
+            currentGroupedTimingStatistics = newGroupedTimingStatistics();
+        }
+    }
+
+    private long getTimeSliceEndTime(long startTime) {
+        return ((startTime / timeSlice) * timeSlice) + timeSlice;
+    }
+
+    /**
+     * Finds the start of the first line that begins at or after the specified position.
+     *
+     * @param position The position in the file.
+     * @param fileSize The size of the file.
+     * @return The position of the start of the line, or the file size if no line starts after the position.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    private long findLineStart(long position, long fileSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        //if the byte before the position ends a line, the position is already the start of a line
+        for (long readPosition = position - 1; readPosition < fileSize;) {
+            buffer.clear();
+            int bytesRead = channel.read(buffer, readPosition);
+            if (bytesRead <= 0) {
+                break;
+            }
+            for (int i = 0; i < bytesRead; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    return readPosition + i + 1;
+                }
+            }
+            readPosition += bytesRead;
+        }
+        return fileSize;
+    }
+
+    /**
+     * Stops the parsing threads and closes the log file once all chunks have been stitched, keeping the completed
+     * statistics that have not been returned yet.
+     */
+    private void shutdown() {
+        executor.shutdown();
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            //nothing to do, all the chunks have been read
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ioe) {
+            //nothing to do, the log is not read any further
+        }
+    }
+
+    private GroupedTimingStatistics newGroupedTimingStatistics() {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setCreateRollupStatistics(createRollupStatistics);
+        retVal.setTimeUnit(timeUnit);
+        retVal.setHistogramPrecision(histogramPrecision);
+        return retVal;
+    }
+
+    // --- Support Classes ---
+    /**
+     * The result of parsing one chunk of the log: the StopWatches of the first and last time slice of the chunk, and
+     * the statistics of the time slices in between.
+     */
+    private class ChunkResult {
+        final long startPosition;
+        final long endPosition;
+        final List<StopWatch> firstSliceStopWatches;
+        final List<GroupedTimingStatistics> aggregatedSlices = new ArrayList<GroupedTimingStatistics>();
+        List<StopWatch> lastSliceStopWatches = new ArrayList<StopWatch>();
+
+        ChunkResult(long startPosition, long endPosition) {
+            this.startPosition = startPosition;
+            this.endPosition = endPosition;
+            this.firstSliceStopWatches = lastSliceStopWatches;
+        }
+
+        Iterator<StopWatch> newStopWatchIterator() throws IOException {
+            return new MappedStopWatchLogIterator(channel, startPosition, endPosition, stopWatchParser, charset,
+                                                  MappedStopWatchLogIterator.DEFAULT_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Parses the StopWatches of one chunk of the log.
+     */
+    private class ChunkParser implements Callable<ChunkResult> {
+        private final ChunkResult chunk;
+
+        ChunkParser(long startPosition, long endPosition) {
+            this.chunk = new ChunkResult(startPosition, endPosition);
+        }
+
+        public ChunkResult call() throws Exception {
+            long sliceEndTime = 0L;
+            for (Iterator<StopWatch> iter = chunk.newStopWatchIterator(); iter.hasNext();) {
+                StopWatch stopWatch = iter.next();
+                long startTime = stopWatch.getStartTime();
+                if (sliceEndTime == 0L) {
+                    sliceEndTime = getTimeSliceEndTime(startTime);
+                }
+                if (startTime >= sliceEndTime) {
+                    //the slice just ended is the first slice, or lies entirely in this chunk and can be aggregated
+                    if (chunk.lastSliceStopWatches != chunk.firstSliceStopWatches) {
+                        GroupedTimingStatistics statistics = newGroupedTimingStatistics();
+                        statistics.addStopWatches(chunk.lastSliceStopWatches);
+                        statistics.setStartTime(sliceEndTime - timeSlice);
+                        statistics.setStopTime(sliceEndTime);
+                        chunk.aggregatedSlices.add(statistics);
+                    }
+                    chunk.lastSliceStopWatches = new ArrayList<StopWatch>();
+                    sliceEndTime = getTimeSliceEndTime(startTime);
+                }
+                chunk.lastSliceStopWatches.add(stopWatch);
+            }
+            if (chunk.lastSliceStopWatches == chunk.firstSliceStopWatches) {
+                //the chunk only has one slice
+                chunk.lastSliceStopWatches = new ArrayList<StopWatch>();
+            }
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ProfilingSwitches is a registry of rules that disable or enable the logging of StopWatches at runtime, by tag prefix
+ * and by logger name prefix. This makes it possible to turn off the profiling of a single hot method in production,
+ * without redeploying or changing the level of a logger that is shared by many methods. A tag or logger name is
+ * governed by the rule with the longest prefix that matches it; tags and loggers without a matching rule are enabled.
+ * A StopWatch is enabled if both its tag and its logger are enabled. Only the tag rules apply to a StopWatch whose
+ * logger name is unknown: a commons-logging Log doesn't expose its name, so a
+ * {@link org.perf4j.commonslog.CommonsLogStopWatch} only knows it if it looked the Log up by name itself.
+ * <p/>
+ * The rules are kept in two immutable prefix tries that are replaced as a whole when a rule changes, so checking a
+ * tag never takes a lock, and costs a single volatile read while there are no rules. The
+ * {@link org.perf4j.LoggingStopWatch} checks the {@link #getDefault default} switches before it logs, and the timing
+ * aspects check them before they create a StopWatch. The default switches are registered as an MBean under
+ * {@link #DEFAULT_MBEAN_NAME} when the first timing aspect is created, or by calling {@link #registerDefaultMBean}.
+ *
+ * @author Alex Devine
+ */
+public class ProfilingSwitches implements ProfilingSwitchesMBean {
+    /**
+     * The ObjectName under which the default switches are registered with the platform MBeanServer.
+     */
+    public static final String DEFAULT_MBEAN_NAME = "org.perf4j:type=ProfilingSwitches,name=Perf4J";
+
+    private static final Node EMPTY = new Node(new char[0], new Node[0], null);
+
+    private static final ProfilingSwitches DEFAULT = new ProfilingSwitches();
+    private static boolean defaultMBeanRegistered = false;
+
+    /**
+     * The current tag and logger tries. Both are replaced together, and then the version is incremented.
+     */
+    private volatile Node[] roots = {EMPTY, EMPTY};
+    private volatile long version = 0L;
+
+    /**
+     * Gets the switches that are used by the StopWatches and timing aspects.
+     *
+     * @return The default ProfilingSwitches.
+     */
+    public static ProfilingSwitches getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers the default switches with the platform MBeanServer under {@link #DEFAULT_MBEAN_NAME}, if they are not
+     * registered yet.
+     *
+     * @return true if the MBean is registered, false if it could not be registered.
+     */
+    public static synchronized boolean registerDefaultMBean() {
+        if (defaultMBeanRegistered) {
+            return true;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DEFAULT_MBEAN_NAME);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(DEFAULT, objectName);
+            }
+            return defaultMBeanRegistered = true;
+        } catch (Exception e) {
+            //the switches still work, they just can't be changed through JMX
+            return false;
+        }
+    }
+
+    // --- Lookup Methods ---
+
+    /**
+     * Determines whether StopWatches with the specified tag and logger are enabled.
+     *
+     * @param tag        The StopWatch tag. If null, only the logger is checked.
+     * @param loggerName The logger name. If null, only the tag is checked.
+     * @return true if neither the tag nor the logger name is disabled.
+     */
+    public boolean isEnabled(String tag, String loggerName) {
+        Node[] roots = this.roots;
+        return (roots[0] == EMPTY || tag == null || lookup(roots[0], tag))
+               && (roots[1] == EMPTY || loggerName == null || lookup(roots[1], loggerName));
+    }
+
+    /**
+     * Determines whether all tags that start with the specified prefix are enabled or disabled. This is used to check
+     * tags that are only completely known after the timed code has run.
+     *
+     * @param tagPrefix The known start of the tag.
+     * @return TRUE if all tags starting with the prefix are enabled, FALSE if they are all disabled, or null if some
+     *         of them are enabled and others disabled.
+     */
+    public Boolean getTagPrefixState(String tagPrefix) {
+        Node node = roots[0];
+        boolean retVal = (node.enabled == null) || node.enabled;
+        for (int i = 0; i < tagPrefix.length(); i++) {
+            node = node.getChild(tagPrefix.charAt(i));
+            if (node == null) {
+                return retVal;
+            }
+            if (node.enabled != null) {
+                retVal = node.enabled;
+            }
+        }
+        //longer rules below the prefix may override the rule for the prefix
+        return (node.keys.length == 0) ? Boolean.valueOf(retVal) : null;
+    }
+
+    /**
+     * Gets the version of the rules, which changes whenever a rule is added or removed. A decision made with
+     * {@link #isEnabled} or {@link #getTagPrefixState} can be cached as long as the version is the same.
+     *
+     * @return The version of the rules.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    // --- ProfilingSwitchesMBean Methods ---
+
+    public String[] getTagRules() {
+        return getRules(roots[0]);
+    }
+
+    public String[] getLoggerRules() {
+        return getRules(roots[1]);
+    }
+
+    public void disableTag(String tagPrefix) {
+        setRule(0, tagPrefix, Boolean.FALSE);
+    }
+
+    public void enableTag(String tagPrefix) {
+        setRule(0, tagPrefix, Boolean.TRUE);
+    }
+
+    public void removeTagRule(String tagPrefix) {
+        setRule(0, tagPrefix, null);
+    }
+
+    public void disableLogger(String loggerPrefix) {
+        setRule(1, loggerPrefix, Boolean.FALSE);
+    }
+
+    public void enableLogger(String loggerPrefix) {
+        setRule(1, loggerPrefix, Boolean.TRUE);
+    }
+
+    public void removeLoggerRule(String loggerPrefix) {
+        setRule(1, loggerPrefix, null);
+    }
+
+    public synchronized void removeAllRules() {
+        roots = new Node[] {EMPTY, EMPTY};
+        version++;
+    }
+
+    // --- Helper Methods ---
+
+    private static boolean lookup(Node node, String key) {
+        boolean retVal = (node.enabled == null) || node.enabled;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.getChild(key.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.enabled != null) {
+                retVal = node.enabled;
+            }
+        }
+        return retVal;
+    }
+
+    private synchronized void setRule(int rootIndex, String prefix, Boolean enabled) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("The prefix must not be null");
+        }
+        Node[] newRoots = roots.clone();
+        newRoots[rootIndex] = with(roots[rootIndex], prefix, 0, enabled);
+        roots = newRoots;
+        version++;
+    }
+
+    /**
+     * Copies the path to the node of a prefix, with the rule of that node changed. Empty nodes are pruned, so a node
+     * only has children if there are rules below it.
+     */
+    private static Node with(Node node, String prefix, int index, Boolean enabled) {
+        if (index == prefix.length()) {
+            return Node.create(node.keys, node.children, enabled);
+        }
+
+        char key = prefix.charAt(index);
+        int childIndex = node.indexOf(key);
+        Node child = (childIndex >= 0) ? node.children[childIndex] : EMPTY;
+        Node newChild = with(child, prefix, index + 1, enabled);
+
+        char[] keys;
+        Node[] children;
+        if (childIndex >= 0 && newChild == EMPTY) {
+            //remove the child
+            keys = new char[node.keys.length - 1];
+            children = new Node[node.children.length - 1];
+            System.arraycopy(node.keys, 0, keys, 0, childIndex);
+            System.arraycopy(node.keys, childIndex + 1, keys, childIndex, keys.length - childIndex);
+            System.arraycopy(node.children, 0, children, 0, childIndex);
+            System.arraycopy(node.children, childIndex + 1, children, childIndex, children.length - childIndex);
+        } else if (childIndex >= 0) {
+            //replace the child
+            keys = node.keys;
+            children = node.children.clone();
+            children[childIndex] = newChild;
+        } else if (newChild != EMPTY) {
+            //insert the child, keeping the keys sorted
+            int insertIndex = -childIndex - 1;
+            keys = new char[node.keys.length + 1];
+            children = new Node[node.children.length + 1];
+            System.arraycopy(node.keys, 0, keys, 0, insertIndex);
+            System.arraycopy(node.keys, insertIndex, keys, insertIndex + 1, node.keys.length - insertIndex);
+            System.arraycopy(node.children, 0, children, 0, insertIndex);
+            System.arraycopy(node.children, insertIndex, children, insertIndex + 1,
+                             node.children.length - insertIndex);
+            keys[insertIndex] = key;
+            children[insertIndex] = newChild;
+        } else {
+            //removing a rule that doesn't exist
+            return node;
+        }
+        return Node.create(keys, children, node.enabled);
+    }
+
+    private static String[] getRules(Node root) {
+        List<String> retVal = new ArrayList<String>();
+        addRules(root, new StringBuilder(), retVal);
+        return retVal.toArray(new String[retVal.size()]);
+    }
+
+    private static void addRules(Node node, StringBuilder prefix, List<String> rules) {
+        if (node.enabled != null) {
+            rules.add(prefix + (node.enabled ? "=enabled" : "=disabled"));
+        }
+        for (int i = 0; i < node.keys.length; i++) {
+            prefix.append(node.keys[i]);
+            addRules(node.children[i], prefix, rules);
+            prefix.setLength(prefix.length() - 1);
+        }
+    }
+
+    /**
+     * An immutable trie node. The keys are sorted so children can be found with a binary search.
+     */
+    private static final class Node {
+        final char[] keys;
+        final Node[] children;
+        /**
+         * The rule for the prefix that ends at this node, or null if there is none.
+         */
+        final Boolean enabled;
+
+        Node(char[] keys, Node[] children, Boolean enabled) {
+            this.keys = keys;
+            this.children = children;
+            this.enabled = enabled;
+        }
+
+        static Node create(char[] keys, Node[] children, Boolean enabled) {
+            return (keys.length == 0 && enabled == null) ? EMPTY : new Node(keys, children, enabled);
+        }
+
+        Node getChild(char key) {
+            int index = indexOf(key);
+            return (index >= 0) ? children[index] : null;
+        }
+
+        /**
+         * Finds a key with a binary search.
+         *
+         * @return The index of the key, or (-(insertion point) - 1) if there is no such key.
+         */
+        int indexOf(char key) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    low = mid + 1;
+                } else if (keys[mid] > key) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+}
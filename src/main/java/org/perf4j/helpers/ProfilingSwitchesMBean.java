@@ -0,0 +1,96 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+/**
+ * The JMX management interface of the {@link ProfilingSwitches}, which lets operators disable and re-enable the
+ * logging of StopWatches by tag prefix or logger name prefix at runtime.
+ *
+ * @author Alex Devine
+ */
+public interface ProfilingSwitchesMBean {
+    /**
+     * Gets the tag rules.
+     *
+     * @return The tag prefixes that have a rule, each followed by "=enabled" or "=disabled".
+     */
+    String[] getTagRules();
+
+    /**
+     * Gets the logger rules.
+     *
+     * @return The logger name prefixes that have a rule, each followed by "=enabled" or "=disabled".
+     */
+    String[] getLoggerRules();
+
+    /**
+     * Disables the StopWatches whose tags start with the specified prefix, unless a longer prefix enables them.
+     *
+     * @param tagPrefix The tag prefix. The empty string disables all tags.
+     */
+    void disableTag(String tagPrefix);
+
+    /**
+     * Enables the StopWatches whose tags start with the specified prefix, unless a longer prefix disables them.
+     *
+     * @param tagPrefix The tag prefix.
+     */
+    void enableTag(String tagPrefix);
+
+    /**
+     * Removes the rule for a tag prefix.
+     *
+     * @param tagPrefix The tag prefix.
+     */
+    void removeTagRule(String tagPrefix);
+
+    /**
+     * Disables the StopWatches whose logger names start with the specified prefix, unless a longer prefix enables
+     * them.
+     *
+     * @param loggerPrefix The logger name prefix. The empty string disables all loggers.
+     */
+    void disableLogger(String loggerPrefix);
+
+    /**
+     * Enables the StopWatches whose logger names start with the specified prefix, unless a longer prefix disables
+     * them.
+     *
+     * @param loggerPrefix The logger name prefix.
+     */
+    void enableLogger(String loggerPrefix);
+
+    /**
+     * Removes the rule for a logger name prefix.
+     *
+     * @param loggerPrefix The logger name prefix.
+     */
+    void removeLoggerRule(String loggerPrefix);
+
+    /**
+     * Removes all tag and logger rules, so that all StopWatches are enabled.
+     */
+    void removeAllRules();
+
+    /**
+     * Determines whether StopWatches with the specified tag and logger are enabled.
+     *
+     * @param tag        The StopWatch tag.
+     * @param loggerName The logger name.
+     * @return true if neither the tag nor the logger name is disabled.
+     */
+    boolean isEnabled(String tag, String loggerName);
+}
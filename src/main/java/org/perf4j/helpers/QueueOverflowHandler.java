@@ -0,0 +1,259 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The QueueOverflowHandler applies an {@link OverflowPolicy} to the messages that don't fit in the queue of an
+ * asynchronous appender or sink, counts the overflows and reports them at most once every report interval. It is
+ * shared by the {@link GenericAsyncCoalescingStatisticsAppender} and the
+ * {@link org.perf4j.beans.sinks.AsyncCoalescingStatisticsSink}, which create a new handler each time they are
+ * started, so the counters start at 0.
+ * <p>
+ * The queue is closed by putting a stop message on it. The DROP_OLDEST policy never discards the stop message: if it
+ * evicts it, it puts it back on the queue, waiting for room if necessary.
+ * <p>
+ * This class is thread safe.
+ *
+ * @param <M> The type of the queued messages.
+ * @author Alex Devine
+ */
+public abstract class QueueOverflowHandler<M> {
+    /**
+     * The number of times DROP_OLDEST evicts a message before the new message is discarded.
+     */
+    private static final int EVICTION_ATTEMPTS = 3;
+
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowTimeout;
+    private final long reportInterval;
+    private final BlockingQueue<M> queue;
+    private final M stopMessage;
+    private final InlineStatisticsAggregator inlineAggregator;
+
+    /**
+     * This keeps track of the total number of messages that had to be discarded due to the queue being full.
+     */
+    private final AtomicInteger numDiscardedMessages = new AtomicInteger();
+    /**
+     * The number of queued messages discarded to make room for newer messages by the DROP_OLDEST overflow policy.
+     */
+    private final AtomicInteger numEvictedMessages = new AtomicInteger();
+    /**
+     * The number of messages that were discarded because the BLOCK overflow policy timed out.
+     */
+    private final AtomicInteger numTimedOutMessages = new AtomicInteger();
+    /**
+     * The number of messages that were aggregated on the logging thread by the INLINE overflow policy.
+     */
+    private final AtomicInteger numInlineMessages = new AtomicInteger();
+    /**
+     * The number of overflows since the last report.
+     */
+    private final AtomicInteger numOverflowsSinceLastReport = new AtomicInteger();
+    /**
+     * The time of the last report, used to limit the rate of reports.
+     */
+    private final AtomicLong lastReportTime = new AtomicLong();
+
+    /**
+     * Creates a new QueueOverflowHandler.
+     *
+     * @param overflowPolicy   The policy applied to messages that don't fit in the queue, may not be null.
+     * @param overflowTimeout  The maximum time, in milliseconds, to wait for room in the queue with the BLOCK policy.
+     * @param reportInterval   The minimum time, in milliseconds, between two reports of overflows.
+     * @param queue            The queue of the appender or sink.
+     * @param stopMessage      The message that tells the draining thread that the queue is closed. It is compared by
+     *                         identity.
+     * @param inlineAggregator The aggregator used by the INLINE policy, may be null for the other policies.
+     */
+    public QueueOverflowHandler(OverflowPolicy overflowPolicy,
+                                long overflowTimeout,
+                                long reportInterval,
+                                BlockingQueue<M> queue,
+                                M stopMessage,
+                                InlineStatisticsAggregator inlineAggregator) {
+        if (overflowPolicy == OverflowPolicy.INLINE && inlineAggregator == null) {
+            throw new IllegalArgumentException("The INLINE overflow policy requires an InlineStatisticsAggregator");
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.overflowTimeout = overflowTimeout;
+        this.reportInterval = reportInterval;
+        this.queue = queue;
+        this.stopMessage = stopMessage;
+        this.inlineAggregator = inlineAggregator;
+    }
+
+    // --- Counters ---
+
+    /**
+     * Returns the number of messages that have been discarded due to the queue being full, regardless of the
+     * overflow policy.
+     *
+     * @return The number of discarded messages.
+     */
+    public int getNumDiscardedMessages() {
+        return numDiscardedMessages.get();
+    }
+
+    /**
+     * Returns the number of queued messages that were discarded to make room for newer messages by the DROP_OLDEST
+     * policy. These are included in the number of discarded messages.
+     *
+     * @return The number of evicted messages.
+     */
+    public int getNumEvictedMessages() {
+        return numEvictedMessages.get();
+    }
+
+    /**
+     * Returns the number of messages that were discarded because no room became available in the queue within the
+     * overflow timeout of the BLOCK policy. These are included in the number of discarded messages.
+     *
+     * @return The number of timed out messages.
+     */
+    public int getNumTimedOutMessages() {
+        return numTimedOutMessages.get();
+    }
+
+    /**
+     * Returns the number of messages that were aggregated on the logging thread by the INLINE policy.
+     *
+     * @return The number of messages aggregated inline.
+     */
+    public int getNumInlineMessages() {
+        return numInlineMessages.get();
+    }
+
+    // --- Overflow handling ---
+
+    /**
+     * Handles a message that could not be added to the full queue according to the overflow policy. This method is
+     * called by the logging threads.
+     *
+     * @param message The message that didn't fit in the queue.
+     */
+    public void handleOverflow(M message) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                //try a few times, as other threads may be filling the slots we free up
+                for (int i = 0; i < EVICTION_ATTEMPTS; i++) {
+                    M evictedMessage = queue.poll();
+                    if (evictedMessage == stopMessage) {
+                        //never evict the message that tells the draining thread we're closing
+                        putUninterruptibly(evictedMessage);
+                        break;
+                    }
+                    if (evictedMessage != null) {
+                        numEvictedMessages.incrementAndGet();
+                        numDiscardedMessages.incrementAndGet();
+                    }
+                    if (queue.offer(message)) {
+                        reportOverflow();
+                        return;
+                    }
+                }
+                numDiscardedMessages.incrementAndGet();
+                break;
+            case BLOCK:
+                try {
+                    if (queue.offer(message, overflowTimeout, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException ie) {
+                    //restore the interrupted status, the message is discarded
+                    Thread.currentThread().interrupt();
+                }
+                numTimedOutMessages.incrementAndGet();
+                numDiscardedMessages.incrementAndGet();
+                break;
+            case INLINE:
+                StopWatch stopWatch = toStopWatch(message);
+                if (stopWatch != null) {
+                    if (inlineAggregator.addStopWatch(stopWatch)) {
+                        numInlineMessages.incrementAndGet();
+                    } else {
+                        //the draining thread has already published its final statistics
+                        numDiscardedMessages.incrementAndGet();
+                    }
+                }
+                break;
+            default:
+                numDiscardedMessages.incrementAndGet();
+                break;
+        }
+        reportOverflow();
+    }
+
+    // --- Template Methods ---
+
+    /**
+     * Converts a message to the StopWatch that the INLINE policy aggregates.
+     *
+     * @param message The message that didn't fit in the queue.
+     * @return The StopWatch, or null if the message isn't a valid StopWatch.
+     */
+    protected abstract StopWatch toStopWatch(M message);
+
+    /**
+     * Reports overflows of the queue, for example by logging a warning. This is called at most once every report
+     * interval.
+     *
+     * @param numOverflows The number of overflows since the last report.
+     */
+    protected abstract void reportOverflows(int numOverflows);
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method reports an overflow of the queue, but no more than once every report interval. The report
+     * includes the number of overflows since the last report.
+     */
+    private void reportOverflow() {
+        numOverflowsSinceLastReport.incrementAndGet();
+        long lastTime = lastReportTime.get();
+        long now = System.currentTimeMillis();
+        if (now - lastTime >= reportInterval && lastReportTime.compareAndSet(lastTime, now)) {
+            reportOverflows(numOverflowsSinceLastReport.getAndSet(0));
+        }
+    }
+
+    /**
+     * Helper method puts a message on the queue, waiting for room if necessary even if the thread is interrupted.
+     *
+     * @param message The message to put on the queue.
+     */
+    private void putUninterruptibly(M message) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(message);
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
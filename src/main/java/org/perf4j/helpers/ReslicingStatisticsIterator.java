@@ -0,0 +1,127 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This Iterator wraps an Iterator of fine-grained {@link GroupedTimingStatistics}, for example the statistics of
+ * 30 second time slices created by a {@link GroupingStatisticsIterator}, and merges them into statistics for coarser
+ * time slices, for example 5 minutes. Each fine-grained GroupedTimingStatistics is assigned to a coarse time slice
+ * based on its start time, and is merged using {@link GroupedTimingStatistics#merge(GroupedTimingStatistics)}, so the
+ * StopWatches that the fine-grained statistics were created from are not needed.
+ * <p/>
+ * The coarse time slice should be a multiple of the fine-grained time slice, otherwise a fine-grained time slice
+ * could span two coarse time slices. The start and stop times of the returned statistics are aligned to the coarse
+ * time slice. As with the GroupingStatisticsIterator, the wrapped Iterator should be ordered by start time. The
+ * wrapped statistics are not modified.
+ *
+ * @author Alex Devine
+ */
+public class ReslicingStatisticsIterator implements Iterator<GroupedTimingStatistics> {
+    /**
+     * The underlying fine-grained statistics
+     */
+    private Iterator<GroupedTimingStatistics> statisticsIterator;
+    /**
+     * The length of each coarse time slice, in milliseconds.
+     */
+    private long timeSlice;
+    /**
+     * The merged statistics of the current coarse time slice, or null if none have been pulled yet.
+     */
+    private GroupedTimingStatistics currentStatistics;
+    /**
+     * The start time of the current coarse time slice.
+     */
+    private long currentTimeSliceStartTime;
+    /**
+     * The next statistics to be returned, or null if not yet determined.
+     */
+    private GroupedTimingStatistics nextStatistics;
+
+    /**
+     * Creates a ReslicingStatisticsIterator.
+     *
+     * @param statisticsIterator The iterator of the fine-grained statistics, ordered by start time.
+     * @param timeSlice          The length of each coarse time slice, in milliseconds.
+     */
+    public ReslicingStatisticsIterator(Iterator<GroupedTimingStatistics> statisticsIterator, long timeSlice) {
+        if (timeSlice <= 0L) {
+            throw new IllegalArgumentException("The time slice must be positive");
+        }
+        this.statisticsIterator = statisticsIterator;
+        this.timeSlice = timeSlice;
+    }
+
+    public boolean hasNext() {
+        if (nextStatistics == null) {
+            nextStatistics = getNext();
+        }
+        return nextStatistics != null;
+    }
+
+    public GroupedTimingStatistics next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        GroupedTimingStatistics retVal = nextStatistics;
+        nextStatistics = null;
+        return retVal;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private GroupedTimingStatistics getNext() {
+        while (statisticsIterator.hasNext()) {
+            GroupedTimingStatistics statistics = statisticsIterator.next();
+            long timeSliceStartTime = (statistics.getStartTime() / timeSlice) * timeSlice;
+
+            if (currentStatistics == null) {
+                startTimeSlice(statistics, timeSliceStartTime);
+            } else if (timeSliceStartTime != currentTimeSliceStartTime) {
+                //then we're over a new time boundary, so return the merged statistics
+                GroupedTimingStatistics retVal = currentStatistics;
+                startTimeSlice(statistics, timeSliceStartTime);
+                return retVal;
+            } else {
+                currentStatistics.merge(statistics);
+                alignTimeWindow();
+            }
+        }
+
+        //no more statistics left, so return the last coarse time slice if there is one
+        GroupedTimingStatistics retVal = currentStatistics;
+        currentStatistics = null;
+        return retVal;
+    }
+
+    private void startTimeSlice(GroupedTimingStatistics statistics, long timeSliceStartTime) {
+        currentStatistics = statistics.clone();
+        currentTimeSliceStartTime = timeSliceStartTime;
+        alignTimeWindow();
+    }
+
+    private void alignTimeWindow() {
+        currentStatistics.setStartTime(currentTimeSliceStartTime);
+        currentStatistics.setStopTime(currentTimeSliceStartTime + timeSlice);
+    }
+}
@@ -0,0 +1,365 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free, multi-producer single-consumer BlockingQueue backed by a preallocated ring buffer whose
+ * capacity is a power of two. Producers claim slots with a compare-and-set on a shared sequence instead of acquiring
+ * a lock, and no node objects are allocated per element, so unlike an ArrayBlockingQueue application threads do not
+ * serialize on a single lock when adding elements.
+ * <p>
+ * This queue is intended as the hand-off from many application threads to a single draining thread, such as the
+ * one in the {@link GenericAsyncCoalescingStatisticsAppender}. The consumer also claims elements with a
+ * compare-and-set, so it is safe for other threads to remove elements occasionally (as the
+ * {@link OverflowPolicy#DROP_OLDEST} overflow policy does), but the queue is optimized for a single consumer. Since
+ * there is no lock to wait on, threads that need to block (the consumer in take or a timed poll, or a producer in put
+ * on a full queue) wait using the configured {@link WaitStrategy}. The {@link #iterator() iterator} returns a weakly
+ * consistent snapshot of the queue.
+ *
+ * @author Alex Devine
+ */
+public class RingBufferBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * The WaitStrategy determines how a thread waits for the ring buffer to change state, which trades off latency
+     * against CPU usage.
+     */
+    public enum WaitStrategy {
+        /**
+         * Spins in a tight loop. This gives the lowest latency, but it burns a full core while waiting, so it should
+         * only be used when a core can be dedicated to the waiting thread.
+         */
+        BUSY_SPIN() {
+            public void idle(int attempt) { }
+        },
+        /**
+         * Spins briefly, then calls Thread.yield() to give other threads a chance to run.
+         */
+        YIELD() {
+            public void idle(int attempt) {
+                if (attempt > SPIN_TRIES) {
+                    Thread.yield();
+                }
+            }
+        },
+        /**
+         * Spins briefly, then yields, and then parks the waiting thread for short periods of time. This uses the least
+         * CPU and is the default.
+         */
+        PARK() {
+            public void idle(int attempt) {
+                if (attempt > SPIN_TRIES + YIELD_TRIES) {
+                    LockSupport.parkNanos(PARK_NANOS);
+                } else if (attempt > SPIN_TRIES) {
+                    Thread.yield();
+                }
+            }
+        };
+
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 100;
+        private static final long PARK_NANOS = 100000L;
+
+        /**
+         * Called each time a waiting thread finds that it can't make progress yet.
+         *
+         * @param attempt The number of times the thread has already waited, starting at 0.
+         */
+        public abstract void idle(int attempt);
+
+        /**
+         * Parses a WaitStrategy name. The name is case insensitive, and dashes are treated as underscores, so
+         * "busy-spin", "BusySpin" and "BUSY_SPIN" all denote BUSY_SPIN.
+         *
+         * @param name The name of the wait strategy, may not be null.
+         * @return The WaitStrategy
+         * @throws IllegalArgumentException if the name does not denote a WaitStrategy
+         */
+        public static WaitStrategy forName(String name) {
+            return MiscUtils.parseEnumName(WaitStrategy.class, name, "wait strategy");
+        }
+    }
+
+    /**
+     * The elements, indexed by sequence & mask. Visibility of an element is guaranteed by the volatile write to the
+     * corresponding entry in sequences after the element is written.
+     */
+    private final Object[] buffer;
+    /**
+     * For each slot, the sequence at which the slot may next be written (if equal to the producer position) or read
+     * (if equal to the consumer position + 1).
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * capacity - 1, used to convert sequences to indexes.
+     */
+    private final int mask;
+    /**
+     * The position of the next slot to be claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * The position of the next slot to be read by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * The strategy used when a thread has to wait.
+     */
+    private final WaitStrategy waitStrategy;
+
+    // --- Constructors ---
+    /**
+     * Creates a ring buffer using the PARK wait strategy.
+     *
+     * @param capacity The minimum capacity of the queue. The actual capacity is rounded up to a power of two.
+     */
+    public RingBufferBlockingQueue(int capacity) {
+        this(capacity, WaitStrategy.PARK);
+    }
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param capacity     The minimum capacity of the queue. The actual capacity is rounded up to a power of two.
+     * @param waitStrategy The strategy used by threads that have to wait, may not be null.
+     */
+    public RingBufferBlockingQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+        if (waitStrategy == null) {
+            throw new NullPointerException("waitStrategy");
+        }
+        int actualCapacity = 1;
+        while (actualCapacity < capacity) {
+            actualCapacity <<= 1;
+        }
+
+        this.buffer = new Object[actualCapacity];
+        this.sequences = new AtomicLongArray(actualCapacity);
+        for (int i = 0; i < actualCapacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = actualCapacity - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    // --- Properties ---
+    /**
+     * Gets the capacity of this queue, which is always a power of two.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Gets the strategy used by threads that have to wait.
+     *
+     * @return The WaitStrategy
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    // --- Producer methods ---
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer[index] = element;
+                    //publishing the next sequence makes the element visible to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                //otherwise another producer claimed this slot, so retry
+            } else if (available < 0) {
+                //the consumer hasn't freed this slot yet, so the queue is full
+                return false;
+            }
+            //otherwise another producer claimed this slot and the tail moved on, so retry
+        }
+    }
+
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; !offer(element); attempt++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            waitStrategy.idle(attempt);
+        }
+        return true;
+    }
+
+    public void put(E element) throws InterruptedException {
+        for (int attempt = 0; !offer(element); attempt++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(attempt);
+        }
+    }
+
+    // --- Consumer methods ---
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long available = sequences.get(index) - (position + 1);
+            if (available == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E retVal = (E) buffer[index];
+                    buffer[index] = null;
+                    //the slot may be reused by a producer once the consumer is a full lap ahead
+                    sequences.set(index, position + buffer.length);
+                    return retVal;
+                }
+                //otherwise another thread removed this element, so retry
+            } else if (available < 0) {
+                //the slot hasn't been published yet, so the queue is empty
+                return null;
+            }
+            //otherwise another thread removed this element and the head moved on, so retry
+        }
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E retVal;
+        for (int attempt = 0; (retVal = poll()) == null; attempt++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            waitStrategy.idle(attempt);
+        }
+        return retVal;
+    }
+
+    public E take() throws InterruptedException {
+        E retVal;
+        for (int attempt = 0; (retVal = poll()) == null; attempt++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(attempt);
+        }
+        return retVal;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long position = head.get();
+        int index = (int) position & mask;
+        E retVal = (E) buffer[index];
+        //if the slot was not published for this position (or was consumed meanwhile) the element can't be trusted
+        return (sequences.get(index) == position + 1 && head.get() == position) ? retVal : null;
+    }
+
+    public int drainTo(Collection<? super E> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        if (collection == null) {
+            throw new NullPointerException();
+        }
+        if (collection == this) {
+            throw new IllegalArgumentException();
+        }
+
+        int numDrained = 0;
+        E element;
+        while (numDrained < maxElements && (element = poll()) != null) {
+            collection.add(element);
+            numDrained++;
+        }
+        return numDrained;
+    }
+
+    // --- Other methods ---
+    /**
+     * Returns the number of elements in the queue. Since producers and the consumer run concurrently this is only an
+     * estimate.
+     *
+     * @return The approximate number of elements in the queue.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0L, Math.min(size, buffer.length));
+    }
+
+    public int remainingCapacity() {
+        return buffer.length - size();
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the elements in the queue, in FIFO order. The iterator is weakly
+     * consistent: it never throws ConcurrentModificationException, and it returns the elements that were still in the
+     * queue when the snapshot was taken, but it may or may not reflect elements added while the snapshot was taken.
+     * Elements can't be removed through the iterator.
+     *
+     * @return An iterator over a snapshot of the queue.
+     */
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>();
+        long position = head.get();
+        long end = Math.min(tail.get(), position + buffer.length);
+        for (; position < end; position++) {
+            int index = (int) position & mask;
+            //the element is only valid if the slot was published for this position and not consumed since
+            if (sequences.get(index) == position + 1) {
+                Object element = buffer[index];
+                if (element != null && sequences.get(index) == position + 1) {
+                    snapshot.add((E) element);
+                }
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    public String toString() {
+        return "RingBufferBlockingQueue[capacity=" + getCapacity() + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,266 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This StopWatchParser parses messages in the standard StopWatch format (the format matched by
+ * {@link StopWatchParser#DEFAULT_MATCH_PATTERN}) with a hand-written, single pass scanner instead of a regex. The
+ * start and elapsed times are parsed in place, without creating intermediate Strings, and tag names are deduplicated
+ * through a small cache so that the same tag String instance is reused for repeated tags. Messages that don't
+ * contain a StopWatch are rejected after a single <tt>indexOf</tt> call.
+ * <p/>
+ * To use this parser with one of the AsyncCoalescingStatisticsAppenders, set the <b>StopWatchParserClassName</b>
+ * option to <tt>org.perf4j.helpers.ScanningStopWatchParser</tt>. To use it with the LogParser, pass this class name
+ * using the <tt>--parser</tt> argument.
+ * <p/>
+ * Note that only the {@link #parseStopWatch(String)} method uses the scanner; the regex-based methods inherited from
+ * StopWatchParser, such as {@link #match(String)}, still use the default pattern. Instances of this class are thread
+ * safe.
+ *
+ * @author Alex Devine
+ */
+public class ScanningStopWatchParser extends StopWatchParser {
+    private static final String START_PREFIX = "start[";
+    private static final String TIME_PREFIX = "] time[";
+    private static final String TAG_PREFIX = "] tag[";
+    private static final String MESSAGE_PREFIX = " message[";
+    private static final String CALLS_PREFIX = " calls[";
+    private static final TimeUnit[] TIME_UNITS = {
+            TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS, TimeUnit.MILLISECONDS, TimeUnit.SECONDS
+    };
+
+    /**
+     * The number of entries in the tag cache, must be a power of 2.
+     */
+    private static final int TAG_CACHE_SIZE = 512;
+
+    /**
+     * This direct-mapped cache is used to reuse tag String instances. Because Strings are immutable, concurrent
+     * (unsynchronized) access is benign - the worst that can happen is a cache miss.
+     */
+    private final String[] tagCache = new String[TAG_CACHE_SIZE];
+
+    /**
+     * Returned by the helper parse method for a StopWatch whose tag is rejected by the tag filter.
+     */
+    private static final StopWatch REJECTED = new StopWatch();
+
+    /**
+     * Creates a new ScanningStopWatchParser.
+     */
+    public ScanningStopWatchParser() {
+        super(DEFAULT_MATCH_PATTERN);
+    }
+
+    /**
+     * Parses a StopWatch from the given message string, scanning the message for the first substring that is in the
+     * standard StopWatch format. This method returns the same results as the regex-based StopWatchParser, except that
+     * times too large to fit in a long result in a null return value instead of a NumberFormatException.
+     *
+     * @param message The message to parse, which was likely created with the StopWatch stop, lap or toString methods.
+     * @return The parsed StopWatch, or null if the StopWatch couldn't be parsed.
+     */
+    public StopWatch parseStopWatch(String message) {
+        int startIndex = message.indexOf(START_PREFIX);
+        while (startIndex >= 0) {
+            StopWatch retVal = parseStopWatch(message, startIndex);
+            if (retVal != null) {
+                //like the regex-based parser, only the first StopWatch of the message is considered
+                return (retVal == REJECTED) ? null : retVal;
+            }
+            startIndex = message.indexOf(START_PREFIX, startIndex + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Returns true, because this parser only parses the first StopWatch of each line with the scanner.
+     *
+     * @return true
+     */
+    public boolean isSingleMatchPerLine() {
+        return true;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method parses a StopWatch that starts at the specified index.
+     *
+     * @param message    The message to parse
+     * @param startIndex The index of the "start[" text in the message.
+     * @return The parsed StopWatch, null if the message is not in the StopWatch format at the specified index, or
+     *         REJECTED if the tag is rejected by the tag filter.
+     */
+    private StopWatch parseStopWatch(String message, int startIndex) {
+        int length = message.length();
+        int index = startIndex + START_PREFIX.length();
+
+        //start time
+        int digitsEnd = scanDigits(message, index, length);
+        if (digitsEnd == index || !message.startsWith(TIME_PREFIX, digitsEnd)) {
+            return null;
+        }
+        long startTime = parseDigits(message, index, digitsEnd);
+
+        //elapsed time, optionally followed by a time unit marker
+        index = digitsEnd + TIME_PREFIX.length();
+        digitsEnd = scanDigits(message, index, length);
+        if (digitsEnd == index) {
+            return null;
+        }
+        long elapsedTime = parseDigits(message, index, digitsEnd);
+        TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+        if (!message.startsWith(TAG_PREFIX, digitsEnd)) {
+            timeUnit = scanTimeUnit(message, digitsEnd);
+            if (timeUnit == null) {
+                return null;
+            }
+            digitsEnd += MiscUtils.getTimeUnitAbbreviation(timeUnit).length();
+        }
+
+        if (startTime < 0L || elapsedTime < 0L) {
+            //overflow
+            return null;
+        }
+
+        //tag - the tag ends at the first closing bracket
+        index = digitsEnd + TAG_PREFIX.length();
+        int tagEnd = message.indexOf(']', index);
+        if (tagEnd < 0) {
+            return null;
+        }
+        TagFilter tagFilter = getTagFilter();
+        if (tagFilter != null && !tagFilter.accept(message, index, tagEnd)) {
+            return REJECTED;
+        }
+        String tag = getTag(message, index, tagEnd);
+
+        //optional message - also ends at the first closing bracket
+        String stopWatchMessage = null;
+        index = tagEnd + 1;
+        if (message.startsWith(MESSAGE_PREFIX, index)) {
+            int messageEnd = message.indexOf(']', index + MESSAGE_PREFIX.length());
+            if (messageEnd >= 0) {
+                stopWatchMessage = message.substring(index + MESSAGE_PREFIX.length(), messageEnd);
+                index = messageEnd + 1;
+            }
+        }
+
+        StopWatch retVal = new StopWatch(startTime, elapsedTime, timeUnit, tag, stopWatchMessage);
+
+        //optional call count of a sampled StopWatch
+        if (message.startsWith(CALLS_PREFIX, index)) {
+            index += CALLS_PREFIX.length();
+            digitsEnd = scanDigits(message, index, length);
+            if (digitsEnd > index && digitsEnd < length && message.charAt(digitsEnd) == ']') {
+                long callCount = parseDigits(message, index, digitsEnd);
+                if (callCount >= 1L && callCount <= Integer.MAX_VALUE) {
+                    retVal.setCallCount((int) callCount);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns the index of the first non-digit character at or after the specified index.
+     *
+     * @param message The message being parsed
+     * @param index   The index where the digits begin
+     * @param length  The length of the message
+     * @return The index of the first character that is not an ASCII digit.
+     */
+    private static int scanDigits(String message, int index, int length) {
+        while (index < length) {
+            char c = message.charAt(index);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Determines the time unit whose marker is at the specified index, which must be followed by the tag prefix.
+     *
+     * @param message The message being parsed
+     * @param index   The index after the last digit of the elapsed time
+     * @return The time unit, or null if there is no valid time unit marker at the index.
+     */
+    private static TimeUnit scanTimeUnit(String message, int index) {
+        for (TimeUnit timeUnit : TIME_UNITS) {
+            String marker = MiscUtils.getTimeUnitAbbreviation(timeUnit);
+            if (message.startsWith(marker, index) && message.startsWith(TAG_PREFIX, index + marker.length())) {
+                return timeUnit;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the ASCII digits between the start and end indexes as a long.
+     *
+     * @param message The message being parsed
+     * @param start   The index of the first digit
+     * @param end     The index after the last digit
+     * @return The parsed value, or -1 if the value overflows a long.
+     */
+    private static long parseDigits(String message, int start, int end) {
+        long retVal = 0L;
+        for (int i = start; i < end; i++) {
+            int digit = message.charAt(i) - '0';
+            if (retVal > (Long.MAX_VALUE - digit) / 10L) {
+                return -1L;
+            }
+            retVal = retVal * 10L + digit;
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the tag String for the specified region of the message, reusing a cached String instance if possible.
+     *
+     * @param message The message being parsed
+     * @param start   The index of the first character of the tag
+     * @param end     The index after the last character of the tag
+     * @return The tag String
+     */
+    private String getTag(String message, int start, int end) {
+        int tagLength = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + message.charAt(i);
+        }
+        int cacheIndex = (hash ^ (hash >>> 16)) & (TAG_CACHE_SIZE - 1);
+
+        String cachedTag = tagCache[cacheIndex];
+        if (cachedTag != null
+            && cachedTag.length() == tagLength
+            && cachedTag.regionMatches(0, message, start, tagLength)) {
+            return cachedTag;
+        }
+
+        String retVal = message.substring(start, end);
+        tagCache[cacheIndex] = retVal;
+        return retVal;
+    }
+}
@@ -0,0 +1,320 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ShardedStatisticsAggregator spreads the work of aggregating the StopWatches of a time slice over a number of
+ * worker threads. Each worker owns a partial GroupedTimingStatistics for the tags whose hash maps to it, so each tag
+ * (including each rollup tag) is only ever updated by one worker, in the same order in which the StopWatches were
+ * added. When the time slice is complete the partial statistics are combined, and since the tags of the workers
+ * don't overlap the result is identical to the statistics a single GroupedTimingStatistics would have calculated.
+ * <p>
+ * The {@link #addStopWatch}, {@link #completeSlice} and {@link #shutdown} methods must all be called from the same
+ * thread, normally the draining thread of an asynchronous appender (see {@link GroupingStatisticsIterator}). The
+ * worker threads are started when the first StopWatches are handed to them, and must be stopped by calling
+ * {@link #shutdown} once no more StopWatches will be added. If a worker fails to add a StopWatch, the error is passed
+ * to the uncaught exception handler of its thread and the worker carries on, so {@link #completeSlice} never hangs.
+ *
+ * @author Alex Devine
+ */
+public class ShardedStatisticsAggregator {
+    /**
+     * The number of StopWatches handed to a worker at once.
+     */
+    private static final int BATCH_SIZE = 256;
+    /**
+     * The number of batches that may be waiting for a worker before the adding thread blocks.
+     */
+    private static final int MAX_PENDING_BATCHES = 64;
+
+    private final boolean createRollupStatistics;
+    private final TimeUnit timeUnit;
+    private final int histogramPrecision;
+    private final Worker[] workers;
+    /**
+     * The batch currently being filled for each worker.
+     */
+    private final Batch[] currentBatches;
+    private final String threadNamePrefix;
+    /**
+     * Whether the worker threads have been started.
+     */
+    private boolean started;
+    /**
+     * Whether any StopWatches were added since the last completed slice.
+     */
+    private boolean hasPendingStopWatches;
+
+    /**
+     * Creates a ShardedStatisticsAggregator. The worker threads are not started until they are needed.
+     *
+     * @param numWorkers             The number of worker threads, must be at least 1.
+     * @param createRollupStatistics Whether rollup statistics should be created.
+     * @param timeUnit               The time unit of the statistics.
+     * @param histogramPrecision     The precision of the percentile histograms, or 0 for none.
+     * @param threadNamePrefix       The prefix of the names of the worker threads.
+     */
+    public ShardedStatisticsAggregator(int numWorkers,
+                                       boolean createRollupStatistics,
+                                       TimeUnit timeUnit,
+                                       int histogramPrecision,
+                                       String threadNamePrefix) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        this.createRollupStatistics = createRollupStatistics;
+        this.timeUnit = timeUnit;
+        this.histogramPrecision = histogramPrecision;
+        this.workers = new Worker[numWorkers];
+        this.currentBatches = new Batch[numWorkers];
+        this.threadNamePrefix = threadNamePrefix;
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new Worker(newGroupedTimingStatistics());
+            currentBatches[i] = new Batch();
+        }
+    }
+
+    /**
+     * Gets the number of worker threads.
+     *
+     * @return The number of workers.
+     */
+    public int getNumWorkers() {
+        return workers.length;
+    }
+
+    /**
+     * Adds a StopWatch to the statistics of the current time slice. The StopWatch is added under its own tag and, if
+     * rollup statistics are created, under each of its rollup tags, in the same way as
+     * {@link GroupedTimingStatistics#addStopWatch(StopWatch)} does it.
+     *
+     * @param stopWatch The StopWatch to add, may not be null.
+     */
+    public void addStopWatch(StopWatch stopWatch) {
+        String tag = stopWatch.getTag();
+        addToShard(tag, stopWatch);
+
+        if (createRollupStatistics) {
+            int indexOfDot = -1;
+            while ((indexOfDot = tag.indexOf('.', indexOfDot + 1)) >= 0) {
+                addToShard(tag.substring(0, indexOfDot), stopWatch);
+            }
+        }
+        hasPendingStopWatches = true;
+    }
+
+    /**
+     * Returns whether any StopWatches were added since the last call to {@link #completeSlice}.
+     *
+     * @return true if the current time slice contains StopWatches
+     */
+    public boolean hasPendingStopWatches() {
+        return hasPendingStopWatches;
+    }
+
+    /**
+     * Waits for the workers to process all the StopWatches added for the current time slice, and then adds their
+     * statistics to the specified GroupedTimingStatistics. The workers start on a new time slice afterwards.
+     *
+     * @param statistics The statistics of the time slice, normally empty. Its start and stop time are not changed.
+     * @return The statistics passed in.
+     */
+    public GroupedTimingStatistics completeSlice(GroupedTimingStatistics statistics) {
+        if (!hasPendingStopWatches && !started) {
+            //nothing was ever added, so there is no need to start the workers
+            return statistics;
+        }
+
+        //the current batch of each worker ends with the slice
+        for (int i = 0; i < workers.length; i++) {
+            Batch batch = currentBatches[i];
+            batch.sliceComplete = true;
+            handOff(i, batch);
+        }
+
+        //the tags of the workers are disjoint, so their statistics can simply be combined
+        for (Worker worker : workers) {
+            GroupedTimingStatistics partialStatistics = take(worker.completedSlices);
+            statistics.getStatisticsByTag().putAll(partialStatistics.getStatisticsByTag());
+        }
+
+        hasPendingStopWatches = false;
+        return statistics;
+    }
+
+    /**
+     * Stops the worker threads, if they were started. Any StopWatches added since the last completed slice are
+     * discarded.
+     */
+    public void shutdown() {
+        if (!started) {
+            return;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            Batch batch = new Batch();
+            batch.shutdown = true;
+            handOff(i, batch);
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private void addToShard(String tag, StopWatch stopWatch) {
+        //spread the hash bits so that similar tags end up in different shards
+        int hash = tag.hashCode();
+        hash ^= (hash >>> 16);
+        int shard = (hash & 0x7fffffff) % workers.length;
+
+        Batch batch = currentBatches[shard];
+        batch.tags[batch.size] = tag;
+        batch.stopWatches[batch.size] = stopWatch;
+        if (++batch.size == BATCH_SIZE) {
+            handOff(shard, batch);
+        }
+    }
+
+    private void handOff(int shard, Batch batch) {
+        if (!started) {
+            startWorkers();
+        }
+
+        //the hand off can't be skipped, otherwise StopWatches would be lost or completeSlice would never return
+        boolean interrupted = false;
+        while (true) {
+            try {
+                workers[shard].pendingBatches.put(batch);
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            //restore the interrupted status so the calling thread still notices it
+            Thread.currentThread().interrupt();
+        }
+        currentBatches[shard] = new Batch();
+    }
+
+    private void startWorkers() {
+        for (int i = 0; i < workers.length; i++) {
+            Thread workerThread = new Thread(workers[i], threadNamePrefix + i);
+            workerThread.setDaemon(true);
+            workerThread.start();
+        }
+        started = true;
+    }
+
+    private static GroupedTimingStatistics take(BlockingQueue<GroupedTimingStatistics> queue) {
+        //we must wait for the workers regardless of interrupts, otherwise the statistics would be incomplete
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private GroupedTimingStatistics newGroupedTimingStatistics() {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setTimeUnit(timeUnit);
+        retVal.setHistogramPrecision(histogramPrecision);
+        return retVal;
+    }
+
+    // --- Support Classes ---
+    /**
+     * A Batch holds StopWatches, and the tag under which each StopWatch should be added, for one worker.
+     */
+    private static class Batch {
+        final String[] tags = new String[BATCH_SIZE];
+        final StopWatch[] stopWatches = new StopWatch[BATCH_SIZE];
+        int size;
+        /**
+         * If true, the worker hands over its statistics after adding the StopWatches in this batch.
+         */
+        boolean sliceComplete;
+        /**
+         * If true, the worker stops.
+         */
+        boolean shutdown;
+    }
+
+    /**
+     * A Worker adds the StopWatches of the batches handed to it to its partial statistics.
+     */
+    private class Worker implements Runnable {
+        final BlockingQueue<Batch> pendingBatches = new ArrayBlockingQueue<Batch>(MAX_PENDING_BATCHES);
+        final BlockingQueue<GroupedTimingStatistics> completedSlices =
+                new ArrayBlockingQueue<GroupedTimingStatistics>(1);
+        GroupedTimingStatistics statistics;
+
+        Worker(GroupedTimingStatistics statistics) {
+            this.statistics = statistics;
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Batch batch = pendingBatches.take();
+                    if (batch.shutdown) {
+                        return;
+                    }
+
+                    for (int i = 0; i < batch.size; i++) {
+                        try {
+                            statistics.addStopWatchForTag(batch.tags[i], batch.stopWatches[i]);
+                        } catch (Throwable t) {
+                            //only this StopWatch is lost, the worker must keep going or completeSlice would hang
+                            reportError(t);
+                        }
+                    }
+
+                    if (batch.sliceComplete) {
+                        //the statistics are always handed back, even if some StopWatches could not be added
+                        completedSlices.put(statistics);
+                        statistics = newGroupedTimingStatistics();
+                    }
+                }
+            } catch (InterruptedException ie) {
+                //nobody else interrupts the workers, so just stop
+            }
+        }
+
+        private void reportError(Throwable t) {
+            Thread currentThread = Thread.currentThread();
+            try {
+                currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, t);
+            } catch (Throwable ignored) {
+                //nothing more can be done if the handler itself fails
+            }
+        }
+    }
+}
@@ -77,7 +77,8 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
     /**
      * Pattern used to parse requested attribute names into the tag name and the statistic name
      */
-    protected Pattern attributeNamePattern = Pattern.compile("(.*)(Mean|StdDev|Min|Max|Count|TPS)");
+    protected Pattern attributeNamePattern =
+            Pattern.compile("(.*)(Mean|StdDev|Min|Max|Count|TPS|P50|P90|P95|P99|P999)");
     /**
      * Whether stats for tags are automatically exposed
      */
@@ -88,9 +89,11 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      * specified, and that sends notifications if attributes are outside of the acceptable ranges.
      *
      * @param mBeanName               The name under which this MBean is registered in the MBean server
-     * @param tagsToExpose            The names of the tags whose statistics should exposed. For each tag specified there will
-     *                                be 6 attributes whose getters are exposed: tagNameMean, tagNameStdDev, tagNameMin,
-     *                                tagNameMax, and tagNameCount and tagNameTPS
+     * @param tagsToExpose            The names of the tags whose statistics should exposed. For each tag specified
+     *                                there will be 6 attributes whose getters are exposed: tagNameMean, tagNameStdDev,
+     *                                tagNameMin, tagNameMax, tagNameCount and tagNameTPS, plus the percentiles
+     *                                tagNameP50, tagNameP90, tagNameP95, tagNameP99 and tagNameP999 while the current
+     *                                statistics track histograms
      * @param acceptableRanges        These acceptable ranges are used to send notifications if any of the monitored
      *                                attributes go outside of the range.
      */
@@ -105,9 +108,11 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      * specified, and that sends notifications if attributes are outside of the acceptable ranges.
      *
      * @param mBeanName               The name under which this MBean is registered in the MBean server
-     * @param tagsToExpose            The names of the tags whose statistics should exposed. For each tag specified there will
-     *                                be 6 attributes whose getters are exposed: tagNameMean, tagNameStdDev, tagNameMin,
-     *                                tagNameMax, and tagNameCount and tagNameTPS
+     * @param tagsToExpose            The names of the tags whose statistics should exposed. For each tag specified
+     *                                there will be 6 attributes whose getters are exposed: tagNameMean, tagNameStdDev,
+     *                                tagNameMin, tagNameMax, tagNameCount and tagNameTPS, plus the percentiles
+     *                                tagNameP50, tagNameP90, tagNameP95, tagNameP99 and tagNameP999 while the current
+     *                                statistics track histograms
      * @param acceptableRanges        These acceptable ranges are used to send notifications if any of the monitored
      *                                attributes go outside of the range.
      * @param exposeTagsAutomatically Whether stats of all tagNames should be exposed automatically.
@@ -147,10 +152,10 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
 
         this.tagsToExpose = new ArrayList<String>(tagsToExpose);
 
-        this.managementInterface = createMBeanInfoFromTagNames(tagsToExpose);
-
         this.currentTimingStatistics = new GroupedTimingStatistics(); //just set empty so it's never null
 
+        this.managementInterface = createMBeanInfoFromTagNames(tagsToExpose);
+
         this.exposeTagsAutomatically = exposeTagsAutomatically;
     }
 
@@ -164,7 +169,14 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
         if (currentTimingStatistics == null) {
             throw new IllegalArgumentException("timing statistics may not be null");
         }
+        boolean timeUnitChanged = this.currentTimingStatistics.getTimeUnit() != currentTimingStatistics.getTimeUnit();
+        boolean percentilesChanged = (this.currentTimingStatistics.getHistogramPrecision() > 0)
+                                     != (currentTimingStatistics.getHistogramPrecision() > 0);
         this.currentTimingStatistics = currentTimingStatistics;
+        if (timeUnitChanged || percentilesChanged) {
+            //the attribute descriptions include the time unit, and the percentiles are only exposed with histograms
+            this.managementInterface = createMBeanInfoFromTagNames(this.tagsToExpose);
+        }
         if (exposeTagsAutomatically) {
             exposeUnexposedTags();
         }
@@ -236,7 +248,11 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
             TimingStatistics timingStats = currentTimingStatistics.getStatisticsByTag().get(tagName);
             long windowLength = currentTimingStatistics.getStopTime() - currentTimingStatistics.getStartTime();
 
-            return getStatsValueRetrievers().get(statisticName).getStatsValue(timingStats, windowLength);
+            StatsValueRetriever statsValueRetriever = getStatsValueRetrievers().get(statisticName);
+            if (statsValueRetriever == null) {
+                throw new AttributeNotFoundException("No attribute named " + attribute);
+            }
+            return statsValueRetriever.getStatsValue(timingStats, windowLength);
         } else {
             throw new AttributeNotFoundException("No attribute named " + attribute);
         }
@@ -286,17 +302,21 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
     }
 
     /**
-     * Overridable helper method gets the Map of statistic name to StatsValueRetriever.
+     * Overridable helper method gets the Map of statistic name to StatsValueRetriever. The percentile retrievers are
+     * only included if the current statistics track histograms, i.e. if a histogram precision is configured.
      *
      * @return The StatsValueRetriever Map.
      */
     protected Map<String, StatsValueRetriever> getStatsValueRetrievers() {
-        return StatsValueRetriever.DEFAULT_RETRIEVERS;
+        return (currentTimingStatistics.getHistogramPrecision() > 0) ?
+               StatsValueRetriever.PERCENTILE_RETRIEVERS :
+               StatsValueRetriever.DEFAULT_RETRIEVERS;
     }
 
     /**
-     * Helper method creates an MBeanInfo object that contains 6 read only attributes for each tag name, each
-     * attribute representing a different statistic.
+     * Helper method creates an MBeanInfo object that contains a read only attribute for each statistic of each tag
+     * name, as returned by {@link #getStatsValueRetrievers()}. The descriptions of time-valued attributes state the
+     * time unit of the current timing statistics.
      *
      * @param tagNames The name of the tags whose statistics should be exposed as MBeanAttributes.
      * @return The MBeanInfo that represents the management interface for this MBean.
@@ -304,6 +324,9 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
     protected MBeanInfo createMBeanInfoFromTagNames(Collection<String> tagNames) {
         MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[tagNames.size() * getStatsValueRetrievers().size()];
 
+        String timeUnitDescription =
+                " (in " + MiscUtils.getTimeUnitAbbreviation(currentTimingStatistics.getTimeUnit()) + ")";
+
         int i = 0;
         for (String tagName : tagNames) {
             for (Map.Entry<String, StatsValueRetriever> statNameAndValueRetriever :
@@ -313,7 +336,10 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
 
                 attributes[i++] = new MBeanAttributeInfo(tagName + statName,
                                                          statsValueRetriever.getValueClass().getName(),
-                                                         "Returns " + statName + " for tag " + tagName,
+                                                         "Returns " + statName
+                                                         + (statsValueRetriever.isTimeValue() ?
+                                                            timeUnitDescription : "")
+                                                         + " for tag " + tagName,
                                                          true /* readable */,
                                                          false /* not writable */,
                                                          false /* not "is" getter */);
@@ -0,0 +1,540 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * The StatisticsStore is an embedded, file backed store of GroupedTimingStatistics, so that the statistics of past
+ * time slices can be queried without parsing the logs again. Statistics are kept at several resolutions: added
+ * statistics are stored as they are in the finest level, and once they are older than the retention of their level
+ * they are merged into time slices of the next coarser resolution, by default 30 seconds to 5 minutes to 1 hour.
+ * Since statistics are combined with {@link GroupedTimingStatistics#merge}, percentiles remain available at every
+ * resolution if the statistics have histograms of the same precision.
+ * <p/>
+ * Each level is stored in its own append-only file in the store directory. A record consists of a header with the
+ * time window of the statistics and a checksum, followed by the serialized statistics. Compaction appends the merged
+ * statistics to the coarser level between a start marker and an end marker, and only then rewrites the finer level
+ * without the merged records. The end marker stores up to which time the coarser level contains the finer level, so
+ * that records which were merged but not yet removed when the process died are ignored when the store is reopened.
+ * If the process died before the end marker was written, the merged statistics after the start marker are discarded
+ * instead, since the finer level still contains all of them.
+ * <p/>
+ * All statistics in a store must use the same time unit. Instances of this class are thread safe, but a store
+ * directory must only be opened by one instance at a time.
+ *
+ * @author Alex Devine
+ */
+public class StatisticsStore implements Closeable {
+    /**
+     * The default resolutions, in milliseconds, of the levels of the store: 30 seconds, 5 minutes and 1 hour.
+     */
+    public static final long[] DEFAULT_RESOLUTIONS = {30000L, 300000L, 3600000L};
+    /**
+     * The default retentions, in milliseconds, of the levels of the store: 1 day, 14 days and forever.
+     */
+    public static final long[] DEFAULT_RETENTIONS = {24L * 3600000L, 14L * 24L * 3600000L, Long.MAX_VALUE};
+
+    private static final String FILE_PREFIX = "statistics-";
+    private static final String FILE_SUFFIX = ".p4js";
+    /**
+     * The length of a record header: payload length, start time, stop time, compacted-up-to time and checksum.
+     */
+    private static final int HEADER_LENGTH = 4 + 8 + 8 + 8 + 4;
+    /**
+     * The start time of the empty record that marks the start of a compaction into a level.
+     */
+    private static final long COMPACTION_START = Long.MAX_VALUE;
+
+    private final File directory;
+    private final Level[] levels;
+    /**
+     * The latest stop time of the added statistics, which is used as the current time for compaction.
+     */
+    private long latestStopTime = Long.MIN_VALUE;
+    private boolean closed = false;
+
+    /**
+     * Opens the store in the specified directory with the default resolutions and retentions, creating it if it
+     * doesn't exist.
+     *
+     * @param directory The store directory.
+     * @throws IOException Thrown if the store could not be opened.
+     */
+    public StatisticsStore(File directory) throws IOException {
+        this(directory, DEFAULT_RESOLUTIONS, DEFAULT_RETENTIONS);
+    }
+
+    /**
+     * Opens the store in the specified directory, creating it if it doesn't exist.
+     *
+     * @param directory   The store directory.
+     * @param resolutions The length, in milliseconds, of the time slices of each level, from finest to coarsest. Each
+     *                    resolution must be a multiple of the previous one.
+     * @param retentions  How long, in milliseconds, statistics are kept in each level before they are merged into the
+     *                    next level. The retention of the last level is ignored, as its statistics are kept forever.
+     * @throws IOException Thrown if the store could not be opened.
+     */
+    public StatisticsStore(File directory, long[] resolutions, long[] retentions) throws IOException {
+        if (resolutions.length == 0 || resolutions.length != retentions.length) {
+            throw new IllegalArgumentException("There must be a retention for each resolution");
+        }
+        for (int i = 0; i < resolutions.length; i++) {
+            if (resolutions[i] <= 0L || retentions[i] <= 0L
+                || (i > 0 && (resolutions[i] <= resolutions[i - 1] || resolutions[i] % resolutions[i - 1] != 0L))) {
+                throw new IllegalArgumentException("Each resolution must be a multiple of the previous one");
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the statistics store directory " + directory);
+        }
+
+        this.directory = directory;
+        this.levels = new Level[resolutions.length];
+        try {
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new Level(resolutions[i], retentions[i]);
+            }
+        } catch (IOException ioe) {
+            close();
+            throw ioe;
+        }
+
+        //records that were merged into the next level by an interrupted compaction are ignored
+        for (int i = 0; i < levels.length - 1; i++) {
+            levels[i].compactedUpTo = levels[i + 1].getMaxCompactedUpTo();
+            for (RecordInfo record : levels[i].records) {
+                if (record.stopTime > levels[i].compactedUpTo) {
+                    latestStopTime = Math.max(latestStopTime, record.stopTime);
+                }
+            }
+        }
+        for (RecordInfo record : levels[levels.length - 1].records) {
+            latestStopTime = Math.max(latestStopTime, record.stopTime);
+        }
+    }
+
+    // --- Bean Properties ---
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // --- Utility Methods ---
+
+    /**
+     * Adds the statistics of a time slice to the store, and compacts the levels whose oldest statistics have exceeded
+     * their retention. Statistics for a time that was already merged into a coarser level are merged into that level
+     * directly.
+     *
+     * @param statistics The statistics to add. The statistics are not modified.
+     * @throws IOException Thrown if the statistics could not be written.
+     */
+    public synchronized void add(GroupedTimingStatistics statistics) throws IOException {
+        checkOpen();
+        int levelIndex = 0;
+        while (levelIndex < levels.length - 1 && statistics.getStopTime() <= levels[levelIndex].compactedUpTo) {
+            levelIndex++;
+        }
+        if (levelIndex == 0) {
+            levels[0].append(statistics, Long.MIN_VALUE);
+        } else {
+            levels[levelIndex].append(toTimeSlice(statistics.clone(), levels[levelIndex].resolution), Long.MIN_VALUE);
+        }
+
+        latestStopTime = Math.max(latestStopTime, statistics.getStopTime());
+        for (int i = 0; i < levels.length - 1; i++) {
+            if (levels[i].minStopTime <= getCompactionCutoff(i)) {
+                compact(i);
+            }
+        }
+    }
+
+    /**
+     * Gets the combined statistics of the specified tags in a time range. The statistics of all stored time slices
+     * that overlap the range are merged, so the time window of the result can be wider than the range, depending on
+     * the resolution at which the time range is stored.
+     *
+     * @param tags     The tags whose statistics are returned, or null for all tags.
+     * @param fromTime The start of the time range, in milliseconds since 1970, inclusive.
+     * @param toTime   The end of the time range, in milliseconds since 1970, exclusive.
+     * @return The merged statistics, or null if no statistics overlap the time range.
+     * @throws IOException Thrown if the store could not be read.
+     */
+    public synchronized GroupedTimingStatistics query(Collection<String> tags, long fromTime, long toTime)
+            throws IOException {
+        checkOpen();
+        GroupedTimingStatistics retVal = null;
+        for (Level level : levels) {
+            for (RecordInfo record : level.records) {
+                if (record.startTime < toTime && record.stopTime > fromTime && record.stopTime > level.compactedUpTo) {
+                    GroupedTimingStatistics statistics = level.read(record);
+                    if (tags != null) {
+                        statistics.getStatisticsByTag().keySet().retainAll(tags);
+                    }
+                    retVal = (retVal == null) ? statistics : retVal.merge(statistics);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Merges the statistics of each level that have exceeded their retention into the next level. This is done
+     * automatically when statistics are added.
+     *
+     * @throws IOException Thrown if the store could not be written.
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        for (int i = 0; i < levels.length - 1; i++) {
+            compact(i);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        closed = true;
+        IOException closeException = null;
+        for (Level level : levels) {
+            if (level != null) {
+                try {
+                    level.file.close();
+                } catch (IOException ioe) {
+                    closeException = ioe;
+                }
+            }
+        }
+        if (closeException != null) {
+            throw closeException;
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The statistics store is closed");
+        }
+    }
+
+    /**
+     * Gets the time up to which the statistics of a level are merged into the next level. Only whole time slices of
+     * the next level are merged, so the cutoff is aligned to the next resolution.
+     *
+     * @param levelIndex The index of the level.
+     * @return The stop time at or before which statistics are merged.
+     */
+    private long getCompactionCutoff(int levelIndex) {
+        //aligning the cutoff must not overflow either, for example with a retention of Long.MAX_VALUE
+        if (latestStopTime < Long.MIN_VALUE + levels[levelIndex].retention + levels[levelIndex + 1].resolution) {
+            return Long.MIN_VALUE;
+        }
+        return alignTime(latestStopTime - levels[levelIndex].retention, levels[levelIndex + 1].resolution);
+    }
+
+    private void compact(int levelIndex) throws IOException {
+        Level level = levels[levelIndex];
+        Level nextLevel = levels[levelIndex + 1];
+        long cutoff = getCompactionCutoff(levelIndex);
+        if (level.minStopTime > cutoff) {
+            return;
+        }
+
+        //merge the expired statistics into time slices of the next level
+        TreeMap<Long, GroupedTimingStatistics> timeSlices = new TreeMap<Long, GroupedTimingStatistics>();
+        List<RecordInfo> keptRecords = new ArrayList<RecordInfo>();
+        RecordInfo lastEndMarker = null;
+        for (RecordInfo record : level.records) {
+            if (record.length == 0) {
+                //the end marker with the latest watermark of the previous level is kept, the other markers are dropped
+                if (record.startTime != COMPACTION_START
+                    && (lastEndMarker == null || record.compactedUpTo >= lastEndMarker.compactedUpTo)) {
+                    lastEndMarker = record;
+                }
+                continue;
+            } else if (record.stopTime <= level.compactedUpTo) {
+                continue; //already merged by an interrupted compaction
+            } else if (record.stopTime > cutoff) {
+                keptRecords.add(record);
+                continue;
+            }
+            GroupedTimingStatistics statistics = level.read(record);
+            long timeSliceStart = alignTime(statistics.getStartTime(), nextLevel.resolution);
+            GroupedTimingStatistics timeSlice = timeSlices.get(timeSliceStart);
+            if (timeSlice == null) {
+                timeSlices.put(timeSliceStart, toTimeSlice(statistics, nextLevel.resolution));
+            } else {
+                timeSlice.merge(statistics);
+            }
+        }
+
+        //the merged time slices keep the old watermark, which only moves with the end marker once all are written
+        long compactedUpTo = Math.max(cutoff, level.compactedUpTo);
+        if (!timeSlices.isEmpty()) {
+            nextLevel.appendCompactionStart(level.compactedUpTo);
+        }
+        for (GroupedTimingStatistics timeSlice : timeSlices.values()) {
+            timeSlice.setStopTime(timeSlice.getStartTime() + nextLevel.resolution);
+            nextLevel.append(timeSlice, level.compactedUpTo);
+        }
+        nextLevel.append(null, compactedUpTo);
+        level.compactedUpTo = compactedUpTo;
+        if (lastEndMarker != null) {
+            keptRecords.add(0, lastEndMarker);
+        }
+        level.rewrite(keptRecords);
+    }
+
+    /**
+     * Helper method sets the time window of statistics to the time slice of the specified resolution containing
+     * their start time.
+     *
+     * @param statistics The statistics, which are modified.
+     * @param resolution The length of the time slice.
+     * @return The statistics.
+     */
+    private static GroupedTimingStatistics toTimeSlice(GroupedTimingStatistics statistics, long resolution) {
+        long timeSliceStart = alignTime(statistics.getStartTime(), resolution);
+        statistics.setStartTime(timeSliceStart);
+        statistics.setStopTime(timeSliceStart + resolution);
+        return statistics;
+    }
+
+    private static long alignTime(long time, long resolution) {
+        long retVal = (time / resolution) * resolution;
+        return (retVal > time) ? retVal - resolution : retVal;
+    }
+
+    // --- Support Classes ---
+    /**
+     * The location and time window of a stored record.
+     */
+    private static class RecordInfo {
+        long offset;
+        int length;
+        long startTime;
+        long stopTime;
+        long compactedUpTo;
+    }
+
+    /**
+     * One resolution of the store, with its file and the index of its records.
+     */
+    private class Level {
+        final long resolution;
+        final long retention;
+        final File path;
+        RandomAccessFile file;
+        List<RecordInfo> records = new ArrayList<RecordInfo>();
+        long minStopTime = Long.MAX_VALUE;
+        /**
+         * Records of this level that stop at or before this time were merged into the next level.
+         */
+        long compactedUpTo = Long.MIN_VALUE;
+
+        Level(long resolution, long retention) throws IOException {
+            this.resolution = resolution;
+            this.retention = retention;
+            this.path = new File(directory, FILE_PREFIX + resolution + FILE_SUFFIX);
+            this.file = new RandomAccessFile(path, "rw");
+            readIndex();
+        }
+
+        /**
+         * Reads the record headers of the file. A record that was only partially written, because the process died
+         * while appending it, is truncated, as are the records of a compaction whose end marker was not written.
+         */
+        void readIndex() throws IOException {
+            records.clear();
+            minStopTime = Long.MAX_VALUE;
+            long fileLength = file.length();
+            long offset = 0L;
+            long unfinishedCompactionOffset = -1L;
+            List<RecordInfo> fileRecords = new ArrayList<RecordInfo>();
+            while (offset + HEADER_LENGTH <= fileLength) {
+                file.seek(offset);
+                RecordInfo record = new RecordInfo();
+                record.offset = offset;
+                record.length = file.readInt();
+                record.startTime = file.readLong();
+                record.stopTime = file.readLong();
+                record.compactedUpTo = file.readLong();
+                if (record.length < 0 || offset + HEADER_LENGTH + record.length > fileLength) {
+                    break;
+                }
+                if (record.length == 0) {
+                    unfinishedCompactionOffset = (record.startTime == COMPACTION_START) ? offset : -1L;
+                }
+                fileRecords.add(record);
+                offset += HEADER_LENGTH + record.length;
+            }
+            if (unfinishedCompactionOffset >= 0L) {
+                //the finer level still contains everything that was merged after the start marker
+                offset = unfinishedCompactionOffset;
+            }
+            for (RecordInfo record : fileRecords) {
+                if (record.offset < offset) {
+                    addRecord(record);
+                }
+            }
+            if (offset < fileLength) {
+                file.setLength(offset);
+            }
+        }
+
+        long getMaxCompactedUpTo() {
+            long retVal = Long.MIN_VALUE;
+            for (RecordInfo record : records) {
+                retVal = Math.max(retVal, record.compactedUpTo);
+            }
+            return retVal;
+        }
+
+        /**
+         * Appends a record to the file.
+         *
+         * @param statistics    The statistics to store, or null to only store the compactedUpTo time.
+         * @param compactedUpTo The time up to which the previous level was merged into this record.
+         */
+        void append(GroupedTimingStatistics statistics, long compactedUpTo) throws IOException {
+            byte[] payload = new byte[0];
+            if (statistics != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(statistics);
+                out.close();
+                payload = bytes.toByteArray();
+            }
+            //an empty record doesn't cover any time
+            append(payload,
+                   (statistics == null) ? Long.MIN_VALUE : statistics.getStartTime(),
+                   (statistics == null) ? Long.MIN_VALUE : statistics.getStopTime(),
+                   compactedUpTo);
+        }
+
+        /**
+         * Appends the empty record that marks the start of a compaction into this level. Its start time is after its
+         * stop time, so it never matches a query.
+         *
+         * @param compactedUpTo The time up to which the previous level was merged before this compaction.
+         */
+        void appendCompactionStart(long compactedUpTo) throws IOException {
+            append(new byte[0], COMPACTION_START, Long.MIN_VALUE, compactedUpTo);
+        }
+
+        private void append(byte[] payload, long startTime, long stopTime, long compactedUpTo) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            RecordInfo record = new RecordInfo();
+            record.offset = file.length();
+            record.length = payload.length;
+            record.startTime = startTime;
+            record.stopTime = stopTime;
+            record.compactedUpTo = compactedUpTo;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH + payload.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(record.length);
+            out.writeLong(record.startTime);
+            out.writeLong(record.stopTime);
+            out.writeLong(record.compactedUpTo);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+            file.seek(record.offset);
+            file.write(bytes.toByteArray());
+            file.getFD().sync();
+
+            addRecord(record);
+        }
+
+        GroupedTimingStatistics read(RecordInfo record) throws IOException {
+            byte[] payload = new byte[record.length];
+            file.seek(record.offset + HEADER_LENGTH - 4);
+            int checksum = file.readInt();
+            file.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupt record at offset " + record.offset + " of " + path);
+            }
+
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+            try {
+                return (GroupedTimingStatistics) in.readObject();
+            } catch (ClassNotFoundException cnfe) {
+                throw new IOException("Invalid record at offset " + record.offset + " of " + path + ": "
+                                      + cnfe.getMessage());
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Replaces the file by a file containing only the specified records. The new file is written to a temporary
+         * file first, so the level is not lost if the process dies while writing.
+         */
+        void rewrite(List<RecordInfo> keptRecords) throws IOException {
+            File tempPath = new File(path.getPath() + ".tmp");
+            RandomAccessFile tempFile = new RandomAccessFile(tempPath, "rw");
+            try {
+                tempFile.setLength(0L);
+                for (RecordInfo record : keptRecords) {
+                    byte[] bytes = new byte[HEADER_LENGTH + record.length];
+                    file.seek(record.offset);
+                    file.readFully(bytes);
+                    tempFile.write(bytes);
+                }
+                tempFile.getFD().sync();
+            } finally {
+                tempFile.close();
+            }
+
+            file.close();
+            //renaming over an existing file fails on some platforms
+            if (!tempPath.renameTo(path)) {
+                path.delete();
+                if (!tempPath.renameTo(path)) {
+                    throw new IOException("Could not rename " + tempPath + " to " + path);
+                }
+            }
+            file = new RandomAccessFile(path, "rw");
+            readIndex();
+        }
+
+        private void addRecord(RecordInfo record) {
+            records.add(record);
+            if (record.length > 0) {
+                minStopTime = Math.min(minStopTime, record.stopTime);
+            }
+        }
+    }
+}
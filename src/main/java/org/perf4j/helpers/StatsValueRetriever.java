@@ -23,7 +23,11 @@ import java.util.Map;
 
 /**
  * The StatsValueRetriever is used to enable retrieval of any of the statistics on the TimingStatistics object
- * by name. In addition, retrieval of a transactions per second statistic is supported.
+ * by name. In addition, retrieval of a transactions per second statistic is supported. The percentile statistics
+ * (P50, P90, P95, P99 and P999, the last being the 99.9th percentile) are only available if the TimingStatistics
+ * track a histogram (see {@link org.perf4j.GroupedTimingStatistics#setHistogramPrecision(int)}); otherwise 0 is
+ * returned for them. For this reason they are not part of the {@link #DEFAULT_RETRIEVERS}, but only of the
+ * {@link #PERCENTILE_RETRIEVERS}.
  *
  * @author Alex Devine
  */
@@ -37,6 +41,8 @@ public enum StatsValueRetriever {
         public Class getValueClass() { return Double.class; }
 
         public String getValueName() { return "Mean"; }
+
+        public boolean isTimeValue() { return true; }
     },
     STD_DEV() {
         public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
@@ -46,6 +52,8 @@ public enum StatsValueRetriever {
         public Class getValueClass() { return Double.class; }
 
         public String getValueName() { return "StdDev"; }
+
+        public boolean isTimeValue() { return true; }
     },
     MIN() {
         public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
@@ -55,6 +63,8 @@ public enum StatsValueRetriever {
         public Class getValueClass() { return Long.class; }
 
         public String getValueName() { return "Min"; }
+
+        public boolean isTimeValue() { return true; }
     },
     MAX() {
         public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
@@ -64,6 +74,8 @@ public enum StatsValueRetriever {
         public Class getValueClass() { return Long.class; }
 
         public String getValueName() { return "Max"; }
+
+        public boolean isTimeValue() { return true; }
     },
     COUNT() {
         public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
@@ -84,6 +96,61 @@ public enum StatsValueRetriever {
         public Class getValueClass() { return Double.class; }
 
         public String getValueName() { return "TPS"; }
+    },
+    P50() {
+        public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
+            return getPercentile(timingStats, 50.0);
+        }
+
+        public Class getValueClass() { return Long.class; }
+
+        public String getValueName() { return "P50"; }
+
+        public boolean isTimeValue() { return true; }
+    },
+    P90() {
+        public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
+            return getPercentile(timingStats, 90.0);
+        }
+
+        public Class getValueClass() { return Long.class; }
+
+        public String getValueName() { return "P90"; }
+
+        public boolean isTimeValue() { return true; }
+    },
+    P95() {
+        public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
+            return getPercentile(timingStats, 95.0);
+        }
+
+        public Class getValueClass() { return Long.class; }
+
+        public String getValueName() { return "P95"; }
+
+        public boolean isTimeValue() { return true; }
+    },
+    P99() {
+        public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
+            return getPercentile(timingStats, 99.0);
+        }
+
+        public Class getValueClass() { return Long.class; }
+
+        public String getValueName() { return "P99"; }
+
+        public boolean isTimeValue() { return true; }
+    },
+    P999() {
+        public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
+            return getPercentile(timingStats, 99.9);
+        }
+
+        public Class getValueClass() { return Long.class; }
+
+        public String getValueName() { return "P999"; }
+
+        public boolean isTimeValue() { return true; }
     };
 
     /**
@@ -91,12 +158,22 @@ public enum StatsValueRetriever {
      * statistic. Statistic names are Mean, StdDev, Min, Max, Count and TPS.
      */
     public static final Map<String, StatsValueRetriever> DEFAULT_RETRIEVERS;
+    /**
+     * Unmodifiable Map that contains the DEFAULT_RETRIEVERS plus the percentile retrievers P50, P90, P95, P99 and
+     * P999, for use when the statistics track histograms.
+     */
+    public static final Map<String, StatsValueRetriever> PERCENTILE_RETRIEVERS;
     static {
         Map<String, StatsValueRetriever> defaultRetrievers = new LinkedHashMap<String, StatsValueRetriever>();
+        Map<String, StatsValueRetriever> percentileRetrievers = new LinkedHashMap<String, StatsValueRetriever>();
         for (StatsValueRetriever statsValueRetriever : StatsValueRetriever.values()) {
-            defaultRetrievers.put(statsValueRetriever.getValueName(), statsValueRetriever);
+            if (statsValueRetriever.compareTo(P50) < 0) {
+                defaultRetrievers.put(statsValueRetriever.getValueName(), statsValueRetriever);
+            }
+            percentileRetrievers.put(statsValueRetriever.getValueName(), statsValueRetriever);
         }
         DEFAULT_RETRIEVERS = Collections.unmodifiableMap(defaultRetrievers);
+        PERCENTILE_RETRIEVERS = Collections.unmodifiableMap(percentileRetrievers);
     }
 
     /**
@@ -122,4 +199,26 @@ public enum StatsValueRetriever {
      * @return The name of the value retrieved.
      */
     public abstract String getValueName();
+
+    /**
+     * Returns whether the value is a time value, in which case it is measured in the time unit of the
+     * GroupedTimingStatistics containing the TimingStatistics (see
+     * {@link org.perf4j.GroupedTimingStatistics#getTimeUnit()}). Counts and rates are not time values.
+     *
+     * @return true if the value is measured in the statistics time unit.
+     */
+    public boolean isTimeValue() { return false; }
+
+    /**
+     * Helper method gets a percentile from TimingStatistics that may be null or may not track a histogram.
+     *
+     * @param timingStats The TimingStatistics, may be null
+     * @param percentile  The percentile to retrieve, from 0 to 100
+     * @return The value at the percentile, or 0 if the percentile is not available.
+     */
+    private static Long getPercentile(TimingStatistics timingStats, double percentile) {
+        return (timingStats == null || timingStats.getHistogram() == null) ?
+               0L :
+               timingStats.getPercentile(percentile);
+    }
 }
@@ -17,6 +17,9 @@ package org.perf4j.helpers;
 
 import org.perf4j.StopWatch;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
@@ -29,9 +32,14 @@ import java.util.Scanner;
  */
 public class StopWatchLogIterator implements Iterator<StopWatch> {
     /**
-     * The input scanner that pulls from the input stream.
+     * The input scanner that pulls from the input stream. Null if the inputReader is used instead.
      */
     private Scanner inputScanner;
+    /**
+     * If the StopWatchParser parses a single match per line, input is read line-by-line from this reader instead of
+     * matching the parser's regex pattern with the inputScanner.
+     */
+    private BufferedReader inputReader;
     /**
      * This StopWatchParser is used to pull out StopWatches from the input stream.
      */
@@ -52,8 +60,26 @@ public class StopWatchLogIterator implements Iterator<StopWatch> {
      * @param log The log containing the data to be parsed.
      */
     public StopWatchLogIterator(Readable log) {
-        inputScanner = new Scanner(log);
-        stopWatchParser = newStopWatchParser();
+        this(log, null);
+    }
+
+    /**
+     * Creates a new StopWatchLogIterator to parse input from the specified Readable instance using the specified
+     * StopWatchParser. If the parser {@link StopWatchParser#isSingleMatchPerLine parses a single match per line}, such
+     * as the {@link ScanningStopWatchParser}, and the log is a Reader, then the log is read line by line and at most
+     * one StopWatch is parsed from each line.
+     *
+     * @param log             The log containing the data to be parsed.
+     * @param stopWatchParser The parser used to parse StopWatches from the log. If null, the parser returned by
+     *                        {@link #newStopWatchParser()} is used.
+     */
+    public StopWatchLogIterator(Readable log, StopWatchParser stopWatchParser) {
+        this.stopWatchParser = (stopWatchParser == null) ? newStopWatchParser() : stopWatchParser;
+        if (this.stopWatchParser.isSingleMatchPerLine() && (log instanceof Reader)) {
+            inputReader = (log instanceof BufferedReader) ? (BufferedReader) log : new BufferedReader((Reader) log);
+        } else {
+            inputScanner = new Scanner(log);
+        }
     }
 
     public boolean hasNext() {
@@ -115,13 +141,45 @@ public class StopWatchLogIterator implements Iterator<StopWatch> {
      * @return The next parsed StopWatch from the input stream, or null if there are no more StopWatches.
      */
     private StopWatch getNext() {
-        String line;
-        while ((line = inputScanner.findInLine(stopWatchParser.getPattern())) == null && inputScanner.hasNextLine()) {
-            inputScanner.nextLine();
+        if (inputReader != null) {
+            return getNextFromLines();
         }
 
-        return (line != null) ?
-               stopWatchParser.parseStopWatchFromLogMatch(inputScanner.match()) :
-               null; //there are no more lines to read if line is null
+        while (true) {
+            String line;
+            while ((line = inputScanner.findInLine(stopWatchParser.getPattern())) == null
+                   && inputScanner.hasNextLine()) {
+                inputScanner.nextLine();
+            }
+
+            if (line == null) {
+                return null; //there are no more lines to read
+            }
+            //the parser returns null if the StopWatch is rejected by its tag filter
+            StopWatch stopWatch = stopWatchParser.parseStopWatchFromLogMatch(inputScanner.match());
+            if (stopWatch != null) {
+                return stopWatch;
+            }
+        }
+    }
+
+    /**
+     * Helper method reads lines from the inputReader until one is found that the stopWatchParser can parse.
+     *
+     * @return The next parsed StopWatch from the input stream, or null if there are no more StopWatches.
+     */
+    private StopWatch getNextFromLines() {
+        try {
+            String line;
+            while ((line = inputReader.readLine()) != null) {
+                StopWatch stopWatch = stopWatchParser.parseStopWatch(line);
+                if (stopWatch != null) {
+                    return stopWatch;
+                }
+            }
+            return null;
+        } catch (IOException ioe) {
+            throw new RuntimeException("Error reading StopWatch log: " + ioe.getMessage(), ioe);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,125 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A StopWatchLogMessage is the message object that LoggingStopWatches hand to their underlying logging framework
+ * instead of a plain String. Its <tt>toString()</tt> method returns the standard StopWatch log string, so layouts and
+ * appenders that just print the message see exactly the same output as before. However, appenders that understand
+ * StopWatches, such as the {@link org.perf4j.log4j.AsyncCoalescingStatisticsAppender}, can pull the StopWatch out
+ * directly using {@link #getStopWatch()} and thus avoid formatting and re-parsing the log string.
+ * <p/>
+ * Instances are immutable: the StopWatch is copied when this message is created, so the originating StopWatch may
+ * be restarted (e.g. by a lap call) without affecting the logged values.
+ * <p/>
+ * Since creating this message costs two allocations per log call, the LoggingStopWatches only create it while a
+ * consumer of the StopWatch is {@link #registerConsumer registered}; otherwise they log the plain string.
+ *
+ * @author Alex Devine
+ */
+public class StopWatchLogMessage implements Serializable {
+    private static final long serialVersionUID = -2915613318742166531L;
+
+    /**
+     * The snapshot of the logged StopWatch.
+     */
+    private final StopWatch stopWatch;
+    /**
+     * The String form of the StopWatch, created on demand if not passed to the constructor.
+     */
+    private String stopWatchAsString;
+
+    /**
+     * The number of started appenders that read the StopWatch from this message.
+     */
+    private static final AtomicInteger consumerCount = new AtomicInteger();
+
+    /**
+     * Creates a StopWatchLogMessage for the specified StopWatch. The log string is created on demand.
+     *
+     * @param stopWatch The StopWatch being logged, which should normally already be stopped.
+     */
+    public StopWatchLogMessage(StopWatch stopWatch) {
+        this(stopWatch, null);
+    }
+
+    /**
+     * Creates a StopWatchLogMessage for the specified StopWatch.
+     *
+     * @param stopWatch         The StopWatch being logged, which should normally already be stopped.
+     * @param stopWatchAsString The String form of the StopWatch if it has already been created, may be null.
+     */
+    public StopWatchLogMessage(StopWatch stopWatch, String stopWatchAsString) {
+        //note we use the getters so that subclass values (e.g. tag suffixes on LoggingStopWatches) are captured
+        this.stopWatch = new StopWatch(stopWatch.getStartTime(),
+                                       stopWatch.getElapsedTime(),
+                                       stopWatch.getTimeUnit(),
+                                       stopWatch.getTag(),
+                                       stopWatch.getMessage());
+        this.stopWatch.setCallCount(stopWatch.getCallCount());
+        this.stopWatchAsString = stopWatchAsString;
+    }
+
+    /**
+     * Registers an appender that reads the StopWatch from StopWatchLogMessages. This should be called when the
+     * appender is started, and matched by a call to {@link #unregisterConsumer} when it is stopped.
+     */
+    public static void registerConsumer() {
+        consumerCount.incrementAndGet();
+    }
+
+    /**
+     * Unregisters an appender that was registered with {@link #registerConsumer}.
+     */
+    public static void unregisterConsumer() {
+        consumerCount.decrementAndGet();
+    }
+
+    /**
+     * Determines whether LoggingStopWatches should log StopWatchLogMessages instead of plain strings.
+     *
+     * @return true if an appender that reads the StopWatch from StopWatchLogMessages is registered.
+     */
+    public static boolean hasConsumers() {
+        return consumerCount.get() > 0;
+    }
+
+    /**
+     * Gets the snapshot of the StopWatch that was logged. Callers should not modify the returned StopWatch.
+     *
+     * @return The logged StopWatch.
+     */
+    public StopWatch getStopWatch() {
+        return stopWatch;
+    }
+
+    /**
+     * Returns the standard StopWatch log string, e.g. <tt>start[1230448905165] time[704] tag[someTag]</tt>.
+     *
+     * @return The StopWatch log string.
+     */
+    public String toString() {
+        if (stopWatchAsString == null) {
+            stopWatchAsString = stopWatch.toString();
+        }
+        return stopWatchAsString;
+    }
+}
@@ -17,6 +17,7 @@ package org.perf4j.helpers;
 
 import org.perf4j.StopWatch;
 
+import java.util.concurrent.TimeUnit;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,25 +27,38 @@ import java.util.regex.Pattern;
  *
  * @author Alex Devine
  */
-public class StopWatchParser {
+public class StopWatchParser implements Cloneable {
 
     /**
      * The default regex used to parse StopWatches from Strings. The following is true of the
      * capturing groups of this pattern:
      * <ol>
      * <li> The start time in milliseconds, parseable as a long
-     * <li> The elapsed time in milliseconds, parseable as a long
+     * <li> The elapsed time, optionally followed by a time unit marker of ns, us, ms or s. If there is no marker the
+     *      time is in milliseconds.
      * <li> The tag name
      * <li> Optional, if not null the message text.
+     * <li> Optional, if not null the number of calls the StopWatch stands for, which is only written for sampled
+     *      StopWatches. This group is only read when the parser uses this pattern, so custom patterns may use group 5
+     *      for something else.
      * </ol>
      */
     public static final String DEFAULT_MATCH_PATTERN =
-            "start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?";
+            "start\\[(\\d+)\\] time\\[(\\d+(?:ns|us|ms|s)?)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?"
+            + "(?: calls\\[(\\d+)\\])?";
 
     /**
      * The regex Pattern object used to parse Strings.
      */
     private Pattern pattern;
+    /**
+     * Whether the pattern is the DEFAULT_MATCH_PATTERN, whose group 5 is the call count.
+     */
+    private final boolean defaultPattern;
+    /**
+     * If not null, only StopWatches whose tags are accepted by this filter are parsed.
+     */
+    private TagFilter tagFilter;
 
     /**
      * Creates a StopWatchParser that uses the DEFAULT_MATCH_PATTERN to parse StopWatch message strings.
@@ -62,6 +76,7 @@ public class StopWatchParser {
      */
     public StopWatchParser(String matchPattern) {
         pattern = Pattern.compile(matchPattern);
+        defaultPattern = DEFAULT_MATCH_PATTERN.equals(matchPattern);
     }
 
     /**
@@ -73,6 +88,25 @@ public class StopWatchParser {
         return pattern;
     }
 
+    /**
+     * Gets the filter of the tags of the StopWatches that are parsed.
+     *
+     * @return The tag filter, or null if all StopWatches are parsed.
+     */
+    public TagFilter getTagFilter() {
+        return tagFilter;
+    }
+
+    /**
+     * Sets the filter of the tags of the StopWatches that are parsed. The tag is checked before the StopWatch is
+     * created, and StopWatches whose tags are rejected are treated as if they couldn't be parsed.
+     *
+     * @param tagFilter The tag filter, may be null to parse all StopWatches.
+     */
+    public void setTagFilter(TagFilter tagFilter) {
+        this.tagFilter = tagFilter;
+    }
+
     /**
      * This method parses a StopWatch from the given message string.
      *
@@ -99,13 +133,50 @@ public class StopWatchParser {
      * Helper method returns a new StopWatch from the MatchResult returned when a log messages matches.
      *
      * @param matchResult The regex match result
-     * @return A new StopWatch that reflects the data from the match result.
+     * @return A new StopWatch that reflects the data from the match result, or null if the tag is rejected by the
+     *         tag filter.
      */
     public StopWatch parseStopWatchFromLogMatch(MatchResult matchResult) {
-        return new StopWatch(Long.parseLong(matchResult.group(1)) /*start time*/,
-                             Long.parseLong(matchResult.group(2)) /*elapsed time*/,
-                             matchResult.group(3) /*tag*/,
-                             matchResult.group(4) /*message, may be null*/);
+        if (tagFilter != null && !tagFilter.accept(matchResult.group(3))) {
+            return null;
+        }
+
+        String elapsedTime = matchResult.group(2);
+        //find where the time unit marker, if any, begins
+        int unitIndex = elapsedTime.length();
+        while (unitIndex > 0 && !Character.isDigit(elapsedTime.charAt(unitIndex - 1))) {
+            unitIndex--;
+        }
+
+        StopWatch retVal = new StopWatch(Long.parseLong(matchResult.group(1)) /*start time*/,
+                                         Long.parseLong(elapsedTime.substring(0, unitIndex)) /*elapsed time*/,
+                                         (unitIndex == elapsedTime.length()) ?
+                                         TimeUnit.MILLISECONDS :
+                                         MiscUtils.parseTimeUnit(elapsedTime.substring(unitIndex)) /*time unit*/,
+                                         matchResult.group(3) /*tag*/,
+                                         matchResult.group(4) /*message, may be null*/);
+        String callCount = defaultPattern ? matchResult.group(5) : null;
+        if (callCount != null) {
+            try {
+                retVal.setCallCount(Math.max(Integer.parseInt(callCount), 1));
+            } catch (NumberFormatException nfe) {
+                //a call count that doesn't fit in an int is ignored, as the ScanningStopWatchParser does
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns whether this parser parses at most one StopWatch from each line of a log. If true, the log iterators
+     * read the log line by line and pass each line to {@link #parseStopWatch(String)}, which is faster for parsers
+     * that don't use the regex pattern; otherwise every match of the {@link #getPattern() pattern} is parsed with
+     * {@link #parseStopWatchFromLogMatch(MatchResult)}. Subclasses that override parseStopWatch should override this
+     * method to return true.
+     *
+     * @return false for this class.
+     */
+    public boolean isSingleMatchPerLine() {
+        return false;
     }
 
     /**
@@ -121,4 +192,18 @@ public class StopWatchParser {
     public boolean isPotentiallyValid(String message) {
         return message.startsWith("start");
     }
+
+    /**
+     * Creates a shallow copy of this parser, so that its tag filter can be changed without affecting this parser.
+     * Subclasses with mutable state that must not be shared should override this method.
+     *
+     * @return A copy of this parser.
+     */
+    public StopWatchParser clone() {
+        try {
+            return (StopWatchParser) super.clone();
+        } catch (CloneNotSupportedException cnse) {
+            throw new Error("Unexpected CloneNotSupportedException");
+        }
+    }
 }
@@ -0,0 +1,306 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The StopWatchSampler decides which StopWatches of frequently called code blocks are logged. Sampling rules are set
+ * by tag prefix, and a tag is governed by the rule with the longest prefix that matches it; tags without a matching
+ * rule are always logged. A rule either logs one in every N StopWatches of each tag, or adjusts N every second so that
+ * about a target number of StopWatches per second is logged for each tag.
+ * <p/>
+ * Sampled-out StopWatches are not logged at all, so they don't cost a log call or a queue entry, but they are still
+ * counted: each logged StopWatch gets a {@link org.perf4j.StopWatch#getCallCount call count} that includes the calls
+ * sampled out before it, so the counts in the statistics are exact (apart from the calls since the last logged
+ * StopWatch), while the times of the logged StopWatches stand in for the times of the sampled-out calls. The
+ * {@link org.perf4j.LoggingStopWatch} consults the {@link #getDefault default} sampler before it logs, and never
+ * samples out StopWatches that are over their time threshold. The default sampler is registered as an MBean under
+ * {@link #DEFAULT_MBEAN_NAME} when the first timing aspect is created, or by calling {@link #registerDefaultMBean}.
+ * <p/>
+ * The sampling state of at most {@link #MAX_SAMPLED_TAGS} tags, including the tags that don't match any rule, is
+ * kept; StopWatches of further tags are logged without sampling. Changing the rules resets the state of all tags.
+ * This class is thread safe, and checking a tag costs a single volatile read while there are no rules.
+ *
+ * @author Alex Devine
+ */
+public class StopWatchSampler implements StopWatchSamplerMBean {
+    /**
+     * The ObjectName under which the default sampler is registered with the platform MBeanServer.
+     */
+    public static final String DEFAULT_MBEAN_NAME = "org.perf4j:type=StopWatchSampler,name=Perf4J";
+
+    /**
+     * The maximum number of tags whose sampling state is kept.
+     */
+    public static final int MAX_SAMPLED_TAGS = 4096;
+
+    /**
+     * The length of the window over which the call rate of a tag sampled at a target rate is measured.
+     */
+    private static final long RATE_WINDOW_NANOS = 1000000000L;
+
+    /**
+     * Cached for tags that don't match any rule, so their rules don't have to be looked up again.
+     */
+    private static final TagSampler NOT_SAMPLED = new TagSampler(new Rule(1, 0.0));
+
+    private static final StopWatchSampler DEFAULT = new StopWatchSampler();
+    private static boolean defaultMBeanRegistered = false;
+
+    /**
+     * The rules by tag prefix. The map is never modified; it is replaced when a rule changes.
+     */
+    private volatile Map<String, Rule> rules = Collections.emptyMap();
+    /**
+     * The sampling state of the tags checked since the rules last changed.
+     */
+    private volatile ConcurrentMap<String, TagSampler> samplersByTag = new ConcurrentHashMap<String, TagSampler>();
+
+    /**
+     * Gets the sampler that is used by the LoggingStopWatches.
+     *
+     * @return The default StopWatchSampler.
+     */
+    public static StopWatchSampler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers the default sampler with the platform MBeanServer under {@link #DEFAULT_MBEAN_NAME}, if it is not
+     * registered yet.
+     *
+     * @return true if the MBean is registered, false if it could not be registered.
+     */
+    public static synchronized boolean registerDefaultMBean() {
+        if (defaultMBeanRegistered) {
+            return true;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DEFAULT_MBEAN_NAME);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(DEFAULT, objectName);
+            }
+            return defaultMBeanRegistered = true;
+        } catch (Exception e) {
+            //sampling still works, the rules just can't be changed through JMX
+            return false;
+        }
+    }
+
+    // --- Sampling Methods ---
+
+    /**
+     * Decides whether a StopWatch with the specified tag should be logged. This must be called exactly once for each
+     * timed call that may be sampled out.
+     *
+     * @param tag The StopWatch tag. StopWatches without a tag are always logged.
+     * @return 0 if the StopWatch should not be logged, otherwise the number of calls the logged StopWatch stands for,
+     *         which is 1 for tags that aren't sampled.
+     */
+    public int sample(String tag) {
+        if (rules.isEmpty() || tag == null) {
+            return 1;
+        }
+        TagSampler sampler = getSampler(tag);
+        return (sampler == NOT_SAMPLED) ? 1 : sampler.sample();
+    }
+
+    // --- StopWatchSamplerMBean Methods ---
+
+    public String[] getRules() {
+        List<String> retVal = new ArrayList<String>();
+        for (Map.Entry<String, Rule> prefixAndRule : new TreeMap<String, Rule>(rules).entrySet()) {
+            retVal.add(prefixAndRule.getKey() + "=" + prefixAndRule.getValue());
+        }
+        return retVal.toArray(new String[retVal.size()]);
+    }
+
+    public void sampleOneIn(String tagPrefix, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("The sampling interval must be at least 1: " + interval);
+        }
+        setRule(tagPrefix, new Rule(interval, 0.0));
+    }
+
+    public void sampleAtRate(String tagPrefix, double eventsPerSecond) {
+        if (!(eventsPerSecond > 0.0) || Double.isInfinite(eventsPerSecond)) {
+            throw new IllegalArgumentException("The target rate must be positive: " + eventsPerSecond);
+        }
+        setRule(tagPrefix, new Rule(1, eventsPerSecond));
+    }
+
+    public void removeRule(String tagPrefix) {
+        setRule(tagPrefix, null);
+    }
+
+    public synchronized void removeAllRules() {
+        rules = Collections.emptyMap();
+        samplersByTag = new ConcurrentHashMap<String, TagSampler>();
+    }
+
+    public int getCurrentInterval(String tag) {
+        if (rules.isEmpty()) {
+            return 1;
+        }
+        TagSampler sampler = samplersByTag.get(tag);
+        if (sampler != null) {
+            return sampler.interval;
+        }
+        Rule rule = findRule(tag);
+        return (rule == null) ? 1 : rule.interval;
+    }
+
+    // --- Helper Methods ---
+
+    private TagSampler getSampler(String tag) {
+        ConcurrentMap<String, TagSampler> samplersByTag = this.samplersByTag;
+        TagSampler retVal = samplersByTag.get(tag);
+        if (retVal != null) {
+            return retVal;
+        }
+
+        if (samplersByTag.size() >= MAX_SAMPLED_TAGS) {
+            //the state of this tag can't be kept, and sampling without state would never log the tag
+            return NOT_SAMPLED;
+        }
+        Rule rule = findRule(tag);
+        retVal = (rule == null) ? NOT_SAMPLED : new TagSampler(rule);
+        TagSampler existing = samplersByTag.putIfAbsent(tag, retVal);
+        return (existing == null) ? retVal : existing;
+    }
+
+    private Rule findRule(String tag) {
+        Map<String, Rule> rules = this.rules;
+        for (int length = tag.length(); length >= 0; length--) {
+            Rule retVal = rules.get(tag.substring(0, length));
+            if (retVal != null) {
+                return retVal;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void setRule(String tagPrefix, Rule rule) {
+        if (tagPrefix == null) {
+            throw new IllegalArgumentException("The prefix must not be null");
+        }
+        Map<String, Rule> newRules = new HashMap<String, Rule>(rules);
+        if (rule == null) {
+            newRules.remove(tagPrefix);
+        } else {
+            newRules.put(tagPrefix, rule);
+        }
+        rules = newRules;
+        samplersByTag = new ConcurrentHashMap<String, TagSampler>();
+    }
+
+    /**
+     * A sampling rule, which is either a fixed interval or a target rate.
+     */
+    private static class Rule {
+        final int interval;
+        /**
+         * The target number of logged StopWatches per second, or 0 if the interval is fixed.
+         */
+        final double targetRate;
+
+        Rule(int interval, double targetRate) {
+            this.interval = interval;
+            this.targetRate = targetRate;
+        }
+
+        public String toString() {
+            return (targetRate > 0.0) ? targetRate + "/s" : "1/" + interval;
+        }
+    }
+
+    /**
+     * The sampling state of a single tag.
+     */
+    private static class TagSampler {
+        private final double targetRate;
+        /**
+         * One in this many calls is logged.
+         */
+        volatile int interval;
+        /**
+         * The number of calls sampled out since the last logged call.
+         */
+        private final AtomicInteger skippedCalls = new AtomicInteger();
+        /**
+         * The start of the current rate window, and the number of calls in it. Only used for target rates.
+         */
+        private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+        private final AtomicInteger windowCalls = new AtomicInteger();
+
+        TagSampler(Rule rule) {
+            this.targetRate = rule.targetRate;
+            this.interval = rule.interval;
+        }
+
+        int sample() {
+            if (targetRate > 0.0) {
+                adjustInterval();
+            }
+            int interval = this.interval;
+            while (true) {
+                int skipped = skippedCalls.get();
+                if (skipped == 0 && interval <= 1) {
+                    //nothing to update
+                    return 1;
+                }
+                if (skipped + 1 >= interval) {
+                    //log this call, which also stands for the skipped ones
+                    if (skippedCalls.compareAndSet(skipped, 0)) {
+                        return skipped + 1;
+                    }
+                } else if (skippedCalls.compareAndSet(skipped, skipped + 1)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Once a rate window is over, sets the interval so that the call rate of the window would have resulted in
+         * the target rate. Only the thread that ends the window does this.
+         */
+        private void adjustInterval() {
+            int calls = windowCalls.incrementAndGet();
+            long start = windowStart.get();
+            long now = System.nanoTime();
+            long elapsed = now - start;
+            if (elapsed >= RATE_WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+                windowCalls.addAndGet(-calls);
+                double callRate = calls * 1e9 / elapsed;
+                interval = (int) Math.max(1.0, Math.min(Math.ceil(callRate / targetRate), Integer.MAX_VALUE));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+/**
+ * The JMX management interface of the {@link StopWatchSampler}, which lets operators change how often the
+ * StopWatches of frequently called code blocks are logged at runtime.
+ *
+ * @author Alex Devine
+ */
+public interface StopWatchSamplerMBean {
+    /**
+     * Gets the sampling rules.
+     *
+     * @return The tag prefixes that have a rule, each followed by "=1/N" for a fixed rate or "=X/s" for a target
+     *         rate.
+     */
+    String[] getRules();
+
+    /**
+     * Logs one in every N StopWatches whose tags start with the specified prefix, unless a longer prefix has its own
+     * rule.
+     *
+     * @param tagPrefix The tag prefix. The empty string matches all tags.
+     * @param interval  N, at least 1. An interval of 1 logs every StopWatch.
+     */
+    void sampleOneIn(String tagPrefix, int interval);
+
+    /**
+     * Logs about the specified number of StopWatches per second for each tag that starts with the specified prefix,
+     * unless a longer prefix has its own rule. The sampling interval of each tag is adjusted every second to the
+     * rate at which the tag was called.
+     *
+     * @param tagPrefix       The tag prefix. The empty string matches all tags.
+     * @param eventsPerSecond The number of StopWatches to log per second and tag, must be positive.
+     */
+    void sampleAtRate(String tagPrefix, double eventsPerSecond);
+
+    /**
+     * Removes the rule for a tag prefix.
+     *
+     * @param tagPrefix The tag prefix.
+     */
+    void removeRule(String tagPrefix);
+
+    /**
+     * Removes all rules, so that all StopWatches are logged.
+     */
+    void removeAllRules();
+
+    /**
+     * Gets the current sampling interval of a tag, which changes over time for tags sampled at a target rate.
+     *
+     * @param tag The StopWatch tag.
+     * @return N if one in N StopWatches with the tag is currently logged.
+     */
+    int getCurrentInterval(String tag);
+}
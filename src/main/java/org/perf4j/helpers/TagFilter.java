@@ -0,0 +1,242 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A TagFilter decides which StopWatch tags are of interest, so that StopWatches with other tags can be dropped as early
+ * as possible. When a TagFilter is set on a {@link StopWatchParser}, the tag is checked before the StopWatch is
+ * created, so rejected StopWatches are never aggregated, rolled up, formatted or charted.
+ * <p/>
+ * A tag is accepted if it matches at least one of the include patterns (or there are no include patterns) and none of
+ * the exclude patterns. Each pattern is one of:
+ * <ul>
+ * <li><tt>regex:</tt><i>expression</i> - a regular expression that must match the whole tag.
+ * <li>A glob such as <tt>db.*.select</tt>, where <tt>*</tt> matches any characters and <tt>?</tt> matches a single
+ * character. A glob whose only wildcard is a trailing <tt>*</tt>, such as <tt>db.*</tt>, is a prefix.
+ * <li>Otherwise, the exact tag.
+ * </ul>
+ * Prefixes and exact tags are stored in a trie, so checking a tag against a large set of them takes time proportional
+ * to the length of the tag. Globs and regular expressions are combined into a single precompiled Pattern. Instances
+ * of this class are immutable and thread safe.
+ *
+ * @author Alex Devine
+ */
+public class TagFilter {
+    /**
+     * The prefix that marks a pattern as a regular expression.
+     */
+    public static final String REGEX_PREFIX = "regex:";
+
+    private final PatternSet includes;
+    private final PatternSet excludes;
+
+    /**
+     * Creates a new TagFilter.
+     *
+     * @param includePatterns The patterns of the accepted tags. If null or empty, all tags that are not excluded are
+     *                        accepted.
+     * @param excludePatterns The patterns of the rejected tags, may be null.
+     * @throws java.util.regex.PatternSyntaxException
+     *          Thrown if one of the regular expressions is not valid.
+     */
+    public TagFilter(Collection<String> includePatterns, Collection<String> excludePatterns) {
+        this.includes = (includePatterns == null || includePatterns.isEmpty()) ?
+                        null :
+                        new PatternSet(includePatterns);
+        this.excludes = (excludePatterns == null || excludePatterns.isEmpty()) ?
+                        null :
+                        new PatternSet(excludePatterns);
+    }
+
+    /**
+     * Helper method splits a comma separated list of patterns, as used by the LogParser options.
+     *
+     * @param patterns The comma separated patterns, may be null.
+     * @return The list of patterns, empty if patterns is null.
+     */
+    public static List<String> splitPatterns(String patterns) {
+        if (patterns == null) {
+            return Collections.emptyList();
+        }
+        List<String> retVal = new ArrayList<String>();
+        for (String pattern : patterns.split(",")) {
+            if (pattern.trim().length() > 0) {
+                retVal.add(pattern.trim());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Determines whether a tag is accepted by this filter.
+     *
+     * @param tag The tag to check.
+     * @return true if the tag is accepted.
+     */
+    public boolean accept(String tag) {
+        return accept(tag, 0, tag.length());
+    }
+
+    /**
+     * Determines whether the tag that is a region of a larger text, such as a log line, is accepted by this filter.
+     * This avoids creating a String for tags that are rejected.
+     *
+     * @param text  The text containing the tag.
+     * @param start The index of the first character of the tag.
+     * @param end   The index after the last character of the tag.
+     * @return true if the tag is accepted.
+     */
+    public boolean accept(CharSequence text, int start, int end) {
+        return (includes == null || includes.matches(text, start, end))
+               && (excludes == null || !excludes.matches(text, start, end));
+    }
+
+    // --- Support Classes ---
+    /**
+     * A set of patterns, split into a trie of the exact tags and prefixes and a combined regex of the rest.
+     */
+    private static class PatternSet {
+        private final TrieNode trie = new TrieNode();
+        private final Pattern regex;
+
+        PatternSet(Collection<String> patterns) {
+            StringBuilder regexBuilder = new StringBuilder();
+            for (String pattern : patterns) {
+                String regexPart;
+                if (pattern.startsWith(REGEX_PREFIX)) {
+                    regexPart = pattern.substring(REGEX_PREFIX.length());
+                    //compile each expression alone so that errors point to the right pattern
+                    Pattern.compile(regexPart);
+                } else {
+                    int wildcardIndex = indexOfWildcard(pattern);
+                    if (wildcardIndex < 0) {
+                        trie.add(pattern, false);
+                        continue;
+                    } else if (wildcardIndex == pattern.length() - 1 && pattern.charAt(wildcardIndex) == '*') {
+                        trie.add(pattern.substring(0, wildcardIndex), true);
+                        continue;
+                    }
+                    regexPart = globToRegex(pattern);
+                }
+                regexBuilder.append((regexBuilder.length() == 0) ? "(?:" : "|(?:").append(regexPart).append(')');
+            }
+            regex = (regexBuilder.length() == 0) ? null : Pattern.compile(regexBuilder.toString());
+        }
+
+        boolean matches(CharSequence text, int start, int end) {
+            return trie.matches(text, start, end)
+                   || (regex != null && regex.matcher(text).region(start, end).matches());
+        }
+
+        private static int indexOfWildcard(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static String globToRegex(String glob) {
+            StringBuilder retVal = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    retVal.append(".*");
+                } else if (c == '?') {
+                    retVal.append('.');
+                } else {
+                    retVal.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return retVal.toString();
+        }
+    }
+
+    /**
+     * A node of the trie of exact tags and prefixes. The children are kept in arrays sorted by their character so that
+     * they can be binary searched.
+     */
+    private static class TrieNode {
+        private char[] childChars = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        /**
+         * True if an exact tag ends at this node.
+         */
+        private boolean exactEnd;
+        /**
+         * True if a prefix ends at this node, in which case all tags that reach this node match.
+         */
+        private boolean prefixEnd;
+
+        void add(String pattern, boolean isPrefix) {
+            TrieNode node = this;
+            for (int i = 0; i < pattern.length(); i++) {
+                node = node.getOrAddChild(pattern.charAt(i));
+            }
+            if (isPrefix) {
+                node.prefixEnd = true;
+            } else {
+                node.exactEnd = true;
+            }
+        }
+
+        boolean matches(CharSequence text, int start, int end) {
+            TrieNode node = this;
+            for (int i = start; i < end; i++) {
+                if (node.prefixEnd) {
+                    return true;
+                }
+                int childIndex = Arrays.binarySearch(node.childChars, text.charAt(i));
+                if (childIndex < 0) {
+                    return false;
+                }
+                node = node.children[childIndex];
+            }
+            return node.prefixEnd || node.exactEnd;
+        }
+
+        private TrieNode getOrAddChild(char c) {
+            int childIndex = Arrays.binarySearch(childChars, c);
+            if (childIndex >= 0) {
+                return children[childIndex];
+            }
+
+            int insertionIndex = -(childIndex + 1);
+            char[] newChildChars = new char[childChars.length + 1];
+            TrieNode[] newChildren = new TrieNode[children.length + 1];
+            System.arraycopy(childChars, 0, newChildChars, 0, insertionIndex);
+            System.arraycopy(children, 0, newChildren, 0, insertionIndex);
+            System.arraycopy(childChars, insertionIndex, newChildChars, insertionIndex + 1,
+                             childChars.length - insertionIndex);
+            System.arraycopy(children, insertionIndex, newChildren, insertionIndex + 1,
+                             children.length - insertionIndex);
+            newChildChars[insertionIndex] = c;
+            newChildren[insertionIndex] = new TrieNode();
+            childChars = newChildChars;
+            children = newChildren;
+            return newChildren[insertionIndex];
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The TimeRangeStopWatchIterator only returns the StopWatches of an underlying iterator that started in a time range.
+ * Null values of the underlying iterator, such as those returned by a {@link FollowingStopWatchLogIterator} while the
+ * log is idle, are passed through so that time slices are still closed.
+ *
+ * @author Alex Devine
+ */
+public class TimeRangeStopWatchIterator implements Iterator<StopWatch> {
+    private final Iterator<StopWatch> stopWatchIterator;
+    private final long fromTime;
+    private final long toTime;
+    /**
+     * State variable is true if nextStopWatch holds the next value to be returned, which may be null.
+     */
+    private boolean hasNextStopWatch;
+    private StopWatch nextStopWatch;
+
+    /**
+     * Creates a new TimeRangeStopWatchIterator.
+     *
+     * @param stopWatchIterator The underlying iterator.
+     * @param fromTime          The start of the time range, in milliseconds since 1970, inclusive.
+     * @param toTime            The end of the time range, in milliseconds since 1970, exclusive.
+     */
+    public TimeRangeStopWatchIterator(Iterator<StopWatch> stopWatchIterator, long fromTime, long toTime) {
+        this.stopWatchIterator = stopWatchIterator;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+    }
+
+    public boolean hasNext() {
+        while (!hasNextStopWatch && stopWatchIterator.hasNext()) {
+            StopWatch stopWatch = stopWatchIterator.next();
+            if (stopWatch == null || (stopWatch.getStartTime() >= fromTime && stopWatch.getStartTime() < toTime)) {
+                nextStopWatch = stopWatch;
+                hasNextStopWatch = true;
+            }
+        }
+        return hasNextStopWatch;
+    }
+
+    public StopWatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        StopWatch retVal = nextStopWatch;
+        nextStopWatch = null;
+        hasNextStopWatch = false;
+        return retVal;
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -20,6 +20,7 @@ import org.perf4j.LoggingStopWatch;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -332,7 +333,23 @@ public class JavaLogStopWatch extends LoggingStopWatch {
     	return this;
     }
 
+    // Just overridden to make use of covariant return types
+    public JavaLogStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
+
     // --- Helper Methods ---
+    /**
+     * Returns the name of the Logger this StopWatch uses, so that the logger rules of the
+     * {@link org.perf4j.helpers.ProfilingSwitches} apply to it.
+     *
+     * @return The logger name.
+     */
+    protected String getLoggerName() {
+        return logger.getName();
+    }
+
     /**
      * This method returns true if the logger it uses is enabled at the normalPriority level of this StopWatch.
      *
@@ -354,6 +371,19 @@ public class JavaLogStopWatch extends LoggingStopWatch {
         logger.log((exception == null) ? normalPriority : exceptionPriority, stopWatchAsString, exception);
     }
 
+    /**
+     * Overridden so that the stopQuietly and lapQuietly methods only create the stop watch string if the logger is
+     * enabled at the relevant level.
+     *
+     * @param exception An exception, if any, that was passed to the stopQuietly or lapQuietly method.
+     */
+    protected void logQuietly(Throwable exception) {
+        Level level = (exception == null) ? normalPriority : exceptionPriority;
+        if (logger.isLoggable(level)) {
+            logger.log(level, toString(), exception);
+        }
+    }
+
     // --- Static Utility Methods ---
     /**
      * This utility method provides the standard mapping between log4j level names (which Perf4J uses as the standard
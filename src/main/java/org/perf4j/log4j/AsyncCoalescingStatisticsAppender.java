@@ -25,6 +25,7 @@ import org.apache.log4j.spi.LoggingEvent;
 import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
 import org.perf4j.helpers.GenericAsyncCoalescingStatisticsAppender;
+import org.perf4j.helpers.StopWatchLogMessage;
 
 import java.util.Enumeration;
 import java.io.Flushable;
@@ -36,8 +37,12 @@ import java.io.Flushable;
  * <p/>
  * Note that any LoggingEvents which do NOT contain StopWatch objects are discarded. Also, this appender stores logged
  * messages in a bounded buffer before sending those messages to downstream appenders. If the buffer becomes full then
- * subsequent logs will be discarded until the buffer has time to clear. You can access the number of discarded
- * messages using the getNumDiscardedMessages() method.
+ * subsequent logs will be handled according to the OverflowPolicy option, which by default discards them until the
+ * buffer has time to clear. You can access the number of discarded messages using the getNumDiscardedMessages()
+ * method.
+ * <p/>
+ * LoggingEvents whose message is a {@link StopWatchLogMessage} (which is what the {@link Log4JStopWatch} logs) or a
+ * StopWatch itself are queued directly, without the cost of converting the StopWatch to a String and parsing it back.
  *
  * @author Alex Devine
  */
@@ -179,6 +184,164 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
         baseImplementation.setStopWatchParserClassName(stopWatchParserClassName);
     }
 
+    /**
+     * The <b>QueueType</b> option determines the type of the internal queue used to store logged messages. The
+     * default, "ArrayBlockingQueue", is guarded by a single lock. "RingBuffer" selects a lock-free ring buffer, which
+     * scales better when many threads log StopWatches concurrently.
+     *
+     * @return The QueueType option.
+     */
+    public String getQueueType() {
+        return baseImplementation.getQueueType();
+    }
+
+    /**
+     * Sets the value of the <b>QueueType</b> option.
+     *
+     * @param queueType The new QueueType option.
+     */
+    public void setQueueType(String queueType) {
+        baseImplementation.setQueueType(queueType);
+    }
+
+    /**
+     * The <b>WaitStrategy</b> option determines how the draining thread waits for messages when the QueueType is
+     * "RingBuffer". Valid values are "BusySpin", "Yield" and "Park", the default.
+     *
+     * @return The WaitStrategy option.
+     */
+    public String getWaitStrategy() {
+        return baseImplementation.getWaitStrategy();
+    }
+
+    /**
+     * Sets the value of the <b>WaitStrategy</b> option.
+     *
+     * @param waitStrategy The new WaitStrategy option.
+     */
+    public void setWaitStrategy(String waitStrategy) {
+        baseImplementation.setWaitStrategy(waitStrategy);
+    }
+
+    /**
+     * The <b>OverflowPolicy</b> option determines what happens to a StopWatch message when the queue is full:
+     * "DropNewest", the default, discards the message, "DropOldest" discards the oldest queued message instead,
+     * "Block" waits for up to the OverflowTimeout for room in the queue, and "Inline" aggregates the StopWatch on the
+     * logging thread so that no StopWatches are lost.
+     *
+     * @return The OverflowPolicy option.
+     */
+    public String getOverflowPolicy() {
+        return baseImplementation.getOverflowPolicy();
+    }
+
+    /**
+     * Sets the value of the <b>OverflowPolicy</b> option.
+     *
+     * @param overflowPolicy The new OverflowPolicy option.
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        baseImplementation.setOverflowPolicy(overflowPolicy);
+    }
+
+    /**
+     * The <b>OverflowTimeout</b> option is the maximum time, in milliseconds, that a logging thread waits for room in
+     * the queue when the OverflowPolicy is "Block". Defaults to 100 milliseconds.
+     *
+     * @return The OverflowTimeout option.
+     */
+    public long getOverflowTimeout() {
+        return baseImplementation.getOverflowTimeout();
+    }
+
+    /**
+     * Sets the value of the <b>OverflowTimeout</b> option.
+     *
+     * @param overflowTimeout The new OverflowTimeout option, in milliseconds.
+     */
+    public void setOverflowTimeout(long overflowTimeout) {
+        baseImplementation.setOverflowTimeout(overflowTimeout);
+    }
+
+    /**
+     * The <b>OverflowErrorInterval</b> option is the minimum time, in milliseconds, between two errors reported
+     * because the queue was full. Defaults to 10,000 milliseconds.
+     *
+     * @return The OverflowErrorInterval option.
+     */
+    public long getOverflowErrorInterval() {
+        return baseImplementation.getOverflowErrorInterval();
+    }
+
+    /**
+     * Sets the value of the <b>OverflowErrorInterval</b> option.
+     *
+     * @param overflowErrorInterval The new OverflowErrorInterval option, in milliseconds.
+     */
+    public void setOverflowErrorInterval(long overflowErrorInterval) {
+        baseImplementation.setOverflowErrorInterval(overflowErrorInterval);
+    }
+
+    /**
+     * The <b>AggregationThreads</b> option determines how many threads aggregate the logged StopWatches into
+     * statistics. Defaults to 1. If greater than 1, StopWatches are sharded by tag over the aggregation threads,
+     * which produces identical statistics but lets a very high rate of StopWatches be handled.
+     *
+     * @return The AggregationThreads option.
+     */
+    public int getAggregationThreads() {
+        return baseImplementation.getAggregationThreads();
+    }
+
+    /**
+     * Sets the value of the <b>AggregationThreads</b> option.
+     *
+     * @param aggregationThreads The new AggregationThreads option.
+     */
+    public void setAggregationThreads(int aggregationThreads) {
+        baseImplementation.setAggregationThreads(aggregationThreads);
+    }
+
+    /**
+     * The <b>TimeUnit</b> option determines the unit of the time values in the GroupedTimingStatistics created by this
+     * appender. It may be one of ns, us, ms or s, and defaults to ms. Set this to us or ns if you log StopWatches with
+     * a finer precision than milliseconds.
+     *
+     * @return The TimeUnit option.
+     */
+    public String getTimeUnit() {
+        return baseImplementation.getTimeUnit();
+    }
+
+    /**
+     * Sets the value of the <b>TimeUnit</b> option.
+     *
+     * @param timeUnit The new TimeUnit option.
+     */
+    public void setTimeUnit(String timeUnit) {
+        baseImplementation.setTimeUnit(timeUnit);
+    }
+
+    /**
+     * The <b>HistogramPrecision</b> option, if greater than 0, causes the created statistics to track histograms with
+     * the specified number of significant digits (from 1 to 3), which makes percentiles such as P99 available in the
+     * downstream appenders. Defaults to 0, i.e. no percentiles.
+     *
+     * @return The HistogramPrecision option.
+     */
+    public int getHistogramPrecision() {
+        return baseImplementation.getHistogramPrecision();
+    }
+
+    /**
+     * Sets the value of the <b>HistogramPrecision</b> option.
+     *
+     * @param histogramPrecision The new HistogramPrecision option.
+     */
+    public void setHistogramPrecision(int histogramPrecision) {
+        baseImplementation.setHistogramPrecision(histogramPrecision);
+    }
+
     public void setName(String name) {
         super.setName(name);
         baseImplementation.setName(name);
@@ -236,6 +399,36 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
         return baseImplementation.getNumDiscardedMessages();
     }
 
+    /**
+     * Returns the number of queued StopWatch messages that were discarded to make room for newer messages because the
+     * OverflowPolicy is "DropOldest".
+     *
+     * @return The number of evicted messages.
+     */
+    public int getNumEvictedMessages() {
+        return baseImplementation.getNumEvictedMessages();
+    }
+
+    /**
+     * Returns the number of StopWatch messages that were discarded because the OverflowPolicy is "Block" and no room
+     * became available in the queue in time.
+     *
+     * @return The number of timed out messages.
+     */
+    public int getNumTimedOutMessages() {
+        return baseImplementation.getNumTimedOutMessages();
+    }
+
+    /**
+     * Returns the number of StopWatch messages that were aggregated on the logging thread because the OverflowPolicy
+     * is "Inline".
+     *
+     * @return The number of messages aggregated inline.
+     */
+    public int getNumInlineMessages() {
+        return baseImplementation.getNumInlineMessages();
+    }
+
     // --- appender attachable methods ---
 
     public void addAppender(Appender appender) {
@@ -282,7 +475,16 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
 
     // --- appender methods ---
     protected void append(LoggingEvent event) {
-        baseImplementation.append(String.valueOf(event.getMessage()));
+        Object message = event.getMessage();
+        if (message instanceof StopWatchLogMessage) {
+            //fast path - the StopWatch is already available so there is no need to format and parse it
+            baseImplementation.append(((StopWatchLogMessage) message).getStopWatch());
+        } else if (message instanceof StopWatch) {
+            //clone as we're processing async and the stopwatch might be restarted
+            baseImplementation.append(((StopWatch) message).clone());
+        } else {
+            baseImplementation.append(String.valueOf(message));
+        }
     }
 
     public boolean requiresLayout() {
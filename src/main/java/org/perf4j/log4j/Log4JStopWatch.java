@@ -18,10 +18,12 @@ package org.perf4j.log4j;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.perf4j.LoggingStopWatch;
+import org.perf4j.helpers.StopWatchLogMessage;
 
 /**
  * This LoggingStopWatch uses a log4j Logger to persist the StopWatch messages. The various constructors allow you
@@ -331,7 +333,23 @@ public class Log4JStopWatch extends LoggingStopWatch {
     	return this;
     }
 
+    // Just overridden to make use of covariant return types
+    public Log4JStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
+
     // --- Helper Methods ---
+    /**
+     * Returns the name of the Logger this StopWatch uses, so that the logger rules of the
+     * {@link org.perf4j.helpers.ProfilingSwitches} apply to it.
+     *
+     * @return The logger name.
+     */
+    protected String getLoggerName() {
+        return logger.getName();
+    }
+
     /**
      * This method returns true if the logger it uses is enabled at the normalPriority level of this StopWatch.
      *
@@ -343,14 +361,35 @@ public class Log4JStopWatch extends LoggingStopWatch {
     }
 
     /**
-     * The log message is overridden to use the log4j Logger to persist the stop watch.
+     * The log message is overridden to use the log4j Logger to persist the stop watch. While an
+     * {@link AsyncCoalescingStatisticsAppender} is started, the message object passed to log4j is a
+     * {@link StopWatchLogMessage}, which renders as the stop watch string but also allows the appender to read the
+     * StopWatch without parsing the string. Otherwise the string itself is logged.
      *
      * @param stopWatchAsString The stringified view of the stop watch for logging.
      * @param exception         An exception, if any, that was passed to the stop or lap method. If this is null then
      *                          logging will occur at normalPriority, if non-null it will occur at exceptionPriority.
      */
     protected void log(String stopWatchAsString, Throwable exception) {
-        logger.log((exception == null) ? normalPriority : exceptionPriority, stopWatchAsString, exception);
+        logger.log((exception == null) ? normalPriority : exceptionPriority,
+                   StopWatchLogMessage.hasConsumers() ?
+                   new StopWatchLogMessage(this, stopWatchAsString) : stopWatchAsString,
+                   exception);
+    }
+
+    /**
+     * Overridden so that the stopQuietly and lapQuietly methods only log if the logger is enabled at the relevant
+     * level. A StopWatchLogMessage is passed to log4j without a string, so the stop watch string is only created if
+     * a layout actually renders the message.
+     *
+     * @param exception An exception, if any, that was passed to the stopQuietly or lapQuietly method.
+     */
+    protected void logQuietly(Throwable exception) {
+        Level level = (exception == null) ? normalPriority : exceptionPriority;
+        if (logger.isEnabledFor(level)) {
+            logger.log(level, StopWatchLogMessage.hasConsumers() ? new StopWatchLogMessage(this) : toString(),
+                       exception);
+        }
     }
 
     // --- Object Methods ---
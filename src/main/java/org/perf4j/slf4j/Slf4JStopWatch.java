@@ -18,8 +18,10 @@ package org.perf4j.slf4j;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
 
 import org.perf4j.LoggingStopWatch;
+import org.perf4j.helpers.StopWatchLogMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -355,7 +357,22 @@ public class Slf4JStopWatch extends LoggingStopWatch {
     	return this;
     }
 
+    // Just overridden to make use of covariant return types
+    public Slf4JStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
+
     // --- Helper Methods ---
+    /**
+     * Returns the name of the Logger this StopWatch uses, so that the logger rules of the
+     * {@link org.perf4j.helpers.ProfilingSwitches} apply to it.
+     *
+     * @return The logger name.
+     */
+    protected String getLoggerName() {
+        return logger.getName();
+    }
 
     /**
      * This method returns true if the Logger it uses is enabled at the normalPriority level of this StopWatch.
@@ -368,14 +385,43 @@ public class Slf4JStopWatch extends LoggingStopWatch {
     }
 
     /**
-     * The log message is overridden to use the Apache Commons Logging Logger to persist the stop watch.
+     * The log message is overridden to use the SLF4J Logger to persist the stop watch. If no exception was passed
+     * and an {@link org.perf4j.logback.AsyncCoalescingStatisticsAppender} is started, the stop watch is logged as the
+     * single argument of a "{}" message, so that the appender can read the StopWatch without parsing the string.
      *
      * @param stopWatchAsString The stringified view of the stop watch for logging.
      * @param exception         An exception, if any, that was passed to the stop or lap method. If this is null then
      *                          logging will occur at normalPriority, if non-null it will occur at exceptionPriority.
      */
     protected void log(String stopWatchAsString, Throwable exception) {
-        log(stopWatchAsString, exception, (exception == null) ? normalPriority : exceptionPriority);
+        if (exception == null && StopWatchLogMessage.hasConsumers()) {
+            log(new StopWatchLogMessage(this, stopWatchAsString), normalPriority);
+        } else if (exception == null) {
+            log(stopWatchAsString, null, normalPriority);
+        } else {
+            log(stopWatchAsString, exception, exceptionPriority);
+        }
+    }
+
+    /**
+     * Overridden so that the stopQuietly and lapQuietly methods only log if the Logger is enabled at the relevant
+     * level. If no exception was passed a StopWatchLogMessage is logged without a string, so the stop watch string
+     * is only created if the message is actually rendered.
+     *
+     * @param exception An exception, if any, that was passed to the stopQuietly or lapQuietly method.
+     */
+    protected void logQuietly(Throwable exception) {
+        if (exception == null) {
+            if (isLogging(normalPriority)) {
+                if (StopWatchLogMessage.hasConsumers()) {
+                    log(new StopWatchLogMessage(this), normalPriority);
+                } else {
+                    log(toString(), null, normalPriority);
+                }
+            }
+        } else if (isLogging(exceptionPriority)) {
+            log(toString(), exception, exceptionPriority);
+        }
     }
 
     /**
@@ -438,6 +484,38 @@ public class Slf4JStopWatch extends LoggingStopWatch {
         }
     }
 
+    /**
+     * Logs the specified StopWatchLogMessage as the argument of a "{}" message, mapping the atLevel parameter to one
+     * of the <tt>trace()</tt>, <tt>debug()</tt>, <tt>info()</tt>, <tt>warn()</tt> or <tt>error()</tt> methods on the
+     * Logger.
+     *
+     * @param stopWatchMessage The message wrapping the stop watch being logged.
+     * @param atLevel          The level at which logging should occur.
+     */
+    protected void log(StopWatchLogMessage stopWatchMessage, int atLevel) {
+        switch (atLevel) {
+        case TRACE_LEVEL:
+            logger.trace("{}", stopWatchMessage);
+            break;
+        case DEBUG_LEVEL:
+            logger.debug("{}", stopWatchMessage);
+            break;
+        case INFO_LEVEL:
+            logger.info("{}", stopWatchMessage);
+            break;
+        case WARN_LEVEL:
+            logger.warn("{}", stopWatchMessage);
+            break;
+        case ERROR_LEVEL:
+            logger.error("{}", stopWatchMessage);
+            break;
+        default:
+            // if here it means the level was set to a non-standard value.
+            // Only expend the time to find the closest known level if we need to.
+            log(stopWatchMessage, closestKnownLevel(atLevel));
+        }
+    }
+
     private int closestKnownLevel(int level) {
         if (level <= TRACE_LEVEL) {
             return TRACE_LEVEL;
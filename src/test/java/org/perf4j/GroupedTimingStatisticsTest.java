@@ -0,0 +1,181 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j;
+
+import junit.framework.TestCase;
+import org.perf4j.helpers.GroupingStatisticsIterator;
+import org.perf4j.helpers.LogLinearHistogram;
+import org.perf4j.helpers.ReslicingStatisticsIterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests merging TimingStatistics and GroupedTimingStatistics.
+ */
+public class GroupedTimingStatisticsTest extends TestCase {
+
+    public void testTimingStatisticsMerge() throws Exception {
+        Random random = new Random(7L);
+        TimingStatistics all = new TimingStatistics();
+        all.setHistogram(new LogLinearHistogram(2));
+        TimingStatistics first = new TimingStatistics();
+        first.setHistogram(new LogLinearHistogram(2));
+        TimingStatistics second = new TimingStatistics();
+        second.setHistogram(new LogLinearHistogram(2));
+        for (int i = 0; i < 1000; i++) {
+            long sampleTime = random.nextInt(1000) + (i < 300 ? 0 : 5000);
+            all.addSampleTime(sampleTime);
+            (i < 300 ? first : second).addSampleTime(sampleTime);
+        }
+
+        TimingStatistics merged = first.clone().merge(second);
+        assertStatisticsEqual(all, merged);
+        assertEquals(all.getHistogram(), merged.getHistogram());
+        assertEquals(all.getPercentile(99.0), merged.getPercentile(99.0));
+        //the merged statistics were not modified
+        assertEquals(700, second.getCount());
+
+        //merging with empty statistics changes nothing
+        assertStatisticsEqual(all, new TimingStatistics().merge(all));
+        assertStatisticsEqual(all, all.clone().merge(new TimingStatistics()));
+
+        //if only one has a histogram the percentiles are unknown
+        TimingStatistics withoutHistogram = new TimingStatistics().addSampleTime(10L);
+        assertNull(all.clone().merge(withoutHistogram).getHistogram());
+
+        try {
+            TimingStatistics otherPrecision = new TimingStatistics();
+            otherPrecision.setHistogram(new LogLinearHistogram(3));
+            all.clone().merge(otherPrecision.addSampleTime(10L));
+            fail("Histograms with different precisions can't be merged");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testCallCounts() throws Exception {
+        TimingStatistics repeated = new TimingStatistics();
+        repeated.setHistogram(new LogLinearHistogram(2));
+        TimingStatistics weighted = new TimingStatistics();
+        weighted.setHistogram(new LogLinearHistogram(2));
+        for (long sampleTime : new long[] {10L, 500L, 20L}) {
+            for (int i = 0; i < sampleTime; i++) {
+                repeated.addSampleTime(sampleTime);
+            }
+            weighted.addSampleTime(sampleTime, (int) sampleTime);
+        }
+        assertStatisticsEqual(repeated, weighted);
+        assertEquals(repeated.getHistogram(), weighted.getHistogram());
+
+        //a sampled StopWatch counts once for each call it stands for
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.setCreateRollupStatistics(true);
+        statistics.addStopWatch(new StopWatch(0L, 10L, "a.x", null).setCallCount(100));
+        statistics.addStopWatch(new StopWatch(0L, 30L, "a.x", null));
+        assertEquals(101, statistics.getStatisticsByTag().get("a.x").getCount());
+        assertEquals(101, statistics.getStatisticsByTag().get("a").getCount());
+        assertEquals(1030.0 / 101, statistics.getStatisticsByTag().get("a").getMean(), 0.0001);
+    }
+
+    public void testGroupedTimingStatisticsMerge() throws Exception {
+        GroupedTimingStatistics first = new GroupedTimingStatistics();
+        first.setCreateRollupStatistics(true);
+        first.addStopWatch(new StopWatch(0L, 10L, "a.x", null));
+        first.addStopWatch(new StopWatch(0L, 20L, "a.y", null));
+        first.setStartTime(1000L);
+        first.setStopTime(2000L);
+
+        GroupedTimingStatistics second = new GroupedTimingStatistics();
+        second.setCreateRollupStatistics(true);
+        second.addStopWatch(new StopWatch(0L, 30L, "a.x", null));
+        second.addStopWatch(new StopWatch(0L, 40L, "b", null));
+        second.setStartTime(2000L);
+        second.setStopTime(3000L);
+
+        GroupedTimingStatistics merged = first.clone().merge(second);
+        assertEquals(1000L, merged.getStartTime());
+        assertEquals(3000L, merged.getStopTime());
+        assertEquals("[a, a.x, a.y, b]", merged.getTags().toString());
+        assertEquals(3, merged.getStatisticsByTag().get("a").getCount());
+        assertEquals(20.0, merged.getStatisticsByTag().get("a").getMean());
+        assertEquals(2, merged.getStatisticsByTag().get("a.x").getCount());
+        assertEquals(30L, merged.getStatisticsByTag().get("a.x").getMax());
+        //tags only in the other statistics are copied, not shared
+        assertNotSame(second.getStatisticsByTag().get("b"), merged.getStatisticsByTag().get("b"));
+
+        //an unset window is replaced
+        GroupedTimingStatistics empty = new GroupedTimingStatistics();
+        assertEquals(2000L, empty.merge(second).getStartTime());
+
+        try {
+            GroupedTimingStatistics micros = new GroupedTimingStatistics();
+            micros.setTimeUnit(TimeUnit.MICROSECONDS);
+            micros.merge(first);
+            fail("Statistics in different time units can't be merged");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testReslicing() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        Random random = new Random(11L);
+        for (long startTime = 600000L; startTime < 1800000L; startTime += random.nextInt(500)) {
+            stopWatches.add(new StopWatch(startTime, random.nextInt(1000), "tag" + random.nextInt(3) + ".sub", null));
+        }
+
+        //grouping directly into 5 minute slices must be the same as merging 30 second slices
+        List<GroupedTimingStatistics> expected = new ArrayList<GroupedTimingStatistics>();
+        for (GroupingStatisticsIterator iter = new GroupingStatisticsIterator(stopWatches.iterator(), 300000L, true);
+             iter.hasNext();) {
+            expected.add(iter.next());
+        }
+        List<GroupedTimingStatistics> actual = new ArrayList<GroupedTimingStatistics>();
+        for (ReslicingStatisticsIterator iter = new ReslicingStatisticsIterator(
+                new GroupingStatisticsIterator(stopWatches.iterator(), 30000L, true), 300000L);
+             iter.hasNext();) {
+            actual.add(iter.next());
+        }
+
+        assertEquals(4, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getStartTime(), actual.get(i).getStartTime());
+            assertEquals(expected.get(i).getStopTime(), actual.get(i).getStopTime());
+            assertEquals(expected.get(i).getTags(), actual.get(i).getTags());
+            for (Map.Entry<String, TimingStatistics> tagAndStats :
+                    expected.get(i).getStatisticsByTag().entrySet()) {
+                assertStatisticsEqual(tagAndStats.getValue(),
+                                      actual.get(i).getStatisticsByTag().get(tagAndStats.getKey()));
+            }
+        }
+
+        assertFalse(new ReslicingStatisticsIterator(new ArrayList<GroupedTimingStatistics>().iterator(), 1000L)
+                .hasNext());
+    }
+
+    private void assertStatisticsEqual(TimingStatistics expected, TimingStatistics actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getMean(), actual.getMean(), 0.000001);
+        assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(), 0.000001);
+    }
+}
@@ -16,8 +16,12 @@
 package org.perf4j;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Test the LogParser class, as well as the StopWatchLogIterator class and main method.
@@ -73,6 +77,23 @@ public class LogParserTest extends TimingTestCase {
                        fakeOut.toString().indexOf("\"tag3\",") >= 0);
             fakeOut.reset();
 
+            //memory mapped log file must give the same output
+            realOut.println("-- Memory mapped file in -> Std out Test --");
+            LogParser.runMain(new String[]{"./target/logParserTest.log"});
+            String textOut = fakeOut.toString();
+            fakeOut.reset();
+            assertEquals(0, LogParser.runMain(new String[]{"--mmap", "./target/logParserTest.log"}));
+            realOut.println(fakeOut.toString());
+            assertEquals(textOut, fakeOut.toString());
+            fakeOut.reset();
+
+            //parallel parsing must also give the same output
+            realOut.println("-- Parallel file in -> Std out Test --");
+            assertEquals(0, LogParser.runMain(new String[]{"--threads", "4", "./target/logParserTest.log"}));
+            realOut.println(fakeOut.toString());
+            assertEquals(textOut, fakeOut.toString());
+            fakeOut.reset();
+
             //log from file, write to file
             realOut.println("-- File in -> File out Test --");
             LogParser.runMain(new String[]{"-o", "./target/statistics.out", "./target/logParserTest.log"});
@@ -115,4 +136,205 @@ public class LogParserTest extends TimingTestCase {
             System.setOut(realOut);
         }
     }
+
+    public void testMultipleLogFiles() throws Exception {
+        PrintStream realOut = System.out;
+        ByteArrayOutputStream fakeOut = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(fakeOut, true));
+        try {
+            FileUtils.writeStringToFile(new File("./target/logParserTest.log"), testLog);
+            LogParser.runMain(new String[]{"./target/logParserTest.log"});
+            String singleFileOut = fakeOut.toString();
+            fakeOut.reset();
+
+            //split the log over a plain and a gzipped file, the merged StopWatches must give the same output
+            int splitIndex = testLog.indexOf("unrelated");
+            FileUtils.writeStringToFile(new File("./target/logParserTest-1.log"), testLog.substring(0, splitIndex));
+            OutputStream gzipOut = new java.util.zip.GZIPOutputStream(
+                    new FileOutputStream("./target/logParserTest-2.log.gz"));
+            try {
+                gzipOut.write(testLog.substring(splitIndex).getBytes());
+            } finally {
+                gzipOut.close();
+            }
+
+            realOut.println("-- Multiple files in -> Std out Test --");
+            assertEquals(0, LogParser.runMain(new String[]{"./target/logParserTest-1.log",
+                                                           "./target/logParserTest-2.log.gz"}));
+            realOut.println(fakeOut.toString());
+            assertEquals(singleFileOut, fakeOut.toString());
+            fakeOut.reset();
+
+            realOut.println("-- Wildcard files in -> Std out Test --");
+            assertEquals(0, LogParser.runMain(new String[]{"./target/logParserTest-?.log*"}));
+            assertEquals(singleFileOut, fakeOut.toString());
+            fakeOut.reset();
+
+            //no matching files
+            assertEquals(1, LogParser.runMain(new String[]{"./target/noSuchLog*.log"}));
+
+            //compressed files can't be memory mapped
+            assertEquals(1, LogParser.runMain(new String[]{"--mmap", "./target/logParserTest-2.log.gz"}));
+
+            //the deprecated openInput method still opens a single, possibly compressed, input file
+            List<String> args = new ArrayList<String>(Arrays.asList("./target/logParserTest-2.log.gz"));
+            Reader reader = LogParser.openInput(args);
+            try {
+                assertEquals(testLog.substring(splitIndex), IOUtils.toString(reader));
+            } finally {
+                reader.close();
+            }
+            assertTrue(args.isEmpty());
+        } finally {
+            System.setOut(realOut);
+        }
+    }
+
+    public void testTimeRange() throws Exception {
+        PrintStream realOut = System.out;
+        ByteArrayOutputStream fakeOut = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(fakeOut, true));
+        File indexFile = new File("./target/logParserTimeRangeTest.log.p4jidx");
+        try {
+            String inRange = "start[31000] time[10] tag[b]\nstart[61000] time[20] tag[c]\n";
+            FileUtils.writeStringToFile(new File("./target/logParserInRangeTest.log"), inRange);
+            FileUtils.writeStringToFile(new File("./target/logParserTimeRangeTest.log"),
+                                        "start[1000] time[10] tag[a]\n" + inRange + "start[91000] time[30] tag[d]\n");
+            LogParser.runMain(new String[]{"./target/logParserInRangeTest.log"});
+            String inRangeOut = fakeOut.toString();
+            fakeOut.reset();
+
+            realOut.println("-- Time range -> Std out Test --");
+            assertEquals(0, LogParser.runMain(new String[]{"--from", "30000", "--to", "90000",
+                                                           "./target/logParserTimeRangeTest.log"}));
+            realOut.println(fakeOut.toString());
+            assertEquals(inRangeOut, fakeOut.toString());
+            fakeOut.reset();
+
+            //the index is built on first use and reused after that
+            indexFile.delete();
+            for (int i = 0; i < 2; i++) {
+                assertEquals(0, LogParser.runMain(new String[]{"--index", "--from", "30000", "--to", "90000",
+                                                               "./target/logParserTimeRangeTest.log"}));
+                assertEquals(inRangeOut, fakeOut.toString());
+                assertTrue(indexFile.exists());
+                fakeOut.reset();
+            }
+
+            //invalid times
+            assertEquals(1, LogParser.runMain(new String[]{"--from", "yesterday",
+                                                           "./target/logParserTimeRangeTest.log"}));
+        } finally {
+            System.setOut(realOut);
+            indexFile.delete();
+        }
+    }
+
+    public void testTagFilter() throws Exception {
+        PrintStream realOut = System.out;
+        ByteArrayOutputStream fakeOut = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(fakeOut, true));
+        try {
+            String kept = "start[1000] time[10] tag[db.select]\nstart[2000] time[20] tag[web]\n";
+            FileUtils.writeStringToFile(new File("./target/logParserKeptTagsTest.log"), kept);
+            FileUtils.writeStringToFile(new File("./target/logParserTagsTest.log"),
+                                        kept + "start[3000] time[30] tag[db.slow]\nstart[4000] time[40] tag[rpc]\n");
+            LogParser.runMain(new String[]{"-r", "./target/logParserKeptTagsTest.log"});
+            String keptOut = fakeOut.toString();
+            fakeOut.reset();
+
+            realOut.println("-- Tag filter -> Std out Test --");
+            for (String parser : new String[]{"org.perf4j.helpers.StopWatchParser",
+                                              "org.perf4j.helpers.ScanningStopWatchParser"}) {
+                assertEquals(0, LogParser.runMain(new String[]{"-r", "--tags", "db.*,web", "--exclude-tags", "db.slow",
+                                                               "-p", parser, "./target/logParserTagsTest.log"}));
+                assertEquals(keptOut, fakeOut.toString());
+                fakeOut.reset();
+
+                assertEquals(0, LogParser.runMain(new String[]{"-r", "--tags", "regex:(db|web).*",
+                                                               "--exclude-tags", "*.slow", "-p", parser, "--mmap",
+                                                               "./target/logParserTagsTest.log"}));
+                assertEquals(keptOut, fakeOut.toString());
+                fakeOut.reset();
+            }
+
+            //the tag filter must not be set on the parser passed in, which may be shared
+            org.perf4j.helpers.StopWatchParser stopWatchParser = new org.perf4j.helpers.ScanningStopWatchParser();
+            new LogParser(new File("./target/logParserTagsTest.log"), System.out, null, 30000L, true,
+                          new org.perf4j.helpers.GroupedTimingStatisticsTextFormatter(), stopWatchParser)
+                    .setTagFilter(new org.perf4j.helpers.TagFilter(java.util.Arrays.asList("db.*", "web"),
+                                                                   java.util.Arrays.asList("db.slow")))
+                    .parseLog();
+            assertEquals(keptOut, fakeOut.toString());
+            assertNull(stopWatchParser.getTagFilter());
+        } finally {
+            System.setOut(realOut);
+        }
+    }
+
+    public void testBinaryLog() throws Exception {
+        PrintStream realOut = System.out;
+        ByteArrayOutputStream fakeOut = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(fakeOut, true));
+        try {
+            FileUtils.writeStringToFile(new File("./target/logParserTest.log"), testLog);
+            LogParser.runMain(new String[]{"-r", "./target/logParserTest.log"});
+            String textOut = fakeOut.toString();
+            fakeOut.reset();
+
+            org.perf4j.helpers.BinaryStopWatchLogWriter writer = new org.perf4j.helpers.BinaryStopWatchLogWriter(
+                    new FileOutputStream("./target/logParserTest.p4jb"));
+            try {
+                for (StopWatch stopWatch : testStopWatches) {
+                    writer.write(stopWatch);
+                }
+            } finally {
+                writer.close();
+            }
+
+            realOut.println("-- Binary file in -> Std out Test --");
+            assertEquals(0, LogParser.runMain(new String[]{"-r", "./target/logParserTest.p4jb"}));
+            realOut.println(fakeOut.toString());
+            assertEquals(textOut, fakeOut.toString());
+            fakeOut.reset();
+
+            //binary files can't be memory mapped
+            assertEquals(1, LogParser.runMain(new String[]{"--mmap", "./target/logParserTest.p4jb"}));
+        } finally {
+            System.setOut(realOut);
+        }
+    }
+
+    public void testStatisticsStore() throws Exception {
+        PrintStream realOut = System.out;
+        ByteArrayOutputStream fakeOut = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(fakeOut, true));
+        File storeDirectory = new File("./target/logParserStore");
+        FileUtils.deleteDirectory(storeDirectory);
+        try {
+            FileUtils.writeStringToFile(new File("./target/logParserStoreTest.log"),
+                                        "start[1000] time[10] tag[a]\nstart[2000] time[20] tag[b]\n" +
+                                        "start[31000] time[30] tag[a]\n");
+
+            realOut.println("-- Statistics store Test --");
+            assertEquals(0, LogParser.runMain(new String[]{"--percentiles", "2", "--store", storeDirectory.getPath(),
+                                                           "./target/logParserStoreTest.log"}));
+            //a second run adds to the statistics of the first one
+            assertEquals(0, LogParser.runMain(new String[]{"--percentiles", "2", "--store", storeDirectory.getPath(),
+                                                           "./target/logParserStoreTest.log"}));
+
+            org.perf4j.helpers.StatisticsStore store = new org.perf4j.helpers.StatisticsStore(storeDirectory);
+            try {
+                GroupedTimingStatistics statistics = store.query(java.util.Collections.singleton("a"), 0L, 60000L);
+                assertEquals(4, statistics.getStatisticsByTag().get("a").getCount());
+                assertEquals(30L, statistics.getStatisticsByTag().get("a").getPercentile(99));
+                assertNull(statistics.getStatisticsByTag().get("b"));
+            } finally {
+                store.close();
+            }
+        } finally {
+            System.setOut(realOut);
+            FileUtils.deleteDirectory(storeDirectory);
+        }
+    }
 }
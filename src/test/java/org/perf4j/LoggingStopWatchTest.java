@@ -17,6 +17,8 @@ package org.perf4j;
 
 import junit.framework.TestCase;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.perf4j.helpers.ProfilingSwitches;
+import org.perf4j.helpers.StopWatchSampler;
 
 import java.io.ByteArrayInputStream;
 import java.io.ObjectInputStream;
@@ -95,6 +97,28 @@ public class LoggingStopWatchTest extends TestCase {
         stopWatch.lap("new", "mar", new Exception("rue"));
         checkExpectedLogWritten("tag[new] message[mar]", "java.lang.Exception: rue");
 
+        //the quiet methods should log the same way, they just don't return the StopWatch string
+        stopWatch.stopQuietly();
+        checkExpectedLogWritten("tag[new] message[mar]");
+        stopWatch.stopQuietly("quiet");
+        checkExpectedLogWritten("tag[quiet]");
+        stopWatch.stopQuietly("hush", "shh");
+        checkExpectedLogWritten("tag[hush] message[shh]");
+        stopWatch.stopQuietly(new Exception("zap"));
+        checkExpectedLogWritten("tag[hush] message[shh]", "java.lang.Exception: zap");
+        stopWatch.stopQuietly("calm", new Exception("zip"));
+        checkExpectedLogWritten("tag[calm]", "java.lang.Exception: zip");
+        stopWatch.stopQuietly("mute", "mum", new Exception("zop"));
+        checkExpectedLogWritten("tag[mute] message[mum]", "java.lang.Exception: zop");
+        stopWatch.lapQuietly("still");
+        checkExpectedLogWritten("tag[still]");
+        stopWatch.lapQuietly("quiet", "lap");
+        checkExpectedLogWritten("tag[quiet] message[lap]");
+        stopWatch.lapQuietly("silent", new Exception("zup"));
+        checkExpectedLogWritten("tag[silent]", "java.lang.Exception: zup");
+        stopWatch.lapQuietly("hushed", "tone", new Exception("zep"));
+        checkExpectedLogWritten("tag[hushed] message[tone]", "java.lang.Exception: zep");
+
         //test for PERFFORJ-30 - Add capability to set a time threshold in LoggingStopWatch and Profiled annotation
         stopWatch.stop();
         String fakeErrBefore = fakeErr.toString();
@@ -107,10 +131,79 @@ public class LoggingStopWatchTest extends TestCase {
         Thread.sleep(110);
         stopWatch.stop();
         checkExpectedLogWritten("tag[timeThresholdCheck]");
+        //the threshold applies to the quiet methods too
+        stopWatch.start();
+        stopWatch.stopQuietly();
+        assertEquals("Stopwatch log was set when it shouldn't have been", "", fakeErr.toString());
+        stopWatch.start();
+        Thread.sleep(110);
+        stopWatch.stopQuietly();
+        checkExpectedLogWritten("tag[timeThresholdCheck]");
 
         customTests();
     }
 
+    public void testProfilingSwitches() throws Exception {
+        ProfilingSwitches switches = ProfilingSwitches.getDefault();
+        try {
+            LoggingStopWatch stopWatch = createStopWatch(null, null, null, "switched.tag", null);
+            switches.disableTag("switched");
+            stopWatch.stop();
+            stopWatch.stopQuietly();
+            assertEquals("Stopwatch log was set when it shouldn't have been", "", fakeErr.toString());
+
+            //the longer prefix wins
+            switches.enableTag("switched.tag");
+            stopWatch.stopQuietly();
+            checkExpectedLogWritten("tag[switched.tag]");
+
+            if (stopWatch.getLoggerName() != null) {
+                switches.disableLogger(StopWatch.DEFAULT_LOGGER_NAME);
+                stopWatch.stopQuietly();
+                assertEquals("Stopwatch log was set when it shouldn't have been", "", fakeErr.toString());
+            }
+        } finally {
+            switches.removeAllRules();
+        }
+    }
+
+    public void testSampling() throws Exception {
+        StopWatchSampler sampler = StopWatchSampler.getDefault();
+        try {
+            sampler.sampleOneIn("sampled", 3);
+            LoggingStopWatch stopWatch = createStopWatch(null, null, null, "sampled.tag", null);
+            stopWatch.stopQuietly();
+            stopWatch.stop();
+            assertEquals("Stopwatch log was set when it shouldn't have been", "", fakeErr.toString());
+            //the third StopWatch is logged, and stands for the two that weren't
+            stopWatch.stopQuietly();
+            checkExpectedLogWritten("tag[sampled.tag] calls[3]");
+            stopWatch.stop();
+            assertEquals("Stopwatch log was set when it shouldn't have been", "", fakeErr.toString());
+            //a StopWatch that isn't logged doesn't keep the call count of the last logged one
+            assertEquals(1, stopWatch.getCallCount());
+            assertFalse(stopWatch.toString().contains("calls["));
+
+            //the same holds for quiet laps
+            stopWatch.lapQuietly("sampled.tag");
+            assertEquals("Stopwatch log was set when it shouldn't have been", "", fakeErr.toString());
+            stopWatch.lapQuietly("sampled.tag");
+            checkExpectedLogWritten("tag[sampled.tag] calls[3]");
+            stopWatch.lapQuietly("sampled.tag");
+            assertEquals("Stopwatch log was set when it shouldn't have been", "", fakeErr.toString());
+            assertEquals(1, stopWatch.getCallCount());
+
+            //slow StopWatches are always logged
+            stopWatch.setTimeThreshold(1).start();
+            Thread.sleep(10);
+            stopWatch.stop();
+            checkExpectedLogWritten("tag[sampled.tag]");
+            assertEquals(1, stopWatch.getCallCount());
+        } finally {
+            sampler.removeAllRules();
+        }
+    }
+
     /**
      * Subclasses should override this to test items specific to the subclass of LoggingStopWatch.
      */
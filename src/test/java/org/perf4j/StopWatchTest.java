@@ -17,6 +17,8 @@ package org.perf4j;
 
 import junit.framework.TestCase;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests the StopWatch
  */
@@ -102,4 +104,36 @@ public class StopWatchTest extends TestCase {
         clone.setTag("foo");
         assertFalse(stopWatch.equals(clone));
     }
+
+    public void testTimeUnits() throws Exception {
+        StopWatch stopWatch = new StopWatch("tag");
+        assertEquals(TimeUnit.MILLISECONDS, stopWatch.getTimeUnit());
+
+        //a StopWatch timed in microseconds writes the unit marker in the time
+        stopWatch.setTimeUnit(TimeUnit.MICROSECONDS).start();
+        Thread.sleep(5);
+        String stopMessage = stopWatch.stop();
+        long elapsedTime = stopWatch.getElapsedTime();
+        assertTrue("Elapsed time " + elapsedTime + " not in microseconds", elapsedTime >= 5000L);
+        assertEquals("start[" + stopWatch.getStartTime() + "] time[" + elapsedTime + "us] tag[tag]", stopMessage);
+        assertEquals(elapsedTime / 1000L, stopWatch.getElapsedTime(TimeUnit.MILLISECONDS));
+        assertEquals(elapsedTime * 1000L, stopWatch.getElapsedTime(TimeUnit.NANOSECONDS));
+
+        //changing the unit of a stopped StopWatch converts the elapsed time
+        stopWatch.setTimeUnit(TimeUnit.NANOSECONDS);
+        assertEquals(elapsedTime * 1000L, stopWatch.getElapsedTime());
+        assertTrue(stopWatch.toString().indexOf("ns] tag[tag]") >= 0);
+
+        //milliseconds are written without a marker
+        stopWatch = new StopWatch(0L, 1500L, TimeUnit.MICROSECONDS, "tag", "message");
+        assertEquals("start[0] time[1500us] tag[tag] message[message]", stopWatch.toString());
+        assertEquals("start[0] time[1] tag[tag] message[message]",
+                     stopWatch.setTimeUnit(TimeUnit.MILLISECONDS).toString());
+
+        //StopWatches with the same elapsed time value but different units are not equal
+        assertFalse(new StopWatch(0L, 10L, TimeUnit.MICROSECONDS, "tag", null)
+                .equals(new StopWatch(0L, 10L, TimeUnit.NANOSECONDS, "tag", null)));
+        assertEquals(new StopWatch(0L, 10L, "tag", null),
+                     new StopWatch(0L, 10L, TimeUnit.MILLISECONDS, "tag", null));
+    }
 }
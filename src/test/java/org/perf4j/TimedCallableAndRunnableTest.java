@@ -55,6 +55,52 @@ public class TimedCallableAndRunnableTest extends TestCase {
         assertEquals(elapsedTime, timedCallable.getStopWatch().getElapsedTime());
     }
 
+    public void testSubclassOverridesAreCalled() throws Exception {
+        final StringBuilder stopped = new StringBuilder();
+        LoggingStopWatch stopWatch = new LoggingStopWatch("overridden") {
+            public String stop() {
+                String retVal = super.stop();
+                stopped.append(retVal);
+                return retVal;
+            }
+        };
+
+        new TimedRunnable(new TestTask(), stopWatch).run();
+        assertTrue(stopped.toString(), stopped.indexOf("tag[overridden]") >= 0);
+    }
+
+    public void testStopWatchStringNotCreatedBelowThreshold() throws Exception {
+        CountingStopWatch stopWatch = new CountingStopWatch();
+        stopWatch.setTimeThreshold(60000L);
+        assertTrue(stopWatch.isStopQuietlySupported());
+
+        new TimedRunnable(new TestTask(), stopWatch).run();
+        new TimedCallable<Long>(new TestTask(), stopWatch).call();
+        assertEquals(0, stopWatch.toStringCount);
+
+        //a subclass that only overrides log must still be stopped with stop, so that its log method is called
+        LoggingStopWatch logOverridden = new LoggingStopWatch() {
+            protected void log(String stopWatchAsString, Throwable exception) { }
+        };
+        assertFalse(logOverridden.isStopQuietlySupported());
+        LoggingStopWatch logAndLogQuietlyOverridden = new LoggingStopWatch() {
+            protected void log(String stopWatchAsString, Throwable exception) { }
+
+            protected void logQuietly(Throwable exception) { }
+        };
+        assertTrue(logAndLogQuietlyOverridden.isStopQuietlySupported());
+    }
+
+    @SuppressWarnings("serial")
+    public static class CountingStopWatch extends LoggingStopWatch {
+        public int toStringCount = 0;
+
+        public String toString() {
+            toStringCount++;
+            return super.toString();
+        }
+    }
+
     public static class TestTask implements Runnable, Callable<Long>, Serializable {
         public boolean wasRun = false;
 
@@ -0,0 +1,219 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import junit.framework.TestCase;
+import org.perf4j.LoggingStopWatch;
+import org.perf4j.helpers.ProfilingSwitches;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests the evaluation of Profiled tags and messages by the AgnosticTimingAspect.
+ */
+public class AgnosticTimingAspectTest extends TestCase {
+    private AgnosticTimingAspect aspect = new AgnosticTimingAspect();
+
+    public void testConstantTagAndMessage() throws Exception {
+        Profiled profiled = getProfiled("simpleTestWithMessage", Long.TYPE);
+        TestJoinPoint joinPoint = new TestJoinPoint("simpleTestWithMessage", 5L);
+        assertEquals("simpleWithMessage", aspect.getStopWatchTag(profiled, joinPoint, null, null));
+        assertEquals("message", aspect.getStopWatchMessage(profiled, joinPoint, null, null));
+
+        profiled = getProfiled("simpleTestDefaultTag", Long.TYPE);
+        joinPoint = new TestJoinPoint("simpleTestDefaultTag", 5L);
+        assertEquals("simpleTestDefaultTag", aspect.getStopWatchTag(profiled, joinPoint, null, null));
+        assertNull(aspect.getStopWatchMessage(profiled, joinPoint, null, null));
+        //no template was evaluated, so no variables were fetched from the join point
+        assertEquals(0, joinPoint.variablesFetched);
+    }
+
+    public void testTemplates() throws Exception {
+        Profiled profiled = getProfiled("simpleTestWithJexlTagAndMessage", Long.TYPE, ProfiledObject.SimpleBean.class);
+        for (int i = 0; i < 3; i++) {
+            TestJoinPoint joinPoint = new TestJoinPoint("simpleTestWithJexlTagAndMessage",
+                                                        (long) i, new ProfiledObject.SimpleBean("bob", i));
+            assertEquals("expressionTest_" + i + "_bob_" + i,
+                         aspect.getStopWatchTag(profiled, joinPoint, null, null));
+            assertEquals("message_" + i + "_bob_" + i,
+                         aspect.getStopWatchMessage(profiled, joinPoint, null, null));
+            //only the parameters are referenced
+            assertEquals(2, joinPoint.variablesFetched);
+        }
+
+        profiled = getProfiled("simpleTestWithJexlTagAndMessageClassMethod",
+                               Long.TYPE, ProfiledObject.SimpleBean.class);
+        TestJoinPoint joinPoint = new TestJoinPoint("simpleTestWithJexlTagAndMessageClassMethod",
+                                                    5L, new ProfiledObject.SimpleBean("bob", 3));
+        assertEquals("expressionTest_" + ProfiledObject.class.getName() + "#simpleTestWithJexlTagAndMessageClassMethod",
+                     aspect.getStopWatchTag(profiled, joinPoint, null, null));
+        assertEquals("message_simpleTestWithJexlTagAndMessageClassMethod(5,bob_3)",
+                     aspect.getStopWatchMessage(profiled, joinPoint, null, null));
+
+        profiled = getProfiled("simpleTestWithJexlException", Long.TYPE);
+        joinPoint = new TestJoinPoint("simpleTestWithJexlException", 5L);
+        Exception exception = new Exception("failure");
+        assertEquals("expressionTest_null", aspect.getStopWatchTag(profiled, joinPoint, null, exception));
+        assertEquals("message: 5, exception: " + exception,
+                     aspect.getStopWatchMessage(profiled, joinPoint, null, exception));
+    }
+
+    public void testEvaluateJexl() throws Exception {
+        Object[] args = {"arg0", "arg1"};
+        assertEquals("plain", aspect.evaluateJexl("plain", "method", args, null, Object.class, null, null));
+        assertEquals("ab_arg1", aspect.evaluateJexl("a{}b_{$1}", "method", args, null, Object.class, null, null));
+        //an unterminated expression runs to the end of the text
+        assertEquals("a_arg0", aspect.evaluateJexl("a_{$0", "method", args, null, Object.class, null, null));
+        //a parameter that doesn't exist is null
+        assertEquals("a_null_x", aspect.evaluateJexl("a_{$5}_x", "method", args, null, Object.class, null, null));
+        //values that property paths can't handle are left to JEXL
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("name", "bob");
+        assertEquals("a_bob_4", aspect.evaluateJexl("a_{$0.name}_{$1.length()}", "method",
+                                                    new Object[] {map, "arg1"}, null, Object.class, null, null));
+        assertEquals("a__EL_ERROR__method",
+                     aspect.evaluateJexl("a_{+}_{$methodName}", "method", args, null, Object.class, null, null));
+    }
+
+    public void testOverriddenEvaluateJexl() throws Exception {
+        AgnosticTimingAspect overridingAspect = new AgnosticTimingAspect() {
+            protected String evaluateJexl(String text, String methodName, Object[] args, Object annotatedObject,
+                                          Class<?> annotatedClass, Object returnValue, Throwable exceptionThrown) {
+                return "overridden_" + super.evaluateJexl(text, methodName, args, annotatedObject, annotatedClass,
+                                                          returnValue, exceptionThrown);
+            }
+        };
+        Profiled profiled = getProfiled("simpleTestWithJexlTagAndMessage", Long.TYPE, ProfiledObject.SimpleBean.class);
+        TestJoinPoint joinPoint = new TestJoinPoint("simpleTestWithJexlTagAndMessage",
+                                                    1L, new ProfiledObject.SimpleBean("bob", 1));
+        assertEquals("overridden_expressionTest_1_bob_1",
+                     overridingAspect.getStopWatchTag(profiled, joinPoint, null, null));
+        assertEquals("overridden_message_1_bob_1",
+                     overridingAspect.getStopWatchMessage(profiled, joinPoint, null, null));
+
+        //constant tags and messages are not evaluated
+        profiled = getProfiled("simpleTestWithMessage", Long.TYPE);
+        joinPoint = new TestJoinPoint("simpleTestWithMessage", 5L);
+        assertEquals("simpleWithMessage", overridingAspect.getStopWatchTag(profiled, joinPoint, null, null));
+        assertEquals("message", overridingAspect.getStopWatchMessage(profiled, joinPoint, null, null));
+    }
+
+    public void testStopWatchPrototypes() throws Exception {
+        final boolean[] logging = {true};
+        final int[] prototypesCreated = {0};
+        AgnosticTimingAspect prototypeAspect = new AgnosticTimingAspect() {
+            protected LoggingStopWatch newStopWatchPrototype(Profiled profiled) {
+                prototypesCreated[0]++;
+                return new LoggingStopWatch() {
+                    public boolean isLogging() {
+                        return logging[0];
+                    }
+                };
+            }
+        };
+        Profiled profiled = getProfiled("simpleTestWithMessage", Long.TYPE);
+
+        LoggingStopWatch stopWatch1 = prototypeAspect.newProfiledStopWatch(profiled, "simpleTestWithMessage");
+        LoggingStopWatch stopWatch2 = prototypeAspect.newProfiledStopWatch(profiled, "simpleTestWithMessage");
+        assertNotNull(stopWatch1);
+        assertNotSame(stopWatch1, stopWatch2);
+        assertEquals(1, prototypesCreated[0]);
+
+        //when the StopWatch wouldn't log, no StopWatch is created
+        logging[0] = false;
+        assertNull(prototypeAspect.newProfiledStopWatch(profiled, "simpleTestWithMessage"));
+        assertEquals(1, prototypesCreated[0]);
+
+        //after an invalidation the prototype is created again
+        AgnosticTimingAspect.invalidateLoggerCaches();
+        logging[0] = true;
+        assertNotNull(prototypeAspect.newProfiledStopWatch(profiled, "simpleTestWithMessage"));
+        assertEquals(2, prototypesCreated[0]);
+    }
+
+    public void testProfilingSwitches() throws Exception {
+        ProfilingSwitches switches = ProfilingSwitches.getDefault();
+        Profiled constantTag = getProfiled("simpleTestWithMessage", Long.TYPE);
+        Profiled defaultTag = getProfiled("simpleTestDefaultTag", Long.TYPE);
+        Profiled templateTag = getProfiled("simpleTestWithJexlTagAndMessage",
+                                           Long.TYPE, ProfiledObject.SimpleBean.class);
+        try {
+            assertNotNull(aspect.newProfiledStopWatch(constantTag, "simpleTestWithMessage"));
+
+            switches.disableTag("simpleWith");
+            assertNull(aspect.newProfiledStopWatch(constantTag, "simpleTestWithMessage"));
+            assertNotNull(aspect.newProfiledStopWatch(defaultTag, "simpleTestDefaultTag"));
+
+            //the default tag is the method name
+            switches.disableTag("simpleTestDefault");
+            assertNull(aspect.newProfiledStopWatch(defaultTag, "simpleTestDefaultTag"));
+
+            //a template tag is disabled when all the tags starting with its literal prefix are disabled
+            assertNotNull(aspect.newProfiledStopWatch(templateTag, "simpleTestWithJexlTagAndMessage"));
+            switches.disableTag("expressionTest");
+            assertNull(aspect.newProfiledStopWatch(templateTag, "simpleTestWithJexlTagAndMessage"));
+
+            switches.removeAllRules();
+            assertNotNull(aspect.newProfiledStopWatch(constantTag, "simpleTestWithMessage"));
+            assertNotNull(aspect.newProfiledStopWatch(defaultTag, "simpleTestDefaultTag"));
+            assertNotNull(aspect.newProfiledStopWatch(templateTag, "simpleTestWithJexlTagAndMessage"));
+        } finally {
+            switches.removeAllRules();
+        }
+    }
+
+    private Profiled getProfiled(String methodName, Class<?>... parameterTypes) throws Exception {
+        return ProfiledObject.class.getMethod(methodName, parameterTypes).getAnnotation(Profiled.class);
+    }
+
+    /**
+     * Join point that counts how many of the variables available to templates were fetched.
+     */
+    private static class TestJoinPoint implements AbstractJoinPoint {
+        private final String methodName;
+        private final Object[] parameters;
+        int variablesFetched = 0;
+
+        TestJoinPoint(String methodName, Object... parameters) {
+            this.methodName = methodName;
+            this.parameters = parameters;
+        }
+
+        public Object proceed() throws Throwable {
+            return null;
+        }
+
+        public Object getExecutingObject() {
+            variablesFetched++;
+            return new ProfiledObject();
+        }
+
+        public Object[] getParameters() {
+            variablesFetched++;
+            return parameters.clone();
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public Class<?> getDeclaringClass() {
+            variablesFetched++;
+            return ProfiledObject.class;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the ProfilingOverheadCalibrator.
+ */
+public class ProfilingOverheadCalibratorTest extends TestCase {
+    private ProfilingOverheadCalibrator calibrator;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        calibrator = new ProfilingOverheadCalibrator(new InMemoryTimingAspect());
+        calibrator.setIterations(1000);
+    }
+
+    public void tearDown() throws Exception {
+        InMemoryTimingAspect.logStrings.clear();
+        super.tearDown();
+    }
+
+    public void testCalibrateClass() throws Exception {
+        Map<String, ProfilingOverheadCalibrator.Calibration> calibrationsByTag =
+                new HashMap<String, ProfilingOverheadCalibrator.Calibration>();
+        List<ProfilingOverheadCalibrator.Calibration> calibrations = calibrator.calibrate(ProfiledObject.class);
+        for (ProfilingOverheadCalibrator.Calibration calibration : calibrations) {
+            calibrationsByTag.put(calibration.getTag(), calibration);
+            assertTrue(calibration.getNanosPerCall() >= 0.0);
+        }
+
+        int numProfiledMethods = 0;
+        for (Method method : ProfiledObject.class.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(Profiled.class)) {
+                numProfiledMethods++;
+            }
+        }
+        assertEquals(numProfiledMethods, calibrations.size());
+        assertTrue(calibrationsByTag.containsKey("simple"));
+        assertTrue(calibrationsByTag.containsKey("simpleTestDefaultTag"));
+        //each enabled calibration call was logged
+        assertTrue(InMemoryTimingAspect.logStrings.size() > 1000);
+    }
+
+    public void testCalibrateMethod() throws Exception {
+        Method method = ProfiledObject.class.getMethod("simpleTestWithJexlTag",
+                                                       Long.TYPE, ProfiledObject.SimpleBean.class);
+        ProfilingOverheadCalibrator.Calibration calibration =
+                calibrator.calibrate(method, new ProfiledObject(),
+                                     new Object[] {5L, new ProfiledObject.SimpleBean("bob", 3)});
+        assertEquals("expressionTest_5_bob_3", calibration.getTag());
+        assertEquals(calibration.getNanosPerCall() * 2.0, calibration.getCpuFraction(2000000000.0), 0.0001);
+        assertTrue(calibration.toString(1000000.0).startsWith("expressionTest_5_bob_3: "));
+    }
+}
@@ -0,0 +1,75 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests the PropertyPathExpression.
+ */
+public class PropertyPathExpressionTest extends TestCase {
+
+    public void testCompile() throws Exception {
+        assertEquals("0", PropertyPathExpression.compile("$0").getVariableName());
+        assertEquals("return", PropertyPathExpression.compile(" $return.size() ").getVariableName());
+        assertEquals("exception", PropertyPathExpression.compile("$exception.class.simpleName").getVariableName());
+
+        //anything else is left to JEXL
+        assertNull(PropertyPathExpression.compile("$0 + 1"));
+        assertNull(PropertyPathExpression.compile("$0.substring(1)"));
+        assertNull(PropertyPathExpression.compile("foo.bar"));
+        assertNull(PropertyPathExpression.compile("$0.name.size()()"));
+    }
+
+    public void testEvaluate() throws Exception {
+        ProfiledObject.SimpleBean bean = new ProfiledObject.SimpleBean("bob", 3);
+        assertSame(bean, PropertyPathExpression.compile("$0").evaluate(bean));
+        assertEquals("bob", PropertyPathExpression.compile("$0.name").evaluate(bean));
+        assertEquals(3, PropertyPathExpression.compile("$0.age").evaluate(bean));
+        assertEquals(3, PropertyPathExpression.compile("$0.name.length()").evaluate(bean));
+        assertEquals("IllegalStateException",
+                     PropertyPathExpression.compile("$exception.class.simpleName")
+                             .evaluate(new IllegalStateException()));
+
+        //methods are called through public interfaces when the class of the value is private
+        PropertyPathExpression size = PropertyPathExpression.compile("$return.size()");
+        assertEquals(2, size.evaluate(Collections.unmodifiableList(Arrays.asList("a", "b"))));
+        assertEquals(1, size.evaluate(Collections.singleton("a")));
+        assertEquals(2, size.evaluate(Collections.unmodifiableList(Arrays.asList("a", "b"))));
+
+        //boolean properties
+        assertEquals(Boolean.TRUE, PropertyPathExpression.compile("$0.empty").evaluate(Collections.emptyList()));
+
+        //a null value on the path gives null
+        assertNull(PropertyPathExpression.compile("$0.name.length()").evaluate(new ProfiledObject.SimpleBean(null, 3)));
+        assertNull(PropertyPathExpression.compile("$0.name").evaluate(null));
+    }
+
+    public void testUnresolved() throws Exception {
+        PropertyPathExpression name = PropertyPathExpression.compile("$0.name");
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("name", "bob");
+        assertSame(PropertyPathExpression.UNRESOLVED, name.evaluate(map));
+        //the step is resolved again for a different class
+        assertEquals("bob", name.evaluate(new ProfiledObject.SimpleBean("bob", 3)));
+        assertSame(PropertyPathExpression.UNRESOLVED, PropertyPathExpression.compile("$0.foo()").evaluate("text"));
+    }
+}
@@ -0,0 +1,145 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.beans.sinks;
+
+import org.junit.Test;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for StripedAggregatingStatisticsSink
+ *
+ * @author Thomas Buckel
+ */
+public class StripedAggregatingStatisticsSinkTest {
+
+    @Test
+    public void testStatisticsMatchGroupedTimingStatistics() throws Exception {
+        CollectingStatisticsSink collectingSink = new CollectingStatisticsSink();
+        final StripedAggregatingStatisticsSink sink =
+                new StripedAggregatingStatisticsSink(3600000L, true, collectingSink);
+        sink.setHistogramPrecision(2);
+        sink.setStripes(4);
+        sink.start();
+
+        //the expected statistics are calculated the usual way
+        final GroupedTimingStatistics expected = new GroupedTimingStatistics();
+        expected.setCreateRollupStatistics(true);
+        expected.setHistogramPrecision(2);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int threadNum = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        StopWatch stopWatch = new StopWatch(System.currentTimeMillis(),
+                                                            1000000L + (threadNum * 1000L) + (j % 100),
+                                                            "tag" + (j % 3) + ".sub" + (j % 2),
+                                                            null);
+                        sink.onTimingEvent(stopWatch, null);
+                        synchronized (expected) {
+                            expected.addStopWatch(stopWatch);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        sink.stop();
+        assertTrue(collectingSink.stopped);
+
+        //normally there is just one time slice, but if an hour boundary was crossed there could be two
+        assertTrue(!collectingSink.statistics.isEmpty() && collectingSink.statistics.size() <= 2);
+        GroupedTimingStatistics actual = collectingSink.statistics.get(collectingSink.statistics.size() - 1);
+        assertEquals(expected.getTags(), actual.getTags());
+        assertEquals(2, actual.getHistogramPrecision());
+
+        if (collectingSink.statistics.size() == 1) {
+            for (Map.Entry<String, TimingStatistics> tagAndStats : expected.getStatisticsByTag().entrySet()) {
+                TimingStatistics expectedStats = tagAndStats.getValue();
+                TimingStatistics actualStats = actual.getStatisticsByTag().get(tagAndStats.getKey());
+                assertEquals(expectedStats.getCount(), actualStats.getCount());
+                assertEquals(expectedStats.getMin(), actualStats.getMin());
+                assertEquals(expectedStats.getMax(), actualStats.getMax());
+                assertEquals(expectedStats.getMean(), actualStats.getMean(), 0.0001);
+                assertEquals(expectedStats.getStandardDeviation(), actualStats.getStandardDeviation(), 0.0001);
+                assertNotNull(actualStats.getHistogram());
+                assertEquals(expectedStats.getPercentile(99.0), actualStats.getPercentile(99.0));
+            }
+        }
+    }
+
+    @Test
+    public void testEventsAfterStopAreIgnored() throws Exception {
+        CollectingStatisticsSink collectingSink = new CollectingStatisticsSink();
+        StripedAggregatingStatisticsSink sink = new StripedAggregatingStatisticsSink(3600000L, false, collectingSink);
+        //events before start are ignored
+        sink.onTimingEvent(new StopWatch(0L, 10L, "tag", null), null);
+        sink.start();
+        sink.stop();
+        sink.onTimingEvent(new StopWatch(0L, 10L, "tag", null), null);
+
+        //empty time slices are not published
+        assertEquals(0, collectingSink.statistics.size());
+    }
+
+    @Test
+    public void testStopBeforeStart() throws Exception {
+        CollectingStatisticsSink collectingSink = new CollectingStatisticsSink();
+        StripedAggregatingStatisticsSink sink = new StripedAggregatingStatisticsSink(3600000L, false, collectingSink);
+        sink.stop();
+        assertFalse(collectingSink.stopped);
+
+        //the sink can still be started afterwards
+        sink.start();
+        sink.onTimingEvent(new StopWatch(0L, 10L, "tag", null), null);
+        sink.stop();
+        assertTrue(collectingSink.stopped);
+        assertEquals(1, collectingSink.statistics.size());
+    }
+
+    private static class CollectingStatisticsSink implements TimingStatisticsSink {
+        List<GroupedTimingStatistics> statistics =
+                Collections.synchronizedList(new ArrayList<GroupedTimingStatistics>());
+        boolean stopped;
+
+        public void start() { }
+
+        public void stop() {
+            stopped = true;
+        }
+
+        public void handle(GroupedTimingStatistics statistics) {
+            this.statistics.add(statistics);
+        }
+    }
+}
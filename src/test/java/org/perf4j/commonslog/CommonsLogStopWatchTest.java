@@ -43,8 +43,7 @@ public class CommonsLogStopWatchTest extends LoggingStopWatchTest {
     public void testStopWatch() throws Exception {
         //We override the testStopWatch method because the way we configure the LogFactory doesn't work in 
         //TeamCity, so we skip this test in TeamCity builds.
-        LogFactory.getLog(StopWatch.DEFAULT_LOGGER_NAME).info("GOING_TO_STD_ERR");
-        if (fakeErr.toString().indexOf("GOING_TO_STD_ERR") >= 0) {
+        if (isLoggingToStdErr()) {
             //then things are set up correctly, run the test
             super.testStopWatch();
         } else {
@@ -52,6 +51,47 @@ public class CommonsLogStopWatchTest extends LoggingStopWatchTest {
         }
     }    
 
+    public void testProfilingSwitches() throws Exception {
+        //like testStopWatch, this checks the log written to std err
+        if (isLoggingToStdErr()) {
+            super.testProfilingSwitches();
+        } else {
+            System.out.println("Logging isn't going to our std err as expected - skipping testProfilingSwitches");
+        }
+    }
+
+    public void testSampling() throws Exception {
+        //like testStopWatch, this checks the log written to std err
+        if (isLoggingToStdErr()) {
+            super.testSampling();
+        } else {
+            System.out.println("Logging isn't going to our std err as expected - skipping testSampling");
+        }
+    }
+
+    public void testLoggerName() throws Exception {
+        //the name is only known if the Log was looked up by name
+        assertEquals(StopWatch.DEFAULT_LOGGER_NAME, new CommonsLogStopWatch().getLoggerName());
+        CommonsLogStopWatch stopWatch = new CommonsLogStopWatch(LogFactory.getLog("org.perf4j.TestLogger"));
+        assertNull(stopWatch.getLoggerName());
+        stopWatch.setLoggerName("org.perf4j.TestLogger");
+        assertEquals("org.perf4j.TestLogger", stopWatch.getLoggerName());
+        assertEquals(LogFactory.getLog("org.perf4j.TestLogger"), stopWatch.getLogger());
+    }
+
+    /**
+     * Checks whether commons-logging writes to the fake std err, which is not the case in every build environment.
+     * The check message is removed from the fake std err again.
+     *
+     * @return true if the log is written to the fake std err.
+     */
+    protected boolean isLoggingToStdErr() {
+        LogFactory.getLog(StopWatch.DEFAULT_LOGGER_NAME).info("GOING_TO_STD_ERR");
+        boolean retVal = fakeErr.toString().indexOf("GOING_TO_STD_ERR") >= 0;
+        fakeErr.reset();
+        return retVal;
+    }
+
     protected CommonsLogStopWatch createStopWatch(String loggerName,
                                                   String normalPriorityName,
                                                   String exceptionPriorityName,
@@ -0,0 +1,177 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+import org.perf4j.TimingTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the BinaryStopWatchLogWriter and BinaryStopWatchLogIterator.
+ */
+public class BinaryStopWatchLogIteratorTest extends TimingTestCase {
+
+    public void testRoundTrip() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>(testStopWatches);
+        stopWatches.add(new StopWatch(0L, 0L, null, null));
+        stopWatches.add(new StopWatch(5L, 123456789L, TimeUnit.NANOSECONDS, "nanos", "\u00fcnicode message"));
+        stopWatches.add(new StopWatch(4L, 3L, TimeUnit.SECONDS, "tag", ""));
+        stopWatches.add(new StopWatch(Long.MAX_VALUE, 1L, TimeUnit.MICROSECONDS, "", null));
+        stopWatches.add(new StopWatch(6L, 7L, "sampled", null).setCallCount(1000));
+
+        for (boolean compress : new boolean[] {true, false}) {
+            //small blocks so that records are spread over several blocks
+            byte[] data = write(stopWatches, compress, 16);
+            assertEquals(stopWatches, read(new ByteArrayInputStream(data), null));
+        }
+    }
+
+    public void testCompactness() throws Exception {
+        Random random = new Random(7L);
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        StringBuilder textLog = new StringBuilder();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            startTime += random.nextInt(20);
+            StopWatch stopWatch = new StopWatch(startTime - random.nextInt(100), random.nextInt(100),
+                                                "tag" + random.nextInt(20), null);
+            stopWatches.add(stopWatch);
+            textLog.append(stopWatch).append('\n');
+        }
+
+        for (boolean compress : new boolean[] {true, false}) {
+            byte[] data = write(stopWatches, compress, BinaryStopWatchLogWriter.DEFAULT_BLOCK_SIZE);
+            assertEquals(stopWatches, read(new ByteArrayInputStream(data), null));
+            assertTrue(data.length * 5 < textLog.length());
+        }
+    }
+
+    public void testAppendedSegments() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryStopWatchLogWriter writer = new BinaryStopWatchLogWriter(out, true, 1024);
+        writer.write(testStopWatches.get(0));
+        writer.close();
+        //a second writer appends a segment with its own tag dictionary
+        writer = new BinaryStopWatchLogWriter(out, false, 1024);
+        writer.write(testStopWatches.get(2));
+        writer.write(testStopWatches.get(0));
+        writer.close();
+
+        assertEquals(Arrays.asList(testStopWatches.get(0), testStopWatches.get(2), testStopWatches.get(0)),
+                     read(new ByteArrayInputStream(out.toByteArray()), null));
+    }
+
+    public void testPartialBlock() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryStopWatchLogWriter writer = new BinaryStopWatchLogWriter(out, true, 1024);
+        writer.write(testStopWatches.get(0));
+        writer.flush();
+        int flushedLength = out.size();
+        writer.write(testStopWatches.get(1));
+        writer.flush();
+
+        //the second block was only partially written
+        byte[] data = new byte[flushedLength + 5];
+        System.arraycopy(out.toByteArray(), 0, data, 0, data.length);
+        assertEquals(testStopWatches.subList(0, 1), read(new ByteArrayInputStream(data), null));
+    }
+
+    public void testTruncateIncompleteBlock() throws Exception {
+        File file = new File("./target/binaryTruncateTest.p4jb");
+        BinaryStopWatchLogWriter writer = new BinaryStopWatchLogWriter(new FileOutputStream(file), true, 1024);
+        writer.write(testStopWatches.get(0));
+        writer.flush();
+        long flushedLength = file.length();
+        writer.write(testStopWatches.get(1));
+        writer.close();
+
+        //simulate a crash while the second block was being written
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(flushedLength + 5);
+        raf.close();
+
+        assertEquals(5L, BinaryStopWatchLogWriter.truncateIncompleteBlock(file));
+        assertEquals(flushedLength, file.length());
+        assertEquals(0L, BinaryStopWatchLogWriter.truncateIncompleteBlock(file));
+
+        //a segment appended after the truncation is read
+        writer = new BinaryStopWatchLogWriter(new FileOutputStream(file, true), true, 1024);
+        writer.write(testStopWatches.get(2));
+        writer.close();
+        assertEquals(Arrays.asList(testStopWatches.get(0), testStopWatches.get(2)),
+                     read(new FileInputStream(file), null));
+    }
+
+    public void testTagFilter() throws Exception {
+        byte[] data = write(testStopWatches, true, 32);
+        List<StopWatch> expected = new ArrayList<StopWatch>();
+        for (StopWatch stopWatch : testStopWatches) {
+            if (stopWatch.getTag().startsWith("tag2")) {
+                expected.add(stopWatch);
+            }
+        }
+        assertEquals(expected, read(new ByteArrayInputStream(data), new TagFilter(Arrays.asList("tag2*"), null)));
+    }
+
+    public void testIsBinaryLog() throws Exception {
+        assertTrue(BinaryStopWatchLogIterator.isBinaryLog(new ByteArrayInputStream(write(testStopWatches, true, 32))));
+        assertFalse(BinaryStopWatchLogIterator.isBinaryLog(new ByteArrayInputStream(testLog.getBytes())));
+        assertFalse(BinaryStopWatchLogIterator.isBinaryLog(new ByteArrayInputStream(new byte[2])));
+
+        try {
+            new BinaryStopWatchLogIterator(new ByteArrayInputStream(testLog.getBytes()));
+            fail();
+        } catch (IOException ioe) {
+            //expected
+        }
+    }
+
+    private byte[] write(List<StopWatch> stopWatches, boolean compress, int blockSize) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryStopWatchLogWriter writer = new BinaryStopWatchLogWriter(out, compress, blockSize);
+        for (StopWatch stopWatch : stopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private List<StopWatch> read(InputStream in, TagFilter tagFilter) throws Exception {
+        BinaryStopWatchLogIterator iter = new BinaryStopWatchLogIterator(in, tagFilter);
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        try {
+            while (iter.hasNext()) {
+                retVal.add(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+        return retVal;
+    }
+}
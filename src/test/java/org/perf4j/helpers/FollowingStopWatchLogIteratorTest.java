@@ -0,0 +1,179 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the FollowingStopWatchLogIterator and LogFollowCheckpoint.
+ */
+public class FollowingStopWatchLogIteratorTest extends TimingTestCase {
+    private File logFile;
+    private File rotatedLogFile;
+    private File checkpointFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        logFile = File.createTempFile("perf4jFollowedLog", ".log");
+        rotatedLogFile = new File(logFile.getPath() + ".1");
+        checkpointFile = new File(logFile.getPath() + ".checkpoint");
+    }
+
+    protected void tearDown() throws Exception {
+        logFile.delete();
+        rotatedLogFile.delete();
+        checkpointFile.delete();
+        super.tearDown();
+    }
+
+    public void testFollow() throws Exception {
+        appendToLog(logFile, testLog);
+        FollowingStopWatchLogIterator iter = newIterator(null);
+        try {
+            assertEquals(testStopWatches, readAvailable(iter));
+
+            //incomplete lines are only read once they are complete
+            appendToLog(logFile, "start[1000] time[10] tag[a]\nstart[2000] time[20] tag[b]");
+            assertEquals(1, readAvailable(iter).size());
+            appendToLog(logFile, " message[m]\r\n");
+            List<StopWatch> stopWatches = readAvailable(iter);
+            assertEquals(1, stopWatches.size());
+            assertEquals(new StopWatch(2000L, 20L, "b", "m"), stopWatches.get(0));
+            assertTrue(iter.hasNext());
+        } finally {
+            iter.close();
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    public void testRotation() throws Exception {
+        appendToLog(logFile, "start[1000] time[10] tag[a]\n");
+        FollowingStopWatchLogIterator iter = newIterator(null);
+        try {
+            assertEquals(1, readAvailable(iter).size());
+
+            //the log is renamed, written to once more, and then replaced by a new file
+            assertTrue(logFile.renameTo(rotatedLogFile));
+            appendToLog(rotatedLogFile, "start[2000] time[20] tag[b]\n");
+            assertEquals(1, readAvailable(iter).size());
+            appendToLog(logFile, "start[3000] time[30] tag[c]\nstart[4000] time[40] tag[d]\n");
+
+            List<StopWatch> stopWatches = readAvailable(iter);
+            assertEquals(2, stopWatches.size());
+            assertEquals("c", stopWatches.get(0).getTag());
+            assertEquals("d", stopWatches.get(1).getTag());
+        } finally {
+            iter.close();
+        }
+    }
+
+    public void testCheckpoint() throws Exception {
+        appendToLog(logFile, "start[1000] time[10] tag[a] start[2000] time[20] tag[b]\nstart[3000] time[30] tag[c]\n");
+        FollowingStopWatchLogIterator iter = newIterator(null);
+        try {
+            assertEquals("a", iter.next().getTag());
+            //the checkpoint is in the middle of the first line
+            iter.getCheckpoint().save(checkpointFile);
+        } finally {
+            iter.close();
+        }
+
+        iter = newIterator(LogFollowCheckpoint.load(checkpointFile));
+        try {
+            List<StopWatch> stopWatches = readAvailable(iter);
+            assertEquals(2, stopWatches.size());
+            assertEquals("b", stopWatches.get(0).getTag());
+            assertEquals("c", stopWatches.get(1).getTag());
+            iter.getCheckpoint().save(checkpointFile);
+        } finally {
+            iter.close();
+        }
+
+        //a checkpoint of another file is ignored
+        logFile.delete();
+        appendToLog(logFile, "start[4000] time[40] tag[d]\n");
+        iter = newIterator(LogFollowCheckpoint.load(checkpointFile));
+        try {
+            assertEquals("d", iter.next().getTag());
+        } finally {
+            iter.close();
+        }
+
+        assertNull(LogFollowCheckpoint.load(new File(logFile.getPath() + ".noCheckpoint")));
+    }
+
+    public void testCheckpointWithOpenTimeSlice() throws Exception {
+        appendToLog(logFile, "start[1000] time[10] tag[a]\nstart[2000] time[20] tag[a]\nstart[31000] time[30] tag[a]\n");
+        FollowingStopWatchLogIterator iter = newIterator(null);
+        try {
+            GroupingStatisticsIterator statsIter =
+                    new GroupingStatisticsIterator(iter, 30000L, false, TimeUnit.MILLISECONDS, 2);
+            assertEquals(2, statsIter.next().getStatisticsByTag().get("a").getCount());
+
+            //the StopWatch that started the second time slice is saved with the checkpoint
+            LogFollowCheckpoint checkpoint = iter.getCheckpoint();
+            checkpoint.setOpenTimeSlice(statsIter.getCurrentTimeSliceStatistics());
+            checkpoint.save(checkpointFile);
+        } finally {
+            iter.close();
+        }
+
+        appendToLog(logFile, "start[32000] time[40] tag[a]\nstart[61000] time[50] tag[a]\n");
+        LogFollowCheckpoint checkpoint = LogFollowCheckpoint.load(checkpointFile);
+        iter = newIterator(checkpoint);
+        try {
+            GroupingStatisticsIterator statsIter =
+                    new GroupingStatisticsIterator(iter, 30000L, false, TimeUnit.MILLISECONDS, 2);
+            statsIter.resumeTimeSlice(checkpoint.getOpenTimeSlice());
+            GroupedTimingStatistics statistics = statsIter.next();
+            assertEquals(30000L, statistics.getStartTime());
+            assertEquals(2, statistics.getStatisticsByTag().get("a").getCount());
+            assertEquals(35.0, statistics.getStatisticsByTag().get("a").getMean(), 0.0);
+        } finally {
+            iter.close();
+        }
+    }
+
+    private FollowingStopWatchLogIterator newIterator(LogFollowCheckpoint checkpoint) throws Exception {
+        return new FollowingStopWatchLogIterator(logFile, null, 10L, checkpoint);
+    }
+
+    private List<StopWatch> readAvailable(FollowingStopWatchLogIterator iter) {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        StopWatch stopWatch;
+        while ((stopWatch = iter.next()) != null) {
+            retVal.add(stopWatch);
+        }
+        return retVal;
+    }
+
+    private void appendToLog(File file, String data) throws Exception {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(data.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+}
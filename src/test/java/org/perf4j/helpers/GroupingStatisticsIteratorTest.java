@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests the GroupingStatisticsIterator.
@@ -53,6 +55,27 @@ public class GroupingStatisticsIteratorTest extends TimingTestCase {
         assertFalse(iter.hasNext());
     }
 
+    public void testTimeUnit() throws Exception {
+        long now = System.currentTimeMillis();
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        stopWatches.add(new StopWatch(now, 1500L, TimeUnit.MICROSECONDS, "tag", null));
+        stopWatches.add(new StopWatch(now, 2500L, TimeUnit.NANOSECONDS, "tag", null));
+        stopWatches.add(new StopWatch(now, 3L, "tag", null));
+
+        GroupingStatisticsIterator iter =
+                new GroupingStatisticsIterator(stopWatches.iterator(), 30000L, false, TimeUnit.MICROSECONDS);
+        GroupedTimingStatistics stats = iter.next();
+        assertFalse(iter.hasNext());
+
+        //all StopWatches are converted to microseconds
+        assertEquals(TimeUnit.MICROSECONDS, stats.getTimeUnit());
+        TimingStatistics timingStats = stats.getStatisticsByTag().get("tag");
+        assertEquals(2L, timingStats.getMin());
+        assertEquals(3000L, timingStats.getMax());
+        assertEquals(3, timingStats.getCount());
+        assertTrue(stats.toString().indexOf("Avg(us)") >= 0);
+    }
+
     public void testTwoStopWatchesDifferentTimeslices() throws Exception {
         long now = System.currentTimeMillis();
         long in30Secs = now + 30000L;
@@ -151,4 +174,74 @@ public class GroupingStatisticsIteratorTest extends TimingTestCase {
         // no more timeslices
         assertFalse(groupingStatisticsIterator.hasNext());
     }
+
+    public void testAggregationThreads() throws Exception {
+        //a few time slices of StopWatches with rollup tags
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        Random random = new Random(42);
+        long startTime = 1000000L;
+        for (int i = 0; i < 20000; i++) {
+            startTime += random.nextInt(3);
+            String tag = "tag" + random.nextInt(10) + ".sub" + random.nextInt(5) + ".leaf" + random.nextInt(3);
+            stopWatches.add(new StopWatch(startTime, random.nextInt(5000), tag, null));
+        }
+
+        List<GroupedTimingStatistics> expected = new ArrayList<GroupedTimingStatistics>();
+        GroupingStatisticsIterator singleThreaded =
+                new GroupingStatisticsIterator(stopWatches.iterator(), 10000L, true, TimeUnit.MILLISECONDS, 2);
+        while (singleThreaded.hasNext()) {
+            expected.add(singleThreaded.next());
+        }
+        assertTrue(expected.size() > 1);
+
+        for (int aggregationThreads = 2; aggregationThreads <= 4; aggregationThreads++) {
+            List<GroupedTimingStatistics> actual = new ArrayList<GroupedTimingStatistics>();
+            GroupingStatisticsIterator sharded = new GroupingStatisticsIterator(stopWatches.iterator(), 10000L, true,
+                                                                                TimeUnit.MILLISECONDS, 2,
+                                                                                aggregationThreads);
+            while (sharded.hasNext()) {
+                actual.add(sharded.next());
+            }
+            //the statistics must be identical, not just approximately equal
+            assertEquals(expected, actual);
+        }
+    }
+
+    public void testAggregationThreadErrors() throws Exception {
+        //a StopWatch that can't be aggregated must not stop the worker, otherwise the iterator would hang
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        for (int i = 0; i < 1000; i++) {
+            stopWatches.add(new StopWatch(1000000L + i, 100L, "tag" + (i % 10), null));
+        }
+        stopWatches.set(500, new StopWatch(1000500L, 100L, "tag0", null) {
+            public long getElapsedTime(TimeUnit timeUnit) {
+                throw new IllegalStateException("Expected exception");
+            }
+        });
+
+        final List<Throwable> reportedErrors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread.UncaughtExceptionHandler oldHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread thread, Throwable t) {
+                reportedErrors.add(t);
+            }
+        });
+        try {
+            GroupingStatisticsIterator sharded = new GroupingStatisticsIterator(stopWatches.iterator(), 10000L, false,
+                                                                                TimeUnit.MILLISECONDS, 0, 2);
+            assertTrue(sharded.hasNext());
+            GroupedTimingStatistics statistics = sharded.next();
+            assertFalse(sharded.hasNext());
+
+            int count = 0;
+            for (TimingStatistics timingStatistics : statistics.getStatisticsByTag().values()) {
+                count += timingStatistics.getCount();
+            }
+            assertEquals(999, count);
+            assertEquals(1, reportedErrors.size());
+            assertEquals("Expected exception", reportedErrors.get(0).getMessage());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(oldHandler);
+        }
+    }
 }
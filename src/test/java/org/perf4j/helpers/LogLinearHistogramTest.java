@@ -0,0 +1,149 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+
+import java.util.Random;
+
+/**
+ * Tests the LogLinearHistogram and the percentiles of TimingStatistics.
+ */
+public class LogLinearHistogramTest extends TestCase {
+
+    public void testSmallValuesAreExact() throws Exception {
+        LogLinearHistogram histogram = new LogLinearHistogram(2);
+        assertEquals(0L, histogram.getValueAtPercentile(50.0));
+
+        for (long i = 1; i <= 100; i++) {
+            histogram.recordValue(i);
+        }
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(1L, histogram.getValueAtPercentile(0.0));
+        assertEquals(1L, histogram.getValueAtPercentile(1.0));
+        assertEquals(50L, histogram.getValueAtPercentile(50.0));
+        assertEquals(99L, histogram.getValueAtPercentile(99.0));
+        assertEquals(100L, histogram.getValueAtPercentile(99.9));
+        assertEquals(100L, histogram.getValueAtPercentile(100.0));
+    }
+
+    public void testRelativeError() throws Exception {
+        for (int significantDigits = 1; significantDigits <= LogLinearHistogram.MAX_SIGNIFICANT_DIGITS;
+             significantDigits++) {
+            double maxRelativeError = Math.pow(10.0, -significantDigits);
+            Random random = new Random(significantDigits);
+            for (int i = 0; i < 1000; i++) {
+                long value = Math.abs(random.nextLong()) >>> random.nextInt(63);
+                LogLinearHistogram histogram = new LogLinearHistogram(significantDigits).recordValue(value);
+                long reported = histogram.getValueAtPercentile(50.0);
+                assertTrue(value + " reported as " + reported, reported >= value);
+                assertTrue(value + " reported as " + reported,
+                           (reported - value) <= Math.max(value * maxRelativeError, 0.0));
+            }
+        }
+
+        //the largest value must not overflow
+        assertEquals(Long.MAX_VALUE, new LogLinearHistogram().recordValue(Long.MAX_VALUE).getValueAtPercentile(99.0));
+    }
+
+    public void testAdd() throws Exception {
+        LogLinearHistogram low = new LogLinearHistogram();
+        LogLinearHistogram high = new LogLinearHistogram();
+        LogLinearHistogram all = new LogLinearHistogram();
+        for (long i = 0; i < 1000; i++) {
+            low.recordValue(i);
+            high.recordValue(i * 1000L);
+            all.recordValue(i).recordValue(i * 1000L);
+        }
+
+        LogLinearHistogram merged = low.clone().add(high);
+        assertEquals(all, merged);
+        assertEquals(all.hashCode(), merged.hashCode());
+        assertEquals(all.getValueAtPercentile(99.0), merged.getValueAtPercentile(99.0));
+        //the clone was not affected by the add
+        assertEquals(1000, low.getTotalCount());
+
+        try {
+            low.add(new LogLinearHistogram(3));
+            fail("Histograms with different precisions can't be added");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+
+        try {
+            new LogLinearHistogram(4);
+            fail("Precision out of range");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testTimingStatisticsPercentiles() throws Exception {
+        TimingStatistics timingStats = new TimingStatistics();
+        try {
+            timingStats.getPercentile(50.0);
+            fail("Percentiles require a histogram");
+        } catch (IllegalStateException ise) {
+            //expected
+        }
+        assertEquals(0L, StatsValueRetriever.P99.getStatsValue(timingStats, 1000L));
+
+        timingStats.setHistogram(new LogLinearHistogram(1));
+        for (long i = 1001; i <= 2000; i++) {
+            timingStats.addSampleTime(i);
+        }
+        //the precision of 1 digit is coarse, but percentiles are kept between the min and max
+        assertEquals(2000L, timingStats.getPercentile(100.0));
+        assertEquals(1001L, StatsValueRetriever.MIN.getStatsValue(timingStats, 1000L));
+        long p50 = timingStats.getPercentile(50.0);
+        assertTrue("" + p50, p50 >= 1500L && p50 <= 1650L);
+
+        //clones don't share the histogram
+        TimingStatistics clone = timingStats.clone();
+        clone.addSampleTime(5000L);
+        assertEquals(1000, timingStats.getHistogram().getTotalCount());
+        assertFalse(clone.equals(timingStats));
+    }
+
+    public void testGroupedTimingStatisticsPercentiles() throws Exception {
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.setHistogramPrecision(2);
+        for (long i = 1; i <= 100; i++) {
+            statistics.addStopWatch(new StopWatch(0L, i, "tag", null));
+        }
+        TimingStatistics timingStats = statistics.getStatisticsByTag().get("tag");
+        assertNotNull(timingStats.getHistogram());
+        assertEquals(50L, StatsValueRetriever.P50.getStatsValue(timingStats, 1000L));
+        assertEquals(90L, StatsValueRetriever.P90.getStatsValue(timingStats, 1000L));
+        assertEquals(95L, StatsValueRetriever.P95.getStatsValue(timingStats, 1000L));
+        assertEquals(99L, StatsValueRetriever.P99.getStatsValue(timingStats, 1000L));
+        assertEquals(100L, StatsValueRetriever.P999.getStatsValue(timingStats, 1000L));
+
+        assertTrue(statistics.toString().contains("P99"));
+        assertFalse(new GroupedTimingStatistics().addStopWatch(new StopWatch(0L, 1L, "tag", null))
+                .toString().contains("P99"));
+
+        String csv = new GroupedTimingStatisticsCsvFormatter(
+                false, GroupedTimingStatisticsCsvFormatter.DEFAULT_PERCENTILES_FORMAT_STRING).format(statistics);
+        assertTrue(csv, csv.startsWith("\"tag\",") && csv.contains(",50.5,1,100,"));
+        assertTrue(csv, csv.trim().endsWith(",100,50,90,95,99,100"));
+        String pivotedCsv = new GroupedTimingStatisticsCsvFormatter(true, "tagP50,tagP999,otherP99").format(statistics);
+        assertEquals("50,100,", pivotedCsv.trim());
+    }
+}
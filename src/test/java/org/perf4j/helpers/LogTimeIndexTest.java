@@ -0,0 +1,162 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+import org.perf4j.TimingTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the LogTimeIndex.
+ */
+public class LogTimeIndexTest extends TimingTestCase {
+    private File logFile;
+    private File indexFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        logFile = File.createTempFile("perf4jIndexedLog", ".log");
+        indexFile = LogTimeIndex.getIndexFile(logFile);
+    }
+
+    protected void tearDown() throws Exception {
+        logFile.delete();
+        indexFile.delete();
+        super.tearDown();
+    }
+
+    public void testRegionContainsTimeRange() throws Exception {
+        //one hour of StopWatches, some of them logged long after they started
+        Random random = new Random(42L);
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        for (long startTime = 0L; startTime < 3600000L; startTime += random.nextInt(1000)) {
+            long elapsedTime = (random.nextInt(100) == 0) ? random.nextInt(300000) : random.nextInt(100);
+            stopWatches.add(new StopWatch(startTime, elapsedTime, "tag" + random.nextInt(5), null));
+        }
+        //StopWatches are logged when they stop
+        Collections.sort(stopWatches, new Comparator<StopWatch>() {
+            public int compare(StopWatch stopWatch1, StopWatch stopWatch2) {
+                long stopTime1 = stopWatch1.getStartTime() + stopWatch1.getElapsedTime();
+                long stopTime2 = stopWatch2.getStartTime() + stopWatch2.getElapsedTime();
+                return (stopTime1 < stopTime2) ? -1 : ((stopTime1 == stopTime2) ? 0 : 1);
+            }
+        });
+        StringBuilder log = new StringBuilder();
+        for (StopWatch stopWatch : stopWatches) {
+            log.append("INFO not a StopWatch\n").append(stopWatch).append('\n');
+        }
+        appendToLog(log.toString());
+
+        LogTimeIndex index = LogTimeIndex.open(logFile, null);
+        assertTrue(indexFile.exists());
+        assertEquals(logFile.length(), index.getIndexedLength());
+
+        long[][] timeRanges = {{0L, 60000L}, {600000L, 660000L}, {1234567L, 1345678L}, {3599000L, 3600000L},
+                               {Long.MIN_VALUE, Long.MAX_VALUE}, {5000000L, 6000000L}};
+        for (long[] timeRange : timeRanges) {
+            List<StopWatch> expected = filter(new MappedStopWatchLogIterator(logFile), timeRange[0], timeRange[1]);
+            long startPosition = index.getStartPosition(timeRange[0], timeRange[1]);
+            long endPosition = index.getEndPosition(timeRange[0], timeRange[1]);
+            assertEquals(expected,
+                         filter(new MappedStopWatchLogIterator(logFile, startPosition, endPosition, null),
+                                timeRange[0], timeRange[1]));
+            if (timeRange[0] >= 0L && timeRange[1] - timeRange[0] <= 60000L) {
+                assertTrue(endPosition - startPosition < logFile.length() / 2);
+            }
+        }
+        assertEquals(index.getStartPosition(5000000L, 6000000L), index.getEndPosition(5000000L, 6000000L));
+    }
+
+    public void testIncrementalUpdate() throws Exception {
+        appendToLog("start[1000] time[10] tag[a]\nstart[61000] time[10] tag[b]\n");
+        LogTimeIndex index = LogTimeIndex.open(logFile, null);
+        long indexedLength = index.getIndexedLength();
+        assertEquals(logFile.length(), indexedLength);
+
+        //incomplete lines are not indexed
+        appendToLog("start[121000] time[10] tag[c]");
+        index = LogTimeIndex.open(logFile, null);
+        assertEquals(indexedLength, index.getIndexedLength());
+        assertEquals(index.getStartPosition(120000L, 180000L), index.getEndPosition(120000L, 180000L));
+
+        appendToLog("\n");
+        index = LogTimeIndex.open(logFile, null);
+        assertEquals(logFile.length(), index.getIndexedLength());
+        assertEquals(indexedLength, index.getStartPosition(120000L, 180000L));
+        MappedStopWatchLogIterator iter =
+                new MappedStopWatchLogIterator(logFile,
+                                               index.getStartPosition(120000L, 180000L),
+                                               index.getEndPosition(120000L, 180000L),
+                                               null);
+        assertEquals("c", iter.next().getTag());
+        assertFalse(iter.hasNext());
+        iter.close();
+
+        //the saved index matches the updated one
+        index = LogTimeIndex.read(logFile, indexFile);
+        assertEquals(logFile.length(), index.getIndexedLength());
+    }
+
+    public void testInvalidIndexIsRebuilt() throws Exception {
+        appendToLog("start[1000] time[10] tag[a]\nstart[61000] time[10] tag[b]\n");
+        LogTimeIndex.open(logFile, null);
+
+        //the log is replaced by a different file
+        logFile.delete();
+        appendToLog("start[9000] time[10] tag[c]\n");
+        assertNull(LogTimeIndex.read(logFile, indexFile));
+        LogTimeIndex index = LogTimeIndex.open(logFile, null);
+        assertEquals(logFile.length(), index.getIndexedLength());
+        assertEquals(0L, index.getStartPosition(0L, 60000L));
+
+        //a corrupt index file is ignored
+        FileOutputStream out = new FileOutputStream(indexFile);
+        out.write(new byte[] {'P', '4', 'I', 'X', 0, 0});
+        out.close();
+        assertNull(LogTimeIndex.read(logFile, indexFile));
+        assertEquals(logFile.length(), LogTimeIndex.open(logFile, null).getIndexedLength());
+    }
+
+    private List<StopWatch> filter(MappedStopWatchLogIterator iter, long fromTime, long toTime) throws Exception {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        try {
+            for (Iterator<StopWatch> filteredIter = new TimeRangeStopWatchIterator(iter, fromTime, toTime);
+                 filteredIter.hasNext();) {
+                retVal.add(filteredIter.next());
+            }
+        } finally {
+            iter.close();
+        }
+        return retVal;
+    }
+
+    private void appendToLog(String data) throws Exception {
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        try {
+            out.write(data.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+}
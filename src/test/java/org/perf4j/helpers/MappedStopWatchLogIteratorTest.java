@@ -0,0 +1,156 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+import org.perf4j.TimingTestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class tests the MappedStopWatchLogIterator.
+ */
+public class MappedStopWatchLogIteratorTest extends TimingTestCase {
+    private File logFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        logFile = File.createTempFile("perf4jMappedLog", ".log");
+        logFile.deleteOnExit();
+        writeLog(testLog);
+    }
+
+    protected void tearDown() throws Exception {
+        logFile.delete();
+        super.tearDown();
+    }
+
+    public void testMappedIterator() throws Exception {
+        assertEquals(testStopWatches, toList(new MappedStopWatchLogIterator(logFile)));
+        assertEquals(testStopWatches,
+                     toList(new MappedStopWatchLogIterator(logFile, new ScanningStopWatchParser())));
+    }
+
+    public void testSmallChunks() throws Exception {
+        //chunks smaller than a line have to be enlarged, chunks bigger than a line are cut at a line end
+        for (int chunkSize : new int[] {7, 40, 100, 1000}) {
+            FileChannel channel = new FileInputStream(logFile).getChannel();
+            try {
+                assertEquals(testStopWatches,
+                             toList(new MappedStopWatchLogIterator(channel, 0L, -1L, null,
+                                                                   Charset.defaultCharset(), chunkSize)));
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    public void testSameAsStopWatchLogIterator() throws Exception {
+        //several StopWatches on one line, a marker that isn't a StopWatch, Windows line endings and no final newline
+        String log = "start[] nothing here\r\n"
+                     + "a start[1] time[2] tag[a] b start[3] time[4ms] tag[b] message[c]\r\n"
+                     + "\n"
+                     + "start[5] time[6us] tag[c]";
+        writeLog(log);
+
+        assertEquals(toList(new StopWatchLogIterator(new StringReader(log))),
+                     toList(new MappedStopWatchLogIterator(logFile)));
+        assertEquals(toList(new StopWatchLogIterator(new StringReader(log), new ScanningStopWatchParser())),
+                     toList(new MappedStopWatchLogIterator(logFile, new ScanningStopWatchParser())));
+        assertEquals(3, toList(new MappedStopWatchLogIterator(logFile)).size());
+    }
+
+    public void testRegions() throws Exception {
+        //parsing the lines before and after a line boundary separately gives all the StopWatches
+        int boundary = testLog.indexOf("unrelated");
+        FileChannel channel = new FileInputStream(logFile).getChannel();
+        try {
+            List<StopWatch> stopWatches = toList(new MappedStopWatchLogIterator(
+                    channel, 0L, boundary, null, Charset.defaultCharset(), 1000));
+            assertEquals(2, stopWatches.size());
+            stopWatches.addAll(toList(new MappedStopWatchLogIterator(
+                    channel, boundary, -1L, null, Charset.defaultCharset(), 1000)));
+            assertEquals(testStopWatches, stopWatches);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testEmptyFile() throws Exception {
+        writeLog("");
+        MappedStopWatchLogIterator iter = new MappedStopWatchLogIterator(logFile);
+        assertFalse(iter.hasNext());
+        try {
+            iter.next();
+            fail();
+        } catch (NoSuchElementException nsee) {
+            //expected
+        }
+    }
+
+    public void testCallingNextFirst() throws Exception {
+        MappedStopWatchLogIterator iter = new MappedStopWatchLogIterator(logFile);
+        for (StopWatch stopWatch : testStopWatches) {
+            assertEquals(stopWatch, iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    public void testClose() throws Exception {
+        MappedStopWatchLogIterator iter = new MappedStopWatchLogIterator(logFile);
+        assertTrue(iter.hasNext());
+        iter.close();
+        assertFalse(iter.hasNext());
+    }
+
+    public void testUnsupportedCharset() throws Exception {
+        FileChannel channel = new FileInputStream(logFile).getChannel();
+        try {
+            new MappedStopWatchLogIterator(channel, 0L, -1L, null, Charset.forName("UTF-16"), 1000);
+            fail("UTF-16 logs can't be scanned for ASCII bytes");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeLog(String log) throws Exception {
+        FileOutputStream out = new FileOutputStream(logFile);
+        try {
+            out.write(log.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    private List<StopWatch> toList(Iterator<StopWatch> iter) {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        while (iter.hasNext()) {
+            retVal.add(iter.next());
+        }
+        return retVal;
+    }
+}
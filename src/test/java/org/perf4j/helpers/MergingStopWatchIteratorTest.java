@@ -0,0 +1,103 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+import org.perf4j.TimingTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Tests the MergingStopWatchIterator.
+ */
+public class MergingStopWatchIteratorTest extends TimingTestCase {
+    public void testEmptyIterators() throws Exception {
+        List<Iterator<StopWatch>> iters = new ArrayList<Iterator<StopWatch>>();
+        assertFalse(new MergingStopWatchIterator(iters).hasNext());
+
+        iters.add(new ArrayList<StopWatch>().iterator());
+        iters.add(new ArrayList<StopWatch>().iterator());
+        MergingStopWatchIterator mergingIter = new MergingStopWatchIterator(iters);
+        assertFalse(mergingIter.hasNext());
+        try {
+            mergingIter.next();
+            fail();
+        } catch (NoSuchElementException nsee) {
+            //expected
+        }
+    }
+
+    public void testMerge() throws Exception {
+        StopWatch a1 = new StopWatch(1000L, 10L, "a", null);
+        StopWatch a2 = new StopWatch(3000L, 10L, "a", null);
+        StopWatch a3 = new StopWatch(3000L, 20L, "a", null);
+        StopWatch b1 = new StopWatch(2000L, 10L, "b", null);
+        StopWatch b2 = new StopWatch(3000L, 30L, "b", null);
+        StopWatch c1 = new StopWatch(500L, 10L, "c", null);
+
+        List<Iterator<StopWatch>> iters = new ArrayList<Iterator<StopWatch>>();
+        iters.add(Arrays.asList(a1, a2, a3).iterator());
+        iters.add(Arrays.asList(b1, b2).iterator());
+        iters.add(new ArrayList<StopWatch>().iterator());
+        iters.add(Collections.singletonList(c1).iterator());
+
+        //StopWatches with the same start time are returned in the order of the iterators
+        assertEquals(Arrays.asList(c1, a1, b1, a2, a3, b2), toList(new MergingStopWatchIterator(iters)));
+    }
+
+    public void testMergeIsStreaming() throws Exception {
+        //only the head of each iterator is read before the first StopWatch is returned
+        final List<StopWatch> read = new ArrayList<StopWatch>();
+        List<Iterator<StopWatch>> iters = new ArrayList<Iterator<StopWatch>>();
+        for (final List<StopWatch> stopWatches : Arrays.asList(testStopWatches, testStopWatches)) {
+            final Iterator<StopWatch> iter = stopWatches.iterator();
+            iters.add(new Iterator<StopWatch>() {
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                public StopWatch next() {
+                    StopWatch retVal = iter.next();
+                    read.add(retVal);
+                    return retVal;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+
+        MergingStopWatchIterator mergingIter = new MergingStopWatchIterator(iters);
+        assertEquals(2, read.size());
+        assertEquals(testStopWatches.get(0), mergingIter.next());
+        assertEquals(3, read.size());
+        assertEquals(2 * testStopWatches.size(), toList(mergingIter).size() + 1);
+    }
+
+    private List<StopWatch> toList(Iterator<StopWatch> iter) {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        while (iter.hasNext()) {
+            retVal.add(iter.next());
+        }
+        return retVal;
+    }
+}
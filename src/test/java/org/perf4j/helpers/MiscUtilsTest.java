@@ -19,6 +19,7 @@ import junit.framework.TestCase;
 import static org.perf4j.helpers.MiscUtils.*;
 
 import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests the helper methods of the MiscUtils class
@@ -45,4 +46,22 @@ public class MiscUtilsTest extends TestCase {
         assertEquals("2010-10-31 08:59:59",
                      formatDateIso8601(new GregorianCalendar(2010, 9, 31, 8, 59, 59).getTimeInMillis()));
     }
+
+    public void testTimeUnits() throws Throwable {
+        assertEquals("ns", getTimeUnitAbbreviation(TimeUnit.NANOSECONDS));
+        assertEquals("us", getTimeUnitAbbreviation(TimeUnit.MICROSECONDS));
+        assertEquals("ms", getTimeUnitAbbreviation(TimeUnit.MILLISECONDS));
+        assertEquals("s", getTimeUnitAbbreviation(TimeUnit.SECONDS));
+
+        assertEquals(TimeUnit.NANOSECONDS, parseTimeUnit("ns"));
+        assertEquals(TimeUnit.MICROSECONDS, parseTimeUnit(" US "));
+        assertEquals(TimeUnit.MILLISECONDS, parseTimeUnit("milliseconds"));
+        assertEquals(TimeUnit.SECONDS, parseTimeUnit("s"));
+        try {
+            parseTimeUnit("fortnights");
+            fail("Unknown time unit should have thrown an exception");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
 }
@@ -0,0 +1,207 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the overflow policies of the GenericAsyncCoalescingStatisticsAppender.
+ */
+public class OverflowPolicyTest extends TestCase {
+
+    public void testDropNewest() throws Exception {
+        OverflowingAppender appender = new OverflowingAppender("DropNewest", "ArrayBlockingQueue");
+        assertEquals(5, appender.getTotalCount());
+        assertEquals(10, appender.appender.getNumDiscardedMessages());
+        assertEquals(0, appender.appender.getNumEvictedMessages());
+        //errors are rate limited
+        assertEquals(1, appender.errors.size());
+    }
+
+    public void testDropOldest() throws Exception {
+        for (String queueType : new String[] { "ArrayBlockingQueue", "RingBuffer" }) {
+            OverflowingAppender appender = new OverflowingAppender("drop-oldest", queueType);
+            assertEquals(5, appender.getTotalCount());
+            assertEquals(10, appender.appender.getNumDiscardedMessages());
+            assertEquals(10, appender.appender.getNumEvictedMessages());
+            assertEquals(1, appender.errors.size());
+            //the newest messages are kept
+            assertEquals(15L, appender.statistics.get(0).getStatisticsByTag().get("tag").getMax());
+        }
+    }
+
+    public void testBlock() throws Exception {
+        OverflowingAppender appender = new OverflowingAppender("Block", "RingBuffer");
+        assertEquals(5, appender.getTotalCount());
+        assertEquals(10, appender.appender.getNumDiscardedMessages());
+        assertEquals(10, appender.appender.getNumTimedOutMessages());
+    }
+
+    public void testInline() throws Exception {
+        OverflowingAppender appender = new OverflowingAppender("Inline", "ArrayBlockingQueue");
+        assertEquals(0, appender.appender.getNumDiscardedMessages());
+        assertEquals(10, appender.appender.getNumInlineMessages());
+        //the inline statistics are merged into the single time slice
+        assertEquals(1, appender.statistics.size());
+        TimingStatistics timingStats = appender.statistics.get(0).getStatisticsByTag().get("tag");
+        assertEquals(15, timingStats.getCount());
+        assertEquals(1L, timingStats.getMin());
+        assertEquals(15L, timingStats.getMax());
+
+        GroupedTimingStatistics expected = new GroupedTimingStatistics();
+        for (long i = 1; i <= 15; i++) {
+            expected.addStopWatch(new StopWatch(0L, i, "tag", null));
+        }
+        TimingStatistics expectedStats = expected.getStatisticsByTag().get("tag");
+        assertEquals(expectedStats.getMean(), timingStats.getMean(), 0.000001);
+        assertEquals(expectedStats.getStandardDeviation(), timingStats.getStandardDeviation(), 0.000001);
+    }
+
+    public void testInlineAggregatorSlices() throws Exception {
+        InlineStatisticsAggregator aggregator = new InlineStatisticsAggregator(1000L, false, TimeUnit.MILLISECONDS, 2);
+        aggregator.addStopWatch(new StopWatch(500L, 10L, "tag", null));
+        aggregator.addStopWatch(new StopWatch(1500L, 20L, "tag", null));
+        aggregator.addStopWatch(new StopWatch(2500L, 30L, "other", null));
+
+        List<GroupedTimingStatistics> earlier = aggregator.removeSlicesBefore(1000L);
+        assertEquals(1, earlier.size());
+        assertEquals(0L, earlier.get(0).getStartTime());
+        assertEquals(1000L, earlier.get(0).getStopTime());
+
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.setHistogramPrecision(2);
+        statistics.addStopWatch(new StopWatch(1200L, 40L, "tag", null));
+        statistics.setStartTime(1000L);
+        assertEquals(1, aggregator.rollOver(statistics).size());
+        TimingStatistics timingStats = statistics.getStatisticsByTag().get("tag");
+        assertEquals(2, timingStats.getCount());
+        assertEquals(30.0, timingStats.getMean());
+        assertEquals(40L, timingStats.getPercentile(100.0));
+
+        //StopWatches of slices that were already rolled over are added to the next slice instead
+        assertTrue(aggregator.addStopWatch(new StopWatch(1700L, 50L, "tag", null)));
+        List<GroupedTimingStatistics> remaining = aggregator.removeSlicesBefore(Long.MAX_VALUE);
+        assertEquals(1, remaining.size());
+        assertEquals(2000L, remaining.get(0).getStartTime());
+        assertEquals(1, remaining.get(0).getStatisticsByTag().get("tag").getCount());
+        assertEquals(1, remaining.get(0).getStatisticsByTag().get("other").getCount());
+        assertTrue(aggregator.removeSlicesBefore(Long.MAX_VALUE).isEmpty());
+        assertFalse(aggregator.addStopWatch(new StopWatch(3500L, 60L, "tag", null)));
+
+        try {
+            OverflowPolicy.forName("DropAll");
+            fail("Unknown overflow policy");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testDropOldestKeepsStopMessage() throws Exception {
+        String stopMessage = "stop";
+        ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<String>(2);
+        queue.add(stopMessage);
+        queue.add("late");
+        QueueOverflowHandler<String> overflowHandler =
+                new QueueOverflowHandler<String>(OverflowPolicy.DROP_OLDEST, 0L, 0L, queue, stopMessage, null) {
+                    protected StopWatch toStopWatch(String message) {
+                        return null;
+                    }
+
+                    protected void reportOverflows(int numOverflows) { }
+                };
+
+        overflowHandler.handleOverflow("newest");
+        assertTrue(queue.contains(stopMessage));
+        assertEquals(1, overflowHandler.getNumDiscardedMessages());
+        assertEquals(0, overflowHandler.getNumEvictedMessages());
+    }
+
+    /**
+     * Runs an appender with a queue size of 4 whose draining thread is blocked until 15 messages were appended.
+     */
+    private static class OverflowingAppender {
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        List<GroupedTimingStatistics> statistics = new ArrayList<GroupedTimingStatistics>();
+        List<String> errors = new ArrayList<String>();
+
+        OverflowingAppender(String overflowPolicy, String queueType) throws Exception {
+            BlockingStopWatchParser.entered = new CountDownLatch(1);
+            BlockingStopWatchParser.released = new CountDownLatch(1);
+
+            appender.setQueueSize(4);
+            appender.setQueueType(queueType);
+            appender.setOverflowPolicy(overflowPolicy);
+            appender.setOverflowTimeout(10L);
+            appender.setTimeSlice(3600000L);
+            appender.setStopWatchParserClassName(BlockingStopWatchParser.class.getName());
+            appender.start(new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+                public void handle(GroupedTimingStatistics groupedTimingStatistics) {
+                    statistics.add(groupedTimingStatistics);
+                }
+
+                public void error(String errorMessage) {
+                    errors.add(errorMessage);
+                }
+            });
+
+            long now = System.currentTimeMillis();
+            appender.append(new StopWatch(now, 1L, "tag", null).toString());
+            assertTrue(BlockingStopWatchParser.entered.await(10L, TimeUnit.SECONDS));
+            for (long i = 2; i <= 15; i++) {
+                appender.append(new StopWatch(now, i, "tag", null).toString());
+            }
+            BlockingStopWatchParser.released.countDown();
+            appender.stop();
+        }
+
+        int getTotalCount() {
+            int retVal = 0;
+            for (GroupedTimingStatistics groupedTimingStatistics : statistics) {
+                retVal += groupedTimingStatistics.getStatisticsByTag().get("tag").getCount();
+            }
+            return retVal;
+        }
+    }
+
+    /**
+     * This parser blocks the draining thread the first time it parses a message.
+     */
+    public static class BlockingStopWatchParser extends StopWatchParser {
+        static CountDownLatch entered;
+        static CountDownLatch released;
+
+        public StopWatch parseStopWatch(String message) {
+            if (Thread.currentThread().getName().startsWith("perf4j-async-stats-appender-sink")) {
+                entered.countDown();
+                try {
+                    released.await(10L, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.parseStopWatch(message);
+        }
+    }
+}
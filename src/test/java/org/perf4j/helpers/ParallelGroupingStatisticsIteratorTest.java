@@ -0,0 +1,140 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.TimingTestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the ParallelGroupingStatisticsIterator.
+ */
+public class ParallelGroupingStatisticsIteratorTest extends TimingTestCase {
+    private File logFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        logFile = File.createTempFile("perf4jParallelLog", ".log");
+        logFile.deleteOnExit();
+    }
+
+    protected void tearDown() throws Exception {
+        logFile.delete();
+        super.tearDown();
+    }
+
+    public void testSameAsSequential() throws Exception {
+        //large enough to be split into several chunks, with some StopWatches logged long after they started
+        writeLog(100000, false);
+        for (int threads : new int[] {1, 2, 5}) {
+            assertEquals(parseSequentially(1000L, true, 2), parseInParallel(1000L, true, 2, threads));
+            assertEquals(parseSequentially(30000L, false, 0), parseInParallel(30000L, false, 0, threads));
+        }
+    }
+
+    public void testOutOfOrderChunkStarts() throws Exception {
+        //StopWatches starting far in the future move the following StopWatches into their time slice, so the
+        //slices aggregated at the start of a chunk can't be used
+        writeLog(100000, true);
+        for (int threads : new int[] {2, 5}) {
+            assertEquals(parseSequentially(1000L, true, 0), parseInParallel(1000L, true, 0, threads));
+        }
+    }
+
+    public void testEmptyFile() throws Exception {
+        ParallelGroupingStatisticsIterator iter =
+                new ParallelGroupingStatisticsIterator(logFile, null, 30000L, false, TimeUnit.MILLISECONDS, 0, 2);
+        assertFalse(iter.hasNext());
+        try {
+            iter.next();
+            fail();
+        } catch (NoSuchElementException nsee) {
+            //expected
+        }
+    }
+
+    public void testClose() throws Exception {
+        writeLog(100000, false);
+        ParallelGroupingStatisticsIterator iter =
+                new ParallelGroupingStatisticsIterator(logFile, null, 1000L, false, TimeUnit.MILLISECONDS, 0, 2);
+        assertTrue(iter.hasNext());
+        iter.close();
+        assertFalse(iter.hasNext());
+    }
+
+    private void writeLog(int numStopWatches, boolean futureStartTimes) throws Exception {
+        Random random = new Random(42L);
+        PrintWriter writer = new PrintWriter(new FileWriter(logFile));
+        try {
+            long time = 1000000000L;
+            for (int i = 0; i < numStopWatches; i++) {
+                time += random.nextInt(20);
+                writer.println("INFO some unrelated log line " + i);
+                long elapsedTime = (random.nextInt(20) == 0) ? random.nextInt(5000) : random.nextInt(100);
+                writer.println("INFO start[" + (time - elapsedTime) + "] time[" + elapsedTime + "] tag[tag"
+                               + (i % 3) + ".sub" + (i % 2) + "] message[message]");
+                if (futureStartTimes && i % 5000 == 4999) {
+                    writer.println("INFO start[" + (time + 20000L) + "] time[1] tag[future]");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private List<GroupedTimingStatistics> parseSequentially(long timeSlice,
+                                                            boolean createRollupStatistics,
+                                                            int histogramPrecision) throws Exception {
+        MappedStopWatchLogIterator stopWatches = new MappedStopWatchLogIterator(logFile);
+        try {
+            return toList(new GroupingStatisticsIterator(stopWatches, timeSlice, createRollupStatistics,
+                                                         TimeUnit.MILLISECONDS, histogramPrecision));
+        } finally {
+            stopWatches.close();
+        }
+    }
+
+    private List<GroupedTimingStatistics> parseInParallel(long timeSlice,
+                                                          boolean createRollupStatistics,
+                                                          int histogramPrecision,
+                                                          int threads) throws Exception {
+        ParallelGroupingStatisticsIterator iter =
+                new ParallelGroupingStatisticsIterator(logFile, null, timeSlice, createRollupStatistics,
+                                                       TimeUnit.MILLISECONDS, histogramPrecision, threads);
+        try {
+            return toList(iter);
+        } finally {
+            iter.close();
+        }
+    }
+
+    private List<GroupedTimingStatistics> toList(Iterator<GroupedTimingStatistics> iter) {
+        List<GroupedTimingStatistics> retVal = new ArrayList<GroupedTimingStatistics>();
+        while (iter.hasNext()) {
+            retVal.add(iter.next());
+        }
+        return retVal;
+    }
+}
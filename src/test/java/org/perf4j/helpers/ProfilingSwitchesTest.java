@@ -0,0 +1,110 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Tests the ProfilingSwitches.
+ */
+public class ProfilingSwitchesTest extends TestCase {
+
+    public void testTagRules() throws Exception {
+        ProfilingSwitches switches = new ProfilingSwitches();
+        assertTrue(switches.isEnabled("dao.find", "org.perf4j.TimingLogger"));
+
+        long version = switches.getVersion();
+        switches.disableTag("dao.");
+        assertTrue(switches.getVersion() != version);
+        assertFalse(switches.isEnabled("dao.find", null));
+        assertFalse(switches.isEnabled("dao.", null));
+        assertTrue(switches.isEnabled("dao", null));
+        assertTrue(switches.isEnabled("daoX", null));
+        assertTrue(switches.isEnabled(null, null));
+
+        //the longest matching prefix wins
+        switches.enableTag("dao.findById");
+        switches.disableTag("dao.findByIdAndName");
+        assertFalse(switches.isEnabled("dao.find", null));
+        assertTrue(switches.isEnabled("dao.findById.success", null));
+        assertFalse(switches.isEnabled("dao.findByIdAndName", null));
+        assertTrue(Arrays.equals(new String[] {"dao.=disabled", "dao.findById=enabled", "dao.findByIdAndName=disabled"},
+                                 switches.getTagRules()));
+
+        switches.removeTagRule("dao.findById");
+        switches.removeTagRule("notARule");
+        assertFalse(switches.isEnabled("dao.findById", null));
+        assertTrue(Arrays.equals(new String[] {"dao.=disabled", "dao.findByIdAndName=disabled"},
+                                 switches.getTagRules()));
+
+        //the empty prefix matches all tags
+        switches.disableTag("");
+        assertFalse(switches.isEnabled("other", null));
+
+        switches.removeAllRules();
+        assertEquals(0, switches.getTagRules().length);
+        assertTrue(switches.isEnabled("dao.find", null));
+    }
+
+    public void testTagPrefixState() throws Exception {
+        ProfilingSwitches switches = new ProfilingSwitches();
+        assertEquals(Boolean.TRUE, switches.getTagPrefixState("dao."));
+
+        switches.disableTag("dao.");
+        assertEquals(Boolean.FALSE, switches.getTagPrefixState("dao.find_"));
+        assertEquals(Boolean.FALSE, switches.getTagPrefixState("dao."));
+        assertEquals(Boolean.TRUE, switches.getTagPrefixState("web."));
+        //some tags starting with "dao" are disabled, others aren't
+        assertNull(switches.getTagPrefixState("da"));
+
+        switches.enableTag("dao.find_5");
+        assertNull(switches.getTagPrefixState("dao.find_"));
+    }
+
+    public void testLoggerRules() throws Exception {
+        ProfilingSwitches switches = new ProfilingSwitches();
+        switches.disableLogger("com.example.");
+        switches.enableLogger("com.example.web");
+        assertFalse(switches.isEnabled("tag", "com.example.dao.Timing"));
+        assertTrue(switches.isEnabled("tag", "com.example.web.Timing"));
+        assertTrue(switches.isEnabled("tag", "org.perf4j.TimingLogger"));
+        assertTrue(switches.isEnabled("tag", null));
+        assertTrue(Arrays.equals(new String[] {"com.example.=disabled", "com.example.web=enabled"},
+                                 switches.getLoggerRules()));
+
+        switches.removeLoggerRule("com.example.");
+        assertTrue(switches.isEnabled("tag", "com.example.dao.Timing"));
+    }
+
+    public void testMBean() throws Exception {
+        assertTrue(ProfilingSwitches.registerDefaultMBean());
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(ProfilingSwitches.DEFAULT_MBEAN_NAME);
+        try {
+            mBeanServer.invoke(objectName, "disableTag", new Object[] {"jmx."}, new String[] {"java.lang.String"});
+            assertFalse(ProfilingSwitches.getDefault().isEnabled("jmx.tag", null));
+            assertTrue(Arrays.equals(new String[] {"jmx.=disabled"},
+                                     (String[]) mBeanServer.getAttribute(objectName, "TagRules")));
+        } finally {
+            ProfilingSwitches.getDefault().removeAllRules();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the RingBufferBlockingQueue and its use by the GenericAsyncCoalescingStatisticsAppender.
+ */
+public class RingBufferBlockingQueueTest extends TestCase {
+
+    public void testSingleThreaded() throws Exception {
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(5);
+        assertEquals(8, queue.getCapacity());
+        assertNull(queue.poll());
+        assertNull(queue.peek());
+        assertNull(queue.poll(1L, TimeUnit.MILLISECONDS));
+
+        //wrap around the ring a few times
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 8; i++) {
+                assertTrue(queue.offer(i));
+            }
+            assertFalse(queue.offer(8));
+            assertFalse(queue.offer(8, 1L, TimeUnit.MILLISECONDS));
+            assertEquals(8, queue.size());
+            assertEquals(0, queue.remainingCapacity());
+            assertEquals(Integer.valueOf(0), queue.peek());
+
+            List<Integer> drained = new ArrayList<Integer>();
+            assertEquals(3, queue.drainTo(drained, 3));
+            assertEquals(Integer.valueOf(3), queue.take());
+            assertEquals(4, queue.drainTo(drained));
+            assertEquals(7, drained.size());
+            assertEquals(Integer.valueOf(7), drained.get(6));
+            assertTrue(queue.isEmpty());
+        }
+
+        try {
+            queue.offer(null);
+            fail("Nulls are not allowed");
+        } catch (NullPointerException npe) {
+            //expected
+        }
+
+        assertEquals(RingBufferBlockingQueue.WaitStrategy.BUSY_SPIN,
+                     RingBufferBlockingQueue.WaitStrategy.forName("busy-spin"));
+        assertEquals(RingBufferBlockingQueue.WaitStrategy.BUSY_SPIN,
+                     RingBufferBlockingQueue.WaitStrategy.forName("BusySpin"));
+        assertEquals(RingBufferBlockingQueue.WaitStrategy.YIELD, RingBufferBlockingQueue.WaitStrategy.forName("yield"));
+        try {
+            RingBufferBlockingQueue.WaitStrategy.forName("sleep");
+            fail("Unknown wait strategy");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testIterator() throws Exception {
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(4);
+        assertFalse(queue.iterator().hasNext());
+
+        //move the head so that the snapshot wraps around the end of the ring
+        for (int i = 0; i < 6; i++) {
+            queue.offer(i);
+            if (i < 3) {
+                queue.poll();
+            }
+        }
+        queue.poll();
+        List<Integer> snapshot = new ArrayList<Integer>();
+        for (Integer element : queue) {
+            snapshot.add(element);
+        }
+        assertEquals(Arrays.asList(4, 5), snapshot);
+        assertTrue(queue.contains(5));
+        assertFalse(queue.contains(3));
+
+        //the snapshot is not affected by later changes
+        Iterator<Integer> iterator = queue.iterator();
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(Integer.valueOf(4), iterator.next());
+        try {
+            iterator.remove();
+            fail("Elements can't be removed through the iterator");
+        } catch (UnsupportedOperationException uoe) {
+            //expected
+        }
+    }
+
+    public void testMultipleProducers() throws Exception {
+        for (RingBufferBlockingQueue.WaitStrategy waitStrategy : RingBufferBlockingQueue.WaitStrategy.values()) {
+            final RingBufferBlockingQueue<Long> queue = new RingBufferBlockingQueue<Long>(16, waitStrategy);
+            final int numProducers = 4;
+            final int numPerProducer = 10000;
+
+            Thread[] producers = new Thread[numProducers];
+            for (int i = 0; i < numProducers; i++) {
+                final long producerNum = i;
+                producers[i] = new Thread() {
+                    public void run() {
+                        try {
+                            for (long j = 0; j < numPerProducer; j++) {
+                                queue.put(producerNum * numPerProducer + j);
+                            }
+                        } catch (InterruptedException ie) {
+                            //stops the producer
+                        }
+                    }
+                };
+                producers[i].start();
+            }
+
+            //each producer's elements must arrive in order, and none may be lost or duplicated
+            long[] lastSeen = new long[numProducers];
+            for (int i = 0; i < numProducers; i++) {
+                lastSeen[i] = i * (long) numPerProducer - 1;
+            }
+            for (int i = 0; i < numProducers * numPerProducer; i++) {
+                Long element = queue.poll(10L, TimeUnit.SECONDS);
+                assertNotNull(waitStrategy + " timed out", element);
+                int producerNum = (int) (element / numPerProducer);
+                assertEquals(lastSeen[producerNum] + 1, element.longValue());
+                lastSeen[producerNum] = element;
+            }
+            assertNull(queue.poll());
+
+            for (Thread producer : producers) {
+                producer.join();
+            }
+        }
+    }
+
+    public void testAppenderWithRingBuffer() throws Exception {
+        final List<GroupedTimingStatistics> statistics = new ArrayList<GroupedTimingStatistics>();
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setQueueType(GenericAsyncCoalescingStatisticsAppender.RING_BUFFER_QUEUE_TYPE);
+        appender.setWaitStrategy("yield");
+        appender.setTimeSlice(3600000L);
+        appender.start(new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+            public void handle(GroupedTimingStatistics groupedTimingStatistics) {
+                statistics.add(groupedTimingStatistics);
+            }
+
+            public void error(String errorMessage) {
+                fail(errorMessage);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            appender.append(new StopWatch(now, 10L, "tag", null).toString());
+            appender.append(new StopWatch(now, 20L, "tag", null));
+        }
+        appender.stop();
+
+        assertEquals(0, appender.getNumDiscardedMessages());
+        int count = 0;
+        for (GroupedTimingStatistics groupedTimingStatistics : statistics) {
+            count += groupedTimingStatistics.getStatisticsByTag().get("tag").getCount();
+        }
+        assertEquals(200, count);
+
+        appender.setQueueType("LinkedBlockingQueue");
+        try {
+            appender.start(null);
+            fail("Unknown queue type");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+}
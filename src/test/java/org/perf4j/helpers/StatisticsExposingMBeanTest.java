@@ -19,6 +19,7 @@ import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.TimingTestCase;
 import org.perf4j.StopWatch;
 
+import javax.management.AttributeNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanInfo;
 import javax.management.NotificationListener;
@@ -43,7 +44,7 @@ public class StatisticsExposingMBeanTest extends TimingTestCase {
 
         MBeanInfo mBeanInfo = mBean.getMBeanInfo();
         MBeanAttributeInfo[] attributeInfos = mBeanInfo.getAttributes();
-        assertEquals(mBean.getStatsValueRetrievers().size() * 2, attributeInfos.length);
+        assertEquals(StatsValueRetriever.DEFAULT_RETRIEVERS.size() * 2, attributeInfos.length);
 
         assertEquals(groupedTimingStats.getStatisticsByTag().get("tag").getMean(),
                      mBean.getAttribute("tagMean"));
@@ -58,6 +59,23 @@ public class StatisticsExposingMBeanTest extends TimingTestCase {
         assertEquals(((double) groupedTimingStats.getStatisticsByTag().get("tag").getCount()) /
                      ((double) (groupedTimingStats.getStopTime() - groupedTimingStats.getStartTime()) / 1000.0),
                      mBean.getAttribute("tagTPS"));
+        //percentiles are only exposed if histograms are tracked
+        try {
+            mBean.getAttribute("tagP99");
+            fail("Percentiles should not be exposed without histograms");
+        } catch (AttributeNotFoundException anfe) {
+            //expected
+        }
+
+        GroupedTimingStatistics histogramStats = new GroupedTimingStatistics();
+        histogramStats.setHistogramPrecision(2);
+        histogramStats.addStopWatches(this.testStopWatches);
+        mBean.updateCurrentTimingStatistics(histogramStats);
+        assertEquals(StatsValueRetriever.PERCENTILE_RETRIEVERS.size() * 2, mBean.getMBeanInfo().getAttributes().length);
+        assertEquals(histogramStats.getStatisticsByTag().get("tag").getPercentile(99.0),
+                     mBean.getAttribute("tagP99"));
+        assertEquals(histogramStats.getStatisticsByTag().get("tag").getMax(),
+                     mBean.getAttribute("tagP999"));
 
         //test notifications
         DummyNotificationListener notificationListener = new DummyNotificationListener();
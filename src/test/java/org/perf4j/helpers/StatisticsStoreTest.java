@@ -0,0 +1,247 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+import org.perf4j.TimingTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests the StatisticsStore.
+ */
+public class StatisticsStoreTest extends TimingTestCase {
+    private static final long[] RESOLUTIONS = {1000L, 10000L};
+    private static final long[] RETENTIONS = {5000L, Long.MAX_VALUE};
+
+    private File directory;
+    private File fineFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("perf4jStatisticsStore", "");
+        directory.delete();
+        fineFile = new File(directory, "statistics-1000.p4js");
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testAddAndQuery() throws Exception {
+        StatisticsStore store = new StatisticsStore(directory);
+        try {
+            store.add(createTimeSlice(0L, 30000L, "a", 10L, 20L));
+            store.add(createTimeSlice(30000L, 60000L, "a", 30L));
+            store.add(createTimeSlice(30000L, 60000L, "b", 40L));
+
+            GroupedTimingStatistics statistics = store.query(null, 0L, 60000L);
+            assertEquals(0L, statistics.getStartTime());
+            assertEquals(60000L, statistics.getStopTime());
+            assertEquals(3, statistics.getStatisticsByTag().get("a").getCount());
+            assertEquals(20.0, statistics.getStatisticsByTag().get("a").getMean(), 0.0);
+            assertEquals(1, statistics.getStatisticsByTag().get("b").getCount());
+
+            statistics = store.query(Collections.singleton("a"), 30000L, 40000L);
+            assertEquals(Collections.singleton("a"), statistics.getStatisticsByTag().keySet());
+            assertEquals(1, statistics.getStatisticsByTag().get("a").getCount());
+
+            assertNull(store.query(null, 60000L, 90000L));
+        } finally {
+            store.close();
+        }
+
+        //the statistics are still there when the store is reopened
+        store = new StatisticsStore(directory);
+        try {
+            GroupedTimingStatistics statistics = store.query(Arrays.asList("a", "b"), 0L, 60000L);
+            assertEquals(3, statistics.getStatisticsByTag().get("a").getCount());
+            assertEquals(30L, statistics.getStatisticsByTag().get("a").getPercentile(99));
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testCompaction() throws Exception {
+        GroupedTimingStatistics expected = new GroupedTimingStatistics();
+        StatisticsStore store = new StatisticsStore(directory, RESOLUTIONS, RETENTIONS);
+        try {
+            for (long time = 0L; time < 30000L; time += 1000L) {
+                GroupedTimingStatistics timeSlice = createTimeSlice(time, time + 1000L, "a", time / 100L, time / 10L);
+                store.add(timeSlice);
+                expected.merge(timeSlice);
+            }
+
+            //only the last 5 seconds are kept at the finest resolution
+            GroupedTimingStatistics statistics = store.query(null, 0L, 1000L);
+            assertEquals(0L, statistics.getStartTime());
+            assertEquals(10000L, statistics.getStopTime());
+            assertEquals(20, statistics.getStatisticsByTag().get("a").getCount());
+            statistics = store.query(null, 29000L, 30000L);
+            assertEquals(29000L, statistics.getStartTime());
+            assertEquals(2, statistics.getStatisticsByTag().get("a").getCount());
+
+            assertSameStatistics(expected, store.query(null, 0L, 30000L));
+
+            //statistics for a time that was already compacted are merged into the coarser level
+            store.add(createTimeSlice(500L, 1500L, "a", 5L));
+            assertEquals(21, store.query(null, 0L, 1000L).getStatisticsByTag().get("a").getCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testInterruptedCompaction() throws Exception {
+        StatisticsStore store = new StatisticsStore(directory, RESOLUTIONS, RETENTIONS);
+        for (long time = 0L; time < 10000L; time += 1000L) {
+            store.add(createTimeSlice(time, time + 1000L, "a", 10L));
+        }
+        store.close();
+        byte[] fineData = readFile(fineFile);
+
+        store = new StatisticsStore(directory, RESOLUTIONS, RETENTIONS);
+        store.add(createTimeSlice(15000L, 16000L, "a", 10L));
+        store.close();
+
+        //restoring the fine level simulates a process that died before the compacted records were removed
+        writeFile(fineFile, fineData, false);
+        store = new StatisticsStore(directory, RESOLUTIONS, RETENTIONS);
+        try {
+            assertEquals(10, store.query(null, 0L, 10000L).getStatisticsByTag().get("a").getCount());
+            store.compact();
+            assertEquals(10, store.query(null, 0L, 10000L).getStatisticsByTag().get("a").getCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testCompactionInterruptedWhileMerging() throws Exception {
+        //without retention nothing is compacted, so the fine level holds two time slices of the coarse level
+        StatisticsStore store = new StatisticsStore(directory, RESOLUTIONS, new long[] {Long.MAX_VALUE, Long.MAX_VALUE});
+        for (long time = 0L; time < 20000L; time += 1000L) {
+            store.add(createTimeSlice(time, time + 1000L, "a", 10L));
+        }
+        store.close();
+        byte[] fineData = readFile(fineFile);
+
+        store = new StatisticsStore(directory, RESOLUTIONS, RETENTIONS);
+        store.add(createTimeSlice(25000L, 26000L, "a", 10L));
+        store.close();
+
+        //the process died after the first merged time slice was written to the coarse level: the start marker and the
+        //first time slice are kept, and the fine level was not rewritten yet
+        File coarseFile = new File(directory, "statistics-10000.p4js");
+        byte[] coarseData = readFile(coarseFile);
+        //each record has a 36 byte header, which starts with the length of the statistics
+        int firstSliceEnd = 2 * 36 + new DataInputStream(new ByteArrayInputStream(coarseData, 36, 4)).readInt();
+        byte[] truncatedCoarseData = new byte[firstSliceEnd];
+        System.arraycopy(coarseData, 0, truncatedCoarseData, 0, firstSliceEnd);
+        writeFile(coarseFile, truncatedCoarseData, false);
+        writeFile(fineFile, fineData, false);
+
+        store = new StatisticsStore(directory, RESOLUTIONS, RETENTIONS);
+        try {
+            //no statistics are lost or counted twice
+            assertEquals(20, store.query(null, 0L, 20000L).getStatisticsByTag().get("a").getCount());
+            store.compact();
+            assertEquals(20, store.query(null, 0L, 20000L).getStatisticsByTag().get("a").getCount());
+            assertEquals(10, store.query(null, 0L, 10000L).getStatisticsByTag().get("a").getCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testTornRecord() throws Exception {
+        StatisticsStore store = new StatisticsStore(directory);
+        store.add(createTimeSlice(0L, 30000L, "a", 10L));
+        store.close();
+
+        //a record that was only partially written is dropped
+        writeFile(fineFile, new byte[] {0, 0, 1, 0, 0, 0, 0}, true);
+        writeFile(new File(directory, "statistics-30000.p4js"), new byte[] {0, 0, 1, 0, 0, 0, 0}, true);
+        store = new StatisticsStore(directory);
+        try {
+            store.add(createTimeSlice(30000L, 60000L, "a", 20L));
+            assertEquals(2, store.query(null, 0L, 60000L).getStatisticsByTag().get("a").getCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    private GroupedTimingStatistics createTimeSlice(long startTime, long stopTime, String tag, long... elapsedTimes) {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setHistogramPrecision(2);
+        retVal.setStartTime(startTime);
+        retVal.setStopTime(stopTime);
+        for (long elapsedTime : elapsedTimes) {
+            retVal.addStopWatch(new StopWatch(startTime, elapsedTime, tag, null));
+        }
+        return retVal;
+    }
+
+    private void assertSameStatistics(GroupedTimingStatistics expected, GroupedTimingStatistics actual) {
+        assertEquals(expected.getStatisticsByTag().keySet(), actual.getStatisticsByTag().keySet());
+        for (String tag : expected.getStatisticsByTag().keySet()) {
+            TimingStatistics expectedStats = expected.getStatisticsByTag().get(tag);
+            TimingStatistics actualStats = actual.getStatisticsByTag().get(tag);
+            assertEquals(expectedStats.getCount(), actualStats.getCount());
+            assertEquals(expectedStats.getMean(), actualStats.getMean(), 0.0001);
+            assertEquals(expectedStats.getStandardDeviation(), actualStats.getStandardDeviation(), 0.0001);
+            assertEquals(expectedStats.getMin(), actualStats.getMin());
+            assertEquals(expectedStats.getMax(), actualStats.getMax());
+            assertEquals(expectedStats.getPercentile(50), actualStats.getPercentile(50));
+            assertEquals(expectedStats.getPercentile(99), actualStats.getPercentile(99));
+        }
+    }
+
+    private byte[] readFile(File file) throws Exception {
+        byte[] retVal = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < retVal.length) {
+                offset += in.read(retVal, offset, retVal.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return retVal;
+    }
+
+    private void writeFile(File file, byte[] data, boolean append) throws Exception {
+        FileOutputStream out = new FileOutputStream(file, append);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
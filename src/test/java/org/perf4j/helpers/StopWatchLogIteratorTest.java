@@ -44,6 +44,41 @@ public class StopWatchLogIteratorTest extends TimingTestCase {
         }
     }
 
+    public void testScanningStopWatchParser() throws Exception {
+        StopWatchLogIterator logIterator =
+                new StopWatchLogIterator(new StringReader(testLog), new ScanningStopWatchParser());
+
+        List<StopWatch> deserializedStopWatches = new ArrayList<StopWatch>();
+
+        while (logIterator.hasNext()) {
+            deserializedStopWatches.add(logIterator.next());
+        }
+
+        assertEquals(testStopWatches, deserializedStopWatches);
+    }
+
+    public void testSingleMatchPerLineParser() throws Exception {
+        //a parser that reads its own line format is passed whole lines when it parses a single match per line
+        StopWatchParser csvParser = new StopWatchParser() {
+            public boolean isSingleMatchPerLine() {
+                return true;
+            }
+
+            public StopWatch parseStopWatch(String message) {
+                String[] fields = message.split(",");
+                return (fields.length == 2) ? new StopWatch(0L, Long.parseLong(fields[1]), fields[0], null) : null;
+            }
+        };
+        StopWatchLogIterator logIterator =
+                new StopWatchLogIterator(new StringReader("tag1,10\nnot a StopWatch\ntag2,20\n"), csvParser);
+
+        assertTrue(logIterator.hasNext());
+        assertEquals(new StopWatch(0L, 10L, "tag1", null), logIterator.next());
+        assertTrue(logIterator.hasNext());
+        assertEquals(new StopWatch(0L, 20L, "tag2", null), logIterator.next());
+        assertFalse(logIterator.hasNext());
+    }
+
     public void testMultipleCallsToHasNext() throws Exception {
         for (StopWatchLogIterator iter = new StopWatchLogIterator(new StringReader(testLog)); iter.hasNext();) {
             assertTrue(iter.hasNext());
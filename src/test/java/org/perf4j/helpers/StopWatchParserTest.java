@@ -18,6 +18,9 @@ package org.perf4j.helpers;
 import junit.framework.TestCase;
 import org.perf4j.StopWatch;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests the StopWatchParser class.
  */
@@ -36,4 +39,103 @@ public class StopWatchParserTest extends TestCase {
 
         assertNull(parser.match("not a stop watch string"));
     }
+
+    public void testTimeUnits() throws Exception {
+        for (StopWatchParser parser : new StopWatchParser[] { new StopWatchParser(), new ScanningStopWatchParser() }) {
+            for (TimeUnit timeUnit : new TimeUnit[] { TimeUnit.NANOSECONDS,
+                                                      TimeUnit.MICROSECONDS,
+                                                      TimeUnit.MILLISECONDS,
+                                                      TimeUnit.SECONDS }) {
+                StopWatch stopWatch = new StopWatch(123, 456, timeUnit, "tag", "message");
+                assertEquals(stopWatch, parser.parseStopWatch(stopWatch.toString()));
+            }
+
+            //old logs, and logs with an explicit ms marker, are in milliseconds
+            assertEquals(new StopWatch(1, 2, "tag", null), parser.parseStopWatch("start[1] time[2] tag[tag]"));
+            assertEquals(new StopWatch(1, 2, "tag", null), parser.parseStopWatch("start[1] time[2ms] tag[tag]"));
+            assertEquals(TimeUnit.MICROSECONDS,
+                         parser.parseStopWatch("start[1] time[2us] tag[tag]").getTimeUnit());
+
+            assertNull(parser.parseStopWatch("start[1] time[2xs] tag[tag]"));
+            assertNull(parser.parseStopWatch("start[1] time[us] tag[tag]"));
+        }
+    }
+
+    public void testCallCounts() throws Exception {
+        for (StopWatchParser parser : new StopWatchParser[] { new StopWatchParser(), new ScanningStopWatchParser() }) {
+            StopWatch stopWatch = new StopWatch(123, 456, "tag", "message").setCallCount(50);
+            assertEquals("start[123] time[456] tag[tag] message[message] calls[50]", stopWatch.toString());
+            assertEquals(stopWatch, parser.parseStopWatch(stopWatch.toString()));
+
+            stopWatch = new StopWatch(123, 456, TimeUnit.MICROSECONDS, "tag", null).setCallCount(7);
+            assertEquals(stopWatch, parser.parseStopWatch(stopWatch.toString()));
+            assertEquals(1, parser.parseStopWatch("start[1] time[2] tag[tag] calls[]").getCallCount());
+            assertEquals(1, parser.parseStopWatch("start[1] time[2] tag[tag] calls[0]").getCallCount());
+            //a call count that doesn't fit in an int is ignored
+            assertEquals(1, parser.parseStopWatch("start[1] time[2] tag[tag] calls[99999999999]").getCallCount());
+        }
+
+        //group 5 of a custom pattern is not the call count
+        StopWatchParser customParser =
+                new StopWatchParser("start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\]( )?(x)?");
+        assertEquals(1, customParser.parseStopWatch("start[1] time[2] tag[tag] x").getCallCount());
+
+        //an unsampled StopWatch is written as before
+        assertEquals("start[1] time[2] tag[tag]", new StopWatch(1, 2, "tag", null).setCallCount(1).toString());
+    }
+
+    public void testScanningStopWatchParser() throws Exception {
+        StopWatchParser regexParser = new StopWatchParser();
+        StopWatchParser parser = new ScanningStopWatchParser();
+
+        StopWatch stopWatch = new StopWatch(123, 456, "tag", "message");
+        assertEquals(stopWatch, parser.parseStopWatch(stopWatch.toString()));
+
+        stopWatch = new StopWatch(789, 101112, "tag2", null);
+        assertEquals(stopWatch, parser.parseStopWatch(stopWatch.toString()));
+
+        //tags should be deduplicated
+        assertSame(parser.parseStopWatch("start[1] time[2] tag[dedupedTag]").getTag(),
+                   parser.parseStopWatch("prefix start[3] time[4] tag[dedupedTag] message[m]").getTag());
+
+        assertNull(parser.parseStopWatch("not a stop watch string"));
+        assertNull(parser.parseStopWatch("start[1] time[] tag[tag]"));
+        assertNull(parser.parseStopWatch("start[99999999999999999999] time[1] tag[tag]"));
+
+        //results must be identical to the regex parser
+        String[] messages = {
+                "2009-01-01 12:00:00 INFO start[1230448905165] time[704] tag[someTag] message[some message]",
+                "start[1] time[2] tag[tag] message[unclosed",
+                "start[1] time[2] tag[tag]message[noSpace]",
+                "start[1] time[2] tag[a]b] message[c]",
+                "start[x] start[1] time[2] tag[second]",
+                "start[1] time[2] tag[unclosed",
+                "start[1] time[2] tag[] message[]",
+                "start[1] time[2us] tag[micros] message[m]",
+                "start[1] time[2u] tag[bad]",
+                "start[1] time[2s]] tag[bad]",
+                "start[1] time[2] tag[tag] message[m] calls[3]",
+                "start[1] time[2] tag[tag] calls[3",
+                "start[1] time[2] tag[tag] calls[x]",
+        };
+        for (String message : messages) {
+            assertEquals(message, regexParser.parseStopWatch(message), parser.parseStopWatch(message));
+        }
+    }
+
+    public void testTagFilter() throws Exception {
+        TagFilter tagFilter = new TagFilter(Arrays.asList("db.*", "web"), Arrays.asList("db.slow"));
+        for (StopWatchParser parser : new StopWatchParser[] { new StopWatchParser(), new ScanningStopWatchParser() }) {
+            parser.setTagFilter(tagFilter);
+            assertEquals("db.select", parser.parseStopWatch("start[1] time[2] tag[db.select]").getTag());
+            assertEquals("web", parser.parseStopWatch("INFO start[1] time[2] tag[web] message[m]").getTag());
+            assertNull(parser.parseStopWatch("start[1] time[2] tag[db.slow]"));
+            assertNull(parser.parseStopWatch("start[1] time[2] tag[webapp]"));
+            //only the first StopWatch of a message is considered
+            assertNull(parser.parseStopWatch("start[1] time[2] tag[other] start[3] time[4] tag[web]"));
+
+            parser.setTagFilter(null);
+            assertEquals("db.slow", parser.parseStopWatch("start[1] time[2] tag[db.slow]").getTag());
+        }
+    }
 }
@@ -0,0 +1,117 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the StopWatchSampler.
+ */
+public class StopWatchSamplerTest extends TestCase {
+
+    public void testFixedInterval() throws Exception {
+        StopWatchSampler sampler = new StopWatchSampler();
+        assertEquals(1, sampler.sample("dao.find"));
+
+        sampler.sampleOneIn("dao.", 10);
+        sampler.sampleOneIn("dao.findById", 1);
+        assertTrue(Arrays.equals(new String[] {"dao.=1/10", "dao.findById=1/1"}, sampler.getRules()));
+        assertEquals(10, sampler.getCurrentInterval("dao.find"));
+        assertEquals(1, sampler.getCurrentInterval("web.index"));
+
+        int logged = 0;
+        int calls = 0;
+        for (int i = 0; i < 95; i++) {
+            int callCount = sampler.sample("dao.find");
+            if (callCount > 0) {
+                assertEquals(10, callCount);
+                logged++;
+                calls += callCount;
+            }
+            //the longest prefix wins, and tags without a rule are always logged
+            assertEquals(1, sampler.sample("dao.findById"));
+            assertEquals(1, sampler.sample("web.index"));
+            assertEquals(1, sampler.sample(null));
+        }
+        assertEquals(9, logged);
+        assertEquals(90, calls);
+
+        sampler.removeRule("dao.");
+        assertEquals(1, sampler.sample("dao.find"));
+        sampler.removeAllRules();
+        assertEquals(0, sampler.getRules().length);
+
+        try {
+            sampler.sampleOneIn("dao.", 0);
+            fail("The interval must be positive");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testConcurrentCallsAreCountedExactly() throws Exception {
+        final StopWatchSampler sampler = new StopWatchSampler();
+        sampler.sampleOneIn("", 7);
+        final AtomicInteger countedCalls = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 7000; j++) {
+                        countedCalls.addAndGet(sampler.sample("tag"));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(28000, countedCalls.get());
+    }
+
+    public void testTargetRate() throws Exception {
+        StopWatchSampler sampler = new StopWatchSampler();
+        sampler.sampleAtRate("hot", 10.0);
+        assertTrue(Arrays.equals(new String[] {"hot=10.0/s"}, sampler.getRules()));
+
+        //everything is logged until the call rate has been measured
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(1, sampler.sample("hot.method"));
+        }
+        Thread.sleep(1100L);
+        sampler.sample("hot.method");
+        int interval = sampler.getCurrentInterval("hot.method");
+        //about 10000 calls per second were made, so about one in 1000 calls should be logged
+        assertTrue("Unexpected interval " + interval, interval > 100 && interval <= 1000);
+
+        int calls = 0;
+        for (int i = 0; i < 10 * interval; i++) {
+            calls += sampler.sample("hot.method");
+        }
+        assertTrue(calls >= 9 * interval && calls <= 10 * interval + 1);
+
+        try {
+            sampler.sampleAtRate("hot", 0.0);
+            fail("The rate must be positive");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Tests the TagFilter class.
+ */
+public class TagFilterTest extends TestCase {
+
+    public void testIncludes() throws Exception {
+        TagFilter tagFilter = new TagFilter(Arrays.asList("exact", "db.*", "d*", "web.*.get", "rpc?", "regex:svc\\d+"),
+                                            null);
+        //exact tags
+        assertTrue(tagFilter.accept("exact"));
+        assertFalse(tagFilter.accept("exac"));
+        assertFalse(tagFilter.accept("exactly"));
+        //prefixes, including overlapping ones
+        assertTrue(tagFilter.accept("db."));
+        assertTrue(tagFilter.accept("db.select"));
+        assertTrue(tagFilter.accept("d"));
+        assertTrue(tagFilter.accept("dx"));
+        assertFalse(tagFilter.accept("x"));
+        assertFalse(tagFilter.accept(""));
+        //globs
+        assertTrue(tagFilter.accept("web.users.get"));
+        assertFalse(tagFilter.accept("web.users.post"));
+        assertTrue(tagFilter.accept("rpc1"));
+        assertFalse(tagFilter.accept("rpc12"));
+        //regexes must match the whole tag
+        assertTrue(tagFilter.accept("svc42"));
+        assertFalse(tagFilter.accept("svc42x"));
+    }
+
+    public void testExcludes() throws Exception {
+        TagFilter tagFilter = new TagFilter(null, Arrays.asList("db.*", "regex:.*\\.slow"));
+        assertTrue(tagFilter.accept("web"));
+        assertFalse(tagFilter.accept("db.select"));
+        assertFalse(tagFilter.accept("web.slow"));
+
+        tagFilter = new TagFilter(Arrays.asList("db.*"), Arrays.asList("db.slow"));
+        assertTrue(tagFilter.accept("db.fast"));
+        assertFalse(tagFilter.accept("db.slow"));
+        assertFalse(tagFilter.accept("web"));
+
+        //no patterns accept everything
+        assertTrue(new TagFilter(Collections.<String>emptyList(), null).accept("anything"));
+    }
+
+    public void testRegion() throws Exception {
+        TagFilter tagFilter = new TagFilter(Arrays.asList("db.*", "regex:^web$"), null);
+        String line = "start[1] time[2] tag[web] message[db.x]";
+        int tagStart = line.indexOf("tag[") + 4;
+        assertTrue(tagFilter.accept(line, tagStart, line.indexOf(']', tagStart)));
+        assertFalse(tagFilter.accept(line, tagStart, tagStart + 2));
+        int messageStart = line.indexOf("message[") + 8;
+        assertTrue(tagFilter.accept(line, messageStart, line.length() - 1));
+    }
+
+    public void testSplitPatterns() throws Exception {
+        assertEquals(Arrays.asList("a", "b.*"), TagFilter.splitPatterns("a, b.*,,"));
+        assertTrue(TagFilter.splitPatterns(null).isEmpty());
+
+        try {
+            new TagFilter(Arrays.asList("regex:("), null);
+            fail();
+        } catch (PatternSyntaxException pse) {
+            //expected
+        }
+    }
+}
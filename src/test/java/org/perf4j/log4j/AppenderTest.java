@@ -17,14 +17,21 @@ package org.perf4j.log4j;
 
 import junit.framework.TestCase;
 import org.apache.commons.io.FileUtils;
+import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.xml.DOMConfigurator;
+import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+import org.perf4j.helpers.StopWatchParser;
 
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
@@ -156,6 +163,46 @@ public class AppenderTest extends TestCase {
         assertTrue("Expected some stop watch messages to get discarded", appender.getNumDiscardedMessages() > 0);
     }
 
+    public void testStopWatchMessagesAreNotParsed() throws Exception {
+        Logger logger = Logger.getLogger("AppenderTest.stopWatchMessageTest");
+        AsyncCoalescingStatisticsAppender appender = new AsyncCoalescingStatisticsAppender();
+        appender.setName("stopWatchMessageTestAppender");
+        appender.setTimeSlice(60000);
+        appender.setStopWatchParserClassName(CountingStopWatchParser.class.getName());
+        final List<GroupedTimingStatistics> statistics = new ArrayList<GroupedTimingStatistics>();
+        appender.addAppender(new AppenderSkeleton() {
+            protected void append(LoggingEvent event) {
+                statistics.add((GroupedTimingStatistics) event.getMessage());
+            }
+
+            public boolean requiresLayout() { return false; }
+
+            public void close() { }
+        });
+        logger.addAppender(appender);
+        logger.setAdditivity(false);
+        logger.setLevel(Level.INFO);
+        appender.activateOptions();
+        CountingStopWatchParser.parseCount.set(0);
+
+        for (int i = 0; i < 10; i++) {
+            new Log4JStopWatch("fastPath", logger).stop();
+        }
+        //plain strings must still work
+        logger.info(new StopWatch("slowPath").stop());
+
+        appender.close();
+
+        int totalCount = 0;
+        for (GroupedTimingStatistics groupedStatistics : statistics) {
+            for (TimingStatistics timingStatistics : groupedStatistics.getStatisticsByTag().values()) {
+                totalCount += timingStatistics.getCount();
+            }
+        }
+        assertEquals(11, totalCount);
+        assertEquals(1, CountingStopWatchParser.parseCount.get());
+    }
+
     public void testCsvRenderer() throws Exception {
         DOMConfigurator.configure(getClass().getResource("log4jWCsv.xml"));
 
@@ -203,6 +250,15 @@ public class AppenderTest extends TestCase {
         }
     }
 
+    public static class CountingStopWatchParser extends StopWatchParser {
+        protected static final AtomicInteger parseCount = new AtomicInteger();
+
+        public StopWatch parseStopWatch(String message) {
+            parseCount.incrementAndGet();
+            return super.parseStopWatch(message);
+        }
+    }
+
     protected static class TestLoggingThread extends Thread {
         protected static final AtomicInteger index = new AtomicInteger();
 
@@ -19,18 +19,25 @@ package org.perf4j.logback;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import junit.framework.TestCase;
 import org.apache.commons.io.FileUtils;
+import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+import org.perf4j.helpers.StopWatchParser;
 import org.perf4j.slf4j.Slf4JStopWatch;
 import org.slf4j.LoggerFactory;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
 
 /**
  * This class tests the logback appenders.
@@ -99,6 +106,48 @@ public class AppenderTest extends TestCase {
         assertTrue("Expected some stop watch messages to get discarded", appender.getNumDiscardedMessages() > 0);
     }
 
+    public void testStopWatchMessagesAreNotParsed() throws Exception {
+        LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+        Logger logger = lc.getLogger("AppenderTest.stopWatchMessageTest");
+        AsyncCoalescingStatisticsAppender appender = new AsyncCoalescingStatisticsAppender();
+        appender.setContext(lc);
+        appender.setName("stopWatchMessageTestAppender");
+        appender.setTimeSlice(60000);
+        appender.setStopWatchParserClassName(CountingStopWatchParser.class.getName());
+        final List<GroupedTimingStatistics> statistics = new ArrayList<GroupedTimingStatistics>();
+        AppenderBase<LoggingEvent> downstreamAppender = new AppenderBase<LoggingEvent>() {
+            protected void append(LoggingEvent event) {
+                statistics.add((GroupedTimingStatistics) event.getArgumentArray()[0]);
+            }
+        };
+        downstreamAppender.setContext(lc);
+        downstreamAppender.start();
+        appender.addAppender(downstreamAppender);
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        logger.setLevel(Level.INFO);
+        appender.start();
+        CountingStopWatchParser.parseCount.set(0);
+
+        for (int i = 0; i < 10; i++) {
+            new Slf4JStopWatch("fastPath", logger).stop();
+        }
+        //plain strings must still work
+        logger.info(new StopWatch("slowPath").stop());
+
+        appender.stop();
+
+        int totalCount = 0;
+        for (GroupedTimingStatistics groupedStatistics : statistics) {
+            for (TimingStatistics timingStatistics : groupedStatistics.getStatisticsByTag().values()) {
+                totalCount += timingStatistics.getCount();
+            }
+        }
+        assertEquals(11, totalCount);
+        //only the plain string was parsed, the StopWatches of the Slf4JStopWatches were used directly
+        assertEquals(1, CountingStopWatchParser.parseCount.get());
+    }
+
     public void testCsvRenderer() throws Exception {
         LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
         JoranConfigurator configurator = new JoranConfigurator();
@@ -152,6 +201,15 @@ public class AppenderTest extends TestCase {
         }
     }
 
+    public static class CountingStopWatchParser extends StopWatchParser {
+        protected static final AtomicInteger parseCount = new AtomicInteger();
+
+        public StopWatch parseStopWatch(String message) {
+            parseCount.incrementAndGet();
+            return super.parseStopWatch(message);
+        }
+    }
+
     protected static class TestLoggingThread extends Thread {
         protected static final AtomicInteger index = new AtomicInteger();
 